@@ -145,396 +145,355 @@ public class Daemon {
             }
             int old = 0, nnew = 0, invalid = 0, conflict = 0, total = 0;
             int deleted = 0;
-            for (Map.Entry<String, HostTxtEntry> entry : addressbook) {
-                total++;
-                // may be null for 'remove' entries
-                String key = entry.getKey();
-                boolean isKnown;
-                // NOT set for text file NamingService
-                Destination oldDest;
-                if (isTextFile) {
-                    if (knownNames == null) {
-                        // load the hostname set
-                        Properties opts = new Properties();
-                        opts.setProperty("file", "hosts.txt");
-                        knownNames = router.getNames(opts);
-                    }
-                    oldDest = null;
-                    isKnown = key != null ? knownNames.contains(key) : null;
-                } else {
-                    oldDest = key != null ? router.lookup(key) : null;
-                    isKnown = oldDest != null;
-                }
-                try {
-                    HostTxtEntry he = entry.getValue();
-                    Properties hprops = he.getProps();
-                    boolean mustValidate = MUST_VALIDATE || hprops != null;
-                    String action = hprops != null ? hprops.getProperty(HostTxtEntry.PROP_ACTION) : null;
-                    if (key == null && !he.hasValidRemoveSig()) {
-                        if (log != null) {
-                            log.append("Bad signature of action " + action + " for key " +
-                                       hprops.getProperty(HostTxtEntry.PROP_NAME) +
-                                       ". From: " + addressbook.getLocation());
-                        }
-                        invalid++;
-                    } else if (key != null && mustValidate && !he.hasValidSig()) {
-                        if (log != null) {
-                            log.append("Bad signature of action " + action + " for key " + key +
-                                       ". From: " + addressbook.getLocation());
+            // write the merge to the database at the end, not after every entry
+            router.startBulkUpdate();
+            try {
+                for (Map.Entry<String, HostTxtEntry> entry : addressbook) {
+                    total++;
+                    // may be null for 'remove' entries
+                    String key = entry.getKey();
+                    boolean isKnown;
+                    // NOT set for text file NamingService
+                    Destination oldDest;
+                    if (isTextFile) {
+                        if (knownNames == null) {
+                            // load the hostname set
+                            Properties opts = new Properties();
+                            opts.setProperty("file", "hosts.txt");
+                            knownNames = router.getNames(opts);
                         }
-                        invalid++;
-                    } else if (action != null || !isKnown) {
-                        if (key != null && AddressBook.isValidKey(key)) {
-                            Destination dest = new Destination(he.getDest());
-                            Properties props = new OrderedProperties();
-                            props.setProperty("s", addressbook.getLocation());
-                            boolean allowExistingKeyInPublished = false;
-                            if (mustValidate) {
-                                // sig checked above
-                                props.setProperty("v", "true");
+                        oldDest = null;
+                        isKnown = key != null ? knownNames.contains(key) : null;
+                    } else {
+                        oldDest = key != null ? router.lookup(key) : null;
+                        isKnown = oldDest != null;
+                    }
+                    try {
+                        HostTxtEntry he = entry.getValue();
+                        Properties hprops = he.getProps();
+                        boolean mustValidate = MUST_VALIDATE || hprops != null;
+                        String action = hprops != null ? hprops.getProperty(HostTxtEntry.PROP_ACTION) : null;
+                        if (key == null && !he.hasValidRemoveSig()) {
+                            if (log != null) {
+                                log.append("Bad signature of action " + action + " for key " +
+                                           hprops.getProperty(HostTxtEntry.PROP_NAME) +
+                                           ". From: " + addressbook.getLocation());
                             }
-                            if (hprops != null) {
-                                // merge in all the received properties
-                                for (Map.Entry<Object, Object> e : hprops.entrySet()) {
-                                    // Add prefix to indicate received property
-                                    props.setProperty(RCVD_PROP_PREFIX + e.getKey(), (String) e.getValue());
-                                }
+                            invalid++;
+                        } else if (key != null && mustValidate && !he.hasValidSig()) {
+                            if (log != null) {
+                                log.append("Bad signature of action " + action + " for key " + key +
+                                           ". From: " + addressbook.getLocation());
                             }
-                            if (action != null) {
-                                // Process commands. hprops is non-null.
-                                // Must handle isKnown in each case.
-                                if (action.equals(HostTxtEntry.ACTION_ADDDEST)) {
-                                    // Add an alternate destination (new crypto) for existing hostname
-                                    // Requires new NamingService support if the key exists
-                                    String polddest = hprops.getProperty(HostTxtEntry.PROP_OLDDEST);
-                                    if (polddest != null) {
-                                        Destination pod = new Destination(polddest);
-                                        List<Destination> pod2 = router.lookupAll(key);
-                                        if (pod2 == null) {
-                                            // we didn't know it before, so we'll add it
-                                            // check inner sig anyway
-                                            if (!he.hasValidInnerSig()) {
-                                                logInner(log, action, key, addressbook);
-                                                invalid++;
+                            invalid++;
+                        } else if (action != null || !isKnown) {
+                            if (key != null && AddressBook.isValidKey(key)) {
+                                Destination dest = new Destination(he.getDest());
+                                Properties props = new OrderedProperties();
+                                props.setProperty("s", addressbook.getLocation());
+                                boolean allowExistingKeyInPublished = false;
+                                if (mustValidate) {
+                                    // sig checked above
+                                    props.setProperty("v", "true");
+                                }
+                                if (hprops != null) {
+                                    // merge in all the received properties
+                                    for (Map.Entry<Object, Object> e : hprops.entrySet()) {
+                                        // Add prefix to indicate received property
+                                        props.setProperty(RCVD_PROP_PREFIX + e.getKey(), (String) e.getValue());
+                                    }
+                                }
+                                if (action != null) {
+                                    // Process commands. hprops is non-null.
+                                    // Must handle isKnown in each case.
+                                    if (action.equals(HostTxtEntry.ACTION_ADDDEST)) {
+                                        // Add an alternate destination (new crypto) for existing hostname
+                                        // Requires new NamingService support if the key exists
+                                        String polddest = hprops.getProperty(HostTxtEntry.PROP_OLDDEST);
+                                        if (polddest != null) {
+                                            Destination pod = new Destination(polddest);
+                                            List<Destination> pod2 = router.lookupAll(key);
+                                            if (pod2 == null) {
+                                                // we didn't know it before, so we'll add it
+                                                // check inner sig anyway
+                                                if (!he.hasValidInnerSig()) {
+                                                    logInner(log, action, key, addressbook);
+                                                    invalid++;
+                                                    continue;
+                                                }
+                                            } else if (pod2.contains(dest)) {
+                                                // we knew it before, with the same dest
+                                                old++;
                                                 continue;
-                                            }
-                                        } else if (pod2.contains(dest)) {
-                                            // we knew it before, with the same dest
-                                            old++;
-                                            continue;
-                                        } else if (pod2.contains(pod)) {
-                                            // checks out, so verify the inner sig
-                                            if (!he.hasValidInnerSig()) {
-                                                logInner(log, action, key, addressbook);
+                                            } else if (pod2.contains(pod)) {
+                                                // checks out, so verify the inner sig
+                                                if (!he.hasValidInnerSig()) {
+                                                    logInner(log, action, key, addressbook);
+                                                    invalid++;
+                                                    continue;
+                                                }
+                                                // TODO Requires NamingService support
+                                                // if (isTextFile), do we replace or not? check sigType.isAvailable()
+                                                boolean success = router.addDestination(key, dest, props);
+                                                if (log != null) {
+                                                    if (success)
+                                                        log.append("Additional address for " + key +
+                                                                   " added to address book. From: " + addressbook.getLocation());
+                                                    else
+                                                        log.append("Failed to add additional address for " + key +
+                                                                   " From: " + addressbook.getLocation());
+                                                }
+                                                // now update the published addressbook
+                                                // ditto
+                                                if (published != null) {
+                                                    if (publishedNS == null)
+                                                        publishedNS = new SingleFileNamingService(I2PAppContext.getGlobalContext(), published.getAbsolutePath());
+                                                    // FIXME this fails, no support in SFNS
+                                                    success = publishedNS.addDestination(key, dest, props);
+                                                    if (log != null && !success)
+                                                        log.append("Add to published address book " + published.getAbsolutePath() + " failed for " + key);
+                                                }
+                                                nnew++;
+                                                continue;
+                                            } else {
+                                                // mismatch, disallow
+                                                logMismatch(log, action, key, pod2, he.getDest(), addressbook);
                                                 invalid++;
                                                 continue;
                                             }
-                                            // TODO Requires NamingService support
-                                            // if (isTextFile), do we replace or not? check sigType.isAvailable()
-                                            boolean success = router.addDestination(key, dest, props);
-                                            if (log != null) {
-                                                if (success)
-                                                    log.append("Additional address for " + key +
-                                                               " added to address book. From: " + addressbook.getLocation());
-                                                else
-                                                    log.append("Failed to add additional address for " + key +
-                                                               " From: " + addressbook.getLocation());
-                                            }
-                                            // now update the published addressbook
-                                            // ditto
-                                            if (published != null) {
-                                                if (publishedNS == null)
-                                                    publishedNS = new SingleFileNamingService(I2PAppContext.getGlobalContext(), published.getAbsolutePath());
-                                                // FIXME this fails, no support in SFNS
-                                                success = publishedNS.addDestination(key, dest, props);
-                                                if (log != null && !success)
-                                                    log.append("Add to published address book " + published.getAbsolutePath() + " failed for " + key);
-                                            }
-                                            nnew++;
-                                            continue;
                                         } else {
-                                            // mismatch, disallow
-                                            logMismatch(log, action, key, pod2, he.getDest(), addressbook);
+                                            logMissing(log, action, key, addressbook);
                                             invalid++;
                                             continue;
                                         }
-                                    } else {
-                                        logMissing(log, action, key, addressbook);
-                                        invalid++;
-                                        continue;
-                                    }
-                                } else if (action.equals(HostTxtEntry.ACTION_ADDNAME)) {
-                                    // Add an alias for an existing hostname, same dest
-                                    if (isKnown) {
-                                        // could be same or different dest
-                                        old++;
-                                        continue;
-                                    }
-                                    String poldname = hprops.getProperty(HostTxtEntry.PROP_OLDNAME);
-                                    if (poldname != null) {
-                                        List<Destination> pod = router.lookupAll(poldname);
-                                        if (pod == null) {
-                                            // we didn't have the old one, so we'll add the new one
-                                        } else if (pod.contains(dest)) {
-                                            // checks out, so we'll add the new one
+                                    } else if (action.equals(HostTxtEntry.ACTION_ADDNAME)) {
+                                        // Add an alias for an existing hostname, same dest
+                                        if (isKnown) {
+                                            // could be same or different dest
+                                            old++;
+                                            continue;
+                                        }
+                                        String poldname = hprops.getProperty(HostTxtEntry.PROP_OLDNAME);
+                                        if (poldname != null) {
+                                            List<Destination> pod = router.lookupAll(poldname);
+                                            if (pod == null) {
+                                                // we didn't have the old one, so we'll add the new one
+                                            } else if (pod.contains(dest)) {
+                                                // checks out, so we'll add the new one
+                                            } else {
+                                                // mismatch, disallow
+                                                logMismatch(log, action, key, pod, he.getDest(), addressbook);
+                                                invalid++;
+                                                continue;
+                                            }
                                         } else {
-                                            // mismatch, disallow
-                                            logMismatch(log, action, key, pod, he.getDest(), addressbook);
+                                            logMissing(log, action, key, addressbook);
                                             invalid++;
                                             continue;
                                         }
-                                    } else {
-                                        logMissing(log, action, key, addressbook);
-                                        invalid++;
-                                        continue;
-                                    }
-                                } else if (action.equals(HostTxtEntry.ACTION_ADDSUBDOMAIN)) {
-                                    // add a subdomain with verification
-                                    if (isKnown) {
-                                        old++;
-                                        continue;
-                                    }
-                                    String polddest = hprops.getProperty(HostTxtEntry.PROP_OLDDEST);
-                                    String poldname = hprops.getProperty(HostTxtEntry.PROP_OLDNAME);
-                                    if (polddest != null && poldname != null) {
-                                        // check for valid subdomain
-                                        if (!AddressBook.isValidKey(poldname) ||
-                                            key.indexOf('.' + poldname) <= 0) {
-                                            if (log != null)
-                                                log.append("Action: " + action + " failed because" +
-                                                           " old name " + poldname +
-                                                           " is invalid" +
-                                                           ". From: " + addressbook.getLocation());
-                                            invalid++;
+                                    } else if (action.equals(HostTxtEntry.ACTION_ADDSUBDOMAIN)) {
+                                        // add a subdomain with verification
+                                        if (isKnown) {
+                                            old++;
                                             continue;
                                         }
-                                        Destination pod = new Destination(polddest);
-                                        List<Destination> pod2 = router.lookupAll(poldname);
-                                        if (pod2 == null) {
-                                            // we didn't have the old name
-                                            // check inner sig anyway
-                                            if (!he.hasValidInnerSig()) {
-                                                logInner(log, action, key, addressbook);
+                                        String polddest = hprops.getProperty(HostTxtEntry.PROP_OLDDEST);
+                                        String poldname = hprops.getProperty(HostTxtEntry.PROP_OLDNAME);
+                                        if (polddest != null && poldname != null) {
+                                            // check for valid subdomain
+                                            if (!AddressBook.isValidKey(poldname) ||
+                                                key.indexOf('.' + poldname) <= 0) {
+                                                if (log != null)
+                                                    log.append("Action: " + action + " failed because" +
+                                                               " old name " + poldname +
+                                                               " is invalid" +
+                                                               ". From: " + addressbook.getLocation());
                                                 invalid++;
                                                 continue;
                                             }
-                                        } else if (pod2.contains(pod)) {
-                                            // checks out, so verify the inner sig
-                                            if (!he.hasValidInnerSig()) {
-                                                logInner(log, action, key, addressbook);
+                                            Destination pod = new Destination(polddest);
+                                            List<Destination> pod2 = router.lookupAll(poldname);
+                                            if (pod2 == null) {
+                                                // we didn't have the old name
+                                                // check inner sig anyway
+                                                if (!he.hasValidInnerSig()) {
+                                                    logInner(log, action, key, addressbook);
+                                                    invalid++;
+                                                    continue;
+                                                }
+                                            } else if (pod2.contains(pod)) {
+                                                // checks out, so verify the inner sig
+                                                if (!he.hasValidInnerSig()) {
+                                                    logInner(log, action, key, addressbook);
+                                                    invalid++;
+                                                    continue;
+                                                }
+                                            } else {
+                                                // mismatch, disallow
+                                                logMismatch(log, action, key, pod2, polddest, addressbook);
                                                 invalid++;
                                                 continue;
                                             }
                                         } else {
-                                            // mismatch, disallow
-                                            logMismatch(log, action, key, pod2, polddest, addressbook);
+                                            logMissing(log, action, key, addressbook);
                                             invalid++;
                                             continue;
                                         }
-                                    } else {
-                                        logMissing(log, action, key, addressbook);
-                                        invalid++;
-                                        continue;
-                                    }
-                                } else if (action.equals(HostTxtEntry.ACTION_CHANGEDEST)) {
-                                    // change destination on an existing entry
-                                    // This removes all previous destinations under that hostname,
-                                    // is this what we want?
-                                    String polddest = hprops.getProperty(HostTxtEntry.PROP_OLDDEST);
-                                    if (polddest != null) {
-                                        Destination pod = new Destination(polddest);
-                                        List<Destination> pod2 = router.lookupAll(key);
-                                        if (pod2 == null) {
-                                            // we didn't have the old name
-                                            // check inner sig anyway
-                                            if (!he.hasValidInnerSig()) {
-                                                logInner(log, action, key, addressbook);
+                                    } else if (action.equals(HostTxtEntry.ACTION_CHANGEDEST)) {
+                                        // change destination on an existing entry
+                                        // This removes all previous destinations under that hostname,
+                                        // is this what we want?
+                                        String polddest = hprops.getProperty(HostTxtEntry.PROP_OLDDEST);
+                                        if (polddest != null) {
+                                            Destination pod = new Destination(polddest);
+                                            List<Destination> pod2 = router.lookupAll(key);
+                                            if (pod2 == null) {
+                                                // we didn't have the old name
+                                                // check inner sig anyway
+                                                if (!he.hasValidInnerSig()) {
+                                                    logInner(log, action, key, addressbook);
+                                                    invalid++;
+                                                    continue;
+                                                }
+                                            } else if (pod2.contains(dest)) {
+                                                // we already have the new dest
+                                                old++;
+                                                continue;
+                                            } else if (pod2.contains(pod)) {
+                                                // checks out, so verify the inner sig
+                                                if (!he.hasValidInnerSig()) {
+                                                    logInner(log, action, key, addressbook);
+                                                    invalid++;
+                                                    continue;
+                                                }
+                                                if (log != null) {
+                                                    if (pod2.size() == 1)
+                                                        log.append("Changing destination for " + key +
+                                                                   ". From: " + addressbook.getLocation());
+                                                    else
+                                                        log.append("Replacing " + pod2.size() + " destinations for " + key +
+                                                                   ". From: " + addressbook.getLocation());
+                                                }
+                                                allowExistingKeyInPublished = true;
+                                                props.setProperty("m", Long.toString(I2PAppContext.getGlobalContext().clock().now()));
+                                            } else {
+                                                // mismatch, disallow
+                                                logMismatch(log, action, key, pod2, polddest, addressbook);
                                                 invalid++;
                                                 continue;
                                             }
-                                        } else if (pod2.contains(dest)) {
-                                            // we already have the new dest
+                                        } else {
+                                            logMissing(log, action, key, addressbook);
+                                            invalid++;
+                                            continue;
+                                        }
+                                    } else if (action.equals(HostTxtEntry.ACTION_CHANGENAME)) {
+                                        // Delete old name, replace with new
+                                        // This removes all previous destinations under that hostname,
+                                        // is this what we want?
+                                        if (isKnown) {
                                             old++;
                                             continue;
-                                        } else if (pod2.contains(pod)) {
-                                            // checks out, so verify the inner sig
-                                            if (!he.hasValidInnerSig()) {
-                                                logInner(log, action, key, addressbook);
-                                                invalid++;
+                                        }
+                                        String poldname = hprops.getProperty(HostTxtEntry.PROP_OLDNAME);
+                                        if (poldname != null) {
+                                            List<Destination> pod = router.lookupAll(poldname);
+                                            if (pod == null) {
+                                                // we didn't have the old name
+                                            } else if (pod.contains(dest)) {
+                                                // checks out, so we'll delete it
+                                                if (knownNames != null)
+                                                    knownNames.remove(poldname);
+                                                boolean success = router.remove(poldname, dest);
+                                                if (success)
+                                                    deleted++;
+                                                if (log != null) {
+                                                    if (success)
+                                                        log.append("Removed: " + poldname +
+                                                                   " to be replaced with " + key +
+                                                                   ". From: " + addressbook.getLocation());
+                                                    else
+                                                        log.append("Remove failed for: " + poldname +
+                                                                   " to be replaced with " + key +
+                                                                   ". From: " + addressbook.getLocation());
+                                                }
+                                                // now update the published addressbook
+                                                if (published != null) {
+                                                    if (publishedNS == null)
+                                                        publishedNS = new SingleFileNamingService(I2PAppContext.getGlobalContext(), published.getAbsolutePath());
+                                                    success = publishedNS.remove(poldname, dest);
+                                                    if (log != null && !success)
+                                                        log.append("Remove from published address book " + published.getAbsolutePath() + " failed for " + poldname);
+                                                }
+                                            } else {
+                                                // mismatch, disallow
+                                                logMismatch(log, action, key, pod, he.getDest(), addressbook);
                                                 continue;
                                             }
-                                            if (log != null) {
-                                                if (pod2.size() == 1)
-                                                    log.append("Changing destination for " + key +
-                                                               ". From: " + addressbook.getLocation());
-                                                else
-                                                    log.append("Replacing " + pod2.size() + " destinations for " + key +
-                                                               ". From: " + addressbook.getLocation());
-                                            }
-                                            allowExistingKeyInPublished = true;
-                                            props.setProperty("m", Long.toString(I2PAppContext.getGlobalContext().clock().now()));
                                         } else {
-                                            // mismatch, disallow
-                                            logMismatch(log, action, key, pod2, polddest, addressbook);
+                                            logMissing(log, action, key, addressbook);
                                             invalid++;
                                             continue;
                                         }
-                                    } else {
-                                        logMissing(log, action, key, addressbook);
+                                    } else if (action.equals(HostTxtEntry.ACTION_REMOVE) ||
+                                               action.equals(HostTxtEntry.ACTION_REMOVEALL)) {
+                                        // w/o name=dest handled below
+                                        if (log != null)
+                                            log.append("Action: " + action + " with name=dest invalid" +
+                                                       ". From: " + addressbook.getLocation());
                                         invalid++;
                                         continue;
-                                    }
-                                } else if (action.equals(HostTxtEntry.ACTION_CHANGENAME)) {
-                                    // Delete old name, replace with new
-                                    // This removes all previous destinations under that hostname,
-                                    // is this what we want?
-                                    if (isKnown) {
-                                        old++;
-                                        continue;
-                                    }
-                                    String poldname = hprops.getProperty(HostTxtEntry.PROP_OLDNAME);
-                                    if (poldname != null) {
-                                        List<Destination> pod = router.lookupAll(poldname);
-                                        if (pod == null) {
-                                            // we didn't have the old name
-                                        } else if (pod.contains(dest)) {
-                                            // checks out, so we'll delete it
-                                            if (knownNames != null)
-                                                knownNames.remove(poldname);
-                                            boolean success = router.remove(poldname, dest);
-                                            if (success)
-                                                deleted++;
-                                            if (log != null) {
-                                                if (success)
-                                                    log.append("Removed: " + poldname +
-                                                               " to be replaced with " + key +
-                                                               ". From: " + addressbook.getLocation());
-                                                else
-                                                    log.append("Remove failed for: " + poldname +
-                                                               " to be replaced with " + key +
-                                                               ". From: " + addressbook.getLocation());
-                                            }
-                                            // now update the published addressbook
-                                            if (published != null) {
-                                                if (publishedNS == null)
-                                                    publishedNS = new SingleFileNamingService(I2PAppContext.getGlobalContext(), published.getAbsolutePath());
-                                                success = publishedNS.remove(poldname, dest);
-                                                if (log != null && !success)
-                                                    log.append("Remove from published address book " + published.getAbsolutePath() + " failed for " + poldname);
-                                            }
-                                        } else {
-                                            // mismatch, disallow
-                                            logMismatch(log, action, key, pod, he.getDest(), addressbook);
-                                            continue;
+                                    } else if (action.equals(HostTxtEntry.ACTION_UPDATE)) {
+                                        if (isKnown) {
+                                            allowExistingKeyInPublished = true;
+                                            props.setProperty("m", Long.toString(I2PAppContext.getGlobalContext().clock().now()));
                                         }
                                     } else {
-                                        logMissing(log, action, key, addressbook);
+                                        if (log != null)
+                                            log.append("Action: " + action + " unrecognized" +
+                                                       ". From: " + addressbook.getLocation());
                                         invalid++;
                                         continue;
                                     }
-                                } else if (action.equals(HostTxtEntry.ACTION_REMOVE) ||
-                                           action.equals(HostTxtEntry.ACTION_REMOVEALL)) {
-                                    // w/o name=dest handled below
-                                    if (log != null)
-                                        log.append("Action: " + action + " with name=dest invalid" +
-                                                   ". From: " + addressbook.getLocation());
-                                    invalid++;
-                                    continue;
-                                } else if (action.equals(HostTxtEntry.ACTION_UPDATE)) {
-                                    if (isKnown) {
-                                        allowExistingKeyInPublished = true;
-                                        props.setProperty("m", Long.toString(I2PAppContext.getGlobalContext().clock().now()));
-                                    }
-                                } else {
-                                    if (log != null)
-                                        log.append("Action: " + action + " unrecognized" +
-                                                   ". From: " + addressbook.getLocation());
-                                    invalid++;
-                                    continue;
+                                } // action != null
+                                boolean success = router.put(key, dest, props);
+                                if (log != null) {
+                                    if (success)
+                                        log.append("New address " + key +
+                                                   " added to address book. From: " + addressbook.getLocation());
+                                    else
+                                        log.append("Save to naming service " + router + " failed for new key " + key);
                                 }
-                            } // action != null
-                            boolean success = router.put(key, dest, props);
-                            if (log != null) {
-                                if (success)
-                                    log.append("New address " + key +
-                                               " added to address book. From: " + addressbook.getLocation());
-                                else
-                                    log.append("Save to naming service " + router + " failed for new key " + key);
-                            }
-                            // now update the published addressbook
-                            if (published != null) {
-                                if (publishedNS == null)
-                                    publishedNS = new SingleFileNamingService(I2PAppContext.getGlobalContext(), published.getAbsolutePath());
-                                if (allowExistingKeyInPublished)
-                                    success = publishedNS.put(key, dest, props);
-                                else
-                                    success = publishedNS.putIfAbsent(key, dest, props);
-                                if (log != null && !success) {
-                                    log.append("Save to published address book " + published.getAbsolutePath() + " failed for new key " + key);
-                                }
-                            }
-                            if (isTextFile)
-                                // keep track for later dup check
-                                knownNames.add(key);
-                            nnew++;
-                        } else if (key == null) {
-                            // 'remove' actions
-                            // isKnown is false
-                            if (action != null) {
-                                // Process commands. hprops is non-null.
-                                if (action.equals(HostTxtEntry.ACTION_REMOVE)) {
-                                    // delete this entry
-                                    String polddest = hprops.getProperty(HostTxtEntry.PROP_DEST);
-                                    String poldname = hprops.getProperty(HostTxtEntry.PROP_NAME);
-                                    if (polddest != null && poldname != null) {
-                                        Destination pod = new Destination(polddest);
-                                        List<Destination> pod2 = router.lookupAll(poldname);
-                                        if (pod2 != null && pod2.contains(pod)) {
-                                            if (knownNames != null && pod2.size() == 1)
-                                                knownNames.remove(poldname);
-                                            boolean success = router.remove(poldname, pod);
-                                            if (success)
-                                                deleted++;
-                                            if (log != null) {
-                                                if (success)
-                                                    log.append("Removed: " + poldname +
-                                                               " as requested" +
-                                                               ". From: " + addressbook.getLocation());
-                                                else
-                                                    log.append("Remove failed for: " + poldname +
-                                                               " as requested" +
-                                                               ". From: " + addressbook.getLocation());
-                                            }
-                                            // now update the published addressbook
-                                            if (published != null) {
-                                                if (publishedNS == null)
-                                                    publishedNS = new SingleFileNamingService(I2PAppContext.getGlobalContext(), published.getAbsolutePath());
-                                                success = publishedNS.remove(poldname, pod);
-                                                if (log != null && !success)
-                                                    log.append("Remove from published address book " + published.getAbsolutePath() + " failed for " + poldname);
-                                            }
-                                        } else if (pod2 != null) {
-                                            // mismatch, disallow
-                                            logMismatch(log, action, key, pod2, polddest, addressbook);
-                                            invalid++;
-                                        } else {
-                                            old++;
-                                        }
-                                    } else {
-                                        logMissing(log, action, "delete", addressbook);
-                                        invalid++;
+                                // now update the published addressbook
+                                if (published != null) {
+                                    if (publishedNS == null)
+                                        publishedNS = new SingleFileNamingService(I2PAppContext.getGlobalContext(), published.getAbsolutePath());
+                                    if (allowExistingKeyInPublished)
+                                        success = publishedNS.put(key, dest, props);
+                                    else
+                                        success = publishedNS.putIfAbsent(key, dest, props);
+                                    if (log != null && !success) {
+                                        log.append("Save to published address book " + published.getAbsolutePath() + " failed for new key " + key);
                                     }
-                                } else if (action.equals(HostTxtEntry.ACTION_REMOVEALL)) {
-                                    // delete all entries with this destination
-                                    String polddest = hprops.getProperty(HostTxtEntry.PROP_DEST);
-                                    // oldname is optional, but nice because not all books support reverse lookup
-                                    if (polddest != null) {
-                                        Destination pod = new Destination(polddest);
+                                }
+                                if (isTextFile)
+                                    // keep track for later dup check
+                                    knownNames.add(key);
+                                nnew++;
+                            } else if (key == null) {
+                                // 'remove' actions
+                                // isKnown is false
+                                if (action != null) {
+                                    // Process commands. hprops is non-null.
+                                    if (action.equals(HostTxtEntry.ACTION_REMOVE)) {
+                                        // delete this entry
+                                        String polddest = hprops.getProperty(HostTxtEntry.PROP_DEST);
                                         String poldname = hprops.getProperty(HostTxtEntry.PROP_NAME);
-                                        if (poldname != null) {
+                                        if (polddest != null && poldname != null) {
+                                            Destination pod = new Destination(polddest);
                                             List<Destination> pod2 = router.lookupAll(poldname);
                                             if (pod2 != null && pod2.contains(pod)) {
-                                                if (knownNames != null)
+                                                if (knownNames != null && pod2.size() == 1)
                                                     knownNames.remove(poldname);
                                                 boolean success = router.remove(poldname, pod);
                                                 if (success)
@@ -564,82 +523,129 @@ public class Daemon {
                                             } else {
                                                 old++;
                                             }
+                                        } else {
+                                            logMissing(log, action, "delete", addressbook);
+                                            invalid++;
                                         }
-                                        // reverse lookup, delete all
-                                        List<String> revs = router.reverseLookupAll(pod);
-                                        if (revs != null) {
-                                            for (String rev : revs) {
-                                                if (knownNames != null)
-                                                    knownNames.remove(rev);
-                                                boolean success = router.remove(rev, pod);
-                                                if (success)
-                                                    deleted++;
-                                                if (log != null) {
+                                    } else if (action.equals(HostTxtEntry.ACTION_REMOVEALL)) {
+                                        // delete all entries with this destination
+                                        String polddest = hprops.getProperty(HostTxtEntry.PROP_DEST);
+                                        // oldname is optional, but nice because not all books support reverse lookup
+                                        if (polddest != null) {
+                                            Destination pod = new Destination(polddest);
+                                            String poldname = hprops.getProperty(HostTxtEntry.PROP_NAME);
+                                            if (poldname != null) {
+                                                List<Destination> pod2 = router.lookupAll(poldname);
+                                                if (pod2 != null && pod2.contains(pod)) {
+                                                    if (knownNames != null)
+                                                        knownNames.remove(poldname);
+                                                    boolean success = router.remove(poldname, pod);
                                                     if (success)
-                                                        log.append("Removed: " + rev +
-                                                                   " as requested" +
-                                                                   ". From: " + addressbook.getLocation());
-                                                    else
-                                                        log.append("Remove failed for: " + rev +
-                                                                   " as requested" +
-                                                                   ". From: " + addressbook.getLocation());
+                                                        deleted++;
+                                                    if (log != null) {
+                                                        if (success)
+                                                            log.append("Removed: " + poldname +
+                                                                       " as requested" +
+                                                                       ". From: " + addressbook.getLocation());
+                                                        else
+                                                            log.append("Remove failed for: " + poldname +
+                                                                       " as requested" +
+                                                                       ". From: " + addressbook.getLocation());
+                                                    }
+                                                    // now update the published addressbook
+                                                    if (published != null) {
+                                                        if (publishedNS == null)
+                                                            publishedNS = new SingleFileNamingService(I2PAppContext.getGlobalContext(), published.getAbsolutePath());
+                                                        success = publishedNS.remove(poldname, pod);
+                                                        if (log != null && !success)
+                                                            log.append("Remove from published address book " + published.getAbsolutePath() + " failed for " + poldname);
+                                                    }
+                                                } else if (pod2 != null) {
+                                                    // mismatch, disallow
+                                                    logMismatch(log, action, key, pod2, polddest, addressbook);
+                                                    invalid++;
+                                                } else {
+                                                    old++;
                                                 }
-                                                // now update the published addressbook
-                                                if (published != null) {
-                                                    if (publishedNS == null)
-                                                        publishedNS = new SingleFileNamingService(I2PAppContext.getGlobalContext(), published.getAbsolutePath());
-                                                    success = publishedNS.remove(rev, pod);
-                                                    if (log != null && !success)
-                                                        log.append("Remove from published address book " + published.getAbsolutePath() + " failed for " + rev);
+                                            }
+                                            // reverse lookup, delete all
+                                            List<String> revs = router.reverseLookupAll(pod);
+                                            if (revs != null) {
+                                                for (String rev : revs) {
+                                                    if (knownNames != null)
+                                                        knownNames.remove(rev);
+                                                    boolean success = router.remove(rev, pod);
+                                                    if (success)
+                                                        deleted++;
+                                                    if (log != null) {
+                                                        if (success)
+                                                            log.append("Removed: " + rev +
+                                                                       " as requested" +
+                                                                       ". From: " + addressbook.getLocation());
+                                                        else
+                                                            log.append("Remove failed for: " + rev +
+                                                                       " as requested" +
+                                                                       ". From: " + addressbook.getLocation());
+                                                    }
+                                                    // now update the published addressbook
+                                                    if (published != null) {
+                                                        if (publishedNS == null)
+                                                            publishedNS = new SingleFileNamingService(I2PAppContext.getGlobalContext(), published.getAbsolutePath());
+                                                        success = publishedNS.remove(rev, pod);
+                                                        if (log != null && !success)
+                                                            log.append("Remove from published address book " + published.getAbsolutePath() + " failed for " + rev);
+                                                    }
                                                 }
                                             }
+                                        } else {
+                                            logMissing(log, action, "delete", addressbook);
+                                            invalid++;
                                         }
                                     } else {
-                                        logMissing(log, action, "delete", addressbook);
+                                        if (log != null)
+                                            log.append("Action: " + action + " w/o name=dest unrecognized" +
+                                                       ". From: " + addressbook.getLocation());
                                         invalid++;
                                     }
+                                    continue;
                                 } else {
                                     if (log != null)
-                                        log.append("Action: " + action + " w/o name=dest unrecognized" +
+                                        log.append("No action in command line" +
                                                    ". From: " + addressbook.getLocation());
                                     invalid++;
+                                    continue;
                                 }
-                                continue;
-                            } else {
-                                if (log != null)
-                                    log.append("No action in command line" +
-                                               ". From: " + addressbook.getLocation());
+                            } else if (log != null) {
+                                log.append("Bad hostname " + key + ". From: "
+                                       + addressbook.getLocation());
                                 invalid++;
-                                continue;
+                            }        
+                      /****
+                        } else if (false && DEBUG && log != null) {
+                            // lookup the conflict if we haven't yet (O(n**2) for text file)
+                            if (isTextFile)
+                                oldDest = router.lookup(key);
+                            if (oldDest != null && !oldDest.toBase64().equals(entry.getValue())) {
+                                log.append("Conflict for " + key + ". From: "
+                                           + addressbook.getLocation()
+                                           + ". Destination in remote address book is "
+                                           + entry.getValue());
+                                conflict++;
+                            } else {
+                                old++;
                             }
-                        } else if (log != null) {
-                            log.append("Bad hostname " + key + ". From: "
-                                   + addressbook.getLocation());
-                            invalid++;
-                        }        
-                  /****
-                    } else if (false && DEBUG && log != null) {
-                        // lookup the conflict if we haven't yet (O(n**2) for text file)
-                        if (isTextFile)
-                            oldDest = router.lookup(key);
-                        if (oldDest != null && !oldDest.toBase64().equals(entry.getValue())) {
-                            log.append("Conflict for " + key + ". From: "
-                                       + addressbook.getLocation()
-                                       + ". Destination in remote address book is "
-                                       + entry.getValue());
-                            conflict++;
+                       ****/
                         } else {
                             old++;
                         }
-                   ****/
-                    } else {
-                        old++;
+                    } catch (DataFormatException dfe) {
+                        if (log != null)
+                            log.append("Invalid b64 for " + key + " From: " + addressbook.getLocation());
+                        invalid++;
                     }
-                } catch (DataFormatException dfe) {
-                    if (log != null)
-                        log.append("Invalid b64 for " + key + " From: " + addressbook.getLocation());
-                    invalid++;
                 }
+            } finally {
+                router.endBulkUpdate();
             }
             if (DEBUG && log != null && total > 0) {
                 log.append("Merge of " + addressbook.getLocation() + " into " + router +
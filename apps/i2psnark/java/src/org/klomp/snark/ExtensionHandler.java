@@ -86,8 +86,7 @@ abstract class ExtensionHandler {
             log.debug("Got handshake msg from " + peer);
         try {
             // this throws NPE on missing keys
-            InputStream is = new ByteArrayInputStream(bs);
-            BDecoder dec = new BDecoder(is);
+            BDecoder dec = new BDecoder(bs);
             BEValue bev = dec.bdecodeMap();
             Map<String, BEValue> map = bev.getMap();
             peer.setHandshakeMap(map);
@@ -334,8 +333,7 @@ abstract class ExtensionHandler {
         if (log.shouldLog(Log.DEBUG))
             log.debug("Got PEX msg from " + peer);
         try {
-            InputStream is = new ByteArrayInputStream(bs);
-            BDecoder dec = new BDecoder(is);
+            BDecoder dec = new BDecoder(bs);
             BEValue bev = dec.bdecodeMap();
             Map<String, BEValue> map = bev.getMap();
             bev = map.get("added");
@@ -371,8 +369,7 @@ abstract class ExtensionHandler {
         if (log.shouldLog(Log.DEBUG))
             log.debug("Got DHT msg from " + peer);
         try {
-            InputStream is = new ByteArrayInputStream(bs);
-            BDecoder dec = new BDecoder(is);
+            BDecoder dec = new BDecoder(bs);
             BEValue bev = dec.bdecodeMap();
             Map<String, BEValue> map = bev.getMap();
             int qport = map.get("port").getInt();
@@ -70,6 +70,7 @@ public class I2PSnarkUtil {
     private boolean _areFilesPublic;
     private List<String> _openTrackers;
     private DHT _dht;
+    private final StorageIO _storageIO;
 
     private static final int EEPGET_CONNECT_TIMEOUT = 45*1000;
     private static final int EEPGET_CONNECT_TIMEOUT_SHORT = 5*1000;
@@ -109,6 +110,7 @@ public class I2PSnarkUtil {
         _tmpDir = new SecureDirectory(ctx.getTempDir(), baseName + '-' + ctx.random().nextInt());
         //FileUtil.rmdir(_tmpDir, false);
         _tmpDir.mkdirs();
+        _storageIO = new StorageIO(ctx);
     }
     
     /**
@@ -273,6 +275,12 @@ public class I2PSnarkUtil {
      */
     public DHT getDHT() { return _dht; }
 
+    /**
+     * Disk I/O shared by all torrents
+     * @since 0.9.27
+     */
+    public StorageIO getStorageIO() { return _storageIO; }
+
     public boolean connected() { return _manager != null; }
 
     /** @since 0.9.1 */
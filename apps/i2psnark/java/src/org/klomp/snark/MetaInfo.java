@@ -20,6 +20,7 @@
 
 package org.klomp.snark;
 
+import java.io.BufferedInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -113,7 +114,8 @@ public class MetaInfo
    */
   public MetaInfo(InputStream in) throws IOException
   {
-    this(new BDecoder(in));
+    // BDecoder reads a byte at a time
+    this(new BDecoder(new BufferedInputStream(in)));
   }
   
   /**
@@ -338,7 +340,7 @@ public class MetaInfo
    * @since 0.8.5
    */
   public static String getNameAndInfoHash(InputStream in, byte[] infoHashOut) throws IOException {
-      BDecoder bd = new BDecoder(in);
+      BDecoder bd = new BDecoder(new BufferedInputStream(in));
       Map<String, BEValue> m = bd.bdecodeMap().getMap();
       BEValue ibev = m.get("info");
       if (ibev == null)
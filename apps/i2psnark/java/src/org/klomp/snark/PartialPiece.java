@@ -275,6 +275,29 @@ class PartialPiece implements Comparable<PartialPiece> {
         }
     }
     
+    /**
+     *  Piece must be complete.
+     *  For serving a request for this piece before it is written to the torrent file.
+     *
+     *  @param offset offset in the piece
+     *  @param buf to copy into, starting at 0
+     *  @param len length to copy
+     *  @throws IOException if released
+     *  @since 0.9.27
+     */
+    public void getData(int offset, byte[] buf, int len) throws IOException {
+        if (bs != null) {
+            System.arraycopy(bs, offset, buf, 0, len);
+        } else {
+            synchronized (this) {
+                if (raf == null)
+                    throw new IOException();
+                raf.seek(offset);
+                raf.readFully(buf, 0, len);
+            }
+        }
+    }
+    
     /**
      *  Release all resources.
      *
@@ -302,6 +325,7 @@ class PartialPiece implements Comparable<PartialPiece> {
         } catch (IOException ioe) {
             I2PAppContext.getGlobalContext().logManager().getLog(PartialPiece.class).warn("Error closing " + raf, ioe);
         }
+        raf = null;
         tempfile.delete();
     }
 
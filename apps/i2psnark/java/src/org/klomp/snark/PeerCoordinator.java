@@ -115,10 +115,10 @@ class PeerCoordinator implements PeerListener
   private final byte[] id;
   private final byte[] infohash;
 
-  /** The wanted pieces. We could use a TreeSet but we'd have to clear and re-add everything
-   *  when priorities change.
+  /** The wanted pieces, indexed by piece number and ordered rarest-first.
+   *  As of 0.9.27; previously a List that was sorted for every request.
    */
-  private final List<Piece> wantedPieces;
+  private final WantedPieces wantedPieces;
 
   /** The total number of bytes in wantedPieces, or -1 if not yet known.
    *  Sync on wantedPieces.
@@ -153,7 +153,7 @@ class PeerCoordinator implements PeerListener
     this.listener = listener;
     this.snark = torrent;
 
-    wantedPieces = new ArrayList<Piece>();
+    wantedPieces = new WantedPieces();
     setWantedPieces();
     partialPieces = new ArrayList<PartialPiece>(getMaxConnections() + 1);
     peers = new LinkedBlockingDeque<Peer>();
@@ -199,6 +199,7 @@ class PeerCoordinator implements PeerListener
           BitField bitfield = storage.getBitField();
           int[] pri = storage.getPiecePriorities();
           long count = 0;
+          List<Piece> toAdd = new ArrayList<Piece>(metainfo.getPieces() - bitfield.count());
           for (int i = 0; i < metainfo.getPieces(); i++) {
               // only add if we don't have and the priority is >= 0
               if ((!bitfield.get(i)) &&
@@ -206,12 +207,16 @@ class PeerCoordinator implements PeerListener
                   Piece p = new Piece(i);
                   if (pri != null)
                       p.setPriority(pri[i]);
-                  wantedPieces.add(p);
+                  toAdd.add(p);
                   count += metainfo.getPieceLength(i);
               }
           }
           wantedBytes = count;
-          Collections.shuffle(wantedPieces, _random);
+          // random order among pieces with the same priority and availability
+          Collections.shuffle(toAdd, _random);
+          for (Piece p : toAdd) {
+              wantedPieces.add(p);
+          }
       }
   }
 
@@ -467,9 +472,7 @@ class PeerCoordinator implements PeerListener
     }
     // failsafe
     synchronized(wantedPieces) {
-        for (Piece pc : wantedPieces) {
-            pc.clear();
-        }
+        wantedPieces.clearPeers();
     }
     timer.schedule((CHECK_PERIOD / 2) + _random.nextInt((int) CHECK_PERIOD));
   }
@@ -680,13 +683,11 @@ class PeerCoordinator implements PeerListener
     //  listener.peerChange(this, peer);
 
     synchronized(wantedPieces) {
-        for (Piece pc : wantedPieces) {
-            if (pc.getId() == piece) {
-                pc.addPeer(peer);
-                return true;
-            }
-        }
-        return false;
+        Piece pc = wantedPieces.get(piece);
+        if (pc == null)
+            return false;
+        wantedPieces.addPeer(pc, peer);
+        return true;
     }
   }
 
@@ -701,11 +702,16 @@ class PeerCoordinator implements PeerListener
 
     boolean rv = false;
     synchronized(wantedPieces) {
-        for (Piece p : wantedPieces) {
-            int i = p.getId();
+        if (wantedPieces.isEmpty())
+            return false;
+        int sz = bitfield.size();
+        for (int i = 0; i < sz; i++) {
             if (bitfield.get(i)) {
-              p.addPeer(peer);
-              rv = true;
+              Piece p = wantedPieces.get(i);
+              if (p != null) {
+                  wantedPieces.addPeer(p, peer);
+                  rv = true;
+              }
             }
         }
     }
@@ -754,8 +760,7 @@ class PeerCoordinator implements PeerListener
     int wantedSize = END_GAME_THRESHOLD + 1;
     synchronized(wantedPieces)
       {
-        if (record)
-            Collections.sort(wantedPieces); // Sort in order of rarest first.
+        // highest priority, then rarest first
         Iterator<Piece> it = wantedPieces.iterator();
         while (piece == null && it.hasNext())
           {
@@ -857,17 +862,14 @@ class PeerCoordinator implements PeerListener
       List<Piece> toCancel = new ArrayList<Piece>();
       synchronized(wantedPieces) {
           // Add incomplete and previously unwanted pieces to the list
-          // Temp to avoid O(n**2)
-          BitField want = new BitField(pri.length);
-          for (Piece p : wantedPieces) {
-              want.set(p.getId());
-          }
+          List<Piece> toAdd = new ArrayList<Piece>();
           BitField bitfield = storage.getBitField();
           for (int i = 0; i < pri.length; i++) {
               if (pri[i] >= 0 && !bitfield.get(i)) {
-                  if (!want.get(i)) {
+                  if (!wantedPieces.contains(i)) {
                       Piece piece = new Piece(i);
-                      wantedPieces.add(piece);
+                      piece.setPriority(pri[i]);
+                      toAdd.add(piece);
                       wantedBytes += metainfo.getPieceLength(i);
                       // As connections are already up, new Pieces will
                       // not have their PeerID list populated, so do that.
@@ -882,22 +884,27 @@ class PeerCoordinator implements PeerListener
                   }
               }
           }
+          // if we added pieces, they will be in-order unless we shuffle
+          Collections.shuffle(toAdd, _random);
+          for (Piece p : toAdd) {
+              wantedPieces.add(p);
+          }
           // now set the new priorities and remove newly unwanted pieces
-          for (Iterator<Piece> iter = wantedPieces.iterator(); iter.hasNext(); ) {
-               Piece p = iter.next();
-               int priority = pri[p.getId()];
+          for (int i = 0; i < pri.length; i++) {
+               Piece p = wantedPieces.get(i);
+               if (p == null)
+                   continue;
+               int priority = pri[i];
                if (priority >= 0) {
-                   p.setPriority(priority);
+                   wantedPieces.setPriority(p, priority);
                } else {
-                   iter.remove();
+                   wantedPieces.remove(i);
                    toCancel.add(p);
-                   wantedBytes -= metainfo.getPieceLength(p.getId());
+                   wantedBytes -= metainfo.getPieceLength(i);
                }
           }
           if (_log.shouldLog(Log.DEBUG))
               _log.debug("Updated piece priorities, now wanted: " + wantedPieces);
-          // if we added pieces, they will be in-order unless we shuffle
-          Collections.shuffle(wantedPieces, _random);
       }
 
       // cancel outside of wantedPieces lock to avoid deadlocks
@@ -989,8 +996,8 @@ class PeerCoordinator implements PeerListener
     // try/catch outside the synch to avoid deadlock in the catch
     try {
       synchronized(wantedPieces) {
-        Piece p = new Piece(piece);
-        if (!wantedPieces.contains(p))
+        Piece p = wantedPieces.get(piece);
+        if (p == null)
           {
             _log.info("Got unwanted piece " + piece + "/" + metainfo.getPieces() +" from " + peer + " for " + metainfo.getName());
             
@@ -1005,6 +1012,7 @@ class PeerCoordinator implements PeerListener
           }
         
           // try/catch moved outside of synch
+            // generally queued for writing; if not,
             // this takes forever if complete, as it rechecks
             if (storage.putPiece(pp))
               {
@@ -1020,19 +1028,15 @@ class PeerCoordinator implements PeerListener
                 // Oops. We didn't actually download this then... :(
                 downloaded.addAndGet(0 - metainfo.getPieceLength(piece));
                 // Mark this peer as not having the piece. PeerState will update its bitfield.
-                for (Piece pc : wantedPieces) {
-                    if (pc.getId() == piece) {
-                        pc.removePeer(peer);
-                        break;
-                    }
-                }
+                if (p != null)
+                    wantedPieces.removePeer(p, peer);
                 if (_log.shouldWarn())
                     _log.warn("Got BAD piece " + piece + "/" + metainfo.getPieces() + " from " + peer + " for " + metainfo.getName());
                 return false; // No need to announce BAD piece to peers.
               }
 
-        wantedPieces.remove(p);
-        wantedBytes -= metainfo.getPieceLength(p.getId());
+        wantedPieces.remove(piece);
+        wantedBytes -= metainfo.getPieceLength(piece);
       }  // synch
     } catch (IOException ioe) {
             String msg = "Error writing storage (piece " + piece + ") for " + metainfo.getName() + ": " + ioe;
@@ -1140,10 +1144,7 @@ class PeerCoordinator implements PeerListener
    */
   private void removePeerFromPieces(Peer peer) {
       synchronized(wantedPieces) {
-          for (Piece piece : wantedPieces) {
-              piece.removePeer(peer);
-              piece.setRequested(peer, false);
-          }
+          wantedPieces.removePeer(peer);
       } 
   }
 
@@ -1235,29 +1236,28 @@ class PeerCoordinator implements PeerListener
               if (havePieces.get(savedPiece)) {
                  // this is just a double-check, it should be in there
                  boolean skipped = false;
-                 for(Piece piece : wantedPieces) {
-                     if (piece.getId() == savedPiece) {
-                         if (peer.isCompleted() && piece.getPeerCount() > 1 &&
-                             wantedPieces.size() > 2*END_GAME_THRESHOLD) {
-                             // Try to preserve rarest-first
-                             // by not requesting a partial piece that at least two non-seeders also have
-                             // from a seeder
-                             int nonSeeds = 0;
-                             for (Peer pr : peers) {
-                                 PeerState state = pr.state;
-                                 if (state == null) continue;
-                                 BitField bf = state.bitfield;
-                                 if (bf == null) continue;
-                                 if (bf.get(savedPiece) && !pr.isCompleted()) {
-                                     if (++nonSeeds > 1)
-                                         break;
-                                 }
-                             }
-                             if (nonSeeds > 1) {
-                                 skipped = true;
-                                 break;
+                 Piece piece = wantedPieces.get(savedPiece);
+                 if (piece != null) {
+                     if (peer.isCompleted() && piece.getPeerCount() > 1 &&
+                         wantedPieces.size() > 2*END_GAME_THRESHOLD) {
+                         // Try to preserve rarest-first
+                         // by not requesting a partial piece that at least two non-seeders also have
+                         // from a seeder
+                         int nonSeeds = 0;
+                         for (Peer pr : peers) {
+                             PeerState state = pr.state;
+                             if (state == null) continue;
+                             BitField bf = state.bitfield;
+                             if (bf == null) continue;
+                             if (bf.get(savedPiece) && !pr.isCompleted()) {
+                                 if (++nonSeeds > 1)
+                                     break;
                              }
                          }
+                         if (nonSeeds > 1)
+                             skipped = true;
+                     }
+                     if (!skipped) {
                          iter.remove();
                          piece.setRequested(peer, true);
                          if (_log.shouldLog(Log.INFO)) {
@@ -1265,8 +1265,8 @@ class PeerCoordinator implements PeerListener
                                        " Partial list size now: " + partialPieces.size());
                          }
                          return pp;
-                      }
-                  }
+                     }
+                 }
                   if (_log.shouldLog(Log.INFO)) {
                       if (skipped)
                           _log.info("Partial piece " + pp + " with multiple peers skipped for seeder");
@@ -1306,14 +1306,12 @@ class PeerCoordinator implements PeerListener
               int savedPiece = pp.getPiece();
               if (havePieces.get(savedPiece)) {
                  // this is just a double-check, it should be in there
-                 for(Piece piece : wantedPieces) {
-                     if (piece.getId() == savedPiece) {
-                         if (_log.shouldLog(Log.INFO)) {
-                             _log.info("We could restore orphaned partial piece " + pp);
-                         }
-                         return true;
-                      }
-                  }
+                 if (wantedPieces.contains(savedPiece)) {
+                     if (_log.shouldLog(Log.INFO)) {
+                         _log.info("We could restore orphaned partial piece " + pp);
+                     }
+                     return true;
+                 }
               }
           }
       }
@@ -1345,12 +1343,9 @@ class PeerCoordinator implements PeerListener
   {
     synchronized(wantedPieces)
       {
-        for (Piece pc : wantedPieces) {
-          if (pc.getId() == piece) {
+        Piece pc = wantedPieces.get(piece);
+        if (pc != null)
             pc.setRequested(peer, false);
-            return;
-          }
-        }
       }
   }
 
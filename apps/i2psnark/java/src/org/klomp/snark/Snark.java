@@ -1304,6 +1304,17 @@ public class Snark
         coordinator.setWantedPieces();
   }
 
+  /**
+   * Stop the torrent, as PeerCoordinator does for errors writing in gotPiece()
+   * @since 0.9.27
+   */
+  public void storageError(Storage storage, String message)
+  {
+    addMessage(message);
+    addMessage("Fatal storage error: Stopping torrent " + getName());
+    stopTorrent();
+  }
+
   ///////////// End StorageListener methods
 
 
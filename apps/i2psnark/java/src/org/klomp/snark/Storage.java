@@ -25,17 +25,21 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.io.Serializable;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -46,6 +50,7 @@ import net.i2p.crypto.SHA1;
 import net.i2p.data.ByteArray;
 import net.i2p.data.DataHelper;
 import net.i2p.util.ByteCache;
+import net.i2p.util.I2PAppThread;
 import net.i2p.util.Log;
 import net.i2p.util.SecureFile;
 import net.i2p.util.SystemVersion;
@@ -74,6 +79,15 @@ public class Storage implements Closeable
   private volatile boolean _isChecking;
   private final AtomicInteger _allocateCount = new AtomicInteger();
   private final AtomicInteger _checkProgress = new AtomicInteger();
+  /** verified pieces queued in StorageIO, not yet written */
+  private final ConcurrentHashMap<Integer, PartialPiece> _pendingWrites = new ConcurrentHashMap<Integer, PartialPiece>(8);
+  /** held while writing pieces */
+  private final Object _writeLock = new Object();
+  private volatile boolean _writeError;
+  /** no more queued writes; set before close() takes the queue */
+  private volatile boolean _closing;
+  /** files closed, nothing more is written; locking: _writeLock */
+  private boolean _closed;
 
   /** The default piece size. */
   private static final int DEFAULT_PIECE_SIZE = 256*1024;
@@ -89,6 +103,8 @@ public class Storage implements Closeable
   private static final boolean _isARM = SystemVersion.isARM();
 
   private static final int BUFSIZE = PeerState.PARTSIZE;
+  /** @since 0.9.27 */
+  private static final int MAX_CHECK_THREADS = 4;
   private static final ByteCache _cache = ByteCache.getInstance(16, BUFSIZE);
 
   /**
@@ -979,35 +995,11 @@ public class Storage implements Closeable
     // Check which pieces match and which don't
     if (resume)
       {
-        byte[] piece = new byte[piece_size];
-        int file = 0;
-        long fileEnd = _torrentFiles.get(0).length;
-        long pieceEnd = 0;
-        for (int i = 0; i < pieces; i++)
-          {
-            _checkProgress.set(i);
-            int length = getUncheckedPiece(i, piece);
-            boolean correctHash = metainfo.checkPiece(i, piece, 0, length);
-            // close as we go so we don't run out of file descriptors
-            pieceEnd += length;
-            while (fileEnd <= pieceEnd) {
-                TorrentFile tf = _torrentFiles.get(file);
-                try {
-                    tf.closeRAF();
-                } catch (IOException ioe) {}
-                if (++file >= _torrentFiles.size())
-                    break;
-                fileEnd += _torrentFiles.get(file).length;
-            }
-            if (correctHash)
-              {
-                bfield.set(i);
-                need--;
-              }
-
-            if (listener != null)
-              listener.storageChecked(this, i, correctHash);
-          }
+        int threads = getCheckThreads();
+        if (threads > 1)
+            need -= parallelCheckPieces(bfield, threads);
+        else
+            need -= checkPieces(bfield);
       }
 
     _checkProgress.set(pieces);
@@ -1039,6 +1031,196 @@ public class Storage implements Closeable
     }
   }
 
+  /**
+   *  Number of hashing threads for the piece check, 1 for no extra threads.
+   *  Limited by cores and by memory, as each thread needs a piece-size buffer.
+   *
+   *  @since 0.9.27
+   */
+  private int getCheckThreads() {
+      if (pieces < 2)
+          return 1;
+      int rv = Math.min(SystemVersion.getCores(), MAX_CHECK_THREADS);
+      long maxBufs = SystemVersion.getMaxMemory() / (16L * piece_size);
+      if (rv + 1 > maxBufs)
+          rv = (int) Math.max(1, maxBufs - 1);
+      return rv;
+  }
+
+  /**
+   *  Read and hash every piece, one at a time.
+   *  Sets the good pieces in bfield.
+   *  Caller must synchronize.
+   *
+   *  @return number of good pieces
+   *  @since 0.9.27 pulled out of locked_checkCreateFiles()
+   */
+  private int checkPieces(BitField bfield) throws IOException {
+        int good = 0;
+        byte[] piece = new byte[piece_size];
+        FileCloser closer = new FileCloser();
+        for (int i = 0; i < pieces; i++)
+          {
+            _checkProgress.set(i);
+            int length = getUncheckedPiece(i, piece);
+            boolean correctHash = metainfo.checkPiece(i, piece, 0, length);
+            // close as we go so we don't run out of file descriptors
+            closer.pieceRead(length);
+            if (correctHash)
+              {
+                bfield.set(i);
+                good++;
+              }
+
+            if (listener != null)
+              listener.storageChecked(this, i, correctHash);
+          }
+        return good;
+  }
+
+  /**
+   *  Read every piece in order on this thread, and hash them on
+   *  the given number of other threads, so that reading and hashing overlap
+   *  and hashing uses all the cores.
+   *  The listener is called on this thread, in piece order, at the end.
+   *  Sets the good pieces in bfield.
+   *  Caller must synchronize.
+   *
+   *  @return number of good pieces
+   *  @since 0.9.27
+   */
+  private int parallelCheckPieces(BitField bfield, int threads) throws IOException {
+      final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<byte[]>(threads + 1);
+      for (int i = 0; i <= threads; i++) {
+          buffers.offer(new byte[piece_size]);
+      }
+      final BlockingQueue<CheckJob> jobs = new ArrayBlockingQueue<CheckJob>(threads + 1);
+      final boolean[] results = new boolean[pieces];
+      final AtomicInteger good = new AtomicInteger();
+      _checkProgress.set(0);
+      Thread[] workers = new Thread[threads];
+      for (int i = 0; i < threads; i++) {
+          workers[i] = new I2PAppThread(new Hasher(jobs, buffers, results, good),
+                                        "Snark checker " + (i + 1), true);
+          workers[i].start();
+      }
+      FileCloser closer = new FileCloser();
+      try {
+          for (int i = 0; i < pieces; i++) {
+              byte[] piece = buffers.take();
+              int length = getUncheckedPiece(i, piece);
+              // close as we go so we don't run out of file descriptors
+              closer.pieceRead(length);
+              jobs.put(new CheckJob(i, piece, length));
+          }
+      } catch (InterruptedException ie) {
+          throw new IOException("Interrupted during check");
+      } finally {
+          for (int i = 0; i < threads; i++) {
+              try {
+                  jobs.put(CheckJob.POISON);
+              } catch (InterruptedException ie) {}
+          }
+          for (int i = 0; i < threads; i++) {
+              try {
+                  workers[i].join();
+              } catch (InterruptedException ie) {}
+          }
+      }
+      for (int i = 0; i < pieces; i++) {
+          if (results[i])
+              bfield.set(i);
+          if (listener != null)
+              listener.storageChecked(this, i, results[i]);
+      }
+      return good.get();
+  }
+
+  /**
+   *  A piece read by parallelCheckPieces()
+   *  @since 0.9.27
+   */
+  private static class CheckJob {
+      public final int piece;
+      public final byte[] data;
+      public final int length;
+
+      public static final CheckJob POISON = new CheckJob(-1, null, 0);
+
+      public CheckJob(int piece, byte[] data, int length) {
+          this.piece = piece;
+          this.data = data;
+          this.length = length;
+      }
+  }
+
+  /**
+   *  Hashes pieces until POISON, and returns the buffers.
+   *  @since 0.9.27
+   */
+  private class Hasher implements Runnable {
+      private final BlockingQueue<CheckJob> _jobs;
+      private final BlockingQueue<byte[]> _buffers;
+      private final boolean[] _results;
+      private final AtomicInteger _good;
+
+      public Hasher(BlockingQueue<CheckJob> jobs, BlockingQueue<byte[]> buffers,
+                    boolean[] results, AtomicInteger good) {
+          _jobs = jobs;
+          _buffers = buffers;
+          _results = results;
+          _good = good;
+      }
+
+      public void run() {
+          while (true) {
+              CheckJob job;
+              try {
+                  job = _jobs.take();
+              } catch (InterruptedException ie) {
+                  continue;
+              }
+              if (job == CheckJob.POISON)
+                  break;
+              try {
+                  // each piece is written by one thread and read by the caller after join()
+                  boolean ok = metainfo.checkPiece(job.piece, job.data, 0, job.length);
+                  _results[job.piece] = ok;
+                  if (ok)
+                      _good.incrementAndGet();
+              } finally {
+                  _checkProgress.incrementAndGet();
+                  // the reader is waiting for it
+                  _buffers.offer(job.data);
+              }
+          }
+      }
+  }
+
+  /**
+   *  Closes each file after the last piece in it is read,
+   *  so we don't run out of file descriptors.
+   *  @since 0.9.27 pulled out of locked_checkCreateFiles()
+   */
+  private class FileCloser {
+      private int file;
+      private long fileEnd = _torrentFiles.get(0).length;
+      private long pieceEnd;
+
+      public void pieceRead(int length) {
+            pieceEnd += length;
+            while (fileEnd <= pieceEnd) {
+                TorrentFile tf = _torrentFiles.get(file);
+                try {
+                    tf.closeRAF();
+                } catch (IOException ioe) {}
+                if (++file >= _torrentFiles.size())
+                    break;
+                fileEnd += _torrentFiles.get(file).length;
+            }
+      }
+  }
+
   /**
    *  This creates a (presumably) sparse file so that reads won't fail with IOE.
    *  Sets isSparse[nr] = true. balloonFile(nr) should be called later to
@@ -1064,6 +1246,14 @@ public class Storage implements Closeable
    */
   public void close() throws IOException
   {
+    // stop queueing, take anything still queued, and wait for
+    // a batch the writer thread is working on
+    _closing = true;
+    List<PartialPiece> pps = _util.getStorageIO().remove(this);
+    synchronized(_writeLock) {
+        locked_writePieces(pps, false);
+        _closed = true;
+    }
     for (TorrentFile tf : _torrentFiles)
       {
         try {
@@ -1082,8 +1272,12 @@ public class Storage implements Closeable
    */
   public ByteArray getPiece(int piece, int off, int len) throws IOException
   {
-    if (!bitfield.get(piece))
-      return null;
+    PartialPiece pending = null;
+    if (!bitfield.get(piece)) {
+      pending = _pendingWrites.get(Integer.valueOf(piece));
+      if (pending == null)
+        return null;
+    }
 
     //Catch a common place for OOMs esp. on 1MB pieces
     ByteArray rv;
@@ -1100,14 +1294,63 @@ public class Storage implements Closeable
       return null;
     }
     bs = rv.getData();
-    getUncheckedPiece(piece, bs, off, len);
+    if (pending != null) {
+      try {
+        pending.getData(off, bs, len);
+        return rv;
+      } catch (IOException ioe) {
+        // written and released since we got it
+        if (!bitfield.get(piece)) {
+          if (len == BUFSIZE)
+            _cache.release(rv, false);
+          return null;
+        }
+      }
+    }
+    readPiece(piece, bs, off, len);
     return rv;
   }
 
+  /**
+   * Read part of a complete piece for uploading.
+   * Requests within one READ_AHEAD-sized chunk of a large piece
+   * are served from a chunk read and cached by StorageIO.
+   *
+   * @since 0.9.27
+   */
+  private void readPiece(int piece, byte[] bs, int off, int len) throws IOException
+  {
+    StorageIO io = _util.getStorageIO();
+    int plen = getPieceLength(piece);
+    int chunk = off / StorageIO.READ_AHEAD;
+    int coff = chunk * StorageIO.READ_AHEAD;
+    int clen = Math.min(StorageIO.READ_AHEAD, plen - coff);
+    long begin = System.currentTimeMillis();
+    if (plen <= BUFSIZE || off + len > coff + clen) {
+      getUncheckedPiece(piece, bs, off, len);
+      io.dataRead(System.currentTimeMillis() - begin);
+      return;
+    }
+    byte[] data = io.getCached(this, piece, chunk);
+    if (data == null) {
+      data = new byte[clen];
+      getUncheckedPiece(piece, data, coff, clen);
+      io.dataRead(System.currentTimeMillis() - begin);
+      io.putCached(this, piece, chunk, data);
+    }
+    System.arraycopy(data, off - coff, bs, 0, len);
+  }
+
   /**
    * Put the piece in the Storage if it is correct.
-   * Warning - takes a LONG time if complete as it does the recheck here.
-   * TODO thread the recheck?
+   *
+   * As of 0.9.27, a correct piece is generally queued to be written
+   * by the StorageIO thread, and this returns before it is on disk.
+   * The bitfield and listener are updated after it is written.
+   * Until then, it is available from getPiece().
+   * If the queue is full, the piece is written here.
+   *
+   * Warning - if written here and complete, takes a LONG time as it does the recheck here.
    *
    * @return true if the piece was correct (sha metainfo hash
    * matches), otherwise false.
@@ -1116,11 +1359,14 @@ public class Storage implements Closeable
   public boolean putPiece(PartialPiece pp) throws IOException
   {
       int piece = pp.getPiece();
+      boolean queued = false;
       try {
           synchronized(bitfield) {
               if (bitfield.get(piece))
                   return true; // No need to store twice.
           }
+          if (_pendingWrites.containsKey(Integer.valueOf(piece)))
+              return true;
 
           // TODO alternative - check hash on the fly as we write to the file,
           // to save another I/O pass
@@ -1131,6 +1377,96 @@ public class Storage implements Closeable
               return false;
           }
 
+          StorageIO io = _util.getStorageIO();
+          if (!_writeError && !_closing && _pendingWrites.putIfAbsent(Integer.valueOf(piece), pp) == null) {
+              queued = io.offer(this, pp);
+              if (!queued)
+                  _pendingWrites.remove(Integer.valueOf(piece));
+          }
+          if (!queued) {
+              synchronized(_writeLock) {
+                  if (_closed)
+                      return true;
+                  writePiece(pp);
+              }
+          }
+      } finally {
+          if (!queued)
+              pp.release();
+      }
+      if (!queued)
+          pieceWritten(piece, false);
+      return true;
+  }
+
+  /**
+   * Write queued pieces, in order, and release them.
+   * Called by the StorageIO thread.
+   * On error, the remaining pieces are discarded and the listener is told.
+   * After close(), the pieces are released without writing.
+   *
+   * @param pps will be sorted
+   * @since 0.9.27
+   */
+  void writePieces(List<PartialPiece> pps) {
+      synchronized(_writeLock) {
+          locked_writePieces(pps, true);
+      }
+  }
+
+  /**
+   * Caller must synchronize on _writeLock.
+   *
+   * @param pps will be sorted
+   * @param async if true, do any completion recheck in a new thread
+   * @since 0.9.27
+   */
+  private void locked_writePieces(List<PartialPiece> pps, boolean async) {
+      if (pps.isEmpty())
+          return;
+      Collections.sort(pps, new PieceNumberComparator());
+      String error = null;
+      for (PartialPiece pp : pps) {
+          int piece = pp.getPiece();
+          try {
+              if (!_writeError && !_closed) {
+                  writePiece(pp);
+                  // update the bitfield before removing it, so getPiece() doesn't miss it
+                  pieceWritten(piece, async);
+              }
+          } catch (IOException ioe) {
+              _writeError = true;
+              error = "Error writing storage (piece " + piece + ") for " + metainfo.getName() + ": " + ioe;
+              _log.error(error, ioe);
+          } finally {
+              _pendingWrites.remove(Integer.valueOf(piece));
+              pp.release();
+          }
+      }
+      if (error != null && listener != null)
+          listener.storageError(this, error);
+  }
+
+  /**
+   *  Sort by piece number, which is also file order
+   *  @since 0.9.27
+   */
+  private static class PieceNumberComparator implements Comparator<PartialPiece>, Serializable {
+      public int compare(PartialPiece l, PartialPiece r) {
+          return l.getPiece() - r.getPiece();
+      }
+  }
+
+  /**
+   * Write a verified piece to the files.
+   * Caller must synchronize on _writeLock and release the piece.
+   *
+   * @since 0.9.27 split out of putPiece()
+   */
+  private void writePiece(PartialPiece pp) throws IOException
+  {
+          long begin = System.currentTimeMillis();
+          int piece = pp.getPiece();
           // Early typecast, avoid possibly overflowing a temp integer
           long start = (long) piece * (long) piece_size;
           int i = 0;
@@ -1143,6 +1479,7 @@ public class Storage implements Closeable
     
           int written = 0;
           int length = metainfo.getPieceLength(piece);
+          _util.getStorageIO().invalidate(this, piece, length);
           while (written < length) {
               int need = length - written;
               int len = (start + need < raflen) ? need : (int)(raflen - start);
@@ -1181,10 +1518,19 @@ public class Storage implements Closeable
                   start = 0;
               }
           }
-      } finally {
-          pp.release();
-      }
+          _util.getStorageIO().pieceWritten(length, System.currentTimeMillis() - begin);
+  }
 
+  /**
+   * Update the bitfield and tell the listener, after the piece is written.
+   * If it was the last piece, recheck everything.
+   *
+   * @param async if true, do the recheck in a new thread, so the
+   *              StorageIO thread isn't stalled for all torrents
+   * @since 0.9.27 split out of putPiece()
+   */
+  private void pieceWritten(int piece, boolean async) throws IOException
+  {
     changed = true;
 
     // do this after the write, so we know it succeeded, and we don't set the
@@ -1204,6 +1550,30 @@ public class Storage implements Closeable
         listener.storageChecked(this, piece, true);
 
     if (complete) {
+      if (async) {
+        Thread t = new I2PAppThread(new Runnable() {
+            public void run() {
+                try {
+                    completed();
+                } catch (IOException ioe) {
+                    _log.error("Error checking " + metainfo.getName(), ioe);
+                }
+            }
+        }, "Snark recheck " + metainfo.getName(), true);
+        t.start();
+      } else {
+        completed();
+      }
+    }
+ }
+
+  /**
+   * The last piece was written, recheck everything.
+   *
+   * @since 0.9.27 split out of pieceWritten()
+   */
+  private void completed() throws IOException
+  {
       // do we also need to close all of the files and reopen
       // them readonly?
 
@@ -1220,10 +1590,7 @@ public class Storage implements Closeable
             _log.warn("WARNING: Not really done, missing " + needed
                     + " pieces");
       }
-    }
-
-    return true;
- }
+  }
 
   /**
    *  This is a dup of MetaInfo.getPieceLength() but we need it
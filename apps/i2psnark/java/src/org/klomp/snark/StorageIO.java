@@ -0,0 +1,297 @@
+/*
+ * Released into the public domain
+ * with no warranty of any kind, either expressed or implied.
+ */
+package org.klomp.snark;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.i2p.I2PAppContext;
+import net.i2p.data.DataHelper;
+import net.i2p.util.I2PAppThread;
+import net.i2p.util.LHMCache;
+import net.i2p.util.Log;
+import net.i2p.util.SystemVersion;
+
+/**
+ *  Disk I/O shared by all torrents, one per I2PSnarkUtil.
+ *
+ *  Writes: Verified pieces are queued by Storage.putPiece() and written
+ *  by a single background thread, so peer connection threads don't
+ *  stall on the disk. Each torrent has its own queue, and the writer
+ *  takes a batch from each torrent in turn. A batch is sorted by piece,
+ *  so adjacent pieces are written as one sequential run.
+ *  The queue is bounded in total and per torrent; when full,
+ *  the caller writes the piece itself.
+ *
+ *  Reads: Uploaded pieces are read from disk in READ_AHEAD chunks and
+ *  held in a small LRU cache, as peers generally request all the
+ *  blocks of a piece in order.
+ *
+ *  @since 0.9.27
+ */
+public class StorageIO implements Runnable {
+
+    private final Log _log;
+    /** queued pieces for each torrent, in round-robin order; locking: this */
+    private final Map<Storage, List<PartialPiece>> _queues;
+    private final Map<ReadKey, byte[]> _readCache;
+    /** locking: this */
+    private int _queued;
+    /** the torrent whose batch is being written, or null; locking: this */
+    private Storage _writing;
+    /** locking: this */
+    private Thread _writerThread;
+    private int _maxQueued;
+    private boolean _running;
+    private long _writes, _writeTime, _bytesWritten;
+    private long _reads, _readTime, _readHits;
+
+    private static final int MAX_QUEUED = 64;
+    private static final int MAX_QUEUED_PER_TORRENT = 16;
+    /** max pieces from one torrent before moving to the next */
+    private static final int MAX_BATCH = 8;
+    /** writer thread exits after this long with nothing to do */
+    private static final long IDLE_TIME = 60*1000;
+    static final int READ_AHEAD = 64*1024;
+    private static final int READ_CACHE_SIZE = SystemVersion.getMaxMemory() < 128*1024*1024L ? 16 : 64;
+
+    public StorageIO(I2PAppContext ctx) {
+        _log = ctx.logManager().getLog(StorageIO.class);
+        _queues = new LinkedHashMap<Storage, List<PartialPiece>>(8);
+        _readCache = new LHMCache<ReadKey, byte[]>(READ_CACHE_SIZE);
+    }
+
+    /**
+     *  Queue a verified piece to be written.
+     *  Starts the writer thread if necessary.
+     *
+     *  @return true if queued; false if the queue is full and the caller must write it
+     */
+    public synchronized boolean offer(Storage storage, PartialPiece pp) {
+        if (_queued >= MAX_QUEUED)
+            return false;
+        List<PartialPiece> q = _queues.get(storage);
+        if (q == null) {
+            q = new ArrayList<PartialPiece>(MAX_QUEUED_PER_TORRENT);
+            _queues.put(storage, q);
+        } else if (q.size() >= MAX_QUEUED_PER_TORRENT) {
+            return false;
+        }
+        q.add(pp);
+        _queued++;
+        if (_queued > _maxQueued)
+            _maxQueued = _queued;
+        if (_running) {
+            notifyAll();
+        } else {
+            _running = true;
+            Thread t = new I2PAppThread(this, "Snark disk writer", true);
+            t.start();
+        }
+        return true;
+    }
+
+    /**
+     *  Remove everything queued for this torrent, and drop its cached reads.
+     *  The caller must write the returned pieces.
+     *  If the writer thread is writing a batch for this torrent,
+     *  waits until it is done, unless called from the writer thread,
+     *  e.g. by a listener stopping the torrent after a write error.
+     *
+     *  Caller must not hold the Storage's write lock,
+     *  as the writer thread needs it to finish the batch.
+     *
+     *  @return non-null, possibly empty
+     */
+    public List<PartialPiece> remove(Storage storage) {
+        List<PartialPiece> rv;
+        synchronized (this) {
+            rv = _queues.remove(storage);
+            if (rv != null)
+                _queued -= rv.size();
+            boolean interrupted = false;
+            while (_writing == storage && Thread.currentThread() != _writerThread) {
+                try {
+                    wait();
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+        synchronized (_readCache) {
+            for (Iterator<ReadKey> iter = _readCache.keySet().iterator(); iter.hasNext(); ) {
+                if (iter.next().storage == storage)
+                    iter.remove();
+            }
+        }
+        return rv != null ? rv : new ArrayList<PartialPiece>(0);
+    }
+
+    /**
+     *  @return number of pieces waiting to be written
+     */
+    public synchronized int getQueued() {
+        return _queued;
+    }
+
+    public void run() {
+        List<PartialPiece> batch = new ArrayList<PartialPiece>(MAX_BATCH);
+        while (true) {
+            Storage storage;
+            synchronized (this) {
+                if (_queues.isEmpty()) {
+                    try {
+                        wait(IDLE_TIME);
+                    } catch (InterruptedException ie) {}
+                    if (_queues.isEmpty()) {
+                        _running = false;
+                        return;
+                    }
+                }
+                // round-robin: take a batch from the first torrent,
+                // and put any remainder at the end
+                Iterator<Map.Entry<Storage, List<PartialPiece>>> iter = _queues.entrySet().iterator();
+                Map.Entry<Storage, List<PartialPiece>> e = iter.next();
+                iter.remove();
+                storage = e.getKey();
+                List<PartialPiece> q = e.getValue();
+                int count = Math.min(q.size(), MAX_BATCH);
+                List<PartialPiece> sub = q.subList(0, count);
+                batch.addAll(sub);
+                sub.clear();
+                if (!q.isEmpty())
+                    _queues.put(storage, q);
+                _queued -= count;
+                _writing = storage;
+                _writerThread = Thread.currentThread();
+            }
+            try {
+                storage.writePieces(batch);
+            } catch (RuntimeException re) {
+                _log.error("Error writing " + storage, re);
+            } finally {
+                synchronized (this) {
+                    _writing = null;
+                    // wake up remove()
+                    notifyAll();
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     *  Stats for a piece written by Storage
+     */
+    public synchronized void pieceWritten(int length, long time) {
+        _writes++;
+        _writeTime += time;
+        _bytesWritten += length;
+    }
+
+    /**
+     *  Stats for a disk read by Storage
+     */
+    public synchronized void dataRead(long time) {
+        _reads++;
+        _readTime += time;
+    }
+
+    //// Read cache
+
+    /**
+     *  @param chunk the READ_AHEAD-sized chunk of the piece
+     *  @return data or null
+     */
+    public byte[] getCached(Storage storage, int piece, int chunk) {
+        ReadKey key = new ReadKey(storage, piece, chunk);
+        byte[] rv;
+        synchronized (_readCache) {
+            rv = _readCache.get(key);
+        }
+        if (rv != null) {
+            synchronized (this) {
+                _readHits++;
+            }
+        }
+        return rv;
+    }
+
+    /**
+     *  @param chunk the READ_AHEAD-sized chunk of the piece
+     */
+    public void putCached(Storage storage, int piece, int chunk, byte[] data) {
+        ReadKey key = new ReadKey(storage, piece, chunk);
+        synchronized (_readCache) {
+            _readCache.put(key, data);
+        }
+    }
+
+    /**
+     *  Drop cached reads for a piece that is being rewritten
+     */
+    public void invalidate(Storage storage, int piece, int length) {
+        int chunks = (length + READ_AHEAD - 1) / READ_AHEAD;
+        synchronized (_readCache) {
+            if (_readCache.isEmpty())
+                return;
+            for (int i = 0; i < chunks; i++) {
+                _readCache.remove(new ReadKey(storage, piece, i));
+            }
+        }
+    }
+
+    private static class ReadKey {
+        public final Storage storage;
+        public final int piece, chunk;
+
+        public ReadKey(Storage s, int p, int c) {
+            storage = s;
+            piece = p;
+            chunk = c;
+        }
+
+        @Override
+        public int hashCode() {
+            return storage.hashCode() ^ (piece * 31) ^ chunk;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ReadKey))
+                return false;
+            ReadKey k = (ReadKey) o;
+            return storage == k.storage && piece == k.piece && chunk == k.chunk;
+        }
+    }
+
+    /**
+     *  For the debug section of the web UI
+     */
+    public synchronized String renderStatusHTML() {
+        StringBuilder buf = new StringBuilder(256);
+        buf.append("<br><b>Disk I/O</b><br>Write queue: ").append(_queued)
+           .append(" pieces (max ").append(_maxQueued).append(") in ")
+           .append(_queues.size()).append(" torrents<br>" +
+                   "Writes: ").append(_writes).append(" pieces / ")
+           .append(DataHelper.formatSize2(_bytesWritten)).append("B");
+        if (_writes > 0)
+            buf.append(" / avg. ").append(_writeTime / _writes).append(" ms");
+        buf.append("<br>Reads: ").append(_reads);
+        if (_reads > 0)
+            buf.append(" / avg. ").append(_readTime / _reads).append(" ms");
+        buf.append(" / read-ahead hits: ").append(_readHits);
+        synchronized (_readCache) {
+            buf.append(" / cached: ").append(_readCache.size());
+        }
+        buf.append("<br>");
+        return buf.toString();
+    }
+}
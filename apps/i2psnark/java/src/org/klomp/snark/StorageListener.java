@@ -63,4 +63,12 @@ interface StorageListener
   void setWantedPieces(Storage storage);
 
   void addMessage(String message);
+
+  /**
+   * Called when a queued piece could not be written.
+   * The torrent should be stopped.
+   *
+   * @since 0.9.27
+   */
+  void storageError(Storage storage, String message);
 }
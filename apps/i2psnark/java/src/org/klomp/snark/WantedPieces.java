@@ -0,0 +1,261 @@
+package org.klomp.snark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The pieces we want, indexed by piece number, and
+ * bucketed by priority and then by how many peers have each piece.
+ *
+ * Lookups by piece number and have messages are constant time,
+ * and iteration is highest priority first, then rarest first,
+ * so the picker doesn't have to sort.
+ * Within a bucket, iteration is in the order pieces were added or moved.
+ *
+ * This class is used solely by PeerCoordinator.
+ * Not thread-safe, caller must synchronize.
+ *
+ * @since 0.9.27
+ */
+class WantedPieces implements Iterable<Piece> {
+
+    /** null if not wanted */
+    private Piece[] _pieces = new Piece[0];
+    /** the bucket each piece is in, so it can be found after the peer count changes */
+    private int[] _bucketPriority = new int[0];
+    private int[] _bucketPeers = new int[0];
+    private int _size;
+    /** highest priority first */
+    private final TreeMap<Integer, Level> _levels = new TreeMap<Integer, Level>(Collections.reverseOrder());
+
+    /**
+     *  Buckets for one priority, indexed by peer count
+     */
+    private static class Level {
+        public final List<Set<Piece>> buckets = new ArrayList<Set<Piece>>();
+
+        public Set<Piece> get(int peers) {
+            while (buckets.size() <= peers) {
+                buckets.add(new LinkedHashSet<Piece>());
+            }
+            return buckets.get(peers);
+        }
+    }
+
+    public int size() { return _size; }
+
+    public boolean isEmpty() { return _size == 0; }
+
+    /**
+     *  @return the piece or null if not wanted
+     */
+    public Piece get(int piece) {
+        if (piece < 0 || piece >= _pieces.length)
+            return null;
+        return _pieces[piece];
+    }
+
+    public boolean contains(int piece) {
+        return get(piece) != null;
+    }
+
+    /**
+     *  Set the priority and add any peers before adding.
+     *  Replaces any piece with the same number.
+     */
+    public void add(Piece p) {
+        int id = p.getId();
+        if (id >= _pieces.length)
+            grow(id + 1);
+        if (_pieces[id] != null)
+            remove(id);
+        _pieces[id] = p;
+        _size++;
+        addToBucket(p);
+    }
+
+    /**
+     *  @return the removed piece or null if not wanted
+     */
+    public Piece remove(int piece) {
+        Piece p = get(piece);
+        if (p != null) {
+            removeFromBucket(p);
+            _pieces[piece] = null;
+            _size--;
+        }
+        return p;
+    }
+
+    public void clear() {
+        _pieces = new Piece[0];
+        _bucketPriority = new int[0];
+        _bucketPeers = new int[0];
+        _size = 0;
+        _levels.clear();
+    }
+
+    /**
+     *  Piece.addPeer() and move to the new bucket
+     *
+     *  @param p must be in here
+     *  @return true if added
+     */
+    public boolean addPeer(Piece p, Peer peer) {
+        if (!p.addPeer(peer))
+            return false;
+        move(p);
+        return true;
+    }
+
+    /**
+     *  Piece.removePeer() and move to the new bucket
+     *
+     *  @param p must be in here
+     *  @return true if removed
+     */
+    public boolean removePeer(Piece p, Peer peer) {
+        if (!p.removePeer(peer))
+            return false;
+        move(p);
+        return true;
+    }
+
+    /**
+     *  Remove the peer from all pieces, and clear its requests,
+     *  when it disconnects.
+     */
+    public void removePeer(Peer peer) {
+        for (int i = 0; i < _pieces.length; i++) {
+            Piece p = _pieces[i];
+            if (p != null) {
+                removePeer(p, peer);
+                p.setRequested(peer, false);
+            }
+        }
+    }
+
+    /**
+     *  Piece.clear() for all pieces
+     */
+    public void clearPeers() {
+        _levels.clear();
+        for (int i = 0; i < _pieces.length; i++) {
+            Piece p = _pieces[i];
+            if (p != null) {
+                p.clear();
+                addToBucket(p);
+            }
+        }
+    }
+
+    /**
+     *  Piece.setPriority() and move to the new bucket
+     *
+     *  @param p must be in here
+     */
+    public void setPriority(Piece p, int priority) {
+        if (p.getPriority() == priority)
+            return;
+        p.setPriority(priority);
+        move(p);
+    }
+
+    /**
+     *  Highest priority first, then rarest first.
+     *  Do not modify while iterating. Iterator.remove() is not supported.
+     */
+    public Iterator<Piece> iterator() {
+        return new PieceIterator();
+    }
+
+    private void grow(int min) {
+        int len = Math.max(min, Math.min(_pieces.length * 2, Storage.MAX_PIECES));
+        Piece[] pieces = new Piece[len];
+        int[] pri = new int[len];
+        int[] peers = new int[len];
+        System.arraycopy(_pieces, 0, pieces, 0, _pieces.length);
+        System.arraycopy(_bucketPriority, 0, pri, 0, _pieces.length);
+        System.arraycopy(_bucketPeers, 0, peers, 0, _pieces.length);
+        _pieces = pieces;
+        _bucketPriority = pri;
+        _bucketPeers = peers;
+    }
+
+    private void move(Piece p) {
+        int id = p.getId();
+        if (_bucketPriority[id] == p.getPriority() && _bucketPeers[id] == p.getPeerCount())
+            return;
+        removeFromBucket(p);
+        addToBucket(p);
+    }
+
+    private void addToBucket(Piece p) {
+        int id = p.getId();
+        int pri = p.getPriority();
+        int peers = p.getPeerCount();
+        Integer key = Integer.valueOf(pri);
+        Level level = _levels.get(key);
+        if (level == null) {
+            level = new Level();
+            _levels.put(key, level);
+        }
+        level.get(peers).add(p);
+        _bucketPriority[id] = pri;
+        _bucketPeers[id] = peers;
+    }
+
+    private void removeFromBucket(Piece p) {
+        int id = p.getId();
+        Level level = _levels.get(Integer.valueOf(_bucketPriority[id]));
+        if (level != null)
+            level.get(_bucketPeers[id]).remove(p);
+    }
+
+    private class PieceIterator implements Iterator<Piece> {
+        private final Iterator<Level> _levelIter = _levels.values().iterator();
+        private Iterator<Set<Piece>> _bucketIter = Collections.<Set<Piece>>emptyList().iterator();
+        private Iterator<Piece> _pieceIter = Collections.<Piece>emptyList().iterator();
+
+        public boolean hasNext() {
+            while (!_pieceIter.hasNext()) {
+                while (!_bucketIter.hasNext()) {
+                    if (!_levelIter.hasNext())
+                        return false;
+                    _bucketIter = _levelIter.next().buckets.iterator();
+                }
+                _pieceIter = _bucketIter.next().iterator();
+            }
+            return true;
+        }
+
+        public Piece next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return _pieceIter.next();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder(_size * 6 + 2);
+        buf.append('[');
+        for (Piece p : this) {
+            if (buf.length() > 1)
+                buf.append(", ");
+            buf.append(p);
+        }
+        buf.append(']');
+        return buf.toString();
+    }
+}
@@ -46,9 +46,16 @@ import java.util.Map;
  */
 public class BDecoder
 {
-  // The InputStream to BDecode.
+  // The InputStream to BDecode, or null if decoding from an array
   private final InputStream in;
 
+  // The array to BDecode, or null if decoding from an InputStream
+  private final byte[] data;
+  private int pos;
+  private final int end;
+  // Start of the special map in the array
+  private int special_start;
+
   // The last indicator read.
   // Zero if unknown.
   // '0'..'9' indicates a byte[].
@@ -93,6 +100,46 @@ public class BDecoder
   public BDecoder(InputStream in)
   {
     this.in = in;
+    this.data = null;
+    this.end = 0;
+  }
+
+  /**
+   * Initalizes a new BDecoder over an array, which must not be changed
+   * while decoding. This is faster than wrapping the array in a
+   * ByteArrayInputStream, and the SHA hash over the special map
+   * is done in one pass over the original bytes.
+   *
+   * @since 0.9.27
+   */
+  public BDecoder(byte[] data)
+  {
+    this(data, 0, data.length);
+  }
+
+  /**
+   * Initalizes a new BDecoder over part of an array, which must not be changed
+   * while decoding.
+   *
+   * @since 0.9.27
+   */
+  public BDecoder(byte[] data, int offset, int length)
+  {
+    this.in = null;
+    this.data = data;
+    this.pos = offset;
+    this.end = offset + length;
+  }
+
+  /**
+   * Creates a new BDecoder over the array and immediatly decodes the first value.
+   *
+   * @return The first BEValue in the array or null when the array is empty
+   * @since 0.9.27
+   */
+  public static BEValue bdecode(byte[] data) throws IOException
+  {
+    return new BDecoder(data).bdecode();
   }
 
   /**
@@ -142,6 +189,11 @@ public class BDecoder
   {
     if (indicator == 0)
       {
+        if (data != null)
+          {
+            indicator = pos < end ? data[pos++] & 0xff : -1;
+            return indicator;
+          }
         indicator = in.read();
         // XXX - Used for ugly hack
         if (in_special_map) sha_digest.update((byte)indicator);
@@ -191,7 +243,8 @@ public class BDecoder
     int i = c - '0';
     while (i >= 0 && i <= 9)
       {
-        // XXX - This can overflow!
+        if (num > (Integer.MAX_VALUE - 9) / 10)
+          throw new InvalidBEncodingException("Byte string too long");
         num = num*10 + i;
         c = read();
         i = c - '0';
@@ -200,6 +253,9 @@ public class BDecoder
     if (c != ':')
       throw new InvalidBEncodingException("Colon expected, not '"
                                           + (char)c + "'");
+    // don't allocate a huge array for a bad length
+    if (data != null && num > end - pos)
+      throw new EOFException();
 
     return new BEValue(read(num));
   }
@@ -229,41 +285,61 @@ public class BDecoder
       }
 
     // XXX - We don't support more the 255 char big integers
-    StringBuilder chars = new StringBuilder(16);
-
-    if (c == '-')
-      {
-        chars.append((char)c);
-        c = read();
-      }
+    boolean neg = c == '-';
+    if (neg)
+      c = read();
 
     if (c < '1' || c > '9')
       throw new InvalidBEncodingException("Invalid Integer start '"
                                           + (char)c + "'");
-    chars.append((char)c);
 
+    // Parse the digits directly; only use a String for big integers.
+    // len is the number of chars including the sign.
+    int len = neg ? 2 : 1;
+    long val = c - '0';
+    StringBuilder chars = null;
     c = read();
     while(c >= '0' && c <= '9')
       {
-        chars.append((char)c);
+        len++;
+        if (len > 256)
+          throw new InvalidBEncodingException("Too many digits: " + len);
+        if (chars != null)
+          {
+            chars.append((char)c);
+          }
+        else if (len < 19)
+          {
+            val = val * 10 + (c - '0');
+          }
+        else
+          {
+            chars = new StringBuilder(32);
+            if (neg)
+              chars.append('-');
+            chars.append(val).append((char)c);
+          }
         c = read();
       }
 
     if (c != 'e')
       throw new InvalidBEncodingException("Integer should end with 'e'");
 
-    String s = chars.toString();
-    int len = s.length();
     // save a little space if we're sure it will fit
     Number num;
-    if (len < 10)
-        num = Integer.valueOf(s);
-    else if (len < 19)
-        num = Long.valueOf(s);
-    else if (len > 256)
-        throw new InvalidBEncodingException("Too many digits: " + len);
+    if (chars != null)
+      {
+        num = new BigInteger(chars.toString());
+      }
     else
-        num = new BigInteger(s);
+      {
+        if (neg)
+          val = -val;
+        if (len < 10)
+          num = Integer.valueOf((int) val);
+        else
+          num = Long.valueOf(val);
+      }
     return new BEValue(num);
   }
 
@@ -321,14 +397,19 @@ public class BDecoder
         if (special) {
           createDigest();
           in_special_map = true;
+          special_start = pos;
         }
 
         BEValue value = bdecode();
         result.put(key, value);
 
         // XXX ugly hack continued
-        if (special)
+        if (special) {
           in_special_map = false;
+          // array mode, hash the original bytes in one pass
+          if (data != null)
+            sha_digest.update(data, special_start, pos - special_start);
+        }
         
         c = getNextIndicator();
       }
@@ -343,6 +424,12 @@ public class BDecoder
    */
   private int read() throws IOException
   {
+    if (data != null)
+      {
+        if (pos >= end)
+          throw new EOFException();
+        return data[pos++] & 0xff;
+      }
     int c = in.read();
     if (c == -1)
       throw new EOFException();
@@ -361,6 +448,14 @@ public class BDecoder
   private byte[] read(int length) throws IOException
   {
     byte[] result = new byte[length];
+    if (data != null)
+      {
+        if (length > end - pos)
+          throw new EOFException();
+        System.arraycopy(data, pos, result, 0, length);
+        pos += length;
+        return result;
+      }
     
     int read = 0;
     while (read < length)
@@ -30,6 +30,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import net.i2p.data.DataHelper;
+
 public class BEncoder
 {
 
@@ -84,7 +86,7 @@ public class BEncoder
 
   public static void bencode(String s, OutputStream out) throws IOException
   {
-    byte[] bs = s.getBytes("UTF-8");
+    byte[] bs = DataHelper.getUTF8(s);
     bencode(bs, out);
   }
 
@@ -105,8 +107,10 @@ public class BEncoder
   public static void bencode(Number n, OutputStream out) throws IOException
   {
     out.write('i');
-    String s = n.toString();
-    out.write(s.getBytes("UTF-8"));
+    if (n instanceof Integer || n instanceof Long)
+      writeLong(n.longValue(), out);
+    else
+      out.write(DataHelper.getASCII(n.toString()));
     out.write('e');
   }
 
@@ -149,12 +153,43 @@ public class BEncoder
 
   public static void bencode(byte[] bs, OutputStream out) throws IOException
   {
-    String l = Integer.toString(bs.length);
-    out.write(l.getBytes("UTF-8"));
+    writeLong(bs.length, out);
     out.write(':');
     out.write(bs);
   }
 
+  /**
+   *  Write the decimal digits without creating a String
+   *  @since 0.9.27
+   */
+  private static void writeLong(long v, OutputStream out) throws IOException
+  {
+    if (v >= 0 && v < 10)
+      {
+        out.write('0' + (int) v);
+        return;
+      }
+    if (v == Long.MIN_VALUE)
+      {
+        out.write(DataHelper.getASCII(Long.toString(v)));
+        return;
+      }
+    byte[] buf = new byte[20];
+    int i = buf.length;
+    boolean neg = v < 0;
+    if (neg)
+      v = -v;
+    do
+      {
+        buf[--i] = (byte) ('0' + (int) (v % 10));
+        v /= 10;
+      }
+    while (v > 0);
+    if (neg)
+      buf[--i] = '-';
+    out.write(buf, i, buf.length - i);
+  }
+
   public static byte[] bencode(Map<?, ?> m)
   {
     try
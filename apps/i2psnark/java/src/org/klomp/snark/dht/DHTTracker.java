@@ -3,8 +3,10 @@ package org.klomp.snark.dht;
  *  From zzzot, relicensed to GPLv2
  */
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 
@@ -17,6 +19,11 @@ import net.i2p.util.SimpleTimer2;
 /**
  * The tracker stores peers, i.e. Dest hashes (not nodes).
  *
+ * Peers are also indexed by announce time, in buckets of BUCKET_TIME,
+ * so the cleaner only looks at the peers that are due to expire,
+ * not at every peer of every torrent.
+ * Peers may be expired up to BUCKET_TIME late.
+ *
  * @since 0.9.2
  * @author zzz
  */
@@ -24,6 +31,8 @@ class DHTTracker {
 
     private final I2PAppContext _context;
     private final Torrents _torrents;
+    /** oldest first, locking: itself */
+    private final Deque<Bucket> _buckets;
     private long _expireTime;
     private final Log _log;
     private volatile boolean _isRunning;
@@ -42,10 +51,12 @@ class DHTTracker {
     private static final int MAX_PEERS_PER_TORRENT = 150;
     private static final int ABSOLUTE_MAX_PER_TORRENT = MAX_PEERS_PER_TORRENT * 2;
     private static final int MAX_TORRENTS = 400;
+    private static final long BUCKET_TIME = 5*60*1000;
 
     DHTTracker(I2PAppContext ctx) {
         _context = ctx;
         _torrents = new Torrents();
+        _buckets = new ArrayDeque<Bucket>();
         _expireTime = MAX_EXPIRE_TIME;
         _log = _context.logManager().getLog(DHTTracker.class);
     }
@@ -57,6 +68,9 @@ class DHTTracker {
 
     void stop() {
         _torrents.clear();
+        synchronized(_buckets) {
+            _buckets.clear();
+        }
         _isRunning = false;
     }
 
@@ -78,10 +92,13 @@ class DHTTracker {
             Peer peer2 = peers.putIfAbsent(peer, peer);
             if (peer2 != null)
                 peer = peer2;
-            peer.setLastSeen(_context.clock().now());
+            long now = _context.clock().now();
+            long previous = peer.lastSeen();
+            peer.setLastSeen(now);
             // don't let false trump true, as not all sources know the seed status
             if (isSeed)
                 peer.setSeed(true);
+            addToBucket(ih, peer, previous, now);
         } else {
             // We could update setLastSeen if he is already
             // in there, but that would tend to keep
@@ -93,6 +110,43 @@ class DHTTracker {
         }
     }
 
+    /**
+     *  Add to the newest bucket, unless already there.
+     *  If it was in an older bucket, it stays there, and is skipped on expiration.
+     *
+     *  @param previous the last seen time before this announce, 0 if new
+     *  @since 0.9.27
+     */
+    private void addToBucket(InfoHash ih, Peer peer, long previous, long now) {
+        synchronized(_buckets) {
+            Bucket b = _buckets.peekLast();
+            if (b == null || now >= b.start + BUCKET_TIME) {
+                b = new Bucket(now);
+                _buckets.addLast(b);
+            } else if (previous >= b.start) {
+                return;
+            }
+            b.torrents.add(ih);
+            b.peers.add(peer);
+        }
+    }
+
+    /**
+     *  Peers announced during one BUCKET_TIME
+     *
+     *  @since 0.9.27
+     */
+    private static class Bucket {
+        public final long start;
+        /** same size as peers */
+        public final List<InfoHash> torrents = new ArrayList<InfoHash>();
+        public final List<Peer> peers = new ArrayList<Peer>();
+
+        public Bucket(long start) {
+            this.start = start;
+        }
+    }
+
     void unannounce(InfoHash ih, Hash hash) {
         Peers peers = _torrents.get(ih);
         if (peers == null)
@@ -155,21 +209,14 @@ class DHTTracker {
             if (!_isRunning)
                 return;
             long now = _context.clock().now();
+            expire(now - _expireTime);
             int torrentCount = 0;
             int peerCount = 0;
             boolean tooMany = false;
             for (Iterator<Peers> iter = _torrents.values().iterator(); iter.hasNext(); ) {
                 Peers p = iter.next();
-                int recent = 0;
-                for (Iterator<Peer> iterp = p.values().iterator(); iterp.hasNext(); ) {
-                     Peer peer = iterp.next();
-                     if (peer.lastSeen() < now - _expireTime)
-                         iterp.remove();
-                     else {
-                         recent++;
-                         peerCount++;
-                     }
-                }
+                int recent = p.size();
+                peerCount += recent;
                 if (recent > MAX_PEERS_PER_TORRENT) {
                     // too many, delete at random
                     // TODO sort and remove oldest?
@@ -204,5 +251,33 @@ class DHTTracker {
             _torrentCount = torrentCount;
             schedule(tooMany ? CLEAN_TIME / 3 : CLEAN_TIME);
         }
+
+        /**
+         *  Remove the peers in the buckets that are entirely older than the cutoff,
+         *  unless they have announced again since.
+         *
+         *  @since 0.9.27
+         */
+        private void expire(long cutoff) {
+            while (true) {
+                Bucket b;
+                synchronized(_buckets) {
+                    b = _buckets.peekFirst();
+                    if (b == null || b.start + BUCKET_TIME > cutoff)
+                        break;
+                    _buckets.removeFirst();
+                }
+                for (int i = 0; i < b.peers.size(); i++) {
+                    Peer peer = b.peers.get(i);
+                    // announced again, it's in a newer bucket
+                    if (peer.lastSeen() >= cutoff)
+                        continue;
+                    Peers p = _torrents.get(b.torrents.get(i));
+                    // Peers are equal by hash, make sure it's the same one
+                    if (p != null && p.get(peer) == peer)
+                        p.remove(peer);
+                }
+            }
+        }
     }
 }
@@ -7,7 +7,6 @@ import java.io.Serializable;
 import java.util.Comparator;
 
 import net.i2p.crypto.SHA1Hash;
-import net.i2p.data.DataHelper;
 
 /**
  *  Closest to a InfoHash or NID key.
@@ -24,9 +23,19 @@ class NodeInfoComparator implements Comparator<NodeInfo>, Serializable {
     }
 
     public int compare(NodeInfo lhs, NodeInfo rhs) {
-        byte lhsDelta[] = DataHelper.xor(lhs.getNID().getData(), _base);
-        byte rhsDelta[] = DataHelper.xor(rhs.getNID().getData(), _base);
-        return DataHelper.compareTo(lhsDelta, rhsDelta);
+        // same as XORComparator, byte-by-byte to avoid creating
+        // two arrays for every comparison in the lookup TreeSets
+        byte lhsb[] = lhs.getNID().getData();
+        byte rhsb[] = rhs.getNID().getData();
+        for (int i = 0; i < _base.length; i++) {
+            int ld = (lhsb[i] ^ _base[i]) & 0xff;
+            int rd = (rhsb[i] ^ _base[i]) & 0xff;
+            if (ld < rd)
+                return -1;
+            if (ld > rd)
+                return 1;
+        }
+        return 0;
     }
 
 }
@@ -0,0 +1,139 @@
+package org.klomp.snark.dht;
+/*
+ *  GPLv2
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.i2p.I2PAppContext;
+
+/**
+ *  The tokens we send in reply to a get_peers query.
+ *
+ *  A token is the first 8 bytes of SHA-256(secret, compact node info),
+ *  so a node gets the same token for every query during a rotation period,
+ *  and the number of tokens is bounded by the number of nodes that query us.
+ *  The secret is rotated every maxAge / 2, and tokens for the current and
+ *  previous secrets are accepted, as in BEP 5.
+ *
+ *  The announce_peer comes in on the response port without any node info,
+ *  so we still need a map from token to node. There is one map per secret,
+ *  and the old one is dropped as a whole on rotation, without a scan.
+ *
+ * @since 0.9.27
+ */
+class OutboundTokens {
+
+    private final I2PAppContext _context;
+    private final long _rotateTime;
+    private final int _maxPerSecret;
+    /** locking: this */
+    private byte[] _secret;
+    /** locking: this */
+    private Map<Long, NodeInfo> _current, _previous;
+    /** locking: this */
+    private long _lastRotated;
+
+    private static final int TOKEN_LENGTH = 8;
+    private static final int SECRET_LENGTH = 32;
+
+    /**
+     *  @param maxAge tokens are valid for between maxAge / 2 and maxAge
+     *  @param max total tokens; the secret is rotated early if exceeded
+     */
+    public OutboundTokens(I2PAppContext ctx, long maxAge, int max) {
+        _context = ctx;
+        _rotateTime = maxAge / 2;
+        _maxPerSecret = max / 2;
+        _current = new HashMap<Long, NodeInfo>();
+        _previous = new HashMap<Long, NodeInfo>();
+        rotate(ctx.clock().now());
+    }
+
+    /**
+     *  Generate the token for this node, and remember it
+     */
+    public Token getToken(NodeInfo nInfo) {
+        byte[] data = nInfo.getData();
+        byte[] buf = new byte[SECRET_LENGTH + data.length];
+        synchronized(this) {
+            expire();
+            if (_current.size() >= _maxPerSecret)
+                rotate(_context.clock().now());
+            System.arraycopy(_secret, 0, buf, 0, SECRET_LENGTH);
+        }
+        System.arraycopy(data, 0, buf, SECRET_LENGTH, data.length);
+        byte[] tok = new byte[TOKEN_LENGTH];
+        System.arraycopy(_context.sha().calculateHash(buf).getData(), 0, tok, 0, TOKEN_LENGTH);
+        Long key = toKey(tok);
+        synchronized(this) {
+            // if we rotated in the meantime, this goes in with the new secret,
+            // that's fine, it will just expire a little late
+            _current.put(key, nInfo);
+        }
+        return new Token(tok);
+    }
+
+    /**
+     *  @return the node we sent this token to, or null if unknown or expired
+     */
+    public NodeInfo getNode(byte[] tok) {
+        if (tok == null || tok.length != TOKEN_LENGTH)
+            return null;
+        Long key = toKey(tok);
+        synchronized(this) {
+            expire();
+            NodeInfo rv = _current.get(key);
+            if (rv == null)
+                rv = _previous.get(key);
+            return rv;
+        }
+    }
+
+    /**
+     *  Rotate the secret if it's time.
+     *  Called by the cleaner, so tokens expire even if we aren't queried.
+     */
+    public synchronized void expire() {
+        long now = _context.clock().now();
+        if (now - _lastRotated >= _rotateTime)
+            rotate(now);
+    }
+
+    public synchronized int size() {
+        return _current.size() + _previous.size();
+    }
+
+    public synchronized void clear() {
+        _current.clear();
+        _previous.clear();
+    }
+
+    /**
+     *  All 64 bits, DataHelper.fromLong() doesn't allow negative values
+     */
+    private static Long toKey(byte[] tok) {
+        long rv = 0;
+        for (int i = 0; i < TOKEN_LENGTH; i++) {
+            rv = (rv << 8) | (tok[i] & 0xff);
+        }
+        return Long.valueOf(rv);
+    }
+
+    /**
+     *  Caller must synch
+     */
+    private void rotate(long now) {
+        // if we haven't rotated in two periods, the current tokens are too old as well
+        if (now - _lastRotated >= 2 * _rotateTime)
+            _previous = new HashMap<Long, NodeInfo>();
+        else
+            _previous = _current;
+        _current = new HashMap<Long, NodeInfo>();
+        byte[] secret = new byte[SECRET_LENGTH];
+        _context.random().nextBytes(secret);
+        _secret = secret;
+        _lastRotated = now;
+    }
+}
@@ -8,6 +8,9 @@ import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import net.i2p.I2PAppContext;
 import net.i2p.data.DataFormatException;
@@ -17,11 +20,17 @@ import net.i2p.util.SecureFileOutputStream;
 /**
  *  Retrieve / Store the local DHT in a file
  *
+ *  Nodes are stored most recently seen first, and only the first
+ *  MAX_NODES are stored or loaded, so a large DHT is saved and
+ *  restored quickly, and the stale nodes are the ones left out.
+ *
  *  @since 0.9.2
  */
 abstract class PersistDHT {
 
     private static final long MAX_AGE = 60*60*1000;
+    /** a little more than DHTNodes will keep */
+    private static final int MAX_NODES = 1000;
 
     /**
      *  @param backupFile may be null
@@ -42,13 +51,12 @@ abstract class PersistDHT {
             br = new BufferedReader(new InputStreamReader(
             		new FileInputStream(file), "ISO-8859-1"));
             String line = null;
-            while ( (line = br.readLine()) != null) {
+            while (count < MAX_NODES && (line = br.readLine()) != null) {
                 if (line.startsWith("#"))
                     continue;
                 try {
                     krpc.heardAbout(new NodeInfo(line));
                     count++;
-                    // TODO limit number? this will flush the router's SDS caches
                 } catch (IllegalArgumentException iae) {
                     if (log.shouldLog(Log.WARN))
                         log.warn("Error reading DHT entry", iae);
@@ -76,16 +84,23 @@ abstract class PersistDHT {
         Log log = I2PAppContext.getGlobalContext().logManager().getLog(PersistDHT.class);
         int count = 0;
         long maxAge = saveAll ? 0 : I2PAppContext.getGlobalContext().clock().now() - MAX_AGE;
+        List<Saved> toSave = new ArrayList<Saved>(nodes.size());
+        for (NodeInfo ni : nodes.values()) {
+             long seen = ni.lastSeen();
+             if (seen >= maxAge)
+                 toSave.add(new Saved(ni, seen));
+        }
+        if (toSave.size() > MAX_NODES)
+            Collections.sort(toSave);
         PrintWriter out = null;
         try {
-            out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new SecureFileOutputStream(file), "ISO-8859-1")));
+            out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new SecureFileOutputStream(file), "ISO-8859-1"), 64*1024));
             out.println("# DHT nodes, format is NID:Hash:Destination:port");
-            for (NodeInfo ni : nodes.values()) {
-                 if (ni.lastSeen() < maxAge)
-                     continue;
+            for (Saved sv : toSave) {
                  // DHTNodes shouldn't contain us, if that changes check here
-                 out.println(ni.toPersistentString());
-                 count++;
+                 out.println(sv.ni.toPersistentString());
+                 if (++count >= MAX_NODES)
+                     break;
             }
             if (out.checkError())
                 throw new IOException("Failed write to " + file);
@@ -98,4 +113,27 @@ abstract class PersistDHT {
         if (log.shouldLog(Log.INFO))
             log.info("Stored " + count + " nodes to " + file);
     }
+
+    /**
+     *  A node and its last seen time, which may change while we are sorting.
+     *  Sorts most recently seen first.
+     *  @since 0.9.27
+     */
+    private static class Saved implements Comparable<Saved> {
+        public final NodeInfo ni;
+        public final long seen;
+
+        public Saved(NodeInfo ni, long seen) {
+            this.ni = ni;
+            this.seen = seen;
+        }
+
+        public int compareTo(Saved r) {
+            if (seen > r.seen)
+                return -1;
+            if (seen < r.seen)
+                return 1;
+            return 0;
+        }
+    }
 }
@@ -16,20 +16,9 @@ import net.i2p.data.ByteArray;
  */
 class Token extends ByteArray {
 
-    private static final int MY_TOK_LEN = 8;
     private static final int MAX_TOK_LEN = 64;
     private final long lastSeen;
 
-    /** outgoing - generate a random token */
-    public Token(I2PAppContext ctx) {
-        super(null);
-        byte[] data = new byte[MY_TOK_LEN];
-        ctx.random().nextBytes(data);
-        setData(data);
-        setValid(MY_TOK_LEN);
-        lastSeen = ctx.clock().now();
-    }
-
     /** incoming  - save the token (arbitrary length) */
     public Token(I2PAppContext ctx, byte[] data) {
         super(data);
@@ -39,7 +28,7 @@ class Token extends ByteArray {
         lastSeen = ctx.clock().now();
     }
 
-    /** incoming  - for lookup only, not storage, lastSeen is 0 */
+    /** outgoing, or incoming for lookup only, not storage; lastSeen is 0 */
     public Token(byte[] data) {
         super(data);
         lastSeen = 0;
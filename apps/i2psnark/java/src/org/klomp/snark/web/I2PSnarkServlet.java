@@ -711,6 +711,8 @@ public class I2PSnarkServlet extends BasicServlet {
                 if (showDebug)
                     out.write(dht.renderStatusHTML());
             }
+            if (showDebug)
+                out.write(_manager.util().getStorageIO().renderStatusHTML());
             out.write("</th>\n");
             if (_manager.util().connected() && total > 0) {
                 out.write("    <th align=\"right\">" + formatSize(stats[0]) + "</th>\n" +
@@ -0,0 +1,138 @@
+package net.i2p.i2ptunnel;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ *  Reads a body in HTTP chunked transfer encoding, RFC 7230 sec. 4.1,
+ *  and returns -1 after the last chunk and any trailers.
+ *
+ *  Used by I2PTunnelHTTPClient to find the end of a response
+ *  on a kept-alive I2P stream.
+ *
+ *  close() does NOT close the underlying stream,
+ *  which is left positioned after the end of the body.
+ *
+ *  @since 0.9.27
+ */
+class ChunkedInputStream extends FilterInputStream {
+    /** bytes left in the current chunk */
+    private long _remaining;
+    private boolean _eof;
+
+    private static final int MAX_LINE = 1024;
+
+    public ChunkedInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextChunk())
+            return -1;
+        int c = in.read();
+        if (c < 0)
+            throw new EOFException("EOF in chunk");
+        _remaining--;
+        return c;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!nextChunk())
+            return -1;
+        int rv = in.read(b, off, (int) Math.min(len, _remaining));
+        if (rv < 0)
+            throw new EOFException("EOF in chunk");
+        _remaining -= rv;
+        return rv;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (_eof)
+            return 0;
+        return (int) Math.min(in.available(), _remaining);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long rv = 0;
+        while (rv < n && nextChunk()) {
+            long s = in.skip(Math.min(n - rv, _remaining));
+            if (s <= 0)
+                break;
+            _remaining -= s;
+            rv += s;
+        }
+        return rv;
+    }
+
+    /**
+     *  Does not close the underlying stream
+     */
+    @Override
+    public void close() {}
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     *  Position at data in the current chunk, reading the next chunk header if necessary.
+     *
+     *  @return false at the end of the body
+     */
+    private boolean nextChunk() throws IOException {
+        if (_eof)
+            return false;
+        if (_remaining > 0)
+            return true;
+        String line = readLine();
+        if (line.length() == 0) {
+            // CRLF after the previous chunk's data
+            line = readLine();
+        }
+        int semi = line.indexOf(';');
+        if (semi >= 0)
+            line = line.substring(0, semi);
+        long len;
+        try {
+            len = Long.parseLong(line.trim(), 16);
+        } catch (NumberFormatException nfe) {
+            throw new IOException("Bad chunk size: " + line);
+        }
+        if (len < 0)
+            throw new IOException("Bad chunk size: " + line);
+        if (len == 0) {
+            // trailers, until a blank line
+            while (readLine().length() > 0) {}
+            _eof = true;
+            return false;
+        }
+        _remaining = len;
+        return true;
+    }
+
+    /**
+     *  @return line without the CRLF or LF
+     */
+    private String readLine() throws IOException {
+        StringBuilder buf = new StringBuilder(16);
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0)
+                throw new EOFException("EOF in chunk header");
+            if (c != '\r')
+                buf.append((char) c);
+            if (buf.length() > MAX_LINE)
+                throw new IOException("Chunk header too long");
+        }
+        return buf.toString();
+    }
+}
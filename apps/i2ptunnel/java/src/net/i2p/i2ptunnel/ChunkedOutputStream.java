@@ -0,0 +1,100 @@
+package net.i2p.i2ptunnel;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import net.i2p.data.DataHelper;
+
+/**
+ *  HTTP chunked transfer encoding, RFC 7230 sec. 4.1, without trailers.
+ *
+ *  Used by I2PTunnelHTTPServer to delimit a response body on a kept-alive
+ *  I2P stream, so the client knows where the response ends.
+ *  Writes are buffered so small writes don't become small chunks.
+ *
+ *  close() writes the last chunk and flushes, but does NOT close
+ *  the underlying stream, so it may be used for the next response.
+ *
+ *  @since 0.9.27
+ */
+class ChunkedOutputStream extends FilterOutputStream {
+    private final byte[] _buf;
+    private int _count;
+    private boolean _closed;
+
+    private static final int BUF_SIZE = 8*1024;
+    private static final byte[] CRLF = DataHelper.getASCII("\r\n");
+    private static final byte[] LAST_CHUNK = DataHelper.getASCII("0\r\n\r\n");
+
+    public ChunkedOutputStream(OutputStream out) {
+        super(out);
+        _buf = new byte[BUF_SIZE];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (_closed)
+            throw new IOException("closed");
+        if (_count >= _buf.length)
+            writeChunk();
+        _buf[_count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (_closed)
+            throw new IOException("closed");
+        while (len > 0) {
+            if (_count == 0 && len >= _buf.length) {
+                // big write, no need to copy
+                writeChunk(b, off, len);
+                return;
+            }
+            int n = Math.min(len, _buf.length - _count);
+            System.arraycopy(b, off, _buf, _count, n);
+            _count += n;
+            off += n;
+            len -= n;
+            if (_count >= _buf.length)
+                writeChunk();
+        }
+    }
+
+    /**
+     *  Writes any buffered data as a chunk, and flushes the underlying stream
+     */
+    @Override
+    public void flush() throws IOException {
+        if (_count > 0)
+            writeChunk();
+        out.flush();
+    }
+
+    /**
+     *  Writes any buffered data and the last chunk, and flushes.
+     *  Does not close the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (_closed)
+            return;
+        _closed = true;
+        if (_count > 0)
+            writeChunk();
+        out.write(LAST_CHUNK);
+        out.flush();
+    }
+
+    private void writeChunk() throws IOException {
+        writeChunk(_buf, 0, _count);
+        _count = 0;
+    }
+
+    private void writeChunk(byte[] b, int off, int len) throws IOException {
+        out.write(DataHelper.getASCII(Integer.toHexString(len)));
+        out.write(CRLF);
+        out.write(b, off, len);
+        out.write(CRLF);
+    }
+}
@@ -0,0 +1,138 @@
+package net.i2p.i2ptunnel;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *  A bounded LRU cache of gzipped response bodies for I2PTunnelHTTPServer,
+ *  so the same static file isn't compressed again for every request.
+ *
+ *  The key includes the URL and the ETag, Last-Modified, and Content-Type
+ *  response headers. The request still goes to the web server every time,
+ *  and only the compression is skipped, so a changed file gets
+ *  new validators and a new key, and conditional requests are
+ *  answered by the server as usual.
+ *
+ *  Evicts least-recently-used entries when the total size is exceeded.
+ *
+ *  @since 0.9.27
+ */
+class CompressedResponseCache {
+
+    /** locking: this */
+    private final Map<String, byte[]> _cache;
+    private final long _maxSize;
+    private final int _maxEntrySize;
+    /** locking: this */
+    private long _size;
+    /** locking: this */
+    private long _hits, _misses;
+
+    /**
+     *  @param maxSize total bytes of compressed data
+     */
+    public CompressedResponseCache(long maxSize) {
+        _maxSize = maxSize;
+        _maxEntrySize = (int) Math.min(maxSize / 8, 1024*1024);
+        _cache = new LinkedHashMap<String, byte[]>(64, 0.75f, true);
+    }
+
+    /**
+     *  @param request the Host and request line
+     *  @param etag may be null
+     *  @param lastModified may be null
+     *  @param contentType may be null
+     *  @param contentLength the uncompressed length from the response, or -1 if unknown
+     *  @return the key, or null if both etag and lastModified are null
+     */
+    public static String getKey(String request, String etag, String lastModified, String contentType,
+                                long contentLength) {
+        if (etag == null && lastModified == null)
+            return null;
+        StringBuilder buf = new StringBuilder(request.length() + 96);
+        buf.append(request).append('\n');
+        if (etag != null)
+            buf.append(etag);
+        buf.append('\n');
+        if (lastModified != null)
+            buf.append(lastModified);
+        buf.append('\n');
+        if (contentType != null)
+            buf.append(contentType);
+        buf.append('\n').append(contentLength);
+        return buf.toString();
+    }
+
+    /**
+     *  @return the compressed data, or null
+     */
+    public synchronized byte[] get(String key) {
+        byte[] rv = _cache.get(key);
+        if (rv != null)
+            _hits++;
+        else
+            _misses++;
+        return rv;
+    }
+
+    /**
+     *  Replaces any existing entry. Ignored if too big.
+     */
+    public synchronized void put(String key, byte[] data) {
+        if (data.length > _maxEntrySize)
+            return;
+        byte[] old = _cache.put(key, data);
+        if (old != null)
+            _size -= old.length;
+        _size += data.length;
+        for (Iterator<byte[]> iter = _cache.values().iterator(); _size > _maxSize && iter.hasNext(); ) {
+            _size -= iter.next().length;
+            iter.remove();
+        }
+    }
+
+    /**
+     *  @return total bytes of compressed data
+     */
+    public long getMaxSize() {
+        return _maxSize;
+    }
+
+    /**
+     *  Larger responses should not be captured for caching
+     */
+    public int getMaxEntrySize() {
+        return _maxEntrySize;
+    }
+
+    public synchronized int size() {
+        return _cache.size();
+    }
+
+    /**
+     *  @return total bytes of compressed data
+     */
+    public synchronized long getCachedBytes() {
+        return _size;
+    }
+
+    public synchronized long getHits() {
+        return _hits;
+    }
+
+    public synchronized long getMisses() {
+        return _misses;
+    }
+
+    public synchronized void clear() {
+        _cache.clear();
+        _size = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CompressedResponseCache: " + _cache.size() + " entries, " + _size + " bytes, " +
+               _hits + " hits of " + (_hits + _misses) + " lookups";
+    }
+}
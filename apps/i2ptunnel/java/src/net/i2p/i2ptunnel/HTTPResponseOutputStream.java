@@ -48,6 +48,17 @@ class HTTPResponseOutputStream extends FilterOutputStream {
     private static final ByteCache _cache = ByteCache.getInstance(8, CACHE_SIZE);
     // OOM DOS prevention
     private static final int MAX_HEADER_SIZE = 64*1024;
+
+    /**
+     *  Hop-by-hop header between I2PTunnelHTTPClient and I2PTunnelHTTPServer.
+     *  In the request, the client will reuse the stream if the server agrees.
+     *  In the response, the server will keep the stream open after the
+     *  response, and the body is in chunked transfer encoding.
+     *  Value "chunked". Never passed on to the browser or the web server.
+     *  @since 0.9.27
+     */
+    static final String KEEPALIVE_HEADER = "X-I2P-Keep-Alive";
+    private static final String LC_KEEPALIVE_HEADER = KEEPALIVE_HEADER.toLowerCase(Locale.US);
     
     public HTTPResponseOutputStream(OutputStream raw) {
         super(raw);
@@ -134,6 +145,16 @@ class HTTPResponseOutputStream extends FilterOutputStream {
         return line;
     }
     
+    /**
+     * Look at a response header before it is filtered and written.
+     * Overridden on server side.
+     *
+     * @param lcKey lower-case
+     * @param val trimmed, not lower-cased
+     * @since 0.9.27
+     */
+    protected void peekHeader(String lcKey, String val) {}
+    
     /** we ignore any potential \r, since we trim it on write anyway */
     private static final byte NL = '\n';
     private static boolean isNL(byte b) { return (b == NL); }
@@ -173,6 +194,7 @@ class HTTPResponseOutputStream extends FilterOutputStream {
                                 _log.info("Response header [" + key + "] = [" + val + "]");
                             
                             String lcKey = key.toLowerCase(Locale.US);
+                            peekHeader(lcKey, val);
                             if ("connection".equals(lcKey)) {
                                 out.write(DataHelper.getASCII("Connection: close\r\n"));
                                 connectionSent = true;
@@ -184,6 +206,8 @@ class HTTPResponseOutputStream extends FilterOutputStream {
                             } else if ("proxy-authenticate".equals(lcKey)) {
                                 // filter this hop-by-hop header; outproxy authentication must be configured in I2PTunnelHTTPClient
                                 // see e.g. http://blog.c22.cc/2013/03/11/privoxy-proxy-authentication-credential-exposure-cve-2013-2503/
+                            } else if (LC_KEEPALIVE_HEADER.equals(lcKey)) {
+                                // filter our own hop-by-hop header, see I2PTunnelHTTPServer
                             } else {
                                 if ("content-length".equals(lcKey)) {
                                     // save for compress decision on server side
@@ -4,6 +4,7 @@
 package net.i2p.i2ptunnel;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -82,6 +83,8 @@ public class I2PTunnelHTTPClient extends I2PTunnelHTTPClientBase implements Runn
      *  Used to protect actions via http://proxy.i2p/
      */
     private final String _proxyNonce;
+    /** @since 0.9.27 */
+    private final KeepAlivePool _keepAlivePool = new KeepAlivePool(_context, mySockets, sockLock);
 
     public static final String AUTH_REALM = "I2P HTTP Proxy";
 
@@ -313,6 +316,7 @@ public class I2PTunnelHTTPClient extends I2PTunnelHTTPClientBase implements Runn
         //_context.statManager().createRateStat("i2ptunnel.httpExpanded", "size transferred after expansion", "I2PTunnel", new long[] { 60*60*1000 });
         super.startRunning();
         if (open) {
+            _keepAlivePool.open();
             this.isr = new InternalSocketRunner(this);
             this.isr.start();
             int port = getLocalPort();
@@ -335,6 +339,8 @@ public class I2PTunnelHTTPClient extends I2PTunnelHTTPClientBase implements Runn
         if (reg == port) {
             _context.portMapper().unregister(PortMapper.SVC_HTTPS_PROXY);
         }
+        // idle streams don't count as active connections
+        _keepAlivePool.close();
         boolean rv = super.close(forced);
         if(this.isr != null) {
             this.isr.stopRunning();
@@ -364,6 +370,11 @@ public class I2PTunnelHTTPClient extends I2PTunnelHTTPClientBase implements Runn
     public static final String PROP_ACCEPT = "i2ptunnel.httpclient.sendAccept";
     /** @since 0.9.14 */
     public static final String PROP_INTERNAL_SSL = "i2ptunnel.httpclient.allowInternalSSL";
+    /**
+     *  Reuse streams to eepsites that support it, default false
+     *  @since 0.9.27
+     */
+    public static final String PROP_KEEPALIVE = "i2ptunnel.httpclient.keepAlive";
 
     /**
      *
@@ -389,6 +400,7 @@ public class I2PTunnelHTTPClient extends I2PTunnelHTTPClientBase implements Runn
         String currentProxy = null;
         long requestId = __requestId.incrementAndGet();
         boolean shout = false;
+        boolean keepAlive = false;
 
         try {
             out = s.getOutputStream();
@@ -411,7 +423,8 @@ public class I2PTunnelHTTPClient extends I2PTunnelHTTPClientBase implements Runn
                 String lowercaseLine = line.toLowerCase(Locale.US);
                 if(lowercaseLine.startsWith("connection: ") ||
                         lowercaseLine.startsWith("keep-alive: ") ||
-                        lowercaseLine.startsWith("proxy-connection: ")) {
+                        lowercaseLine.startsWith("proxy-connection: ") ||
+                        lowercaseLine.startsWith("x-i2p-keep-alive:")) {
                     continue;
                 }
 
@@ -1014,6 +1027,14 @@ public class I2PTunnelHTTPClient extends I2PTunnelHTTPClientBase implements Runn
                                     .append("\r\n");
                         }
                     }
+                    // keep-alive between us and the server tunnel only,
+                    // the browser and the web server still get Connection: close
+                    keepAlive = !usingWWWProxy && !usingInternalOutproxy && !usingInternalServer &&
+                                (method.toUpperCase(Locale.US).equals("GET") ||
+                                 method.toUpperCase(Locale.US).equals("HEAD")) &&
+                                Boolean.parseBoolean(getTunnel().getClientOptions().getProperty(PROP_KEEPALIVE));
+                    if (keepAlive)
+                        newRequest.append(HTTPResponseOutputStream.KEEPALIVE_HEADER).append(": chunked\r\n");
                     newRequest.append("Connection: close\r\n\r\n");
                     break;
                 } else {
@@ -1246,8 +1267,13 @@ public class I2PTunnelHTTPClient extends I2PTunnelHTTPClientBase implements Runn
             I2PSocketOptions sktOpts = getDefaultOptions(opts);
             if (remotePort > 0)
                 sktOpts.setPort(remotePort);
-            I2PSocket i2ps = createI2PSocket(clientDest, sktOpts);
             OnTimeout onTimeout = new OnTimeout(s, s.getOutputStream(), targetRequest, usingWWWProxy, currentProxy, requestId);
+            if (keepAlive) {
+                byte[] data = newRequest.toString().getBytes("ISO-8859-1");
+                keepAliveRequest(s, clientDest, sktOpts, data, onTimeout, requestId);
+                return;
+            }
+            I2PSocket i2ps = createI2PSocket(clientDest, sktOpts);
             Thread t;
             if (method.toUpperCase(Locale.US).equals("CONNECT")) {
                 byte[] data;
@@ -1290,6 +1316,146 @@ public class I2PTunnelHTTPClient extends I2PTunnelHTTPClientBase implements Runn
         }
     }
 
+    /**
+     *  Send a GET or HEAD request on an idle stream to the same destination and port,
+     *  or on a new stream, and put the stream in the pool afterwards
+     *  if the server kept it alive.
+     *  If the server closed an idle stream, retry once on a new stream.
+     *  Always closes the browser socket.
+     *
+     *  @since 0.9.27
+     */
+    private void keepAliveRequest(Socket s, Destination dest, I2PSocketOptions opts, byte[] data,
+                                  OnTimeout onTimeout, long requestId) throws IOException, I2PException {
+        String key = dest.calculateHash().toBase64() + ':' + opts.getPort();
+        KeepAlivePool.Entry e = _keepAlivePool.get(key);
+        while (true) {
+            if (e == null)
+                e = new KeepAlivePool.Entry(createI2PSocket(dest, opts));
+            boolean reuse;
+            try {
+                reuse = keepAliveExchange(e.getInputStream(), e.getOutputStream(), data, s.getOutputStream());
+            } catch (NoResponseException nre) {
+                _keepAlivePool.close(e);
+                if (e.isReused()) {
+                    if (_log.shouldLog(Log.INFO))
+                        _log.info(getPrefix(requestId) + "Idle stream closed, retrying on a new stream", nre);
+                    e = null;
+                    continue;
+                }
+                onTimeout.onFail(nre);
+                return;
+            } catch (IOException ioe) {
+                // partial response, too late for an error page
+                _keepAlivePool.close(e);
+                if (_log.shouldLog(Log.INFO))
+                    _log.info(getPrefix(requestId) + "Error in keep-alive response", ioe);
+                closeSocket(s);
+                return;
+            }
+            closeSocket(s);
+            if (reuse) {
+                if (_log.shouldLog(Log.DEBUG))
+                    _log.debug(getPrefix(requestId) + "Returning stream to pool, reused? " + e.isReused());
+                _keepAlivePool.put(key, e);
+            } else {
+                _keepAlivePool.close(e);
+            }
+            return;
+        }
+    }
+
+    /**
+     *  Nothing was sent to the browser, so we may retry or send an error page.
+     *
+     *  @since 0.9.27
+     */
+    static class NoResponseException extends IOException {
+        public NoResponseException(String msg) {
+            super(msg);
+        }
+
+        public NoResponseException(IOException cause) {
+            super(cause.toString());
+            initCause(cause);
+        }
+    }
+
+    private static final int MAX_RESPONSE_HEADER_SIZE = 64*1024;
+
+    /**
+     *  Send the request and copy the response to the browser through a HTTPResponseOutputStream.
+     *  If the server responds with the keep-alive header, the body is chunked,
+     *  and the stream is left positioned after it.
+     *  Otherwise, the body is read until EOF.
+     *  Package private for unit tests.
+     *
+     *  @param i2pin must be buffered, and kept with the stream for the next request
+     *  @param browserOut closed on return
+     *  @return true if the server will keep the stream open and it may be reused
+     *  @throws NoResponseException if the request could not be sent or the response headers
+     *                              were not received; nothing was written to browserOut
+     *  @throws IOException on other errors, after a partial response was written to browserOut
+     *  @since 0.9.27
+     */
+    static boolean keepAliveExchange(InputStream i2pin, OutputStream i2pout, byte[] request,
+                                     OutputStream browserOut) throws IOException {
+        try {
+            i2pout.write(request);
+            i2pout.flush();
+        } catch (IOException ioe) {
+            throw new NoResponseException(ioe);
+        }
+        // read the headers here, as we have to know how the body is delimited before reading it
+        ByteArrayOutputStream headers = new ByteArrayOutputStream(1024);
+        StringBuilder buf = new StringBuilder(128);
+        boolean keepAlive = false;
+        boolean first = true;
+        while (true) {
+            int c;
+            try {
+                c = i2pin.read();
+            } catch (IOException ioe) {
+                throw new NoResponseException(ioe);
+            }
+            if (c < 0)
+                throw new NoResponseException("EOF before end of response headers");
+            if (headers.size() >= MAX_RESPONSE_HEADER_SIZE)
+                throw new NoResponseException("Response headers too big");
+            headers.write(c);
+            if (c == '\n') {
+                String line = buf.toString().trim();
+                if (line.length() == 0) {
+                    if (first)
+                        throw new NoResponseException("No response line");
+                    break;
+                }
+                first = false;
+                String lcLine = line.toLowerCase(Locale.US);
+                if (lcLine.startsWith("x-i2p-keep-alive:"))
+                    keepAlive = lcLine.contains("chunked");
+                buf.setLength(0);
+            } else {
+                buf.append((char) c);
+            }
+        }
+        OutputStream out = new HTTPResponseOutputStream(browserOut);
+        try {
+            out.write(headers.toByteArray());
+            InputStream in = keepAlive ? new ChunkedInputStream(i2pin) : i2pin;
+            byte[] data = new byte[8*1024];
+            int read;
+            while ((read = in.read(data)) >= 0) {
+                out.write(data, 0, read);
+                if (read < data.length && i2pin.available() <= 0)
+                    out.flush();
+            }
+        } finally {
+            try { out.close(); } catch (IOException ioe) {}
+        }
+        return keepAlive;
+    }
+
     /**
      *  Unlike selectProxy(), we parse the option on the fly so it
      *  can be changed. selectProxy() requires restart...
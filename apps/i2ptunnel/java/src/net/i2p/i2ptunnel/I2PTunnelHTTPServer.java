@@ -4,8 +4,10 @@
 package net.i2p.i2ptunnel;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -19,6 +21,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 
 import javax.net.ssl.SSLException;
@@ -59,6 +62,21 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
     public static final int DEFAULT_POST_TOTAL_BAN_TIME = 10*60;
     public static final int DEFAULT_POST_MAX = 3;
     public static final int DEFAULT_POST_TOTAL_MAX = 10;
+    /** 1-9 @since 0.9.27 */
+    public static final String OPT_GZIP_LEVEL = "i2ptunnel.gzip.level";
+    /** KB of compressed responses to cache, 0 to disable @since 0.9.27 */
+    public static final String OPT_GZIP_CACHE_SIZE = "i2ptunnel.gzip.cacheSize";
+    /** same as Deflater.DEFAULT_COMPRESSION @since 0.9.27 */
+    public static final int DEFAULT_GZIP_LEVEL = 6;
+    /**
+     *  Keep streams open for clients that ask for it, default false.
+     *  Requests after the first on a stream don't go through the streaming
+     *  connection limits or the bounded handler pool, so they are counted
+     *  against the same i2p.streaming.max(Total)ConnsPer(Minute|Hour|Day)
+     *  limits here, and the stream is closed after MAX_KEEPALIVE_REQUESTS.
+     *  @since 0.9.27
+     */
+    public static final String OPT_KEEPALIVE = "i2ptunnel.httpserver.keepAlive";
 
     /** what Host: should we seem to be to the webserver? */
     private String _spoofHost;
@@ -72,6 +90,24 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
     private static final String[] SERVER_SKIPHEADERS = {SERVER_HEADER, X_POWERED_BY_HEADER, X_RUNTIME_HEADER };
     /** timeout for first request line */
     private static final long HEADER_TIMEOUT = 15*1000;
+    /**
+     *  How long to wait for the next request on a kept-alive stream.
+     *  Must be more than KeepAlivePool.IDLE_TIMEOUT.
+     *  @since 0.9.27
+     */
+    static final long KEEPALIVE_TIMEOUT = 90*1000;
+    /** @since 0.9.27 */
+    private static final int MAX_KEEPALIVE_REQUESTS = 100;
+    /** per-peer streaming limits applied to kept-alive requests, same order as the periods @since 0.9.27 */
+    private static final String[] KEEPALIVE_MAX_OPTS = { "i2p.streaming.maxConnsPerMinute",
+                                                         "i2p.streaming.maxConnsPerHour",
+                                                         "i2p.streaming.maxConnsPerDay" };
+    /** total streaming limits applied to kept-alive requests @since 0.9.27 */
+    private static final String[] KEEPALIVE_TOTAL_MAX_OPTS = { "i2p.streaming.maxTotalConnsPerMinute",
+                                                               "i2p.streaming.maxTotalConnsPerHour",
+                                                               "i2p.streaming.maxTotalConnsPerDay" };
+    /** @since 0.9.27 */
+    private static final long[] KEEPALIVE_LIMIT_PERIODS = { 60*1000L, 60*60*1000L, 24*60*60*1000L };
     /** total timeout for the request and all the headers */
     private static final long TOTAL_HEADER_TIMEOUT = 2 * HEADER_TIMEOUT;
     private static final long START_INTERVAL = (60 * 1000) * 3;
@@ -83,6 +119,11 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
     
     private long _startedOn = 0L;
     private ConnThrottler _postThrottler;
+    /** entries null if unlimited, sync on this @since 0.9.27 */
+    private final ConnThrottler[] _keepAliveThrottlers = new ConnThrottler[KEEPALIVE_LIMIT_PERIODS.length];
+    private volatile int _gzipLevel = DEFAULT_GZIP_LEVEL;
+    /** null if disabled */
+    private volatile CompressedResponseCache _gzipCache;
 
     private final static String ERR_UNAVAILABLE =
          "HTTP/1.1 503 Service Unavailable\r\n"+
@@ -195,6 +236,8 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
     private void setupI2PTunnelHTTPServer(String spoofHost) {
         _spoofHost = (spoofHost != null && spoofHost.trim().length() > 0) ? spoofHost.trim() : null;
         getTunnel().getContext().statManager().createRateStat("i2ptunnel.httpserver.blockingHandleTime", "how long the blocking handle takes to complete", "I2PTunnel.HTTPServer", new long[] { 60*1000, 10*60*1000, 3*60*60*1000 });
+        getTunnel().getContext().statManager().createRateStat("i2ptunnel.httpserver.gzipCacheHit", "compressed response served from the cache", "I2PTunnel.HTTPServer", new long[] { 60*60*1000 });
+        getTunnel().getContext().statManager().createRateStat("i2ptunnel.httpserver.gzipCacheMiss", "cacheable compressed response not in the cache", "I2PTunnel.HTTPServer", new long[] { 60*60*1000 });
     }
 
     @Override
@@ -203,6 +246,8 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
         // Would be better if this was set when the inbound tunnel becomes alive.
         _startedOn = getTunnel().getContext().clock().now();
         setupPostThrottle();
+        setupKeepAliveThrottle();
+        setupCompression();
     }
 
     /** @since 0.9.9 */
@@ -222,6 +267,62 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
         }
     }
 
+    /**
+     *  The streaming connection limits, applied to each request
+     *  after the first on a kept-alive stream.
+     *
+     *  @since 0.9.27
+     */
+    private void setupKeepAliveThrottle() {
+        synchronized(this) {
+            for (int i = 0; i < KEEPALIVE_LIMIT_PERIODS.length; i++) {
+                int max = getIntOption(KEEPALIVE_MAX_OPTS[i], 0);
+                int total = getIntOption(KEEPALIVE_TOTAL_MAX_OPTS[i], 0);
+                long period = KEEPALIVE_LIMIT_PERIODS[i];
+                if (_keepAliveThrottlers[i] != null)
+                    _keepAliveThrottlers[i].updateLimits(max, total, period, period, period);
+                else if (max > 0 || total > 0)
+                    _keepAliveThrottlers[i] = new ConnThrottler(max, total, period, period, period,
+                                                                "kept-alive request", _log);
+            }
+        }
+    }
+
+    /**
+     *  @return true if the peer has exceeded a streaming connection limit
+     *          with kept-alive requests
+     *  @since 0.9.27
+     */
+    private synchronized boolean shouldThrottleKeepAlive(Hash peerHash) {
+        for (int i = 0; i < _keepAliveThrottlers.length; i++) {
+            ConnThrottler t = _keepAliveThrottlers[i];
+            if (t != null && t.shouldThrottle(peerHash))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     *  Compression level and the compressed response cache.
+     *  The cache is replaced if the level or size changes.
+     *
+     *  @since 0.9.27
+     */
+    private void setupCompression() {
+        int level = getIntOption(OPT_GZIP_LEVEL, DEFAULT_GZIP_LEVEL);
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+            level = DEFAULT_GZIP_LEVEL;
+        long size = 1024L * getIntOption(OPT_GZIP_CACHE_SIZE, 0);
+        synchronized(this) {
+            CompressedResponseCache cache = _gzipCache;
+            if (size <= 0)
+                _gzipCache = null;
+            else if (cache == null || cache.getMaxSize() != size || level != _gzipLevel)
+                _gzipCache = new CompressedResponseCache(size);
+            _gzipLevel = level;
+        }
+    }
+
     /** @since 0.9.9 */
     private int getIntOption(String opt, int dflt) {
         Properties opts = getTunnel().getClientOptions();
@@ -240,6 +341,12 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
         synchronized(this) {
             if (_postThrottler != null)
                 _postThrottler.clear();
+            for (int i = 0; i < _keepAliveThrottlers.length; i++) {
+                if (_keepAliveThrottlers[i] != null)
+                    _keepAliveThrottlers[i].clear();
+            }
+            if (_gzipCache != null)
+                _gzipCache.clear();
         }
         return super.close(forced);
     }
@@ -250,6 +357,8 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
         if (getTunnel() != tunnel)
             return;
         setupPostThrottle();
+        setupKeepAliveThrottle();
+        setupCompression();
         Properties props = tunnel.getClientOptions();
         // see TunnelController.setSessionOptions()
         String spoofHost = props.getProperty(TunnelController.PROP_SPOOFED_HOST);
@@ -356,24 +465,7 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
             long afterHeaders = getTunnel().getContext().clock().now();
 
             Properties opts = getTunnel().getClientOptions();
-            if (Boolean.parseBoolean(opts.getProperty(OPT_REJECT_INPROXY)) &&
-                (headers.containsKey("X-Forwarded-For") ||
-                 headers.containsKey("X-Forwarded-Server") ||
-                 headers.containsKey("X-Forwarded-Host"))) {
-                if (_log.shouldLog(Log.WARN)) {
-                    StringBuilder buf = new StringBuilder();
-                    buf.append("Refusing inproxy access: ").append(Base32.encode(peerHash.getData())).append(".b32.i2p");
-                    List<String> h = headers.get("X-Forwarded-For");
-                    if (h != null)
-                        buf.append(" from: ").append(h.get(0));
-                    h = headers.get("X-Forwarded-Server");
-                    if (h != null)
-                        buf.append(" via: ").append(h.get(0));
-                    h = headers.get("X-Forwarded-Host");
-                    if (h != null)
-                        buf.append(" for: ").append(h.get(0));
-                    _log.warn(buf.toString());
-                }
+            if (rejectRequest(peerHash, headers, opts)) {
                 try {
                     // Send a 403, so the user doesn't get an HTTP Proxy error message
                     // and blame his router or the network.
@@ -385,48 +477,6 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
                 return;
             }
 
-            if (Boolean.parseBoolean(opts.getProperty(OPT_REJECT_REFERER)) &&
-                headers.containsKey("Referer")) {
-                if (_log.shouldLog(Log.WARN))
-                    _log.warn("Refusing access from: " +
-                              Base32.encode(peerHash.getData()) + ".b32.i2p" +
-                              " with Referer: " + headers.get("Referer").get(0));
-                try {
-                    socket.getOutputStream().write(ERR_INPROXY.getBytes("UTF-8"));
-                } catch (IOException ioe) {}
-                try {
-                    socket.close();
-                } catch (IOException ioe) {}
-                return;
-            }
-
-            if (Boolean.parseBoolean(opts.getProperty(OPT_REJECT_USER_AGENTS)) &&
-                headers.containsKey("User-Agent")) {
-                String ua = headers.get("User-Agent").get(0);
-                if (!ua.startsWith("MYOB")) {
-                    String blockAgents = opts.getProperty(OPT_USER_AGENTS);
-                    if (blockAgents != null) {
-                        String[] agents = DataHelper.split(blockAgents, ",");
-                        for (int i = 0; i < agents.length; i++) {
-                            String ag = agents[i].trim();
-                            if (ag.length() > 0 && ua.contains(ag)) {
-                                if (_log.shouldLog(Log.WARN))
-                                    _log.warn("Refusing access from: " +
-                                              Base32.encode(peerHash.getData()) + ".b32.i2p" +
-                                              " with User-Agent: " + ua);
-                                try {
-                                    socket.getOutputStream().write(ERR_INPROXY.getBytes("UTF-8"));
-                                } catch (IOException ioe) {}
-                                try {
-                                    socket.close();
-                                } catch (IOException ioe) {}
-                                return;
-                            }
-                        }
-                    }
-                }
-            }
-
             if (_postThrottler != null &&
                 command.length() >= 5 &&
                 command.substring(0, 5).toUpperCase(Locale.US).equals("POST ")) {
@@ -446,35 +496,10 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
                 }
             }
             
-            addEntry(headers, HASH_HEADER, peerHash.toBase64());
-            addEntry(headers, DEST32_HEADER, socket.getPeerDestination().toBase32());
-            addEntry(headers, DEST64_HEADER, socket.getPeerDestination().toBase64());
-
-            // Port-specific spoofhost
-            String spoofHost;
-            int ourPort = socket.getLocalPort();
-            if (ourPort != 80 && ourPort > 0 && ourPort <= 65535) {
-                String portSpoof = opts.getProperty("spoofedHost." + ourPort);
-                if (portSpoof != null)
-                    spoofHost = portSpoof.trim();
-                else
-                    spoofHost = _spoofHost;
-            } else {
-                spoofHost = _spoofHost;
-            }
-            if (spoofHost != null)
-                setEntry(headers, "Host", spoofHost);
-            setEntry(headers, "Connection", "close");
-            // we keep the enc sent by the browser before clobbering it, since it may have 
-            // been x-i2p-gzip
-            String enc = getEntryOrNull(headers, "Accept-Encoding");
-            String altEnc = getEntryOrNull(headers, "X-Accept-Encoding");
-            
-            // according to rfc2616 s14.3, this *should* force identity, even if
-            // "identity;q=1, *;q=0" didn't.  
-            // as of 0.9.23, the client passes this header through, and we do the same,
-            // so if the server and browser can do the compression/decompression, we don't have to
-            //setEntry(headers, "Accept-Encoding", ""); 
+            // remove it whether we support it or not, it's only for us
+            boolean keepAlive = isKeepAliveRequest(command, headers) &&
+                                Boolean.parseBoolean(opts.getProperty(OPT_KEEPALIVE));
+            boolean gzip = prepareHeaders(socket, headers, opts);
 
             socket.setReadTimeout(readTimeout);
             Socket s = getSocket(socket.getPeerDestination().calculateHash(), socket.getLocalPort());
@@ -483,25 +508,21 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
             // request from the socket, modifies the headers, sends the request to the 
             // server, reads the response headers, rewriting to include Content-Encoding: x-i2p-gzip
             // if it was one of the Accept-Encoding: values, and gzip the payload       
-            boolean allowGZIP = true;
-            String val = opts.getProperty("i2ptunnel.gzip");
-            if ( (val != null) && (!Boolean.parseBoolean(val)) ) 
-                allowGZIP = false;
-            if (_log.shouldLog(Log.INFO))
-                _log.info("HTTP server encoding header: " + enc + "/" + altEnc);
-            boolean alt = (altEnc != null) && (altEnc.indexOf("x-i2p-gzip") >= 0);
-            boolean useGZIP = alt || ( (enc != null) && (enc.indexOf("x-i2p-gzip") >= 0) );
-            // Don't pass this on, outproxies should strip so I2P traffic isn't so obvious but they probably don't
-            if (alt)
-                headers.remove("X-Accept-Encoding");
-
             String modifiedHeader = formatHeaders(headers, command);
             if (_log.shouldLog(Log.DEBUG))
                 _log.debug("Modified header: [" + modifiedHeader + "]");
             
             Runnable t;
-            if (allowGZIP && useGZIP) {
-                t = new CompressedRequestor(s, socket, modifiedHeader, getTunnel().getContext(), _log);
+            if (keepAlive) {
+                String cacheRequest = gzip && _gzipCache != null ? getCacheRequest(command, headers) : null;
+                t = new KeepAliveRequestor(socket, peerHash, s, modifiedHeader, gzip, cacheRequest);
+            } else if (gzip) {
+                CompressedResponseCache cache = _gzipCache;
+                String cacheRequest = cache != null ? getCacheRequest(command, headers) : null;
+                if (cacheRequest == null)
+                    cache = null;
+                t = new CompressedRequestor(s, socket, modifiedHeader, getTunnel().getContext(), _log,
+                                            _gzipLevel, cache, cacheRequest);
             } else {
                 t = new I2PTunnelRunner(s, socket, slock, null, DataHelper.getUTF8(modifiedHeader),
                                                null, (I2PTunnelRunner.FailCallback) null);
@@ -555,6 +576,134 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
         }
     }
     
+    /**
+     *  The inproxy, referer, and user agent checks.
+     *  Caller must send ERR_INPROXY and close the socket if rejected.
+     *
+     *  @return true if rejected
+     *  @since 0.9.27 moved from blockingHandle()
+     */
+    private boolean rejectRequest(Hash peerHash, Map<String, List<String>> headers, Properties opts) {
+        if (Boolean.parseBoolean(opts.getProperty(OPT_REJECT_INPROXY)) &&
+            (headers.containsKey("X-Forwarded-For") ||
+             headers.containsKey("X-Forwarded-Server") ||
+             headers.containsKey("X-Forwarded-Host"))) {
+            if (_log.shouldLog(Log.WARN)) {
+                StringBuilder buf = new StringBuilder();
+                buf.append("Refusing inproxy access: ").append(Base32.encode(peerHash.getData())).append(".b32.i2p");
+                List<String> h = headers.get("X-Forwarded-For");
+                if (h != null)
+                    buf.append(" from: ").append(h.get(0));
+                h = headers.get("X-Forwarded-Server");
+                if (h != null)
+                    buf.append(" via: ").append(h.get(0));
+                h = headers.get("X-Forwarded-Host");
+                if (h != null)
+                    buf.append(" for: ").append(h.get(0));
+                _log.warn(buf.toString());
+            }
+            return true;
+        }
+
+        if (Boolean.parseBoolean(opts.getProperty(OPT_REJECT_REFERER)) &&
+            headers.containsKey("Referer")) {
+            if (_log.shouldLog(Log.WARN))
+                _log.warn("Refusing access from: " +
+                          Base32.encode(peerHash.getData()) + ".b32.i2p" +
+                          " with Referer: " + headers.get("Referer").get(0));
+            return true;
+        }
+
+        if (Boolean.parseBoolean(opts.getProperty(OPT_REJECT_USER_AGENTS)) &&
+            headers.containsKey("User-Agent")) {
+            String ua = headers.get("User-Agent").get(0);
+            if (!ua.startsWith("MYOB")) {
+                String blockAgents = opts.getProperty(OPT_USER_AGENTS);
+                if (blockAgents != null) {
+                    String[] agents = DataHelper.split(blockAgents, ",");
+                    for (int i = 0; i < agents.length; i++) {
+                        String ag = agents[i].trim();
+                        if (ag.length() > 0 && ua.contains(ag)) {
+                            if (_log.shouldLog(Log.WARN))
+                                _log.warn("Refusing access from: " +
+                                          Base32.encode(peerHash.getData()) + ".b32.i2p" +
+                                          " with User-Agent: " + ua);
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     *  Add our headers, the spoofed host, and Connection: close,
+     *  and remove X-Accept-Encoding.
+     *
+     *  @return true if the response should be compressed
+     *  @since 0.9.27 moved from blockingHandle()
+     */
+    private boolean prepareHeaders(I2PSocket socket, Map<String, List<String>> headers, Properties opts) {
+        addEntry(headers, HASH_HEADER, socket.getPeerDestination().calculateHash().toBase64());
+        addEntry(headers, DEST32_HEADER, socket.getPeerDestination().toBase32());
+        addEntry(headers, DEST64_HEADER, socket.getPeerDestination().toBase64());
+
+        // Port-specific spoofhost
+        String spoofHost;
+        int ourPort = socket.getLocalPort();
+        if (ourPort != 80 && ourPort > 0 && ourPort <= 65535) {
+            String portSpoof = opts.getProperty("spoofedHost." + ourPort);
+            if (portSpoof != null)
+                spoofHost = portSpoof.trim();
+            else
+                spoofHost = _spoofHost;
+        } else {
+            spoofHost = _spoofHost;
+        }
+        if (spoofHost != null)
+            setEntry(headers, "Host", spoofHost);
+        setEntry(headers, "Connection", "close");
+        // we keep the enc sent by the browser before clobbering it, since it may have 
+        // been x-i2p-gzip
+        String enc = getEntryOrNull(headers, "Accept-Encoding");
+        String altEnc = getEntryOrNull(headers, "X-Accept-Encoding");
+        
+        // according to rfc2616 s14.3, this *should* force identity, even if
+        // "identity;q=1, *;q=0" didn't.  
+        // as of 0.9.23, the client passes this header through, and we do the same,
+        // so if the server and browser can do the compression/decompression, we don't have to
+        //setEntry(headers, "Accept-Encoding", ""); 
+
+        boolean allowGZIP = true;
+        String val = opts.getProperty("i2ptunnel.gzip");
+        if ( (val != null) && (!Boolean.parseBoolean(val)) ) 
+            allowGZIP = false;
+        if (_log.shouldLog(Log.INFO))
+            _log.info("HTTP server encoding header: " + enc + "/" + altEnc);
+        boolean alt = (altEnc != null) && (altEnc.indexOf("x-i2p-gzip") >= 0);
+        boolean useGZIP = alt || ( (enc != null) && (enc.indexOf("x-i2p-gzip") >= 0) );
+        // Don't pass this on, outproxies should strip so I2P traffic isn't so obvious but they probably don't
+        if (alt)
+            headers.remove("X-Accept-Encoding");
+        return allowGZIP && useGZIP;
+    }
+
+    /**
+     *  Removes the keep-alive header, so it isn't passed on to the web server.
+     *
+     *  @return true if the client asked for a kept-alive stream and may get one
+     *  @since 0.9.27
+     */
+    private static boolean isKeepAliveRequest(StringBuilder command, Map<String, List<String>> headers) {
+        List<String> ka = headers.remove(HTTPResponseOutputStream.KEEPALIVE_HEADER);
+        if (ka == null || !ka.get(0).toLowerCase(Locale.US).contains("chunked"))
+            return false;
+        // nothing with a request body
+        String cmd = command.toString();
+        return cmd.startsWith("GET ") || cmd.startsWith("HEAD ");
+    }
+
     private static class CompressedRequestor implements Runnable {
         private final Socket _webserver;
         private final I2PSocket _browser;
@@ -562,15 +711,27 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
         private final I2PAppContext _ctx;
         // shadows _log in super()
         private final Log _log;
+        private final int _level;
+        private final CompressedResponseCache _cache;
+        private final String _cacheRequest;
 
         private static final int BUF_SIZE = 8*1024;
 
-        public CompressedRequestor(Socket webserver, I2PSocket browser, String headers, I2PAppContext ctx, Log log) {
+        /**
+         *  @param cache may be null
+         *  @param cacheRequest the Host and request line, null if cache is null
+         *  @since 0.9.27 added level, cache, cacheRequest
+         */
+        public CompressedRequestor(Socket webserver, I2PSocket browser, String headers, I2PAppContext ctx, Log log,
+                                   int level, CompressedResponseCache cache, String cacheRequest) {
             _webserver = webserver;
             _browser = browser;
             _headers = headers;
             _ctx = ctx;
             _log = log;
+            _level = level;
+            _cache = cache;
+            _cacheRequest = cacheRequest;
         }
 
         public void run() {
@@ -616,7 +777,8 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
                 } catch (NullPointerException npe) {
                     throw new IOException("getInputStream NPE");
                 }
-                CompressedResponseOutputStream compressedOut = new CompressedResponseOutputStream(browserout);
+                CompressedResponseOutputStream compressedOut = new CompressedResponseOutputStream(browserout, _ctx,
+                                                                                                  _level, _cache, _cacheRequest);
 
                 //Change headers to protect server identity
                 StringBuilder command = new StringBuilder(128);
@@ -630,7 +792,8 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
                     _log.info("Before pumping the compressed response");
                 s.run(); // same thread
                 if (_log.shouldLog(Log.INFO))
-                    _log.info("After pumping the compressed response: " + compressedOut.getTotalRead() + "/" + compressedOut.getTotalCompressed());
+                    _log.info("After pumping the compressed response: " + compressedOut.getTotalRead() + "/" + compressedOut.getTotalCompressed() +
+                              (_cache != null ? "; " + _cache : ""));
             } catch (SSLException she) {
                 _log.error("SSL error", she);
                 try {
@@ -650,6 +813,154 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
         }
     }
 
+    /**
+     *  Handles GET and HEAD requests from I2PTunnelHTTPClient on one stream,
+     *  one after another, until the client closes it or is idle too long.
+     *  Each request still gets a new connection to the web server with Connection: close;
+     *  only the I2P stream is kept open, so the client doesn't have to
+     *  wait for a new streaming connection for every request.
+     *  The response body is chunked so the client knows where it ends.
+     *
+     *  @since 0.9.27
+     */
+    private class KeepAliveRequestor implements Runnable {
+        private final I2PSocket _socket;
+        private final Hash _peerHash;
+        private final I2PAppContext _ctx;
+        private Socket _webserver;
+        private String _headers;
+        private boolean _gzip;
+        private String _cacheRequest;
+
+        private static final int BUF_SIZE = 8*1024;
+
+        /**
+         *  @param webserver for the first request
+         *  @param headers the first request
+         *  @param gzip compress the first response
+         *  @param cacheRequest the Host and request line of the first request, may be null
+         */
+        public KeepAliveRequestor(I2PSocket socket, Hash peerHash, Socket webserver, String headers,
+                                  boolean gzip, String cacheRequest) {
+            _socket = socket;
+            _peerHash = peerHash;
+            _ctx = getTunnel().getContext();
+            _webserver = webserver;
+            _headers = headers;
+            _gzip = gzip;
+            _cacheRequest = cacheRequest;
+        }
+
+        public void run() {
+            int count = 0;
+            try {
+                while (true) {
+                    if (!respond(++count < MAX_KEEPALIVE_REQUESTS))
+                        break;
+                    if (!nextRequest())
+                        break;
+                }
+            } finally {
+                try { _socket.close(); } catch (IOException ioe) {}
+                if (_log.shouldLog(Log.INFO))
+                    _log.info("Closed kept-alive stream after " + count + " requests");
+            }
+        }
+
+        /**
+         *  Send the current request to the web server and the response to the client.
+         *
+         *  @param keepAlive false for the last response
+         *  @return true if the stream should be kept open
+         */
+        private boolean respond(boolean keepAlive) {
+            OutputStream serverout = null;
+            InputStream serverin = null;
+            try {
+                if (_log.shouldLog(Log.INFO))
+                    _log.info("request headers: " + _headers);
+                serverout = _webserver.getOutputStream();
+                serverout.write(DataHelper.getUTF8(_headers));
+                serverin = new BufferedInputStream(_webserver.getInputStream(), BUF_SIZE);
+                CompressedResponseCache cache = _cacheRequest != null ? _gzipCache : null;
+                CompressedResponseOutputStream out = new CompressedResponseOutputStream(_socket.getOutputStream(), _ctx,
+                                                                                        _gzipLevel, cache, _cacheRequest,
+                                                                                        _gzip, keepAlive);
+                //Change headers to protect server identity
+                StringBuilder command = new StringBuilder(128);
+                Map<String, List<String>> headers = readHeaders(null, serverin, command,
+                    SERVER_SKIPHEADERS, _ctx);
+                out.write(DataHelper.getUTF8(formatHeaders(headers, command)));
+                byte[] buf = new byte[BUF_SIZE];
+                int read;
+                while ((read = serverin.read(buf)) != -1) {
+                    out.write(buf, 0, read);
+                }
+                // last chunk, but the stream stays open if keepAlive
+                out.close();
+                return keepAlive;
+            } catch (IOException ioe) {
+                if (_log.shouldLog(Log.WARN))
+                    _log.warn("error in kept-alive response", ioe);
+                return false;
+            } finally {
+                if (serverout != null) try { serverout.close(); } catch (IOException ioe) {}
+                if (serverin != null) try { serverin.close(); } catch (IOException ioe) {}
+                try { _webserver.close(); } catch (IOException ioe) {}
+            }
+        }
+
+        /**
+         *  Wait for the next request and connect to the web server.
+         *  Sends an error response if it isn't acceptable.
+         *
+         *  @return true if we have the next request
+         */
+        private boolean nextRequest() {
+            StringBuilder command = new StringBuilder(128);
+            Map<String, List<String>> headers;
+            try {
+                headers = readHeaders(_socket, null, command, CLIENT_SKIPHEADERS, _ctx, KEEPALIVE_TIMEOUT);
+            } catch (IOException ioe) {
+                // usually the client closed it, or the idle timeout
+                if (_log.shouldLog(Log.DEBUG))
+                    _log.debug("No next request on kept-alive stream", ioe);
+                return false;
+            }
+            String err = null;
+            if (!isKeepAliveRequest(command, headers)) {
+                // the client may only send keep-alive GET and HEAD requests on this stream
+                err = ERR_BAD_REQUEST;
+            } else if (shouldThrottleKeepAlive(_peerHash)) {
+                if (_log.shouldLog(Log.WARN))
+                    _log.warn("Refusing kept-alive request since peer is throttled: " +
+                              Base32.encode(_peerHash.getData()) + ".b32.i2p");
+                err = ERR_DENIED;
+            } else if (rejectRequest(_peerHash, headers, getTunnel().getClientOptions())) {
+                err = ERR_INPROXY;
+            } else {
+                _gzip = prepareHeaders(_socket, headers, getTunnel().getClientOptions());
+                _cacheRequest = _gzip && _gzipCache != null ? getCacheRequest(command, headers) : null;
+                _headers = formatHeaders(headers, command);
+                try {
+                    _socket.setReadTimeout(readTimeout);
+                    _webserver = getSocket(_peerHash, _socket.getLocalPort());
+                } catch (IOException ioe) {
+                    if (_log.shouldLog(Log.WARN))
+                        _log.warn("Error connecting to HTTP server " + remoteHost + ':' + remotePort, ioe);
+                    err = ERR_UNAVAILABLE;
+                }
+            }
+            if (err != null) {
+                try {
+                    _socket.getOutputStream().write(err.getBytes("UTF-8"));
+                } catch (IOException ioe) {}
+                return false;
+            }
+            return true;
+        }
+    }
+
     private static class Sender implements Runnable {
         private final OutputStream _out;
         private final InputStream _in;
@@ -700,11 +1011,49 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
     private static final int MIN_TO_COMPRESS = 1300;
 
     private static class CompressedResponseOutputStream extends HTTPResponseOutputStream {
+        private final I2PAppContext _ctx;
+        private final int _level;
         private InternalGZIPOutputStream _gzipOut;
+        /** null if not caching */
+        private final CompressedResponseCache _cache;
+        private final String _cacheRequest;
+        private String _status;
+        private String _etag;
+        private String _lastModified;
+        private boolean _cacheable = true;
+        /** non-null if we are capturing the compressed response for the cache */
+        private CaptureOutputStream _capture;
+        private String _cacheKey;
+        private final boolean _compress;
+        private final boolean _keepAlive;
 
-        public CompressedResponseOutputStream(OutputStream o) {
+        /**
+         *  @param cache may be null
+         *  @param cacheRequest the Host and request line, null if cache is null
+         *  @since 0.9.27 added ctx, level, cache, cacheRequest
+         */
+        public CompressedResponseOutputStream(OutputStream o, I2PAppContext ctx, int level,
+                                              CompressedResponseCache cache, String cacheRequest) {
+            this(o, ctx, level, cache, cacheRequest, true, false);
+        }
+
+        /**
+         *  @param compress if false, only the headers are filtered
+         *  @param keepAlive if true, add the keep-alive header, chunk the body,
+         *                   and leave o open on close()
+         *  @since 0.9.27
+         */
+        public CompressedResponseOutputStream(OutputStream o, I2PAppContext ctx, int level,
+                                              CompressedResponseCache cache, String cacheRequest,
+                                              boolean compress, boolean keepAlive) {
             super(o);
             _dataExpected = -1;
+            _ctx = ctx;
+            _level = level;
+            _cache = cache;
+            _cacheRequest = cacheRequest;
+            _compress = compress;
+            _keepAlive = keepAlive;
         }
         
         /**
@@ -713,11 +1062,38 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
         @Override
         protected String filterResponseLine(String line) {
             String[] s = DataHelper.split(line, " ", 3);
-            if (s.length > 1 &&
-                (s[1].startsWith("3") || s[1].startsWith("5")))
-                _dataExpected = 0;
+            if (s.length > 1) {
+                _status = s[1];
+                if (s[1].startsWith("3") || s[1].startsWith("5"))
+                    _dataExpected = 0;
+            }
             return line;
         }
+
+        /**
+         * Overridden to save the cache validators,
+         * and to check whether the response may be cached.
+         * @since 0.9.27
+         */
+        @Override
+        protected void peekHeader(String lcKey, String val) {
+            if (_cache == null)
+                return;
+            if ("etag".equals(lcKey)) {
+                _etag = val;
+            } else if ("last-modified".equals(lcKey)) {
+                _lastModified = val;
+            } else if ("set-cookie".equals(lcKey) || "transfer-encoding".equals(lcKey)) {
+                _cacheable = false;
+            } else if ("cache-control".equals(lcKey)) {
+                String lcVal = val.toLowerCase(Locale.US);
+                if (lcVal.contains("no-store") || lcVal.contains("private"))
+                    _cacheable = false;
+            } else if ("vary".equals(lcKey)) {
+                if (!"accept-encoding".equals(val.toLowerCase(Locale.US)))
+                    _cacheable = false;
+            }
+        }
     
         /**
          *  Don't compress small responses or images.
@@ -727,7 +1103,8 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
          */
         @Override
         protected boolean shouldCompress() {
-            return (_dataExpected < 0 || _dataExpected >= MIN_TO_COMPRESS) &&
+            return _compress &&
+                   (_dataExpected < 0 || _dataExpected >= MIN_TO_COMPRESS) &&
                    (_contentType == null ||
                     ((!_contentType.startsWith("audio/")) &&
                      (!_contentType.startsWith("image/")) &&
@@ -751,20 +1128,70 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
             //    _log.info("Including x-i2p-gzip as the content encoding in the response");
             if (shouldCompress())
                 out.write(DataHelper.getASCII("Content-Encoding: x-i2p-gzip\r\n"));
+            if (_keepAlive)
+                out.write(DataHelper.getASCII(KEEPALIVE_HEADER + ": chunked\r\n"));
             super.finishHeaders();
+            if (_keepAlive)
+                out = new ChunkedOutputStream(out);
         }
 
+        /**
+         *  If the compressed response is in the cache, write it and discard the
+         *  response from the server. Otherwise, compress it, and capture
+         *  the result for the cache if possible.
+         */
         @Override
         protected void beginProcessing() throws IOException {
             //if (_log.shouldLog(Log.INFO))
             //    _log.info("Beginning compression processing");
             //out.flush();
             if (shouldCompress()) {
-                _gzipOut = new InternalGZIPOutputStream(out);
+                // Only complete 200 responses of a known length, with a validator.
+                // Content-Length is required so we know it's complete when we close.
+                if (_cache != null && _cacheable && "200".equals(_status) && _dataExpected > 0)
+                    _cacheKey = CompressedResponseCache.getKey(_cacheRequest, _etag, _lastModified, _contentType,
+                                                              _dataExpected);
+                if (_cacheKey != null) {
+                    byte[] data = _cache.get(_cacheKey);
+                    if (data != null) {
+                        _ctx.statManager().addRateData("i2ptunnel.httpserver.gzipCacheHit", 1);
+                        out.write(data);
+                        out = new DiscardOutputStream(out);
+                        return;
+                    }
+                    _ctx.statManager().addRateData("i2ptunnel.httpserver.gzipCacheMiss", 1);
+                    _capture = new CaptureOutputStream(out, _cache.getMaxEntrySize());
+                    out = _capture;
+                }
+                _gzipOut = new InternalGZIPOutputStream(out, _level);
                 out = _gzipOut;
             }
         }
 
+        /**
+         *  Overridden to cache the compressed response if it was complete
+         *  @since 0.9.27
+         */
+        @Override
+        public void close() throws IOException {
+            CaptureOutputStream capture = _capture;
+            if (capture == null) {
+                super.close();
+                return;
+            }
+            InternalGZIPOutputStream gzipOut = _gzipOut;
+            long read;
+            try {
+                // before close(), the deflater is gone after that
+                gzipOut.finish();
+                read = gzipOut.getTotalRead();
+            } finally {
+                super.close();
+            }
+            if (read == _dataExpected && !capture.isOverflowed())
+                _cache.put(_cacheKey, capture.toByteArray());
+        }
+
         public long getTotalRead() { 
             InternalGZIPOutputStream gzipOut = _gzipOut;
             if (gzipOut != null)
@@ -784,8 +1211,13 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
 
     /** just a wrapper to provide stats for debugging */
     private static class InternalGZIPOutputStream extends GZIPOutputStream {
-        public InternalGZIPOutputStream(OutputStream target) throws IOException {
+        /**
+         *  @param level 1-9
+         *  @since 0.9.27 added level
+         */
+        public InternalGZIPOutputStream(OutputStream target, int level) throws IOException {
             super(target);
+            def.setLevel(level);
         }
         public long getTotalRead() { 
             try {
@@ -805,6 +1237,95 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
         }
     }
 
+    /**
+     *  Passes everything through, and keeps a copy, up to a limit.
+     *  @since 0.9.27
+     */
+    private static class CaptureOutputStream extends FilterOutputStream {
+        private final ByteArrayOutputStream _copy;
+        private final int _max;
+        private boolean _overflowed;
+
+        public CaptureOutputStream(OutputStream o, int max) {
+            super(o);
+            _copy = new ByteArrayOutputStream(Math.min(max, 16*1024));
+            _max = max;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (!_overflowed) {
+                if (_copy.size() < _max)
+                    _copy.write(b);
+                else
+                    overflow();
+            }
+        }
+
+        @Override
+        public void write(byte buf[], int off, int len) throws IOException {
+            out.write(buf, off, len);
+            if (!_overflowed) {
+                if (_copy.size() + len <= _max)
+                    _copy.write(buf, off, len);
+                else
+                    overflow();
+            }
+        }
+
+        private void overflow() {
+            _overflowed = true;
+            _copy.reset();
+        }
+
+        public boolean isOverflowed() { return _overflowed; }
+
+        public byte[] toByteArray() { return _copy.toByteArray(); }
+    }
+
+    /**
+     *  Throws away everything written, but closes the underlying stream.
+     *  For the server response after we've sent it from the cache.
+     *  @since 0.9.27
+     */
+    private static class DiscardOutputStream extends FilterOutputStream {
+        public DiscardOutputStream(OutputStream o) {
+            super(o);
+        }
+
+        @Override
+        public void write(int b) {}
+
+        @Override
+        public void write(byte buf[], int off, int len) {}
+
+        @Override
+        public void flush() {}
+    }
+
+    /**
+     *  @return the Host and request line for the compressed response cache,
+     *          or null if this request may not use the cache
+     *  @since 0.9.27
+     */
+    private static String getCacheRequest(StringBuilder command, Map<String, List<String>> headers) {
+        String cmd = command.toString().trim();
+        if (!cmd.startsWith("GET "))
+            return null;
+        String host = "";
+        for (Map.Entry<String, List<String>> e : headers.entrySet()) {
+            String name = e.getKey();
+            // partial, authenticated, and per-user responses are never cached
+            if (name.equalsIgnoreCase("Range") || name.equalsIgnoreCase("If-Range") ||
+                name.equalsIgnoreCase("Authorization") || name.equalsIgnoreCase("Cookie"))
+                return null;
+            if (name.equalsIgnoreCase("Host") && !e.getValue().isEmpty())
+                host = e.getValue().get(0);
+        }
+        return host + ' ' + cmd;
+    }
+
     /**
      *  @return the command followed by the header lines
      */
@@ -877,14 +1398,28 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
      */
     static Map<String, List<String>> readHeaders(I2PSocket socket, InputStream in, StringBuilder command,
                                                            String[] skipHeaders, I2PAppContext ctx) throws IOException {
+        return readHeaders(socket, in, command, skipHeaders, ctx, HEADER_TIMEOUT);
+    }
+
+    /**
+     *  As above, with a different timeout for the first line,
+     *  for the next request on a kept-alive stream.
+     *  The timeout for the rest of the headers is unchanged.
+     *
+     *  @param firstLineTimeout only used if socket is non-null
+     *  @since 0.9.27
+     */
+    private static Map<String, List<String>> readHeaders(I2PSocket socket, InputStream in, StringBuilder command,
+                                                         String[] skipHeaders, I2PAppContext ctx,
+                                                         long firstLineTimeout) throws IOException {
     	HashMap<String, List<String>> headers = new HashMap<String, List<String>>();
         StringBuilder buf = new StringBuilder(128);
         
         // slowloris / darkloris
-        long expire = ctx.clock().now() + TOTAL_HEADER_TIMEOUT;
+        long expire = ctx.clock().now() + firstLineTimeout + (TOTAL_HEADER_TIMEOUT - HEADER_TIMEOUT);
         if (socket != null) {
             try {
-                readLine(socket, command, HEADER_TIMEOUT);
+                readLine(socket, command, firstLineTimeout);
             } catch (LineTooLongException ltle) {
                 // convert for first line
                 throw new RequestTooLongException("Request too long - max " + MAX_LINE_LENGTH);
@@ -949,6 +1484,8 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
                     name = "User-Agent";
                 else if ("referer".equals(lcName))
                     name = "Referer";
+                else if ("x-i2p-keep-alive".equals(lcName))
+                    name = HTTPResponseOutputStream.KEEPALIVE_HEADER;
 
                 // For incoming, we remove certain headers to prevent spoofing.
                 // For outgoing, we remove certain headers to improve anonymity.
@@ -0,0 +1,250 @@
+package net.i2p.i2ptunnel;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import net.i2p.I2PAppContext;
+import net.i2p.client.streaming.I2PSocket;
+import net.i2p.util.SimpleTimer2;
+
+/**
+ *  Idle I2P streams to HTTP servers, kept open by I2PTunnelHTTPClient
+ *  so the next request to the same destination and port
+ *  doesn't have to wait for a new streaming connection.
+ *
+ *  Only streams to servers that have agreed to keep-alive
+ *  (see I2PTunnelHTTPServer) are put in here.
+ *  Idle streams are closed after a timeout, which is shorter than
+ *  the server's timeout, so we don't usually send a request
+ *  on a stream the server is closing.
+ *
+ *  @since 0.9.27
+ */
+class KeepAlivePool {
+
+    private final I2PAppContext _context;
+    private final Object _sockLock;
+    private final List<I2PSocket> _sockList;
+    /** most recently used last; locking: this */
+    private final Map<String, LinkedList<Entry>> _idle;
+    /** locking: this */
+    private int _count;
+    /** locking: this */
+    private boolean _cleanerScheduled;
+    /** locking: this */
+    private boolean _closed;
+    private final Cleaner _cleaner;
+
+    private static final int MAX_PER_KEY = 4;
+    private static final int MAX_TOTAL = 32;
+    /** must be less than I2PTunnelHTTPServer.KEEPALIVE_TIMEOUT */
+    static final long IDLE_TIMEOUT = 60*1000;
+    private static final int BUF_SIZE = 8*1024;
+
+    /**
+     *  @param sockList the client's list of open sockets, closed sockets are removed from it
+     *  @param sockLock lock for sockList
+     */
+    public KeepAlivePool(I2PAppContext ctx, List<I2PSocket> sockList, Object sockLock) {
+        _context = ctx;
+        _sockList = sockList;
+        _sockLock = sockLock;
+        _idle = new HashMap<String, LinkedList<Entry>>(8);
+        _cleaner = new Cleaner();
+    }
+
+    /**
+     *  A stream with its buffered input, which must be kept together,
+     *  as the buffer may hold the start of the next response.
+     */
+    public static class Entry {
+        private final I2PSocket _socket;
+        private final InputStream _in;
+        private final OutputStream _out;
+        private final boolean _reused;
+        private long _lastUsed;
+
+        public Entry(I2PSocket socket) throws IOException {
+            this(socket, new BufferedInputStream(socket.getInputStream(), BUF_SIZE),
+                 socket.getOutputStream(), false);
+        }
+
+        private Entry(I2PSocket socket, InputStream in, OutputStream out, boolean reused) {
+            _socket = socket;
+            _in = in;
+            _out = out;
+            _reused = reused;
+        }
+
+        public I2PSocket getSocket() { return _socket; }
+
+        public InputStream getInputStream() { return _in; }
+
+        public OutputStream getOutputStream() { return _out; }
+
+        /** true if taken from the pool, false if new */
+        public boolean isReused() { return _reused; }
+    }
+
+    /**
+     *  @param key destination and port
+     *  @return an open idle stream, or null
+     */
+    public Entry get(String key) {
+        List<Entry> toClose = null;
+        Entry rv = null;
+        synchronized(this) {
+            LinkedList<Entry> list = _idle.get(key);
+            while (list != null && !list.isEmpty()) {
+                Entry e = list.removeLast();
+                _count--;
+                if (e._socket.isClosed()) {
+                    if (toClose == null)
+                        toClose = new ArrayList<Entry>(2);
+                    toClose.add(e);
+                } else {
+                    rv = new Entry(e._socket, e._in, e._out, true);
+                    break;
+                }
+            }
+            if (list != null && list.isEmpty())
+                _idle.remove(key);
+        }
+        if (toClose != null) {
+            for (Entry e : toClose) {
+                close(e);
+            }
+        }
+        return rv;
+    }
+
+    /**
+     *  Return a stream after a complete response was read.
+     *  Closes it instead if we're full or closed.
+     *
+     *  @param key destination and port
+     */
+    public void put(String key, Entry e) {
+        Entry toClose = null;
+        synchronized(this) {
+            if (_closed || e._socket.isClosed()) {
+                toClose = e;
+            } else {
+                LinkedList<Entry> list = _idle.get(key);
+                if (list == null) {
+                    list = new LinkedList<Entry>();
+                    _idle.put(key, list);
+                }
+                if (list.size() >= MAX_PER_KEY || _count >= MAX_TOTAL) {
+                    toClose = e;
+                } else {
+                    e._lastUsed = _context.clock().now();
+                    list.addLast(e);
+                    _count++;
+                    if (!_cleanerScheduled) {
+                        _cleanerScheduled = true;
+                        _cleaner.schedule(IDLE_TIMEOUT / 4);
+                    }
+                }
+            }
+        }
+        if (toClose != null)
+            close(toClose);
+    }
+
+    /**
+     *  Close the socket and remove it from the client's list
+     */
+    public void close(Entry e) {
+        try {
+            e._socket.close();
+        } catch (IOException ioe) {}
+        synchronized (_sockLock) {
+            _sockList.remove(e._socket);
+        }
+    }
+
+    /**
+     *  @return number of idle streams
+     */
+    public synchronized int size() {
+        return _count;
+    }
+
+    /**
+     *  Close all idle streams.
+     *  Streams returned after this are closed.
+     */
+    public void close() {
+        List<Entry> toClose;
+        synchronized(this) {
+            _closed = true;
+            toClose = removeIdle(Long.MAX_VALUE);
+            _cleaner.cancel();
+            _cleanerScheduled = false;
+        }
+        for (Entry e : toClose) {
+            close(e);
+        }
+    }
+
+    /**
+     *  Reopen after close()
+     */
+    public synchronized void open() {
+        _closed = false;
+    }
+
+    /**
+     *  Caller must synch
+     *
+     *  @return the removed entries, not closed
+     */
+    private List<Entry> removeIdle(long cutoff) {
+        List<Entry> rv = new ArrayList<Entry>(4);
+        for (Iterator<LinkedList<Entry>> iter = _idle.values().iterator(); iter.hasNext(); ) {
+            LinkedList<Entry> list = iter.next();
+            // oldest first
+            while (!list.isEmpty()) {
+                Entry e = list.getFirst();
+                if (e._lastUsed >= cutoff && !e._socket.isClosed())
+                    break;
+                list.removeFirst();
+                _count--;
+                rv.add(e);
+            }
+            if (list.isEmpty())
+                iter.remove();
+        }
+        return rv;
+    }
+
+    private class Cleaner extends SimpleTimer2.TimedEvent {
+        /** does not schedule itself */
+        public Cleaner() {
+            super(SimpleTimer2.getInstance());
+        }
+
+        public void timeReached() {
+            List<Entry> toClose;
+            synchronized(KeepAlivePool.this) {
+                toClose = removeIdle(_context.clock().now() - IDLE_TIMEOUT);
+                if (_count > 0 && !_closed)
+                    schedule(IDLE_TIMEOUT / 4);
+                else
+                    _cleanerScheduled = false;
+            }
+            for (Entry e : toClose) {
+                close(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package net.i2p.i2ptunnel;
+
+import junit.framework.TestCase;
+
+public class CompressedResponseCacheTest extends TestCase {
+
+    public void testKey() {
+        assertNull(CompressedResponseCache.getKey("foo.i2p GET / HTTP/1.1", null, null, "text/html", 1000));
+        String k1 = CompressedResponseCache.getKey("foo.i2p GET / HTTP/1.1", "\"abc\"", null, "text/html", 1000);
+        String k2 = CompressedResponseCache.getKey("foo.i2p GET / HTTP/1.1", "\"abd\"", null, "text/html", 1000);
+        String k3 = CompressedResponseCache.getKey("foo.i2p GET / HTTP/1.1", null, "\"abc\"", "text/html", 1000);
+        String k4 = CompressedResponseCache.getKey("foo.i2p GET / HTTP/1.1", "\"abc\"", null, "text/css", 1000);
+        assertFalse(k1.equals(k2));
+        assertFalse(k1.equals(k3));
+        assertFalse(k1.equals(k4));
+        String k5 = CompressedResponseCache.getKey("foo.i2p GET / HTTP/1.1", "\"abc\"", null, "text/html", 1001);
+        assertFalse(k1.equals(k5));
+        assertEquals(k1, CompressedResponseCache.getKey("foo.i2p GET / HTTP/1.1", "\"abc\"", null, "text/html", 1000));
+    }
+
+    public void testGetPut() {
+        CompressedResponseCache cache = new CompressedResponseCache(64*1024);
+        byte[] data = new byte[100];
+        assertNull(cache.get("a"));
+        cache.put("a", data);
+        assertSame(data, cache.get("a"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(100, cache.getCachedBytes());
+        cache.put("a", new byte[50]);
+        assertEquals(50, cache.getCachedBytes());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getCachedBytes());
+    }
+
+    public void testEviction() {
+        CompressedResponseCache cache = new CompressedResponseCache(64*1024);
+        // too big for one entry
+        cache.put("big", new byte[cache.getMaxEntrySize() + 1]);
+        assertNull(cache.get("big"));
+        for (int i = 0; i < 20; i++) {
+            cache.put("k" + i, new byte[4096]);
+            // keep the first one in use
+            assertNotNull(cache.get("k0"));
+        }
+        assertTrue(cache.getCachedBytes() <= 64*1024);
+        assertEquals(16, cache.size());
+        assertNotNull(cache.get("k0"));
+        assertNotNull(cache.get("k19"));
+        assertNull(cache.get("k1"));
+    }
+}
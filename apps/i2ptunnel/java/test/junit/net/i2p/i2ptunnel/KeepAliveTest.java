@@ -0,0 +1,115 @@
+package net.i2p.i2ptunnel;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import junit.framework.TestCase;
+
+import net.i2p.data.DataHelper;
+
+public class KeepAliveTest extends TestCase {
+
+    private static final byte[] REQUEST = DataHelper.getASCII("GET / HTTP/1.1\r\nHost: foo.i2p\r\n\r\n");
+
+    public void testChunkedRoundTrip() throws IOException {
+        byte[] data = new byte[40000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        OutputStream out = new ChunkedOutputStream(baos);
+        out.write(data, 0, 10);
+        out.write(data[10]);
+        out.flush();
+        out.write(data, 11, 20000);
+        out.write(data, 20011, data.length - 20011);
+        out.close();
+        baos.write(DataHelper.getASCII("next"));
+
+        InputStream in = new ByteArrayInputStream(baos.toByteArray());
+        InputStream cin = new ChunkedInputStream(in);
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buf = new byte[1000];
+        int read;
+        while ((read = cin.read(buf)) >= 0) {
+            result.write(buf, 0, read);
+        }
+        assertTrue(DataHelper.eq(data, result.toByteArray()));
+        assertEquals(-1, cin.read());
+        // positioned after the body
+        assertEquals('n', in.read());
+    }
+
+    public void testChunkedEmpty() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new ChunkedOutputStream(baos).close();
+        assertEquals("0\r\n\r\n", DataHelper.getUTF8(baos.toByteArray()));
+        InputStream cin = new ChunkedInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        assertEquals(-1, cin.read());
+    }
+
+    public void testChunkedTruncated() {
+        InputStream cin = new ChunkedInputStream(new ByteArrayInputStream(DataHelper.getASCII("10\r\nabc")));
+        try {
+            while (cin.read() >= 0) {}
+            fail();
+        } catch (IOException expected) {}
+    }
+
+    /** two kept-alive responses on the same stream */
+    public void testExchange() throws IOException {
+        ByteArrayOutputStream server = new ByteArrayOutputStream();
+        writeResponse(server, "first", true);
+        writeResponse(server, "second", true);
+        InputStream i2pin = new BufferedInputStream(new ByteArrayInputStream(server.toByteArray()));
+        ByteArrayOutputStream i2pout = new ByteArrayOutputStream();
+
+        ByteArrayOutputStream browser = new ByteArrayOutputStream();
+        assertTrue(I2PTunnelHTTPClient.keepAliveExchange(i2pin, i2pout, REQUEST, browser));
+        String rv = DataHelper.getUTF8(browser.toByteArray());
+        assertTrue(rv.endsWith("\r\n\r\nfirst"));
+        assertTrue(rv.contains("Connection: close"));
+        assertFalse(rv.contains(HTTPResponseOutputStream.KEEPALIVE_HEADER));
+
+        browser = new ByteArrayOutputStream();
+        assertTrue(I2PTunnelHTTPClient.keepAliveExchange(i2pin, i2pout, REQUEST, browser));
+        assertTrue(DataHelper.getUTF8(browser.toByteArray()).endsWith("\r\n\r\nsecond"));
+        assertTrue(DataHelper.eq(i2pout.toByteArray(), DataHelper.getASCII(DataHelper.getUTF8(REQUEST) +
+                                                                           DataHelper.getUTF8(REQUEST))));
+
+        // server closed the idle stream
+        browser = new ByteArrayOutputStream();
+        try {
+            I2PTunnelHTTPClient.keepAliveExchange(i2pin, i2pout, REQUEST, browser);
+            fail();
+        } catch (I2PTunnelHTTPClient.NoResponseException expected) {}
+        assertEquals(0, browser.size());
+    }
+
+    /** a server without keep-alive support */
+    public void testExchangeNoKeepAlive() throws IOException {
+        ByteArrayOutputStream server = new ByteArrayOutputStream();
+        writeResponse(server, "body", false);
+        InputStream i2pin = new BufferedInputStream(new ByteArrayInputStream(server.toByteArray()));
+        ByteArrayOutputStream browser = new ByteArrayOutputStream();
+        assertFalse(I2PTunnelHTTPClient.keepAliveExchange(i2pin, new ByteArrayOutputStream(), REQUEST, browser));
+        assertTrue(DataHelper.getUTF8(browser.toByteArray()).endsWith("\r\n\r\nbody"));
+    }
+
+    private static void writeResponse(OutputStream out, String body, boolean keepAlive) throws IOException {
+        out.write(DataHelper.getASCII("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n"));
+        if (keepAlive) {
+            out.write(DataHelper.getASCII(HTTPResponseOutputStream.KEEPALIVE_HEADER + ": chunked\r\n\r\n"));
+            out = new ChunkedOutputStream(out);
+        } else {
+            out.write(DataHelper.getASCII("\r\n"));
+        }
+        out.write(DataHelper.getASCII(body));
+        if (keepAlive)
+            out.close();
+    }
+}
@@ -6,12 +6,17 @@ import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 import net.i2p.I2PAppContext;
 import net.i2p.crypto.SigType;
+import net.i2p.data.DataHelper;
 import net.i2p.util.FileUtil;
+import net.i2p.util.Log;
 import net.i2p.util.VersionComparator;
 
 import org.eclipse.jetty.server.Server;
@@ -75,7 +80,55 @@ public class LogsHelper extends HelperBase {
      */
     public String getLogs() {
         String str = formatMessages(_context.logManager().getBuffer().getMostRecentMessages());
-        return "<p>" + _t("File location") + ": <b><code>" + _context.logManager().currentFile() + "</code></b></p>" + str;
+        return "<p>" + _t("File location") + ": <b><code>" + _context.logManager().currentFile() + "</code></b></p>" +
+               getDropped() + str;
+    }
+
+    /** @since 0.9.27 */
+    private static final int MAX_DROPPED_LOGS = 20;
+
+    /**
+     *  The loggers with the most messages dropped because the buffer was full
+     *
+     *  @return "" if none dropped
+     *  @since 0.9.27
+     */
+    private String getDropped() {
+        long total = _context.logManager().getDroppedRecords();
+        if (total <= 0)
+            return "";
+        List<Log> logs = new ArrayList<Log>();
+        for (Log log : _context.logManager().getLogs()) {
+            if (log.getDroppedCount() > 0)
+                logs.add(log);
+        }
+        Collections.sort(logs, new DroppedComparator());
+        StringBuilder buf = new StringBuilder(512);
+        buf.append("<p>").append(_t("Log messages dropped because the buffer was full")).append(": ")
+           .append(total).append("</p><ul>");
+        for (int i = 0; i < logs.size() && i < MAX_DROPPED_LOGS; i++) {
+            Log log = logs.get(i);
+            buf.append("<li><code>").append(DataHelper.escapeHTML(log.getName())).append("</code>: ")
+               .append(log.getDroppedCount()).append("</li>\n");
+        }
+        buf.append("</ul>\n");
+        return buf.toString();
+    }
+
+    /**
+     *  Most dropped first
+     *  @since 0.9.27
+     */
+    private static class DroppedComparator implements Comparator<Log>, Serializable {
+        public int compare(Log l, Log r) {
+            long ld = l.getDroppedCount();
+            long rd = r.getDroppedCount();
+            if (ld > rd)
+                return -1;
+            if (ld < rd)
+                return 1;
+            return l.getName().compareTo(r.getName());
+        }
     }
     
     /**
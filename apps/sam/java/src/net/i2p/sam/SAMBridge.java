@@ -63,6 +63,8 @@ public class SAMBridge implements Runnable, ClientApp {
     private volatile Thread _runner;
     private final Object _v3DGServerLock = new Object();
     private SAMv3DatagramServer _v3DGServer;
+    private final Object _v3StreamSelectorLock = new Object();
+    private SAMv3StreamSelector _v3StreamSelector;
 
     /** 
      * filename in which the name to private key mapping should 
@@ -384,6 +386,24 @@ public class SAMBridge implements Runnable, ClientApp {
         }
     }
 
+    /**
+     * A singleton for this bridge, moving the data of all the v3 streams.
+     * Instantiate and start it if it doesn't exist or was stopped.
+     *
+     * @return non-null
+     * @throws IOException if the selector can't be opened
+     * @since 0.9.27
+     */
+    SAMv3StreamSelector getV3StreamSelector() throws IOException {
+        synchronized (_v3StreamSelectorLock) {
+            if (_v3StreamSelector == null || !_v3StreamSelector.isRunning()) {
+                _v3StreamSelector = new SAMv3StreamSelector(this);
+                _v3StreamSelector.start();
+            }
+            return _v3StreamSelector;
+        }
+    }
+
 
     ////// begin ClientApp interface, use only if using correct construtor
 
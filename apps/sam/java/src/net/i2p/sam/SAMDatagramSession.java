@@ -10,13 +10,14 @@ package net.i2p.sam;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 import net.i2p.client.I2PSession;
 import net.i2p.client.I2PSessionException;
 import net.i2p.client.datagram.I2PDatagramDissector;
 import net.i2p.client.datagram.I2PDatagramMaker;
-import net.i2p.client.datagram.I2PInvalidDatagramException;
 import net.i2p.data.DataFormatException;
 import net.i2p.data.Destination;
 import net.i2p.util.Log;
@@ -33,7 +34,8 @@ class SAMDatagramSession extends SAMMessageSession {
     // FIXME make final after fixing SAMv3DatagramSession override
     protected SAMDatagramReceiver recv;
     private final I2PDatagramMaker dgramMaker;
-    private final I2PDatagramDissector dgramDissector = new I2PDatagramDissector();
+    /** received datagrams waiting for messagesReceived(); I2CP notifier thread only */
+    private final List<Received> _received = new ArrayList<Received>();
 
     /**
      * Create a new SAM DATAGRAM session.
@@ -129,32 +131,106 @@ class SAMDatagramSession extends SAMMessageSession {
                                               sendLeaseSet, sendTags,tagThreshold, expiration);
     }
 
-    protected void messageReceived(byte[] msg, int proto, int fromPort, int toPort) {
-        byte[] payload;
-        Destination sender;
-        try {
-            synchronized (dgramDissector) {
-                dgramDissector.loadI2PDatagram(msg);
-                sender = dgramDissector.getSender();
-                payload = dgramDissector.extractPayload();
+    /**
+     * Send a batch of datagrams through a SAM DATAGRAM session,
+     * with the same ports and the default options.
+     * The datagrams are signed in parallel.
+     * Datagrams that are too big or to a bad destination are dropped.
+     *
+     * @param dests Destinations, same size as data
+     * @param data payloads to be sent
+     * @return the number of datagrams sent
+     * @throws I2PSessionException on serious error, probably session closed
+     * @since 0.9.27
+     */
+    public int sendBytes(List<String> dests, List<byte[]> data,
+                         int fromPort, int toPort) throws I2PSessionException {
+        List<Destination> ds = new ArrayList<Destination>(dests.size());
+        List<byte[]> payloads = new ArrayList<byte[]>(dests.size());
+        for (int i = 0; i < dests.size(); i++) {
+            byte[] payload = data.get(i);
+            if (payload.length > DGRAM_SIZE_MAX) {
+                if (_log.shouldLog(Log.WARN))
+                    _log.warn("Dropping datagram, size exceeded (" + payload.length + ")");
+                continue;
             }
-        } catch (DataFormatException e) {
-            if (_log.shouldLog(Log.DEBUG)) {
-                _log.debug("Dropping ill-formatted I2P repliable datagram", e);
+            try {
+                ds.add(SAMUtils.getDest(dests.get(i)));
+            } catch (DataFormatException e) {
+                if (_log.shouldLog(Log.WARN))
+                    _log.warn("Dropping datagram to bad destination", e);
+                continue;
             }
-            return;
-        } catch (I2PInvalidDatagramException e) {
-            if (_log.shouldLog(Log.DEBUG)) {
-                _log.debug("Dropping ill-signed I2P repliable datagram", e);
+            payloads.add(payload);
+        }
+        // the maker batch method does not use its buffer, no need to lock
+        List<byte[]> dgrams = dgramMaker.makeI2PDatagrams(payloads);
+        List<Destination> toDests = new ArrayList<Destination>(dgrams.size());
+        List<byte[]> toSend = new ArrayList<byte[]>(dgrams.size());
+        for (int i = 0; i < dgrams.size(); i++) {
+            byte[] dgram = dgrams.get(i);
+            if (dgram != null) {
+                toDests.add(ds.get(i));
+                toSend.add(dgram);
             }
+        }
+        if (toSend.isEmpty())
+            return 0;
+        return sendBytesThroughMessageSession(toDests, toSend, I2PSession.PROTO_DATAGRAM, fromPort, toPort);
+    }
+
+    /**
+     * Queued until messagesReceived(), so the signatures
+     * of all waiting datagrams are verified in parallel.
+     */
+    protected void messageReceived(byte[] msg, int proto, int fromPort, int toPort) {
+        _received.add(new Received(msg, proto, fromPort, toPort));
+    }
+
+    /**
+     * Verify the signatures of the queued datagrams and pass them on in order.
+     *
+     * @since 0.9.27
+     */
+    @Override
+    protected void messagesReceived() {
+        int sz = _received.size();
+        if (sz <= 0)
             return;
+        List<byte[]> dgrams = new ArrayList<byte[]>(sz);
+        for (Received r : _received) {
+            dgrams.add(r.msg);
+        }
+        Destination[] senders = new Destination[sz];
+        byte[][] payloads = new byte[sz][];
+        int valid = I2PDatagramDissector.verifyI2PDatagrams(dgrams, senders, payloads);
+        if (valid < sz && _log.shouldLog(Log.DEBUG))
+            _log.debug("Dropping " + (sz - valid) + " ill-formatted or ill-signed I2P repliable datagrams");
+        for (int i = 0; i < sz; i++) {
+            if (senders[i] == null)
+                continue;
+            Received r = _received.get(i);
+            try {
+                recv.receiveDatagramBytes(senders[i], payloads[i], r.proto, r.fromPort, r.toPort);
+            } catch (IOException e) {
+                _log.error("Error forwarding message to receiver", e);
+                close();
+                break;
+            }
         }
+        _received.clear();
+    }
+
+    /** @since 0.9.27 */
+    private static class Received {
+        public final byte[] msg;
+        public final int proto, fromPort, toPort;
 
-        try {
-            recv.receiveDatagramBytes(sender, payload, proto, fromPort, toPort);
-        } catch (IOException e) {
-            _log.error("Error forwarding message to receiver", e);
-            close();
+        public Received(byte[] m, int p, int f, int t) {
+            msg = m;
+            proto = p;
+            fromPort = f;
+            toPort = t;
         }
     }
 
@@ -12,14 +12,15 @@ import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 import java.util.Properties;
 
 import net.i2p.I2PAppContext;
 import net.i2p.client.I2PClient;
 import net.i2p.client.I2PClientFactory;
 import net.i2p.client.I2PSession;
+import net.i2p.client.I2PSessionBatchListener;
 import net.i2p.client.I2PSessionException;
-import net.i2p.client.I2PSessionMuxedListener;
 import net.i2p.client.SendMessageOptions;
 import net.i2p.data.Base64;
 import net.i2p.data.DataFormatException;
@@ -208,6 +209,29 @@ abstract class SAMMessageSession implements SAMMessageSess {
 	return session.sendMessage(d, data, 0, data.length, proto, fromPort, toPort, opts);
     }
 
+    /**
+     * Actually send a batch of messages through the SAM message-based session I2PSession,
+     * with the default options.
+     *
+     * @param dests Destinations, same size as data
+     * @param data payloads to be sent
+     * @param proto I2CP protocol
+     * @param fromPort I2CP from port
+     * @param toPort I2CP to port
+     *
+     * @return the number of messages sent
+     * @throws I2PSessionException on serious error, probably session closed
+     * @since 0.9.27
+     */
+    protected int sendBytesThroughMessageSession(List<Destination> dests, List<byte[]> data,
+                                        int proto, int fromPort, int toPort)
+                                        throws I2PSessionException {
+	if (_log.shouldLog(Log.DEBUG)) {
+	    _log.debug("Sending batch of " + data.size() + " messages");
+	}
+	return session.sendMessages(dests, data, proto, fromPort, toPort, null);
+    }
+
     /**
      * Close a SAM message-based session.
      */
@@ -220,6 +244,18 @@ abstract class SAMMessageSession implements SAMMessageSess {
      * @param msg Message payload
      */
     protected abstract void messageReceived(byte[] msg, int proto, int fromPort, int toPort);
+
+    /**
+     * Called after one or more messageReceived() calls,
+     * when there are no more messages waiting.
+     * Subclasses may queue messages in messageReceived() and process them here.
+     * Called from the same thread as messageReceived().
+     *
+     * This implementation does nothing.
+     *
+     * @since 0.9.27
+     */
+    protected void messagesReceived() {}
     
     /**
      * Do whatever is needed to shutdown the SAM session
@@ -241,7 +277,7 @@ abstract class SAMMessageSession implements SAMMessageSess {
      *
      * @author human
      */
-    private class SAMMessageSessionHandler implements Runnable, I2PSessionMuxedListener {
+    private class SAMMessageSessionHandler implements Runnable, I2PSessionBatchListener {
 
         private final I2PSession _session;
         private final Object runningLock = new Object();
@@ -377,6 +413,11 @@ abstract class SAMMessageSession implements SAMMessageSess {
             }
         }
         
+        /** @since 0.9.27 */
+        public void batchComplete(I2PSession session) {
+            messagesReceived();
+        }
+        
         public void reportAbuse(I2PSession session, int severity) {
             _log.warn("Abuse reported (severity: " + severity + ")");
             stopRunning();
@@ -16,8 +16,11 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.StringTokenizer;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import net.i2p.I2PAppContext;
 import net.i2p.client.I2PSession;
@@ -31,16 +34,27 @@ import net.i2p.util.PortMapper;
  *  sam.udp.host and sam.udp.port properties.
  *  This is used for both repliable and raw datagrams.
  *
+ *  The listener thread queues the received packets for a dispatcher thread,
+ *  which takes all that are waiting, so that runs of repliable datagrams
+ *  for the same session and ports are signed in parallel and sent as a batch.
+ *
  *  @since 0.9.24 moved from SAMv3Handler
  */
 class SAMv3DatagramServer implements Handler {
 	
 	private final DatagramChannel _server;
 	private final Thread _listener;
+	private final Thread _dispatcher;
+	private final LinkedBlockingQueue<byte[]> _queue;
 	private final SAMBridge _parent;
 	private final String _host;
 	private final int _port;
 	
+	/** received packets waiting for the dispatcher */
+	private static final int MAX_QUEUE = 512;
+	/** max packets per dispatcher batch */
+	private static final int MAX_BATCH = 64;
+	
 	/**
 	 *  Does not start listener.
 	 *  Caller must call start().
@@ -53,7 +67,9 @@ class SAMv3DatagramServer implements Handler {
 		_server = DatagramChannel.open();
 		
 		_server.socket().bind(new InetSocketAddress(host, port));
+		_queue = new LinkedBlockingQueue<byte[]>(MAX_QUEUE);
 		_listener = new I2PAppThread(new Listener(_server), "SAM DatagramListener " + port);
+		_dispatcher = new I2PAppThread(new Dispatcher(), "SAM DatagramDispatcher " + port);
 		_host = host;
 		_port = port;
 	}
@@ -63,6 +79,7 @@ class SAMv3DatagramServer implements Handler {
 	 *  @since 0.9.22
 	 */
 	public synchronized void start() {
+		_dispatcher.start();
 		_listener.start();
 		if (_parent != null)
 			_parent.register(this);
@@ -77,6 +94,7 @@ class SAMv3DatagramServer implements Handler {
 			_server.close();
 		} catch (IOException ioe) {}
 		_listener.interrupt();
+		_dispatcher.interrupt();
 		if (_parent != null)
 			_parent.unregister(this);
 	}
@@ -121,29 +139,141 @@ class SAMv3DatagramServer implements Handler {
 					break ;
 				}
 				inBuf.flip();
-				ByteBuffer outBuf = ByteBuffer.wrap(new byte[inBuf.remaining()]);
-				outBuf.put(inBuf);
-				outBuf.flip();
-				// A new thread for every message is wildly inefficient...
-				//new I2PAppThread(new MessageDispatcher(outBuf.array()), "MessageDispatcher").start();
-				// inline
+				// TODO too many allocations and copies. One here and one in Message.parse() below.
+				byte[] data = new byte[inBuf.remaining()];
+				inBuf.get(data);
 				// Even though we could be sending messages through multiple sessions,
 				// that isn't a common use case, and blocking should be rare.
-				// Inside router context, I2CP drops on overflow.
-				(new MessageDispatcher(outBuf.array())).run();
+				// Inside router context, I2CP drops on overflow, and so do we.
+				if (!_queue.offer(data))
+					Message.warn("Dropping datagram, queue full");
+			}
+		}
+	}
+
+	/**
+	 *  Takes all the waiting packets and sends them.
+	 *  @since 0.9.27
+	 */
+	private class Dispatcher implements Runnable {
+
+		public void run() {
+			List<byte[]> packets = new ArrayList<byte[]>(MAX_BATCH);
+			List<Message> msgs = new ArrayList<Message>(MAX_BATCH);
+			while (!Thread.interrupted()) {
+				try {
+					packets.add(_queue.take());
+				} catch (InterruptedException ie) {
+					break;
+				}
+				_queue.drainTo(packets, MAX_BATCH - 1);
+				for (byte[] packet : packets) {
+					Message msg = Message.parse(packet);
+					if (msg != null)
+						msgs.add(msg);
+				}
+				packets.clear();
+				send(msgs);
+				msgs.clear();
+			}
+		}
+
+		/**
+		 *  Send in order, batching runs of repliable datagrams
+		 *  for the same session with the same ports and default options.
+		 */
+		private void send(List<Message> msgs) {
+			int sz = msgs.size();
+			for (int i = 0; i < sz; ) {
+				Message msg = msgs.get(i);
+				int end = i + 1;
+				if (msg.isBatchable()) {
+					while (end < sz && msgs.get(end).canBatchWith(msg)) {
+						end++;
+					}
+				}
+				if (end - i > 1) {
+					List<String> dests = new ArrayList<String>(end - i);
+					List<byte[]> data = new ArrayList<byte[]>(end - i);
+					for (int j = i; j < end; j++) {
+						Message m = msgs.get(j);
+						dests.add(m.dest);
+						data.add(m.data);
+					}
+					try {
+						((SAMDatagramSession) msg.sess).sendBytes(dests, data, msg.fromPort, msg.toPort);
+					} catch (Exception e) {
+						Message.warn("Error handling datagram", e);
+					}
+				} else {
+					msg.send();
+				}
+				i = end;
 			}
 		}
 	}
 
-	private static class MessageDispatcher implements Runnable {
-		private final ByteArrayInputStream is;
+	/**
+	 *  A parsed packet from the client.
+	 *  @since 0.9.27 was MessageDispatcher
+	 */
+	private static class Message {
+		public final Session sess;
+		public final String dest;
+		public final byte[] data;
+		public final int proto, fromPort, toPort;
+		// 3.3 props
+		public final boolean sendLeaseSet;
+		public final int sendTags, tagThreshold, expires;
+
 		private static final int MAX_LINE_LENGTH = 2*1024;
-	
-		public MessageDispatcher(byte[] buf) {
-			this.is = new ByteArrayInputStream(buf) ;
+
+		private Message(Session sess, String dest, byte[] data, int proto, int fromPort, int toPort,
+		                boolean sendLeaseSet, int sendTags, int tagThreshold, int expires) {
+			this.sess = sess;
+			this.dest = dest;
+			this.data = data;
+			this.proto = proto;
+			this.fromPort = fromPort;
+			this.toPort = toPort;
+			this.sendLeaseSet = sendLeaseSet;
+			this.sendTags = sendTags;
+			this.tagThreshold = tagThreshold;
+			this.expires = expires;
 		}
-	
-		public void run() {
+
+		private boolean hasOptions() {
+			return sendTags > 0 || tagThreshold > 0 || expires > 0 || !sendLeaseSet;
+		}
+
+		/** a repliable datagram with default options */
+		public boolean isBatchable() {
+			return sess instanceof SAMDatagramSession && !hasOptions();
+		}
+
+		public boolean canBatchWith(Message msg) {
+			return sess == msg.sess && fromPort == msg.fromPort && toPort == msg.toPort &&
+			       isBatchable();
+		}
+
+		public void send() {
+			try {
+				if (hasOptions()) {
+					sess.sendBytes(dest, data, proto, fromPort, toPort,
+					               sendLeaseSet, sendTags, tagThreshold, expires);
+				} else {
+					sess.sendBytes(dest, data, proto, fromPort, toPort);
+				}
+			} catch (Exception e) {
+				warn("Error handling datagram", e);
+			}
+		}
+
+		/**
+		 *  @return null on error
+		 */
+		public static Message parse(byte[] packet) {
+			ByteArrayInputStream is = new ByteArrayInputStream(packet);
 			try {
 				// not UTF-8
 				//String header = DataHelper.readLine(is).trim();
@@ -164,12 +294,12 @@ class SAMv3DatagramServer implements Handler {
 				if (tok.countTokens() < 3) {
 					// This is not a correct message, for sure
 					warn("Bad datagram header received");
-					return;
+					return null;
 				}
 				String version = tok.nextToken();
 				if (!version.startsWith("3.")) {
 					warn("Bad datagram header received");
-					return;
+					return null;
 				}
 				String nick = tok.nextToken();
 				String dest = tok.nextToken();
@@ -241,19 +371,14 @@ class SAMv3DatagramServer implements Handler {
 							sendLeaseSet = Boolean.parseBoolean(sl);
 					} catch (NumberFormatException nfe) {
 						warn("Bad datagram header received");
-						return;
+						return null;
 					}
-					// TODO too many allocations and copies. One here and one in Listener above.
 					byte[] data = new byte[is.available()];
 					is.read(data);
 					Session sess = rec.getHandler().getSession();
 					if (sess != null) {
-						if (sendTags > 0 || tagThreshold > 0 || expires > 0 || !sendLeaseSet) {
-							sess.sendBytes(dest, data, proto, fromPort, toPort,
-							               sendLeaseSet, sendTags, tagThreshold, expires);
-						} else {
-							sess.sendBytes(dest, data, proto, fromPort, toPort);
-						}
+						return new Message(sess, dest, data, proto, fromPort, toPort,
+						                   sendLeaseSet, sendTags, tagThreshold, expires);
 					} else {
 						warn("Dropping datagram, no session for " + nick);
 					}
@@ -263,15 +388,16 @@ class SAMv3DatagramServer implements Handler {
 			} catch (Exception e) {
 				warn("Error handling datagram", e);
 			}
+			return null;
 		}
 
 		/** @since 0.9.22 */
-		private static void warn(String s) {
+		public static void warn(String s) {
 			warn(s, null);
 		}
 
 		/** @since 0.9.22 */
-		private static void warn(String s, Throwable t) {
+		public static void warn(String s, Throwable t) {
 			Log log = I2PAppContext.getGlobalContext().logManager().getLog(SAMv3DatagramServer.class);
 			if (log.shouldLog(Log.WARN))
 				log.warn(s, t);
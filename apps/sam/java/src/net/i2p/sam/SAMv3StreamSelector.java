@@ -0,0 +1,498 @@
+package net.i2p.sam;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.i2p.I2PAppContext;
+import net.i2p.client.streaming.I2PSocket;
+import net.i2p.util.I2PAppThread;
+import net.i2p.util.Log;
+
+/**
+ *  Moves the data between the client sockets and the I2P sockets
+ *  of all SAM v3 STREAM CONNECT, ACCEPT, and FORWARD connections,
+ *  with one thread, instead of two threads for each connection.
+ *
+ *  The client sockets are non-blocking and use a Selector.
+ *  The streaming lib has no selectable channels, but an I2PSocket
+ *  with a read timeout of 0 doesn't block on read, so the I2P sockets are polled,
+ *  often while data is flowing, and backing off when idle.
+ *  Writes to I2P may block until the streaming window opens,
+ *  so they are handed to a pool of threads, which only grows
+ *  with the number of writes blocked at the same time.
+ *
+ *  A client socket isn't read again until the last data from it was written to I2P,
+ *  and an I2P socket isn't read again until the last data from it was written
+ *  to the client, so a slow reader on either side fills up the TCP or streaming window
+ *  of the other side, as it did with the threads.
+ *
+ *  SSL client sockets aren't selectable and still use a pair of threads.
+ *
+ *  @since 0.9.27
+ */
+class SAMv3StreamSelector implements Runnable, Handler {
+
+	private final Log _log;
+	private final SAMBridge _parent;
+	private final Selector _selector;
+	private final Thread _thread;
+	private final ThreadPoolExecutor _writers;
+	/** to be run on the selector thread */
+	private final Queue<Runnable> _pending;
+	/** selector thread only */
+	private final List<Pipe> _pipes;
+	private final AtomicInteger _count = new AtomicInteger();
+	private volatile boolean _running;
+
+	private static final int BUFFER_SIZE = 4*1024;
+	/** max bytes from one I2P socket in one pass, so one busy stream doesn't starve the others */
+	private static final int MAX_READ_PER_POLL = 8 * BUFFER_SIZE;
+	/** I2P socket poll interval right after data was moved */
+	private static final int MIN_POLL_DELAY = 5;
+	/** I2P socket poll interval when idle */
+	private static final int MAX_POLL_DELAY = 100;
+	private static final long WRITER_KEEPALIVE = 60*1000;
+
+	/**
+	 *  Caller must call start().
+	 *
+	 *  @param parent may be null
+	 */
+	public SAMv3StreamSelector(SAMBridge parent) throws IOException {
+		_log = I2PAppContext.getGlobalContext().logManager().getLog(SAMv3StreamSelector.class);
+		_parent = parent;
+		_selector = Selector.open();
+		_pending = new ConcurrentLinkedQueue<Runnable>();
+		_pipes = new ArrayList<Pipe>(16);
+		_writers = new ThreadPoolExecutor(0, Integer.MAX_VALUE, WRITER_KEEPALIVE, TimeUnit.MILLISECONDS,
+		                                  new SynchronousQueue<Runnable>(), new WriterThreadFactory());
+		_thread = new I2PAppThread(this, "SAM StreamSelector", true);
+	}
+
+	/**
+	 *  Only call once.
+	 */
+	public synchronized void start() {
+		_running = true;
+		_thread.start();
+		if (_parent != null)
+			_parent.register(this);
+	}
+
+	/**
+	 *  Closes all the connections.
+	 *  Cannot be restarted.
+	 */
+	public synchronized void stopHandling() {
+		_running = false;
+		_selector.wakeup();
+		_writers.shutdownNow();
+		if (_parent != null)
+			_parent.unregister(this);
+	}
+
+	public boolean isRunning() {
+		return _running;
+	}
+
+	/**
+	 *  @return the number of connections
+	 */
+	public int size() {
+		return _count.get();
+	}
+
+	/**
+	 *  Start moving data between the sockets.
+	 *  At client EOF, the I2P output is closed, and data from I2P is still
+	 *  sent to the client until I2P EOF or a client error.
+	 *  Both sockets are closed when done.
+	 *
+	 *  @param client non-SSL, will be set to non-blocking
+	 *  @param i2ps its read timeout will be set to 0
+	 *  @throws IOException if either socket is closed, or if we are stopped;
+	 *                      the caller must close the sockets
+	 */
+	public void add(SocketChannel client, I2PSocket i2ps) throws IOException {
+		if (!_running)
+			throw new IOException("SAM stream selector stopped");
+		client.configureBlocking(false);
+		i2ps.setReadTimeout(0);
+		final Pipe pipe = new Pipe(client, i2ps);
+		_count.incrementAndGet();
+		runOnSelector(new Runnable() {
+			public void run() { pipe.register(); }
+		});
+		if (!_running)
+			pipe.close();
+	}
+
+	/**
+	 *  From any thread
+	 */
+	private void runOnSelector(Runnable r) {
+		_pending.offer(r);
+		_selector.wakeup();
+	}
+
+	public void run() {
+		long timeout = 0;
+		try {
+			while (_running) {
+				_selector.select(timeout);
+				Runnable r;
+				while ((r = _pending.poll()) != null) {
+					r.run();
+				}
+				for (Iterator<SelectionKey> iter = _selector.selectedKeys().iterator(); iter.hasNext(); ) {
+					SelectionKey key = iter.next();
+					iter.remove();
+					Pipe pipe = (Pipe) key.attachment();
+					if (key.isValid() && key.isWritable())
+						pipe.clientWritable();
+					if (key.isValid() && key.isReadable())
+						pipe.clientReadable();
+				}
+				long next = pollI2P();
+				if (next == Long.MAX_VALUE)
+					timeout = 0;
+				else
+					timeout = Math.max(1, next - System.currentTimeMillis());
+			}
+		} catch (IOException ioe) {
+			_log.error("SAM stream selector error", ioe);
+		} catch (RuntimeException re) {
+			_log.error("SAM stream selector error", re);
+		} finally {
+			_running = false;
+			for (Pipe pipe : _pipes) {
+				pipe.close();
+			}
+			_pipes.clear();
+			Runnable r;
+			while ((r = _pending.poll()) != null) {
+				r.run();
+			}
+			try {
+				_selector.close();
+			} catch (IOException ioe) {}
+			_writers.shutdownNow();
+		}
+	}
+
+	/**
+	 *  Read from the I2P sockets that are due, and remove closed pipes.
+	 *  Selector thread only.
+	 *
+	 *  @return time of the next poll, or Long.MAX_VALUE if none
+	 */
+	private long pollI2P() {
+		long now = System.currentTimeMillis();
+		long rv = Long.MAX_VALUE;
+		for (Iterator<Pipe> iter = _pipes.iterator(); iter.hasNext(); ) {
+			Pipe pipe = iter.next();
+			if (!pipe.isClosed() && !pipe._i2pEOF && !pipe._clientWritePending && pipe._nextPoll <= now)
+				pipe.readI2P(now);
+			if (pipe.isClosed() || pipe._i2pEOF) {
+				iter.remove();
+				continue;
+			}
+			if (!pipe._clientWritePending && pipe._nextPoll < rv)
+				rv = pipe._nextPoll;
+		}
+		return rv;
+	}
+
+	/**
+	 *  One connection
+	 */
+	private class Pipe {
+		private final SocketChannel _client;
+		private final I2PSocket _i2ps;
+		private final InputStream _fromI2P;
+		private final OutputStream _toI2P;
+		/** filled by the selector thread, drained by a writer thread while OP_READ is off */
+		private final ByteBuffer _toI2PBuf;
+		/** selector thread only */
+		private final ByteBuffer _toClientBuf;
+		private final Runnable _writeTask, _resumeRead, _pollSoon;
+		private final AtomicBoolean _closed = new AtomicBoolean();
+		/** set before the last WriteTask is handed off, the client won't be read again */
+		private volatile boolean _clientEOF;
+		/** set when all the I2P data was written to the client, the I2P output is closing */
+		private volatile boolean _i2pEOF;
+		/** one writer at a time */
+		private final Object _writeLock = new Object();
+		/** following are selector thread only */
+		private SelectionKey _key;
+		private long _nextPoll;
+		private int _pollDelay = MIN_POLL_DELAY;
+		/** data from I2P in _toClientBuf, don't read more from I2P */
+		private boolean _clientWritePending;
+
+		public Pipe(SocketChannel client, I2PSocket i2ps) throws IOException {
+			_client = client;
+			_i2ps = i2ps;
+			_fromI2P = i2ps.getInputStream();
+			_toI2P = i2ps.getOutputStream();
+			_toI2PBuf = ByteBuffer.allocate(BUFFER_SIZE);
+			_toClientBuf = ByteBuffer.allocate(BUFFER_SIZE);
+			_writeTask = new WriteTask();
+			_resumeRead = new Runnable() {
+				public void run() {
+					if (!isClosed()) {
+						setInterest(SelectionKey.OP_READ, true);
+						// a reply may be on its way
+						pollSoon();
+					}
+				}
+			};
+			_pollSoon = new Runnable() {
+				public void run() { pollSoon(); }
+			};
+		}
+
+		/** selector thread only */
+		public void register() {
+			if (isClosed())
+				return;
+			if (!_running) {
+				close();
+				return;
+			}
+			try {
+				_key = _client.register(_selector, SelectionKey.OP_READ, this);
+				_pipes.add(this);
+			} catch (ClosedChannelException cce) {
+				close();
+			}
+		}
+
+		public boolean isClosed() {
+			return _closed.get();
+		}
+
+		/**
+		 *  Client to I2P.
+		 *  Selector thread only.
+		 */
+		public void clientReadable() {
+			int read;
+			try {
+				read = _client.read(_toI2PBuf);
+			} catch (IOException ioe) {
+				close();
+				return;
+			}
+			if (read == 0)
+				return;
+			setInterest(SelectionKey.OP_READ, false);
+			if (read > 0)
+				_toI2PBuf.flip();
+			else
+				_clientEOF = true;
+			try {
+				_writers.execute(_writeTask);
+			} catch (RejectedExecutionException ree) {
+				close();
+			}
+		}
+
+		/**
+		 *  I2P to client.
+		 *  Selector thread only.
+		 */
+		public void readI2P(long now) {
+			int total = 0;
+			while (true) {
+				int read;
+				try {
+					read = _fromI2P.read(_toClientBuf.array(), 0, _toClientBuf.capacity());
+				} catch (IOException ioe) {
+					close();
+					return;
+				}
+				if (read < 0) {
+					finish();
+					return;
+				}
+				if (read == 0) {
+					if (total == 0)
+						_pollDelay = Math.min(_pollDelay * 2, MAX_POLL_DELAY);
+					_nextPoll = now + _pollDelay;
+					return;
+				}
+				_pollDelay = MIN_POLL_DELAY;
+				_toClientBuf.clear();
+				_toClientBuf.limit(read);
+				try {
+					_client.write(_toClientBuf);
+				} catch (IOException ioe) {
+					close();
+					return;
+				}
+				if (_toClientBuf.hasRemaining()) {
+					// client is slow, wait for OP_WRITE
+					_clientWritePending = true;
+					setInterest(SelectionKey.OP_WRITE, true);
+					return;
+				}
+				total += read;
+				if (total >= MAX_READ_PER_POLL) {
+					// let the others have a turn, then come right back
+					_nextPoll = now;
+					return;
+				}
+			}
+		}
+
+		/**
+		 *  Rest of the I2P data to the client.
+		 *  Selector thread only.
+		 */
+		public void clientWritable() {
+			try {
+				_client.write(_toClientBuf);
+			} catch (IOException ioe) {
+				close();
+				return;
+			}
+			if (!_toClientBuf.hasRemaining()) {
+				_clientWritePending = false;
+				setInterest(SelectionKey.OP_WRITE, false);
+				_nextPoll = 0;
+			}
+		}
+
+		/** selector thread only */
+		private void pollSoon() {
+			_pollDelay = MIN_POLL_DELAY;
+			_nextPoll = Math.min(_nextPoll, System.currentTimeMillis() + MIN_POLL_DELAY);
+		}
+
+		/** selector thread only */
+		private void setInterest(int op, boolean on) {
+			SelectionKey key = _key;
+			if (key == null || !key.isValid())
+				return;
+			int ops = key.interestOps();
+			key.interestOps(on ? ops | op : ops & ~op);
+		}
+
+		/**
+		 *  I2P EOF, and all the I2P data was written to the client.
+		 *  Closes the client socket, and the I2P socket after its
+		 *  output is flushed and closed, so the far end gets our CLOSE.
+		 *  Selector thread only.
+		 */
+		private void finish() {
+			_i2pEOF = true;
+			try {
+				_client.close();
+			} catch (IOException ioe) {}
+			try {
+				_writers.execute(new CloseTask());
+			} catch (RejectedExecutionException ree) {
+				close();
+			}
+		}
+
+		/**
+		 *  Closes both sockets. Any thread.
+		 *  Does not block.
+		 */
+		public void close() {
+			if (!_closed.compareAndSet(false, true))
+				return;
+			_count.decrementAndGet();
+			try {
+				_client.close();
+			} catch (IOException ioe) {}
+			try {
+				_i2ps.close();
+			} catch (IOException ioe) {}
+		}
+
+		/**
+		 *  Writes _toI2PBuf, and whatever else the client has ready,
+		 *  so a bulk upload doesn't go back to the selector for every buffer.
+		 *  At client EOF, flushes and closes the I2P output stream.
+		 *  Writer thread.
+		 */
+		private class WriteTask implements Runnable {
+			public void run() {
+				synchronized(_writeLock) {
+					try {
+						while (true) {
+							if (_clientEOF) {
+								// send the CLOSE, the client may still be reading until the I2P EOF
+								_toI2P.close();
+								// which should be on its way
+								runOnSelector(_pollSoon);
+								return;
+							}
+							_toI2P.write(_toI2PBuf.array(), _toI2PBuf.position(), _toI2PBuf.remaining());
+							_toI2PBuf.clear();
+							// OP_READ is off, so the selector won't read it at the same time
+							int read = _client.read(_toI2PBuf);
+							if (read == 0)
+								break;
+							if (read < 0)
+								_clientEOF = true;
+							else
+								_toI2PBuf.flip();
+						}
+					} catch (IOException ioe) {
+						// if finish() closed the client, the CloseTask is waiting for us
+						if (!_i2pEOF)
+							close();
+						return;
+					}
+				}
+				runOnSelector(_resumeRead);
+			}
+		}
+
+		/**
+		 *  Flushes and closes the I2P output after any write in progress,
+		 *  then closes the I2P socket.
+		 *  Writer thread.
+		 */
+		private class CloseTask implements Runnable {
+			public void run() {
+				synchronized(_writeLock) {
+					try {
+						_toI2P.close();
+					} catch (IOException ioe) {}
+				}
+				close();
+			}
+		}
+	}
+
+	private static class WriterThreadFactory implements ThreadFactory {
+		private final AtomicInteger _num = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			return new I2PAppThread(r, "SAM StreamWriter " + _num.incrementAndGet(), true);
+		}
+	}
+}
@@ -202,18 +202,7 @@ class SAMv3StreamSession  extends SAMStreamSession implements Session
 
 	        handler.stealSocket() ;
 	        
-	        ReadableByteChannel fromClient = handler.getClientSocket();
-	        ReadableByteChannel fromI2P    = Channels.newChannel(i2ps.getInputStream());
-	        WritableByteChannel toClient   = handler.getClientSocket();
-	        WritableByteChannel toI2P      = Channels.newChannel(i2ps.getOutputStream());
-	        
-		SAMBridge bridge = handler.getBridge();
-		(new I2PAppThread(rec.getThreadGroup(),
-		            new Pipe(fromClient, toI2P, bridge),
-		            "ConnectV3 SAMPipeClientToI2P")).start();
-		(new I2PAppThread(rec.getThreadGroup(),
-		            new Pipe(fromI2P, toClient, bridge),
-		            "ConnectV3 SAMPipeI2PToClient")).start();
+		startPipes(handler.getClientSocket(), i2ps, handler.getBridge(), rec.getThreadGroup(), "ConnectV3");
 	    }
 
 	    /**
@@ -264,18 +253,7 @@ class SAMv3StreamSession  extends SAMStreamSession implements Session
 			                                       i2ps.getPort(), i2ps.getLocalPort());
 		}
 	        handler.stealSocket() ;
-	        ReadableByteChannel fromClient = handler.getClientSocket();
-	        ReadableByteChannel fromI2P    = Channels.newChannel(i2ps.getInputStream());
-	        WritableByteChannel toClient   = handler.getClientSocket();
-	        WritableByteChannel toI2P      = Channels.newChannel(i2ps.getOutputStream());
-	        
-		SAMBridge bridge = handler.getBridge();
-		(new I2PAppThread(rec.getThreadGroup(),
-		            new Pipe(fromClient, toI2P, bridge),
-		            "AcceptV3 SAMPipeClientToI2P")).start();
-		(new I2PAppThread(rec.getThreadGroup(),
-		            new Pipe(fromI2P, toClient, bridge),
-		            "AcceptV3 SAMPipeI2PToClient")).start();
+		startPipes(handler.getClientSocket(), i2ps, handler.getBridge(), rec.getThreadGroup(), "AcceptV3");
 	    }
 
 	    
@@ -420,15 +398,9 @@ class SAMv3StreamSession  extends SAMStreamSession implements Session
 	    							clientServerSock, i2ps.getPeerDestination());
 						}
 					}
-	    				ReadableByteChannel fromClient = clientServerSock ;
-	    				ReadableByteChannel fromI2P    = Channels.newChannel(i2ps.getInputStream());
-	    				WritableByteChannel toClient   = clientServerSock ;
-	    				WritableByteChannel toI2P      = Channels.newChannel(i2ps.getOutputStream());
-	    				(new I2PAppThread(new Pipe(fromClient, toI2P, null),
-					                  "ForwardV3 SAMPipeClientToI2P")).start();
-	    				(new I2PAppThread(new Pipe(fromI2P,toClient, null),
-					                  "ForwardV3 SAMPipeI2PToClient")).start();
-
+					SessionRecord rec = SAMv3Handler.sSessionsHash.get(nick);
+					SAMBridge bridge = rec != null ? rec.getHandler().getBridge() : null;
+					startPipes(clientServerSock, i2ps, bridge, null, "ForwardV3");
 	    			} catch (IOException e) {
 	    				try {
 	    					clientServerSock.close();
@@ -442,6 +414,42 @@ class SAMv3StreamSession  extends SAMStreamSession implements Session
 	    	}
 	    }
 
+	    /**
+	     *  Move the data between the client socket and the I2P socket,
+	     *  until either one is closed.
+	     *  Plain client sockets are handled by the bridge's selector thread.
+	     *  SSL client sockets, or with no bridge, get a pair of threads.
+	     *
+	     *  @param bridge may be null
+	     *  @param group may be null
+	     *  @param name thread name prefix
+	     *  @throws IOException after closing both sockets
+	     *  @since 0.9.27
+	     */
+	    private static void startPipes(SocketChannel client, I2PSocket i2ps, SAMBridge bridge,
+	                                   ThreadGroup group, String name) throws IOException {
+		try {
+			if (bridge != null && !(client instanceof SSLSocketChannel)) {
+				bridge.getV3StreamSelector().add(client, i2ps);
+				return;
+			}
+			ReadableByteChannel fromI2P = Channels.newChannel(i2ps.getInputStream());
+			WritableByteChannel toI2P   = Channels.newChannel(i2ps.getOutputStream());
+			(new I2PAppThread(group, new Pipe(client, toI2P, bridge),
+			                  name + " SAMPipeClientToI2P")).start();
+			(new I2PAppThread(group, new Pipe(fromI2P, client, bridge),
+			                  name + " SAMPipeI2PToClient")).start();
+		} catch (IOException ioe) {
+			try {
+				client.close();
+			} catch (IOException e) {}
+			try {
+				i2ps.close();
+			} catch (IOException e) {}
+			throw ioe;
+		}
+	    }
+
 	    private static class Pipe implements Runnable, Handler
 	    {
 	    	private final ReadableByteChannel in  ;
@@ -311,51 +311,71 @@ public class SAMStreamSink {
                 }
                 while (true) {
                     Socket s = ss.accept();
-                    Sink sink = new Sink("FAKE", "FAKEFROM");
-                    try {
-                        InputStream in = s.getInputStream();
-                        boolean gotDest = false;
-                        byte[] dest = new byte[1024];
-                        int dlen = 0;
-                        byte[] buf = new byte[32768];
-                        int len;
-                        while((len = in.read(buf)) >= 0) {
-                            if (!gotDest) {
-                                // eat the dest line
-                                for (int i = 0; i < len; i++) {
-                                    byte b = buf[i];
-                                    if (b == (byte) '\n') {
-                                        gotDest = true;
-                                        if (_log.shouldInfo()) {
-                                            try {
-                                                _log.info("Got incoming accept from: \"" + new String(dest, 0, dlen, "ISO-8859-1") + '"');
-                                            } catch (IOException uee) {}
-                                        }
-                                        // feed any remaining to the sink
-                                        i++;
-                                        if (i < len)
-                                            sink.received(buf, i, len - i);
-                                        break;
-                                    } else {
-                                        if (dlen < dest.length) {
-                                            dest[dlen++] = b;
-                                        } else if (dlen == dest.length) {
-                                            dlen++;
-                                            _log.error("first line overflow on accept");
-                                        }
-                                    }
+                    // a thread for each socket, so many streams may be forwarded at once
+                    (new FwdHandler(s)).start();
+                }
+            } catch (IOException ioe) {
+                _log.error("Fwdcvr", ioe);
+            }
+        }
+    }
+
+    /**
+     *  One forwarded socket
+     *  @since 0.9.27
+     */
+    private class FwdHandler extends I2PAppThread {
+        private final Socket s;
+
+        public FwdHandler(Socket s) {
+            super("SAM Fwd Handler");
+            this.s = s;
+        }
+
+        public void run() {
+            try {
+                Sink sink = new Sink("FAKE", "FAKEFROM");
+                InputStream in = s.getInputStream();
+                boolean gotDest = false;
+                byte[] dest = new byte[1024];
+                int dlen = 0;
+                byte[] buf = new byte[32768];
+                int len;
+                while((len = in.read(buf)) >= 0) {
+                    if (!gotDest) {
+                        // eat the dest line
+                        for (int i = 0; i < len; i++) {
+                            byte b = buf[i];
+                            if (b == (byte) '\n') {
+                                gotDest = true;
+                                if (_log.shouldInfo()) {
+                                    try {
+                                        _log.info("Got incoming accept from: \"" + new String(dest, 0, dlen, "ISO-8859-1") + '"');
+                                    } catch (IOException uee) {}
                                 }
+                                // feed any remaining to the sink
+                                i++;
+                                if (i < len)
+                                    sink.received(buf, i, len - i);
+                                break;
                             } else {
-                                sink.received(buf, 0, len);
+                                if (dlen < dest.length) {
+                                    dest[dlen++] = b;
+                                } else if (dlen == dest.length) {
+                                    dlen++;
+                                    _log.error("first line overflow on accept");
+                                }
                             }
                         }
-                        sink.closed();
-                    } catch (IOException ioe) {
-                        _log.error("Fwdcvr", ioe);
+                    } else {
+                        sink.received(buf, 0, len);
                     }
                 }
+                sink.closed();
             } catch (IOException ioe) {
                 _log.error("Fwdcvr", ioe);
+            } finally {
+                try { s.close(); } catch (IOException ioe) {}
             }
         }
     }
@@ -0,0 +1,150 @@
+package net.i2p.sam;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.i2p.data.DataHelper;
+
+/**
+ * Load test for the SAM v3 stream data path.
+ * Opens many STREAM CONNECTs at once on one session,
+ * to a SAMStreamSink in forward mode, then sends data on all of them.
+ *
+ * Start a router or LocalClientManager, and a SAM bridge,
+ * then the sink with: SAMStreamSink -v 3.2 -m 6 samdest.txt sinkdir
+ * (see apps/sam/doc/README-test.txt),
+ * then run this, and watch the thread count of the SAM bridge.
+ *
+ * Usage: TestStreamLoad samHost samPort peerDestFile streams bytesPerStream
+ *
+ * @since 0.9.27
+ */
+public class TestStreamLoad {
+    private static final String ID = "load";
+    private static final int THREADS = 16;
+
+    public static void main(String args[]) throws Exception {
+        if (args.length != 5) {
+            System.err.println("Usage: TestStreamLoad samHost samPort peerDestFile streams bytesPerStream");
+            return;
+        }
+        final String host = args[0];
+        final int port = Integer.parseInt(args[1]);
+        byte[] d = new byte[1024];
+        FileInputStream fin = new FileInputStream(args[2]);
+        int dlen = DataHelper.read(fin, d);
+        fin.close();
+        final String dest = new String(d, 0, dlen, "ISO-8859-1").trim();
+        int streams = Integer.parseInt(args[3]);
+        final int size = Integer.parseInt(args[4]);
+
+        Socket control = new Socket(host, port);
+        hello(control);
+        String reply = command(control, "SESSION CREATE STYLE=STREAM ID=" + ID + " DESTINATION=TRANSIENT");
+        if (!reply.contains("RESULT=OK"))
+            throw new IOException("Session create failed: " + reply);
+
+        // phase 1: connect all the streams, and keep them open
+        final List<Socket> socks = new ArrayList<Socket>(streams);
+        final AtomicInteger failed = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < streams; i++) {
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        Socket s = new Socket(host, port);
+                        hello(s);
+                        String rv = command(s, "STREAM CONNECT ID=" + ID + " DESTINATION=" + dest + " SILENT=false");
+                        if (!rv.contains("RESULT=OK")) {
+                            System.err.println("Connect failed: " + rv);
+                            failed.incrementAndGet();
+                            s.close();
+                            return;
+                        }
+                        synchronized (socks) {
+                            socks.add(s);
+                        }
+                    } catch (IOException ioe) {
+                        System.err.println("Connect failed: " + ioe);
+                        failed.incrementAndGet();
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.HOURS);
+        long connected = System.currentTimeMillis();
+        System.out.println(socks.size() + " streams open, " + failed.get() + " failed, in " +
+                           (connected - start) + " ms");
+
+        // phase 2: send on all of them
+        final byte[] data = new byte[size];
+        new java.util.Random().nextBytes(data);
+        pool = Executors.newFixedThreadPool(THREADS);
+        for (final Socket s : socks) {
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        OutputStream out = s.getOutputStream();
+                        for (int off = 0; off < size; off += 4096) {
+                            out.write(data, off, Math.min(4096, size - off));
+                        }
+                        out.flush();
+                        s.shutdownOutput();
+                        // wait for the bridge to close it
+                        InputStream in = s.getInputStream();
+                        while (in.read() >= 0) {}
+                    } catch (IOException ioe) {
+                        System.err.println("Send failed: " + ioe);
+                        failed.incrementAndGet();
+                    } finally {
+                        try { s.close(); } catch (IOException ioe) {}
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.HOURS);
+        long done = System.currentTimeMillis();
+        long total = ((long) size) * socks.size();
+        System.out.println(total + " bytes sent on " + socks.size() + " streams in " + (done - connected) +
+                           " ms, " + (total * 1000 / Math.max(1, done - connected) / 1024) + " KBps, " +
+                           failed.get() + " failures");
+        control.close();
+    }
+
+    private static void hello(Socket s) throws IOException {
+        String reply = command(s, "HELLO VERSION MIN=3.1 MAX=3.2");
+        if (!reply.startsWith("HELLO REPLY RESULT=OK"))
+            throw new IOException("Hello failed: " + reply);
+    }
+
+    /**
+     * @return the reply line
+     */
+    private static String command(Socket s, String cmd) throws IOException {
+        OutputStream out = s.getOutputStream();
+        out.write(DataHelper.getUTF8(cmd + '\n'));
+        out.flush();
+        // unbuffered, so we don't read any stream data
+        InputStream in = s.getInputStream();
+        StringBuilder buf = new StringBuilder(128);
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0)
+                throw new IOException("EOF after " + cmd);
+            buf.append((char) c);
+        }
+        return buf.toString();
+    }
+}
@@ -217,6 +217,35 @@ public interface I2PSession {
                                int proto, int fromPort, int toPort,
                                SendMessageOptions options, SendMessageStatusListener listener) throws I2PSessionException;
 
+    /**
+     * Send a batch of messages, with the same protocol, ports, and options,
+     * each to its own destination.
+     * All payloads are prepared before any is queued,
+     * so they go out to the router together.
+     * Same as calling sendMessage() for each, but more efficient.
+     *
+     * See I2PSessionMuxedImpl for proto/port details.
+     * See SendMessageOptions for option details.
+     *
+     * @param dests non-null, same size as payloads, may contain duplicates
+     * @param payloads non-null, each sent in its entirety
+     * @param proto 1-254 or 0 for unset; recommended:
+     *         I2PSession.PROTO_UNSPECIFIED
+     *         I2PSession.PROTO_STREAMING
+     *         I2PSession.PROTO_DATAGRAM
+     *         255 disallowed
+     * @param fromPort 1-65535 or 0 for unset
+     * @param toPort 1-65535 or 0 for unset
+     * @param options to be passed to the router, or null for the defaults,
+     *                as in sendMessage(dest, payload, proto, fromPort, toPort)
+     * @return the number of messages sent
+     * @throws I2PSessionException on all errors
+     * @since 0.9.27
+     */
+    public int sendMessages(List<Destination> dests, List<byte[]> payloads,
+                            int proto, int fromPort, int toPort,
+                            SendMessageOptions options) throws I2PSessionException;
+
     /** Receive a message that the router has notified the client about, returning
      * the payload.
      * This may only be called once for a given msgId (until the counter wraps)
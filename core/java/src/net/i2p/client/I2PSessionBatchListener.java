@@ -0,0 +1,31 @@
+package net.i2p.client;
+
+/*
+ * public domain
+ */
+
+/**
+ * A muxed listener that also hears when a batch of received messages is done.
+ *
+ * When messages arrive faster than they are handled, the session
+ * calls messageAvailable() for each of the waiting messages in turn,
+ * and then batchComplete() once.
+ * The listener may receive and queue each message in messageAvailable(),
+ * and then process them all together in batchComplete(),
+ * for example to verify datagram signatures in parallel.
+ *
+ * Only supported when registered via addMuxedSessionListener().
+ *
+ * @since 0.9.27
+ */
+public interface I2PSessionBatchListener extends I2PSessionMuxedListener {
+
+    /**
+     * Called after one or more calls to messageAvailable() for this listener,
+     * when there are no more messages waiting, or the batch is full.
+     * Called from the same thread as messageAvailable().
+     *
+     * @param session session to notify
+     */
+    void batchComplete(I2PSession session);
+}
@@ -10,6 +10,8 @@ package net.i2p.client.datagram;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 
 import net.i2p.I2PAppContext;
 import net.i2p.client.I2PSession;
@@ -96,16 +98,7 @@ public final class I2PDatagramMaker {
             if (type == null)
                 throw new IllegalStateException("Unsupported sig type");
             
-            Signature sig;
-            if (type == SigType.DSA_SHA1) {
-                byte[] hash = SimpleByteCache.acquire(Hash.HASH_LENGTH);
-                // non-caching
-                hashGen.calculateHash(payload, 0, payload.length, hash, 0);
-                sig = dsaEng.sign(hash, sxPrivKey);
-                SimpleByteCache.release(hash);
-            } else {
-                sig = dsaEng.sign(payload, sxPrivKey);
-            }
+            Signature sig = sign(payload, type);
             sig.writeBytes(sxDGram);
             sxDGram.write(payload);
             if (sxDGram.size() > DGRAM_BUFSIZE)
@@ -121,4 +114,82 @@ public final class I2PDatagramMaker {
             return null;
         }
     }
+
+    /**
+     * Make repliable I2P datagrams containing each of the specified payloads,
+     * signing them in parallel on all cores.
+     * Datagrams are as described in makeI2PDatagram().
+     *
+     * Unlike makeI2PDatagram(), this does not use any per-object state
+     * other than the session keys, so it may be called by several threads at once.
+     *
+     * @param payloads non-null, each non-null
+     * @return the datagrams in the same order, with null for any payload
+     *         that could not be made, e.g. too big
+     * @throws IllegalStateException if Destination signature type unsupported
+     * @since 0.9.27
+     */
+    public List<byte[]> makeI2PDatagrams(final List<byte[]> payloads) {
+        final SigType type = sxPrivKey.getType();
+        if (type == null)
+            throw new IllegalStateException("Unsupported sig type");
+        final byte[][] rv = new byte[payloads.size()][];
+        ParallelBatch.run(rv.length, new ParallelBatch.Task() {
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    rv[i] = makeI2PDatagram(payloads.get(i), type);
+                }
+            }
+        });
+        return Arrays.asList(rv);
+    }
+
+    /**
+     * Thread safe version of makeI2PDatagram() for the batch method.
+     *
+     * @return null on error
+     * @since 0.9.27
+     */
+    private byte[] makeI2PDatagram(byte[] payload, SigType type) {
+        try {
+            byte[] sig = sign(payload, type).getData();
+            int len = sxDestBytes.length + sig.length + payload.length;
+            if (len > DGRAM_BUFSIZE) {
+                Log log = I2PAppContext.getGlobalContext().logManager().getLog(I2PDatagramMaker.class);
+                if (log.shouldLog(Log.WARN))
+                    log.warn("Datagram too big: " + len);
+                return null;
+            }
+            byte[] rv = new byte[len];
+            System.arraycopy(sxDestBytes, 0, rv, 0, sxDestBytes.length);
+            System.arraycopy(sig, 0, rv, sxDestBytes.length, sig.length);
+            System.arraycopy(payload, 0, rv, sxDestBytes.length + sig.length, payload.length);
+            return rv;
+        } catch (RuntimeException e) {
+            Log log = I2PAppContext.getGlobalContext().logManager().getLog(I2PDatagramMaker.class);
+            log.error("Error making datagram", e);
+            return null;
+        }
+    }
+
+    /**
+     * For DSA_SHA1, the signature of the SHA-256 hash of the payload,
+     * otherwise of the payload itself.
+     * Thread safe.
+     *
+     * @since 0.9.27 pulled out of makeI2PDatagram()
+     */
+    private Signature sign(byte[] payload, SigType type) {
+        Signature sig;
+        if (type == SigType.DSA_SHA1) {
+            byte[] hash = SimpleByteCache.acquire(Hash.HASH_LENGTH);
+            // non-caching
+            hashGen.calculateHash(payload, 0, payload.length, hash, 0);
+            sig = dsaEng.sign(hash, sxPrivKey);
+            SimpleByteCache.release(hash);
+        } else {
+            sig = dsaEng.sign(payload, sxPrivKey);
+        }
+        return sig;
+    }
 }
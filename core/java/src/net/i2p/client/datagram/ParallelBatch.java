@@ -0,0 +1,110 @@
+package net.i2p.client.datagram;
+
+/*
+ * public domain
+ */
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.i2p.util.I2PThread;
+import net.i2p.util.SystemVersion;
+
+/**
+ *  Splits the signing or verifying of a batch of datagrams
+ *  across all cores, for the batch methods in
+ *  I2PDatagramMaker and I2PDatagramDissector.
+ *  The calling thread does one share of the work itself.
+ *
+ *  @since 0.9.27
+ */
+class ParallelBatch {
+
+    /**
+     *  Work on items from (inclusive) to to (exclusive).
+     *  Must not throw.
+     */
+    public interface Task {
+        public void run(int from, int to);
+    }
+
+    /** in addition to the caller */
+    private static final int THREADS = SystemVersion.getCores() - 1;
+    /** not worth a thread for less */
+    private static final int MIN_PER_THREAD = 4;
+    private static final ThreadPoolExecutor _executor;
+
+    static {
+        if (THREADS > 0) {
+            _executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+                                               new LinkedBlockingQueue<Runnable>(),
+                                               new BatchThreadFactory());
+            _executor.allowCoreThreadTimeOut(true);
+        } else {
+            _executor = null;
+        }
+    }
+
+    private ParallelBatch() {}
+
+    /**
+     *  Run the task over count items, and return when all are done.
+     */
+    public static void run(int count, final Task task) {
+        int parts = Math.min(THREADS + 1, count / MIN_PER_THREAD);
+        if (parts <= 1) {
+            task.run(0, count);
+            return;
+        }
+        final CountDownLatch latch = new CountDownLatch(parts - 1);
+        int per = count / parts;
+        int from = 0;
+        for (int i = 0; i < parts - 1; i++) {
+            final int f = from;
+            final int t = from + per;
+            Runnable r = new Runnable() {
+                public void run() {
+                    try {
+                        task.run(f, t);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            };
+            try {
+                _executor.execute(r);
+            } catch (RejectedExecutionException ree) {
+                r.run();
+            }
+            from = t;
+        }
+        task.run(from, count);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException ie) {
+                // the results aren't ready yet
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private static class BatchThreadFactory implements ThreadFactory {
+        private final AtomicInteger _count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread rv = new I2PThread(r, "DatagramBatch " + _count.incrementAndGet());
+            rv.setDaemon(true);
+            return rv;
+        }
+    }
+}
@@ -3,6 +3,8 @@ package net.i2p.client.impl;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -21,6 +23,8 @@ import net.i2p.util.Log;
  * We need a single thread that writes so we don't have issues with
  * the Piped Streams used in InternalSocket.
  *
+ * As of 0.9.27, drains the queue in batches and writes each batch with a single flush.
+ *
  * @author zzz from net.i2p.router.client.ClientWriterRunner
  */
 class ClientWriterRunner implements Runnable {
@@ -32,12 +36,15 @@ class ClientWriterRunner implements Runnable {
 
     private static final int MAX_QUEUE_SIZE = 32;
     private static final long MAX_SEND_WAIT = 10*1000;
+    /** max messages per flush */
+    private static final int MAX_BATCH = 16;
+    private static final int BUF_SIZE = 32*1024;
     
     /**
      *  As of 0.9.11 does not start the thread, caller must call startWriting()
      */
     public ClientWriterRunner(OutputStream out, I2PSessionImpl session) {
-        _out = new BufferedOutputStream(out);
+        _out = new BufferedOutputStream(out, BUF_SIZE);
         _session = session;
         _messagesToWrite = new LinkedBlockingQueue<I2CPMessage>(MAX_QUEUE_SIZE);
     }
@@ -76,20 +83,30 @@ class ClientWriterRunner implements Runnable {
     }
 
     public void run() {
-        I2CPMessage msg;
+        List<I2CPMessage> batch = new ArrayList<I2CPMessage>(MAX_BATCH);
+        long written = 0;
+        long flushes = 0;
         while (!_session.isClosed()) {
             try {
-                msg = _messagesToWrite.take();
+                batch.add(_messagesToWrite.take());
             } catch (InterruptedException ie) {
                 continue;
             }
-            if (msg.getType() == PoisonI2CPMessage.MESSAGE_TYPE)
-                break;
+            _messagesToWrite.drainTo(batch, MAX_BATCH - 1);
+            boolean poisoned = false;
             // only thread, we don't need synchronized
             try {
-                msg.writeMessage(_out);
-                if (_messagesToWrite.isEmpty())
-                    _out.flush();
+                for (int i = 0; i < batch.size(); i++) {
+                    I2CPMessage msg = batch.get(i);
+                    if (msg.getType() == PoisonI2CPMessage.MESSAGE_TYPE) {
+                        poisoned = true;
+                        break;
+                    }
+                    msg.writeMessage(_out);
+                    written++;
+                }
+                _out.flush();
+                flushes++;
             } catch (I2CPMessageException ime) {
                 _session.propogateError("Error writing out the message", ime);
                 _session.disconnect();
@@ -99,7 +116,16 @@ class ClientWriterRunner implements Runnable {
                 _session.disconnect();
                 break;
             }
+            batch.clear();
+            if (poisoned)
+                break;
         }
         _messagesToWrite.clear();
+        if (flushes > 0) {
+            Log log = _session.getContext().logManager().getLog(ClientWriterRunner.class);
+            if (log.shouldInfo())
+                log.info(_session.getPrefix() + "Wrote " + written + " messages in " + flushes + " flushes (" +
+                         (written / (float) flushes) + " per flush)");
+        }
     }
 }
@@ -2,12 +2,15 @@ package net.i2p.client.impl;
 
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.Map;
+import java.util.Set;
 
 import net.i2p.I2PAppContext;
 import net.i2p.client.I2PSession;
+import net.i2p.client.I2PSessionBatchListener;
 import net.i2p.client.I2PSessionException;
 import net.i2p.client.I2PSessionListener;
 import net.i2p.client.I2PSessionMuxedListener;
+import net.i2p.util.ConcurrentHashSet;
 import net.i2p.util.Log;
 
 /*
@@ -21,17 +24,21 @@ import net.i2p.util.Log;
  * protocol, from port, and to port for every received message.
  *
  * messageAvailable() only calls one listener, not all that apply.
+ * batchComplete() calls the batch listeners that got a message since the last call.
  * The others call all listeners.
  *
  * @author zzz
  */
-public class I2PSessionDemultiplexer implements I2PSessionMuxedListener {
+public class I2PSessionDemultiplexer implements I2PSessionBatchListener {
     private final Log _log;
     private final Map<Integer, I2PSessionMuxedListener> _listeners;
+    /** batch listeners called since the last batchComplete() */
+    private final Set<I2PSessionBatchListener> _batchPending;
 
     public I2PSessionDemultiplexer(I2PAppContext ctx) {
         _log = ctx.logManager().getLog(I2PSessionDemultiplexer.class);
         _listeners = new ConcurrentHashMap<Integer, I2PSessionMuxedListener>();
+        _batchPending = new ConcurrentHashSet<I2PSessionBatchListener>(4);
     }
 
     /** unused */
@@ -39,9 +46,11 @@ public class I2PSessionDemultiplexer implements I2PSessionMuxedListener {
 
     public void messageAvailable(I2PSession session, int msgId, long size, int proto, int fromport, int toport ) {
         I2PSessionMuxedListener l = findListener(proto, toport);
-        if (l != null)
+        if (l != null) {
+            if (l instanceof I2PSessionBatchListener)
+                _batchPending.add((I2PSessionBatchListener) l);
             l.messageAvailable(session, msgId, size, proto, fromport, toport);
-        else {
+        } else {
             // no listener, throw it out
             if (_listeners.isEmpty()) {
                 if (_log.shouldLog(Log.WARN))
@@ -57,6 +66,19 @@ public class I2PSessionDemultiplexer implements I2PSessionMuxedListener {
         }
     }
 
+    /**
+     *  Calls batchComplete() for the batch listeners that got a message since the last call.
+     *  @since 0.9.27
+     */
+    public void batchComplete(I2PSession session) {
+        if (_batchPending.isEmpty())
+            return;
+        for (I2PSessionBatchListener l : _batchPending) {
+            _batchPending.remove(l);
+            l.batchComplete(session);
+        }
+    }
+
     public void reportAbuse(I2PSession session, int severity) {
         for (I2PSessionMuxedListener l : _listeners.values())
             l.reportAbuse(session, severity);
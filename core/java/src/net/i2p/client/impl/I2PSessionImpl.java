@@ -28,6 +28,7 @@ import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.i2p.CoreVersion;
@@ -36,6 +37,7 @@ import net.i2p.client.I2PClient;
 import net.i2p.client.I2PSession;
 import net.i2p.client.I2PSessionException;
 import net.i2p.client.I2PSessionListener;
+import net.i2p.client.naming.NamingCache;
 import net.i2p.data.Base32;
 import net.i2p.data.DataFormatException;
 import net.i2p.data.Destination;
@@ -59,11 +61,11 @@ import net.i2p.internal.InternalClientManager;
 import net.i2p.internal.QueuedI2CPMessageReader;
 import net.i2p.util.I2PAppThread;
 import net.i2p.util.I2PSSLSocketFactory;
-import net.i2p.util.LHMCache;
 import net.i2p.util.Log;
 import net.i2p.util.OrderedProperties;
 import net.i2p.util.SimpleTimer2;
 import net.i2p.util.SystemVersion;
+import net.i2p.util.UnixSocket;
 import net.i2p.util.VersionComparator;
 
 /**
@@ -172,12 +174,17 @@ public abstract class I2PSessionImpl implements I2PSession, I2CPMessageReader.I2
     private volatile boolean _routerSupportsFastReceive;
     private volatile boolean _routerSupportsHostLookup;
 
-    protected static final int CACHE_MAX_SIZE = SystemVersion.isAndroid() ? 32 : 128;
+    protected static final int CACHE_MAX_SIZE = SystemVersion.isAndroid() ? 32 : 512;
+    /** @since 0.9.27 */
+    private static final long LOOKUP_CACHE_TTL = 60*60*1000;
     /**
      *  Since 0.9.11, key is either a Hash or a String
+     *  Lock-striped as of 0.9.27, names expire after an hour.
      *  @since 0.8.9
      */
-    private static final Map<Object, Destination> _lookupCache = new LHMCache<Object, Destination>(CACHE_MAX_SIZE);
+    private static final NamingCache _lookupCache = new NamingCache(CACHE_MAX_SIZE, LOOKUP_CACHE_TTL, 0);
+    /** @since 0.9.27 */
+    private static final AtomicBoolean _lookupCacheListening = new AtomicBoolean();
     private static final String MIN_HOST_LOOKUP_VERSION = "0.9.11";
     private static final boolean TEST_LOOKUP = false;
 
@@ -284,6 +291,11 @@ public abstract class I2PSessionImpl implements I2PSession, I2CPMessageReader.I2
         _routerSupportsFastReceive = _context.isRouterContext();
         _routerSupportsHostLookup = _context.isRouterContext();
         _routerSupportsSubsessions = _context.isRouterContext();
+        _lookupCache.startStats(context, "client.lookupCache");
+        if (_context.isRouterContext() && _lookupCacheListening.compareAndSet(false, true)) {
+            // host lookups are answered from the router's naming service
+            _context.namingService().registerListener(_lookupCache);
+        }
     }
 
     /**
@@ -621,6 +633,10 @@ public abstract class I2PSessionImpl implements I2PSession, I2CPMessageReader.I2
                         } catch (InvocationTargetException e) {
                             throw new I2PSessionException("Cannot load DomainSocketFactory", e);
                         }
+                    } else if (_options.getProperty(PROP_DOMAIN_SOCKET) != null &&
+                               UnixSocket.isSupported()) {
+                        // Java 16+, must be the same absolute path as the router's i2cp.domainSocket
+                        _socket = new UnixSocket(_options.getProperty(PROP_DOMAIN_SOCKET));
                     } else if (Boolean.parseBoolean(_options.getProperty(PROP_ENABLE_SSL))) {
                         try {
                             I2PSSLSocketFactory fact = new I2PSSLSocketFactory(_context, false, "certificates/i2cp");
@@ -704,8 +720,8 @@ public abstract class I2PSessionImpl implements I2PSession, I2CPMessageReader.I2
             String msg;
             if (_context.isRouterContext())
                 msg = "Failed to build tunnels";
-            else if (SystemVersion.isAndroid() &&
-                    _options.getProperty(PROP_DOMAIN_SOCKET) != null)
+            else if (_options.getProperty(PROP_DOMAIN_SOCKET) != null &&
+                     (SystemVersion.isAndroid() || UnixSocket.isSupported()))
                 msg = "Failed to bind to the router on " + _options.getProperty(PROP_DOMAIN_SOCKET) + " and build tunnels";
             else
                 msg = "Cannot connect to the router on " + _hostname + ':' + _portNum + " and build tunnels";
@@ -1339,9 +1355,7 @@ public abstract class I2PSessionImpl implements I2PSession, I2CPMessageReader.I2
      */
     void destReceived(Destination d) {
         Hash h = d.calculateHash();
-        synchronized (_lookupCache) {
-            _lookupCache.put(h, d);
-        }
+        _lookupCache.put(h, d);
         for (LookupWaiter w : _pendingLookups) {
             if (h.equals(w.hash)) {
                 synchronized (w) {
@@ -1378,11 +1392,9 @@ public abstract class I2PSessionImpl implements I2PSession, I2CPMessageReader.I2
         Hash h = d.calculateHash();
         for (LookupWaiter w : _pendingLookups) {
             if (nonce == w.nonce || h.equals(w.hash)) {
-                synchronized (_lookupCache) {
-                    if (w.name != null)
-                        _lookupCache.put(w.name, d);
-                    _lookupCache.put(h, d);
-                }
+                if (w.name != null)
+                    _lookupCache.put(w.name, d);
+                _lookupCache.put(h, d);
                 synchronized (w) {
                     w.destination = d;
                     w.notifyAll();
@@ -1449,9 +1461,7 @@ public abstract class I2PSessionImpl implements I2PSession, I2CPMessageReader.I2
 
     /** @since 0.9.20 */
     public static void clearCache() {
-        synchronized (_lookupCache) {
-            _lookupCache.clear();
-        }
+        _lookupCache.clear();
     }
 
     /**
@@ -1473,11 +1483,9 @@ public abstract class I2PSessionImpl implements I2PSession, I2CPMessageReader.I2
      *  @return null on failure
      */
     public Destination lookupDest(Hash h, long maxWait) throws I2PSessionException {
-        synchronized (_lookupCache) {
-            Destination rv = _lookupCache.get(h);
-            if (rv != null)
-                return rv;
-        }
+        Destination cached = _lookupCache.get(h);
+        if (cached != null)
+            return cached;
         synchronized (_stateLock) {
             // not before GOTDATE
             if (_state == State.CLOSED ||
@@ -1569,11 +1577,9 @@ public abstract class I2PSessionImpl implements I2PSession, I2CPMessageReader.I2
         // won't fit in Mapping
         if (name.length() >= 256 && !_context.isRouterContext())
             return null;
-        synchronized (_lookupCache) {
-            Destination rv = _lookupCache.get(name);
-            if (rv != null)
-                return rv;
-        }
+        Destination cached = _lookupCache.get(name);
+        if (cached != null)
+            return cached;
         if (isClosed()) {
             if (_log.shouldLog(Log.INFO))
                 _log.info("Session closed, cannot lookup " + name);
@@ -12,6 +12,7 @@ package net.i2p.client.impl;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
@@ -236,6 +237,15 @@ class I2PSessionImpl2 extends I2PSessionImpl {
                                SendMessageOptions options, SendMessageStatusListener listener) throws I2PSessionException {
         throw new UnsupportedOperationException("Use MuxedImpl");
     }
+    /**
+     *  @throws UnsupportedOperationException always, use MuxedImpl
+     *  @since 0.9.27
+     */
+    public int sendMessages(List<Destination> dests, List<byte[]> payloads,
+                            int proto, int fromport, int toport,
+                            SendMessageOptions options) throws I2PSessionException {
+        throw new UnsupportedOperationException("Use MuxedImpl");
+    }
 
     /** unused, see MuxedImpl override */
     @Override
@@ -5,6 +5,8 @@ package net.i2p.client.impl;
  */
 
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.Properties;
 import java.util.Set;
@@ -275,6 +277,46 @@ class I2PSessionMuxedImpl extends I2PSessionImpl2 {
         return nonce;
     }
 
+    /**
+     *  See I2PSession.sendMessages().
+     *
+     *  All payloads are compressed before any is queued,
+     *  so the ClientWriterRunner can write them to the router in one flush.
+     *
+     *  @param options null for the defaults, otherwise always uses sendNoEffort
+     *  @return the number of messages sent
+     *  @since 0.9.27
+     */
+    @Override
+    public int sendMessages(List<Destination> dests, List<byte[]> payloads,
+                            int proto, int fromPort, int toPort,
+                            SendMessageOptions options) throws I2PSessionException {
+        int sz = payloads.size();
+        if (dests.size() != sz)
+            throw new IllegalArgumentException("size mismatch");
+        List<byte[]> prepped = new ArrayList<byte[]>(sz);
+        for (byte[] payload : payloads) {
+            prepped.add(prepPayload(payload, 0, payload.length, proto, fromPort, toPort));
+        }
+        int rv = 0;
+        for (int i = 0; i < sz; i++) {
+            Destination dest = dests.get(i);
+            byte[] payload = prepped.get(i);
+            boolean ok;
+            if (options != null) {
+                sendNoEffort(dest, payload, options);
+                ok = true;
+            } else if (_noEffort) {
+                ok = sendNoEffort(dest, payload, 0, 0);
+            } else {
+                ok = sendBestEffort(dest, payload, 0, 0);
+            }
+            if (ok)
+                rv++;
+        }
+        return rv;
+    }
+
     /**
      * @return gzip compressed payload, ready to send
      * @since 0.9.14
@@ -334,6 +376,8 @@ class I2PSessionMuxedImpl extends I2PSessionImpl2 {
         private final LinkedBlockingQueue<MsgData> _msgs;
         private volatile boolean _alive;
         private static final int POISON_SIZE = -99999;
+        /** max messages per I2PSessionBatchListener.batchComplete() */
+        private static final int MAX_BATCH = 64;
         private final AtomicBoolean stopping = new AtomicBoolean();
 
         public MuxedAvailabilityNotifier() {
@@ -382,6 +426,7 @@ class I2PSessionMuxedImpl extends I2PSessionImpl2 {
                 _log.debug(getPrefix() + "starting muxed availability notifier");
             _msgs.clear();
             _alive=true;
+            List<MsgData> batch = new ArrayList<MsgData>(MAX_BATCH);
             while (_alive) {
                 MsgData msg;
                 try {
@@ -392,16 +437,32 @@ class I2PSessionMuxedImpl extends I2PSessionImpl2 {
                                     String.valueOf(_msgs.size()) + " Messages, Alive " + _alive);
                     continue;
                 }
-                if (msg.size == POISON_SIZE) {
-                    // System.out.println("I2PSessionMuxedImpl.run() POISONED");
-                    break;
+                // notify for everything waiting, then tell batch listeners we're done
+                batch.add(msg);
+                _msgs.drainTo(batch, MAX_BATCH - 1);
+                boolean poisoned = false;
+                for (int i = 0; i < batch.size(); i++) {
+                    msg = batch.get(i);
+                    if (msg.size == POISON_SIZE) {
+                        // System.out.println("I2PSessionMuxedImpl.run() POISONED");
+                        poisoned = true;
+                        break;
+                    }
+                    try {
+                        _demultiplexer.messageAvailable(I2PSessionMuxedImpl.this,
+                            msg.id, msg.size, msg.proto, msg.fromPort, msg.toPort);
+                    } catch (RuntimeException e) {
+                        _log.error("Error notifying app of message availability", e);
+                    }
                 }
+                batch.clear();
                 try {
-                    _demultiplexer.messageAvailable(I2PSessionMuxedImpl.this,
-                        msg.id, msg.size, msg.proto, msg.fromPort, msg.toPort);
+                    _demultiplexer.batchComplete(I2PSessionMuxedImpl.this);
                 } catch (RuntimeException e) {
                     _log.error("Error notifying app of message availability", e);
                 }
+                if (poisoned)
+                    break;
             }
         }
     }
@@ -31,6 +31,7 @@ import net.i2p.util.I2PSSLSocketFactory;
 import net.i2p.util.Log;
 import net.i2p.util.OrderedProperties;
 import net.i2p.util.SystemVersion;
+import net.i2p.util.UnixSocket;
 
 /**
  * Create a new session for doing naming and bandwidth queries only. Do not create a Destination.
@@ -89,6 +90,9 @@ public class I2PSimpleSession extends I2PSessionImpl2 {
                             ioe.initCause(gse);
                             throw ioe;
                         }
+                    } else if (getOptions().getProperty(PROP_DOMAIN_SOCKET) != null &&
+                               !SystemVersion.isAndroid() && UnixSocket.isSupported()) {
+                        _socket = new UnixSocket(getOptions().getProperty(PROP_DOMAIN_SOCKET));
                     } else {
                         _socket = new Socket(_hostname, _portNum);
                     }
@@ -148,6 +152,8 @@ public class I2PSimpleSession extends I2PSessionImpl2 {
             else if (SystemVersion.isAndroid() &&
                     Boolean.parseBoolean(getOptions().getProperty(PROP_DOMAIN_SOCKET)))
                 msg = "Failed to bind to the router";
+            else if (getOptions().getProperty(PROP_DOMAIN_SOCKET) != null && UnixSocket.isSupported())
+                msg = "Failed to bind to the router on " + getOptions().getProperty(PROP_DOMAIN_SOCKET);
             else
                 msg = "Cannot connect to the router on " + _hostname + ':' + _portNum;
             throw new I2PSessionException(getPrefix() + msg, ioe);
@@ -34,13 +34,15 @@ import net.i2p.data.DataFormatException;
 import net.i2p.data.DataHelper;
 import net.i2p.data.Destination;
 import net.i2p.data.Hash;
-import net.i2p.util.LHMCache;
 import net.i2p.util.Log;
 import net.i2p.util.SecureFileOutputStream;
 import net.i2p.util.SystemVersion;
 import net.i2p.util.VersionComparator;
 
+import net.metanotion.io.CachedRAIFile;
+import net.metanotion.io.MappedRAIFile;
 import net.metanotion.io.RAIFile;
+import net.metanotion.io.RandomAccessInterface;
 import net.metanotion.io.Serializer;
 import net.metanotion.io.block.BlockFile;
 import net.metanotion.io.data.IntBytes;
@@ -99,15 +101,17 @@ import net.metanotion.util.skiplist.SkipList;
 public class BlockfileNamingService extends DummyNamingService {
 
     private final BlockFile _bf;
-    private final RAIFile _raf;
+    private final RandomAccessInterface _raf;
     private final List<String> _lists;
     private final List<InvalidEntry> _invalid;
-    private final Map<String, String> _negativeCache;
+    private final NamingCache _negativeCache;
     private volatile boolean _isClosed;
     private final boolean _readOnly;
     private String _version = "0";
     private volatile boolean _isVersion4;
     private boolean _needsUpgrade;
+    /** nesting level of startBulkUpdate(), sync on _bf */
+    private int _bulkDepth;
 
     private static final Serializer<Properties> _infoSerializer = new PropertiesSerializer();
     private static final Serializer<String> _stringSerializer = new UTF8StringBytes();
@@ -120,6 +124,10 @@ public class BlockfileNamingService extends DummyNamingService {
     private static final String HOSTS_DB = "hostsdb.blockfile";
     private static final String FALLBACK_LIST = "hosts.txt";
     private static final String PROP_FORCE = "i2p.naming.blockfile.writeInAppContext";
+    /** @since 0.9.27 */
+    private static final String PROP_CACHE_PAGES = "i2p.naming.blockfile.cachePages";
+    /** @since 0.9.27 */
+    private static final String PROP_MMAP = "i2p.naming.blockfile.mmap";
 
     private static final String INFO_SKIPLIST = "%%__INFO__%%";
     private static final String REVERSE_SKIPLIST = "%%__REVERSE__%%";
@@ -136,8 +144,9 @@ public class BlockfileNamingService extends DummyNamingService {
     private static final String PROP_SOURCE = "s";
     private static final String PROP_VALIDATED = "v";
     
-    private static final String DUMMY = "";
-    private static final int NEGATIVE_CACHE_SIZE = 32;
+    private static final int NEGATIVE_CACHE_SIZE = 64;
+    /** in case added from outside the JVM @since 0.9.27 */
+    private static final long NEGATIVE_CACHE_TTL = 10*60*1000;
     private static final int MAX_VALUE_LENGTH = 4096;
     private static final int MAX_DESTS_PER_HOST = 8;
 
@@ -155,9 +164,10 @@ public class BlockfileNamingService extends DummyNamingService {
         super(context);
         _lists = new ArrayList<String>();
         _invalid = new ArrayList<InvalidEntry>();
-        _negativeCache = new LHMCache<String, String>(NEGATIVE_CACHE_SIZE);
+        _negativeCache = new NamingCache(NEGATIVE_CACHE_SIZE, 0, NEGATIVE_CACHE_TTL);
+        _negativeCache.startStats(context, "naming.negativeCache");
         BlockFile bf = null;
-        RAIFile raf = null;
+        RandomAccessInterface raf = null;
         boolean readOnly = false;
         File f = new File(_context.getRouterDir(), HOSTS_DB);
         if (f.exists()) {
@@ -168,7 +178,7 @@ public class BlockfileNamingService extends DummyNamingService {
                 // *** Open readonly if not in router context (unless forced)
                 readOnly = (!f.canWrite()) ||
                            ((!context.isRouterContext()) && (!context.getBooleanProperty(PROP_FORCE)));
-                raf = new RAIFile(f, true, !readOnly);
+                raf = openFile(f, !readOnly);
                 bf = initExisting(raf);
                 if (readOnly && context.isRouterContext())
                     _log.logAlways(Log.WARN, "Read-only hosts database in router context");
@@ -199,7 +209,7 @@ public class BlockfileNamingService extends DummyNamingService {
             try {
                 // closing a BlockFile does not close the underlying file,
                 // so we must create and retain a RAF so we may close it later
-                raf = new RAIFile(f, true, true);
+                raf = openFile(f, true);
                 SecureFileOutputStream.setPerms(f);
                 bf = initNew(raf);
             } catch (IOException ioe) {
@@ -216,15 +226,71 @@ public class BlockfileNamingService extends DummyNamingService {
         _readOnly = readOnly;
         if (_needsUpgrade)
             upgrade();
+        flush();
         _context.addShutdownTask(new Shutdown());
     }
 
+    /**
+     *  Open the database file.
+     *  By default, reads are served from a page cache, and writes are cached
+     *  until flush().
+     *  If i2p.naming.blockfile.mmap is true, reads are from a memory-mapped file
+     *  and writes go straight to the file.
+     *  If i2p.naming.blockfile.cachePages is 0, neither is used.
+     *
+     *  @since 0.9.27
+     */
+    private RandomAccessInterface openFile(File f, boolean write) throws IOException {
+        if (_context.getBooleanProperty(PROP_MMAP))
+            return new MappedRAIFile(f, true, write);
+        int pages = _context.getProperty(PROP_CACHE_PAGES, CachedRAIFile.DEFAULT_PAGES);
+        if (pages > 0)
+            return new CachedRAIFile(f, true, write, BlockFile.PAGESIZE, pages);
+        return new RAIFile(f, true, write);
+    }
+
+    /**
+     *  Write any cached changes to the file.
+     *  Called after each update so the file on disk stays consistent.
+     *  Caller must synchronize, except in the constructor.
+     *
+     *  @since 0.9.27
+     */
+    private void flush() {
+        if (_readOnly || _bulkDepth > 0 || !(_raf instanceof CachedRAIFile))
+            return;
+        try {
+            ((CachedRAIFile) _raf).flush();
+        } catch (IOException ioe) {
+            _log.error("DB flush error", ioe);
+        }
+    }
+
+    /**
+     *  Write any cached changes to the file and force them to disk.
+     *  Caller must synchronize.
+     *
+     *  @since 0.9.27
+     */
+    private void sync() {
+        if (_readOnly)
+            return;
+        try {
+            if (_raf instanceof CachedRAIFile)
+                ((CachedRAIFile) _raf).sync();
+            else if (_raf instanceof MappedRAIFile)
+                ((MappedRAIFile) _raf).sync();
+        } catch (IOException ioe) {
+            _log.error("DB sync error", ioe);
+        }
+    }
+
     /**
      *  Create a new database and initialize it from the local files
      *  privatehosts.txt, userhosts.txt, and hosts.txt,
      *  creating a skiplist in the database for each.
      */
-    private BlockFile initNew(RAIFile f) throws IOException {
+    private BlockFile initNew(RandomAccessInterface f) throws IOException {
         long start = _context.clock().now();
         _version = VERSION;
         _destSerializer = _destSerializerV4;
@@ -298,7 +364,7 @@ public class BlockfileNamingService extends DummyNamingService {
     /**
      *  Read the info block of an existing database.
      */
-    private BlockFile initExisting(RAIFile raf) throws IOException {
+    private BlockFile initExisting(RandomAccessInterface raf) throws IOException {
         long start = _context.clock().now();
         try {
             BlockFile bf = new BlockFile(raf, false);
@@ -790,10 +856,8 @@ public class BlockfileNamingService extends DummyNamingService {
         }
 
         String key = hostname.toLowerCase(Locale.US);
-        synchronized(_negativeCache) {
-            if (_negativeCache.get(key) != null)
-                return null;
-        }
+        if (_negativeCache.isNegative(key))
+            return null;
         synchronized(_bf) {
             if (_isClosed)
                 return null;
@@ -819,9 +883,7 @@ public class BlockfileNamingService extends DummyNamingService {
         if (d != null) {
             putCache(hostname, d);
         } else {
-            synchronized(_negativeCache) {
-                _negativeCache.put(key, DUMMY);
-            }
+            _negativeCache.putNegative(key);
         }
         return d;
     }
@@ -847,10 +909,8 @@ public class BlockfileNamingService extends DummyNamingService {
             return null;
         }
         String key = hostname.toLowerCase(Locale.US);
-        synchronized(_negativeCache) {
-            if (_negativeCache.get(key) != null)
-                return null;
-        }
+        if (_negativeCache.isNegative(key))
+            return null;
         String listname = null;
         if (lookupOptions != null)
             listname = lookupOptions.getProperty("list");
@@ -887,9 +947,7 @@ public class BlockfileNamingService extends DummyNamingService {
         if (rv != null) {
             putCache(hostname, rv.get(0));
         } else {
-            synchronized(_negativeCache) {
-                _negativeCache.put(key, DUMMY);
-            }
+            _negativeCache.putNegative(key);
         }
         return rv;
     }
@@ -928,9 +986,7 @@ public class BlockfileNamingService extends DummyNamingService {
             return false;
         }
         String key = hostname.toLowerCase(Locale.US);
-        synchronized(_negativeCache) {
-            _negativeCache.remove(key);
-        }
+        _negativeCache.remove(key);
         String listname = FALLBACK_LIST;
         Properties props = new Properties();
         props.setProperty(PROP_ADDED, Long.toString(_context.clock().now()));
@@ -953,10 +1009,9 @@ public class BlockfileNamingService extends DummyNamingService {
                 if (changed && checkExisting)
                         return false;
                 addEntry(sl, key, d, props);
-                if (changed) {
-                    removeCache(hostname);
-                    // removeReverseEntry(key, oldDest) ???
-                }
+                // changed is only known if there are listeners, so always remove
+                removeCache(hostname);
+                // if (changed) removeReverseEntry(key, oldDest) ???
                 addReverseEntry(key, d);
                 for (NamingServiceListener nsl : _listeners) { 
                     if (changed)
@@ -971,6 +1026,8 @@ public class BlockfileNamingService extends DummyNamingService {
             } catch (RuntimeException re) {
                 _log.error("DB add error", re);
                 return false;
+            } finally {
+                flush();
             }
         }
     }
@@ -995,9 +1052,7 @@ public class BlockfileNamingService extends DummyNamingService {
             return false;
         }
         String key = hostname.toLowerCase(Locale.US);
-        synchronized(_negativeCache) {
-            _negativeCache.remove(key);
-        }
+        _negativeCache.remove(key);
         String listname = FALLBACK_LIST;
         String date = Long.toString(_context.clock().now());
         List<Properties> outProps = new ArrayList<Properties>(propsList.size());
@@ -1025,10 +1080,9 @@ public class BlockfileNamingService extends DummyNamingService {
                 if (changed && checkExisting)
                         return false;
                 addEntry(sl, key, dests, outProps);
-                if (changed) {
-                    removeCache(hostname);
-                    // removeReverseEntry(key, oldDest) ???
-                }
+                // changed is only known if there are listeners, so always remove
+                removeCache(hostname);
+                // if (changed) removeReverseEntry(key, oldDest) ???
                 for (int i = 0; i < dests.size(); i++) {
                     Destination d = dests.get(i);
                     Properties options = propsList.get(i);
@@ -1047,6 +1101,78 @@ public class BlockfileNamingService extends DummyNamingService {
             } catch (RuntimeException re) {
                 _log.error("DB add error", re);
                 return false;
+            } finally {
+                flush();
+            }
+        }
+    }
+
+    /**
+     *  Put all the entries in sorted order, writing the changes to disk
+     *  once at the end, as in startBulkUpdate().
+     *
+     *  @param options If non-null and contains the key "list", add to that list
+     *                (default "hosts.txt")
+     *                Use the key "s" for the source
+     *  @return total success, or false if any put failed
+     *  @since 0.9.27
+     */
+    @Override
+    public boolean putAll(Map<String, Destination> entries, Properties options) {
+        // sorted keys are inserted near the previous one, so pages are reused from the cache
+        Map<String, Destination> sorted = new TreeMap<String, Destination>();
+        for (Map.Entry<String, Destination> e : entries.entrySet()) {
+            sorted.put(e.getKey().toLowerCase(Locale.US), e.getValue());
+        }
+        startBulkUpdate();
+        try {
+            return super.putAll(sorted, options);
+        } finally {
+            endBulkUpdate();
+        }
+    }
+
+    /**
+     *  Defer writing changes to disk until the matching endBulkUpdate().
+     *  The changes are cached in memory and visible to lookups.
+     *  If the cache fills up, the changed pages are held in memory
+     *  beyond the cache size rather than written early and out of order,
+     *  so a crash before endBulkUpdate() leaves the file as it was before.
+     *  There is no journal: endBulkUpdate() writes the pages in place, and
+     *  a crash during that write may still corrupt the file.
+     *  The held pages are not bounded, so a very large import uses
+     *  memory in proportion to the number of pages it changes.
+     *  Has no effect unless the page cache is enabled.
+     *
+     *  @since 0.9.27
+     */
+    @Override
+    public void startBulkUpdate() {
+        synchronized(_bf) {
+            if (_bulkDepth++ == 0 && _raf instanceof CachedRAIFile)
+                ((CachedRAIFile) _raf).setDeferWrites(true);
+        }
+    }
+
+    /**
+     *  Write all changes since startBulkUpdate() to disk, and sync.
+     *
+     *  @since 0.9.27
+     */
+    @Override
+    public void endBulkUpdate() {
+        synchronized(_bf) {
+            if (_bulkDepth <= 0)
+                return;
+            if (--_bulkDepth == 0) {
+                if (_raf instanceof CachedRAIFile) {
+                    CachedRAIFile crf = (CachedRAIFile) _raf;
+                    if (_log.shouldLog(Log.INFO) && crf.getHeldPages() > 0)
+                        _log.info("Bulk update held " + crf.getHeldPages() + " extra pages");
+                    crf.setDeferWrites(false);
+                }
+                if (!_isClosed)
+                    sync();
             }
         }
     }
@@ -1096,6 +1222,8 @@ public class BlockfileNamingService extends DummyNamingService {
             } catch (RuntimeException re) {
                 _log.error("DB remove error", re);
                 return false;
+            } finally {
+                flush();
             }
         }
     }
@@ -1645,6 +1773,7 @@ public class BlockfileNamingService extends DummyNamingService {
             }
         }
         _invalid.clear();
+        flush();
     }
 
   /****
@@ -1696,9 +1825,7 @@ public class BlockfileNamingService extends DummyNamingService {
             }
             _isClosed = true;
         }
-        synchronized(_negativeCache) {
-            _negativeCache.clear();
-        }
+        _negativeCache.clear();
         clearCache();
     }
 
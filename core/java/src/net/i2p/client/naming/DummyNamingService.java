@@ -8,13 +8,11 @@
 package net.i2p.client.naming;
 
 import java.util.Locale;
-import java.util.Map;
 import java.util.Properties;
 
 import net.i2p.I2PAppContext;
 import net.i2p.client.I2PSessionException;
 import net.i2p.data.Destination;
-import net.i2p.util.LHMCache;
 import net.i2p.util.SystemVersion;
 
 /**
@@ -24,15 +22,19 @@ class DummyNamingService extends NamingService {
 
     protected static final int BASE32_HASH_LENGTH = 52;   // 1 + Hash.HASH_LENGTH * 8 / 5
     public final static String PROP_B32 = "i2p.naming.hostsTxt.useB32";
-    protected static final int CACHE_MAX_SIZE = SystemVersion.isAndroid() ? 32 : 128;
+    protected static final int CACHE_MAX_SIZE = SystemVersion.isAndroid() ? 32 : 512;
+    /** @since 0.9.27 */
+    private static final long CACHE_TTL = 60*60*1000;
     public static final int DEST_SIZE = 516;                    // Std. Base64 length (no certificate)
 
     /**
-     *  The LRU cache, with no expiration time.
+     *  The LRU cache, shared by all services.
+     *  Entries expire after an hour, in case of changes from outside the JVM.
      *  Classes should take care to call removeCache() for any entries that
      *  are invalidated.
+     *  Lock-striped as of 0.9.27.
      */
-    private static final Map<String, Destination> _cache = new LHMCache<String, Destination>(CACHE_MAX_SIZE);
+    private static final NamingCache _cache = new NamingCache(CACHE_MAX_SIZE, CACHE_TTL, 0);
 
     /** 
      * The naming service should only be constructed and accessed through the 
@@ -42,6 +44,7 @@ class DummyNamingService extends NamingService {
      */
     protected DummyNamingService(I2PAppContext context) {
         super(context);
+        _cache.startStats(context, "naming.cache");
     }
     
     /**
@@ -90,9 +93,7 @@ class DummyNamingService extends NamingService {
     protected static void putCache(String s, Destination d) {
         if (d == null)
             return;
-        synchronized (_cache) {
-            _cache.put(s, d);
-        }
+        _cache.put(s, d);
     }
 
     /**
@@ -100,9 +101,7 @@ class DummyNamingService extends NamingService {
      *  @return cached dest or null
      */
     protected static Destination getCache(String s) {
-        synchronized (_cache) {
-            return _cache.get(s);
-        }
+        return _cache.get(s);
     }
 
     /**
@@ -110,15 +109,11 @@ class DummyNamingService extends NamingService {
      *  @since 0.8.7
      */
     protected static void removeCache(String s) {
-        synchronized (_cache) {
-            _cache.remove(s);
-        }
+        _cache.remove(s);
     }
 
     /** @since 0.8.1 */
     protected static void clearCache() {
-        synchronized (_cache) {
-            _cache.clear();
-        }
+        _cache.clear();
     }
 }
@@ -154,6 +154,28 @@ public class MetaNamingService extends DummyNamingService {
         return rv;
     }
 
+    /**
+     *  All services
+     *  @since 0.9.27
+     */
+    @Override
+    public void startBulkUpdate() {
+        for (NamingService ns : _services) { 
+            ns.startBulkUpdate();
+        }
+    }
+
+    /**
+     *  All services
+     *  @since 0.9.27
+     */
+    @Override
+    public void endBulkUpdate() {
+        for (NamingService ns : _services) { 
+            ns.endBulkUpdate();
+        }
+    }
+
     /**
      *  Removes from all services
      */
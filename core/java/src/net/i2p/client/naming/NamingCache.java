@@ -0,0 +1,286 @@
+package net.i2p.client.naming;
+
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.i2p.I2PAppContext;
+import net.i2p.data.Destination;
+import net.i2p.util.LHMCache;
+import net.i2p.util.SimpleTimer;
+
+/**
+ *  A lock-striped LRU cache of lookup results, with expiration.
+ *  Caches both found Destinations and "not found" (negative) results.
+ *
+ *  Keys are split across segments by hash code, each with its own lock,
+ *  so concurrent lookups of different names rarely contend.
+ *  Keys are case-sensitive, and may be any object with a good hashCode(),
+ *  generally a String hostname or a Hash.
+ *
+ *  May be registered as a NamingServiceListener to remove
+ *  entries for hostnames as they are changed.
+ *
+ *  @since 0.9.27
+ */
+public class NamingCache implements NamingServiceListener {
+
+    private final Segment[] _segments;
+    private final int _mask;
+    private final long _positiveTTL;
+    private final long _negativeTTL;
+    private final AtomicBoolean _statsStarted = new AtomicBoolean();
+
+    private static final int SEGMENTS = 16;
+    private static final int MIN_SEGMENT_SIZE = 4;
+    private static final long STATS_PERIOD = 60*1000;
+
+    /**
+     *  @param maxSize total, approximate
+     *  @param positiveTTL ms, 0 for no expiration
+     *  @param negativeTTL ms, 0 for no expiration
+     */
+    public NamingCache(int maxSize, long positiveTTL, long negativeTTL) {
+        int count = SEGMENTS;
+        while (count > 1 && maxSize / count < MIN_SEGMENT_SIZE) {
+            count /= 2;
+        }
+        _segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            _segments[i] = new Segment(Math.max(maxSize / count, MIN_SEGMENT_SIZE));
+        }
+        _mask = count - 1;
+        _positiveTTL = positiveTTL;
+        _negativeTTL = negativeTTL;
+    }
+
+    /**
+     *  A found Destination (dest non-null) or a negative result (dest null)
+     */
+    private static class Entry {
+        public final Destination dest;
+        public final long expires;
+
+        public Entry(Destination d, long exp) {
+            dest = d;
+            expires = exp;
+        }
+    }
+
+    private static class Segment extends LHMCache<Object, Entry> {
+        public long hits, misses;
+
+        public Segment(int max) { super(max); }
+    }
+
+    private Segment getSegment(Object key) {
+        int h = key.hashCode();
+        // spread the high bits, as in HashMap
+        h ^= (h >>> 16);
+        return _segments[h & _mask];
+    }
+
+    /**
+     *  @return the entry, or null if not present or expired
+     */
+    private static Entry get(Segment s, Object key) {
+        Entry e = s.get(key);
+        if (e != null && e.expires > 0 && e.expires < System.currentTimeMillis()) {
+            s.remove(key);
+            e = null;
+        }
+        return e;
+    }
+
+    /**
+     *  @param key case-sensitive
+     *  @return the cached Destination, or null if not cached or cached as not found
+     */
+    public Destination get(Object key) {
+        Segment s = getSegment(key);
+        synchronized (s) {
+            Entry e = get(s, key);
+            if (e != null && e.dest != null) {
+                s.hits++;
+                return e.dest;
+            }
+            s.misses++;
+            return null;
+        }
+    }
+
+    /**
+     *  @param key case-sensitive
+     *  @return true if cached as not found
+     */
+    public boolean isNegative(Object key) {
+        Segment s = getSegment(key);
+        synchronized (s) {
+            Entry e = get(s, key);
+            if (e != null && e.dest == null) {
+                s.hits++;
+                return true;
+            }
+            s.misses++;
+            return false;
+        }
+    }
+
+    /**
+     *  @param key case-sensitive
+     *  @param d non-null
+     */
+    public void put(Object key, Destination d) {
+        Entry e = new Entry(d, _positiveTTL > 0 ? System.currentTimeMillis() + _positiveTTL : 0);
+        Segment s = getSegment(key);
+        synchronized (s) {
+            s.put(key, e);
+        }
+    }
+
+    /**
+     *  Cache as not found.
+     *  @param key case-sensitive
+     */
+    public void putNegative(Object key) {
+        Entry e = new Entry(null, _negativeTTL > 0 ? System.currentTimeMillis() + _negativeTTL : 0);
+        Segment s = getSegment(key);
+        synchronized (s) {
+            s.put(key, e);
+        }
+    }
+
+    /**
+     *  Remove a found or not found entry.
+     *  @param key case-sensitive
+     */
+    public void remove(Object key) {
+        Segment s = getSegment(key);
+        synchronized (s) {
+            s.remove(key);
+        }
+    }
+
+    public void clear() {
+        for (Segment s : _segments) {
+            synchronized (s) {
+                s.clear();
+            }
+        }
+    }
+
+    /**
+     *  @return number of entries, including expired ones not yet removed
+     */
+    public int size() {
+        int rv = 0;
+        for (Segment s : _segments) {
+            synchronized (s) {
+                rv += s.size();
+            }
+        }
+        return rv;
+    }
+
+    /**
+     *  @return hits since created
+     */
+    public long getHits() {
+        long rv = 0;
+        for (Segment s : _segments) {
+            synchronized (s) {
+                rv += s.hits;
+            }
+        }
+        return rv;
+    }
+
+    /**
+     *  @return misses since created
+     */
+    public long getMisses() {
+        long rv = 0;
+        for (Segment s : _segments) {
+            synchronized (s) {
+                rv += s.misses;
+            }
+        }
+        return rv;
+    }
+
+    /**
+     *  Publish the hit and miss counts to the rate stats
+     *  name.hit and name.miss once a minute.
+     *  Stats are not updated on every lookup, to avoid contention on the stat.
+     *  Only the first call has any effect.
+     *
+     *  @param name stat prefix, e.g. "naming.cache"
+     */
+    public void startStats(I2PAppContext ctx, String name) {
+        if (!_statsStarted.compareAndSet(false, true))
+            return;
+        ctx.statManager().createRateStat(name + ".hit", "Naming cache hits per minute", "Naming", new long[] { 60*60*1000 });
+        ctx.statManager().createRateStat(name + ".miss", "Naming cache misses per minute", "Naming", new long[] { 60*60*1000 });
+        ctx.simpleTimer2().addPeriodicEvent(new Stats(ctx, name), STATS_PERIOD);
+    }
+
+    private class Stats implements SimpleTimer.TimedEvent {
+        private final I2PAppContext ctx;
+        private final String hit, miss;
+        private long lastHits, lastMisses;
+
+        public Stats(I2PAppContext ctx, String name) {
+            this.ctx = ctx;
+            hit = name + ".hit";
+            miss = name + ".miss";
+        }
+
+        public void timeReached() {
+            long hits = getHits();
+            long misses = getMisses();
+            ctx.statManager().addRateData(hit, hits - lastHits);
+            ctx.statManager().addRateData(miss, misses - lastMisses);
+            lastHits = hits;
+            lastMisses = misses;
+        }
+    }
+
+    //// NamingServiceListener
+
+    /** clears the cache */
+    public void configurationChanged(NamingService ns) {
+        clear();
+    }
+
+    /** removes the hostname in case it was cached as not found */
+    public void entryAdded(NamingService ns, String hostname, Destination dest, Properties options) {
+        removeHost(hostname);
+    }
+
+    /** removes the hostname */
+    public void entryChanged(NamingService ns, String hostname, Destination dest, Properties options) {
+        removeHost(hostname);
+    }
+
+    /** removes the hostname */
+    public void entryRemoved(NamingService ns, String hostname) {
+        removeHost(hostname);
+    }
+
+    /**
+     *  Listeners may get the name in either case
+     */
+    private void removeHost(String hostname) {
+        remove(hostname);
+        String lc = hostname.toLowerCase(Locale.US);
+        if (!lc.equals(hostname))
+            remove(lc);
+    }
+
+    @Override
+    public String toString() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return "NamingCache: " + size() + " entries, " + hits + " hits of " + total + " lookups";
+    }
+}
@@ -429,6 +429,26 @@ public abstract class NamingService {
         return rv;
     }
 
+    /**
+     *  Hint that many puts and removes follow, for example an addressbook merge.
+     *  Implementations may defer writing changes to disk until endBulkUpdate().
+     *  Each call must be followed by a call to endBulkUpdate(), in a finally block.
+     *  Lookups and other calls are allowed in between and see all changes.
+     *  This implementation does nothing.
+     *
+     *  @since 0.9.27
+     */
+    public void startBulkUpdate() {}
+
+    /**
+     *  End of the updates started with startBulkUpdate().
+     *  Implementations should write all changes to disk before returning.
+     *  This implementation does nothing.
+     *
+     *  @since 0.9.27
+     */
+    public void endBulkUpdate() {}
+
     /**
      *  Fails if entry did not previously exist.
      *  Warning - unimplemented in any subclass.
@@ -18,15 +18,26 @@ import org.bouncycastle.oldcrypto.macs.I2PHMac;
  * This is compatible with javax.crypto.Mac.getInstance("HmacSHA256").
  *
  * As of 0.9.12, uses javax.crypto.Mac.
+ * As of 0.9.27, each thread reuses its own Mac instance.
  *
  * Deprecated, used only by Syndie.
  */
 public final class HMAC256Generator extends HMACGenerator {
 
+    /**
+     *  Per-thread Mac instances, set on first use.
+     *  Each use calls init(), so no reset is required.
+     *  @since 0.9.27
+     */
+    private final ThreadLocal<javax.crypto.Mac> _macs;
+
     /**
      *  @param context unused
      */
-    public HMAC256Generator(I2PAppContext context) { super(context); }
+    public HMAC256Generator(I2PAppContext context) {
+        super(context);
+        _macs = new ThreadLocal<javax.crypto.Mac>();
+    }
     
     /**
      *  @deprecated unused (not even by Syndie)
@@ -61,7 +72,11 @@ public final class HMAC256Generator extends HMACGenerator {
     @Override
     public void calculate(SessionKey key, byte data[], int offset, int length, byte target[], int targetOffset) {
         try {
-            javax.crypto.Mac mac = javax.crypto.Mac.getInstance("HmacSHA256");
+            javax.crypto.Mac mac = _macs.get();
+            if (mac == null) {
+                mac = javax.crypto.Mac.getInstance("HmacSHA256");
+                _macs.set(mac);
+            }
             Key keyObj = new SecretKeySpec(key.getData(), "HmacSHA256");
             mac.init(keyObj);
             mac.update(data, offset, length);
@@ -3,7 +3,6 @@ package net.i2p.crypto;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.concurrent.LinkedBlockingQueue;
 
 // following are for main() tests
 //import java.security.InvalidKeyException;
@@ -42,14 +41,23 @@ import org.bouncycastle.oldcrypto.macs.I2PHMac;
  *
  */
 public class HMACGenerator {
-    /** set of available HMAC instances for calculate */
-    protected final LinkedBlockingQueue<I2PHMac> _available;
+    /**
+     *  Per-thread HMAC instances for calculate and verify.
+     *  Each use calls init(), so no reset is required.
+     *  @since 0.9.27, was a shared queue
+     */
+    private final ThreadLocal<I2PHMac> _available;
     
     /**
      *  @param context unused
      */
     public HMACGenerator(I2PAppContext context) {
-        _available = new LinkedBlockingQueue<I2PHMac>(32);
+        _available = new ThreadLocal<I2PHMac>() {
+            @Override
+            protected I2PHMac initialValue() {
+                return createMac();
+            }
+        };
     }
     
     /**
@@ -83,7 +91,6 @@ public class HMACGenerator {
         mac.init(key.getData());
         mac.update(data, offset, length);
         mac.doFinal(target, targetOffset);
-        release(mac);
     }
     
     /**
@@ -108,17 +115,23 @@ public class HMACGenerator {
         mac.update(curData, curOffset, curLength);
         byte rv[] = acquireTmp();
         mac.doFinal(rv, 0);
-        release(mac);
         
         boolean eq = DataHelper.eqCT(rv, 0, origMAC, origMACOffset, origMACLength);
         releaseTmp(rv);
         return eq;
     }
     
+    /**
+     *  The thread's HMAC instance. Caller must init() it.
+     */
     protected I2PHMac acquire() {
-        I2PHMac rv = _available.poll();
-        if (rv != null)
-            return rv;
+        return _available.get();
+    }
+
+    /**
+     *  @since 0.9.27 split out from acquire()
+     */
+    private static I2PHMac createMac() {
         // the HMAC is hardcoded to use SHA256 digest size
         // for backwards compatability.  next time we have a backwards
         // incompatible change, we should update this by removing ", 32"
@@ -131,10 +144,6 @@ public class HMACGenerator {
         }
     }
 
-    private void release(I2PHMac mac) {
-        _available.offer(mac);
-    }
-
     /**
      * 32 bytes from the byte array cache.
      * Does NOT zero.
@@ -3,7 +3,6 @@ package net.i2p.crypto;
 import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import net.i2p.I2PAppContext;
 import net.i2p.data.Hash;
@@ -15,15 +14,28 @@ import net.i2p.data.Hash;
  * As of release 0.9.25, uses only MessageDigest.
  * GNU-Crypto {@link gnu.crypto.hash.Sha256Standalone}
  * is deprecated.
+ * As of release 0.9.27, each thread uses its own MessageDigest,
+ * so there is no shared queue to contend on.
  */
 public final class SHA256Generator {
-    private final LinkedBlockingQueue<MessageDigest> _digests;
+    private final ThreadLocal<MessageDigest> _digests;
 
     /**
      *  @param context unused
      */
     public SHA256Generator(I2PAppContext context) {
-        _digests = new LinkedBlockingQueue<MessageDigest>(32);
+        _digests = new DigestHolder();
+    }
+
+    /**
+     *  One MessageDigest per thread, created on first use
+     *  @since 0.9.27
+     */
+    private static class DigestHolder extends ThreadLocal<MessageDigest> {
+        @Override
+        protected MessageDigest initialValue() {
+            return getDigestInstance();
+        }
     }
     
     public static final SHA256Generator getInstance() {
@@ -47,7 +59,6 @@ public final class SHA256Generator {
         MessageDigest digest = acquire();
         digest.update(source, start, len);
         byte rv[] = digest.digest();
-        release(digest);
         return Hash.create(rv);
     }
     
@@ -59,28 +70,69 @@ public final class SHA256Generator {
     public final void calculateHash(byte[] source, int start, int len, byte out[], int outOffset) {
         MessageDigest digest = acquire();
         digest.update(source, start, len);
+        finish(digest, out, outOffset);
+    }
+
+    /**
+     * Hash several sources with one digest lookup.
+     * Use this if you only need the data, not Hash objects.
+     * Does not cache.
+     *
+     * @param sources what to hash, each hashed separately
+     * @param out needs 32 * sources.length bytes starting at outOffset;
+     *            the hash of sources[i] is at outOffset + (32 * i)
+     * @since 0.9.27
+     */
+    public final void calculateHashes(byte[][] sources, byte out[], int outOffset) {
+        MessageDigest digest = acquire();
+        for (int i = 0; i < sources.length; i++) {
+            digest.update(sources[i]);
+            finish(digest, out, outOffset + (i * Hash.HASH_LENGTH));
+        }
+    }
+
+    /**
+     * Hash several ranges of one source with one digest lookup,
+     * e.g. the records of a tunnel build message.
+     * Use this if you only need the data, not Hash objects.
+     * Does not cache.
+     *
+     * @param starts offsets into source, one per hash
+     * @param lens lengths, one per hash, same length as starts
+     * @param out needs 32 * starts.length bytes starting at outOffset;
+     *            the hash of range i is at outOffset + (32 * i)
+     * @since 0.9.27
+     */
+    public final void calculateHashes(byte[] source, int[] starts, int[] lens, byte out[], int outOffset) {
+        if (starts.length != lens.length)
+            throw new IllegalArgumentException();
+        MessageDigest digest = acquire();
+        for (int i = 0; i < starts.length; i++) {
+            digest.update(source, starts[i], lens[i]);
+            finish(digest, out, outOffset + (i * Hash.HASH_LENGTH));
+        }
+    }
+
+    /**
+     *  Digest into out, which also resets the digest
+     */
+    private static void finish(MessageDigest digest, byte out[], int outOffset) {
         try {
             digest.digest(out, outOffset, Hash.HASH_LENGTH);
         } catch (DigestException e) {
             throw new RuntimeException(e);
-        } finally {
-            release(digest);
         }
     }
     
+    /**
+     *  The thread's digest, reset in case a previous use threw
+     */
     private MessageDigest acquire() {
-        MessageDigest rv = _digests.poll();
-        if (rv != null)
-            rv.reset();
-        else
-            rv = getDigestInstance();
+        MessageDigest rv = _digests.get();
+        rv.reset();
         return rv;
     }
     
-    private void release(MessageDigest digest) {
-        _digests.offer(digest);
-    }
-    
     /**
      *  Return a new MessageDigest from the system libs.
      *  @since 0.8.7, public since 0.8.8 for FortunaStandalone
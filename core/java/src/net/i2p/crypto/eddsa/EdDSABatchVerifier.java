@@ -0,0 +1,215 @@
+package net.i2p.crypto.eddsa;
+
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.i2p.crypto.eddsa.math.Curve;
+import net.i2p.crypto.eddsa.math.GroupElement;
+import net.i2p.crypto.eddsa.math.ScalarOps;
+import net.i2p.crypto.eddsa.spec.EdDSAParameterSpec;
+
+/**
+ * Batch verification of EdDSA signatures.
+ *<p>
+ * For signatures (R_i, S_i) on messages M_i by keys A_i, with h_i = H(R_i,A_i,M_i),
+ * checks the single equation
+ *   8 * ((sum z_i * S_i) * B - sum z_i * R_i - sum (z_i * h_i) * A_i) == 0
+ * for random 128-bit z_i, with one shared multi-scalar multiplication.
+ * If the batch fails, it is split in half and each half checked again,
+ * down to a small number of signatures that are checked individually.
+ *</p><p>
+ * As the batch equation includes the cofactor, a signature with a small-order
+ * component in R or A may pass a batch where it would fail in EdDSAEngine.
+ * Such signatures can only be made by the holder of the private key.
+ * Any signature with a non-canonical R, or an S not less than 2^253,
+ * is always checked individually with EdDSAEngine.
+ *</p>
+ *
+ * @since 0.9.27
+ */
+public final class EdDSABatchVerifier {
+
+    /** at or below this, verify individually */
+    private static final int MIN_BATCH = 4;
+    private static final SecureRandom _rand = new SecureRandom();
+
+    private EdDSABatchVerifier() {}
+
+    /**
+     * One signature, after hashing and decoding.
+     */
+    private static class Item {
+        final int index;
+        final GroupElement negA;
+        final GroupElement negR;
+        final byte[] h;
+        final byte[] S;
+
+        Item(int index, GroupElement negA, GroupElement negR, byte[] h, byte[] S) {
+            this.index = index;
+            this.negA = negA;
+            this.negR = negR;
+            this.h = h;
+            this.S = S;
+        }
+    }
+
+    /**
+     * Verify several signatures at once.
+     * The three arrays must be the same length.
+     * Results are identical to EdDSAEngine.verifyOneShot(), except
+     * for the small-order case described above.
+     *
+     * @param keys the public keys
+     * @param data the signed data
+     * @param sigs the signatures
+     * @return the result for each signature, in the same order
+     */
+    public static boolean[] verify(EdDSAPublicKey[] keys, byte[][] data, byte[][] sigs) {
+        if (keys.length != data.length || keys.length != sigs.length)
+            throw new IllegalArgumentException();
+        boolean[] rv = new boolean[keys.length];
+        if (keys.length == 0)
+            return rv;
+        EdDSAParameterSpec params = keys[0].getParams();
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(params.getHashAlgorithm());
+        } catch (NoSuchAlgorithmException nsae) {
+            digest = null;
+        }
+        if (digest == null || keys.length <= MIN_BATCH) {
+            for (int i = 0; i < keys.length; i++) {
+                rv[i] = verifyOne(keys[i], data[i], sigs[i]);
+            }
+            return rv;
+        }
+
+        Curve curve = params.getCurve();
+        int b = curve.getField().getb();
+        List<Item> items = new ArrayList<Item>(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            Item item = null;
+            if (params.equals(keys[i].getParams()))
+                item = prepare(i, keys[i], data[i], sigs[i], curve, b, digest);
+            if (item != null)
+                items.add(item);
+            else
+                rv[i] = verifyOne(keys[i], data[i], sigs[i]);
+        }
+        verify(items, params, keys, data, sigs, rv);
+        return rv;
+    }
+
+    /**
+     * Check the batch, then halves of it on failure.
+     * Sets rv for all items.
+     */
+    private static void verify(List<Item> items, EdDSAParameterSpec params,
+                               EdDSAPublicKey[] keys, byte[][] data, byte[][] sigs,
+                               boolean[] rv) {
+        int sz = items.size();
+        if (sz <= MIN_BATCH) {
+            for (Item item : items) {
+                int i = item.index;
+                rv[i] = verifyOne(keys[i], data[i], sigs[i]);
+            }
+            return;
+        }
+        if (check(items, params)) {
+            for (Item item : items) {
+                rv[item.index] = true;
+            }
+            return;
+        }
+        verify(items.subList(0, sz / 2), params, keys, data, sigs, rv);
+        verify(items.subList(sz / 2, sz), params, keys, data, sigs, rv);
+    }
+
+    /**
+     * Hash and decode one signature.
+     *
+     * @return null if it must be verified individually
+     */
+    private static Item prepare(int index, EdDSAPublicKey key, byte[] data, byte[] sig,
+                                Curve curve, int b, MessageDigest digest) {
+        if (sig == null || sig.length != b/4 || data == null)
+            return null;
+        // S < 2^253, as in EdDSAEngine only the low 256 bits of slide(S) are used
+        if ((sig[b/4 - 1] & 0xe0) != 0)
+            return null;
+        byte[] Rbyte = Arrays.copyOfRange(sig, 0, b/8);
+        GroupElement R;
+        try {
+            R = new GroupElement(curve, Rbyte);
+        } catch (IllegalArgumentException iae) {
+            return null;
+        }
+        // EdDSAEngine compares against the canonical encoding of R,
+        // so reject anything that would not re-encode to the same bytes.
+        // Z is one after decoding, so there's no inversion here.
+        byte[] Rcheck = R.getY().toByteArray();
+        if (R.getX().isNegative())
+            Rcheck[Rcheck.length - 1] |= (byte) 0x80;
+        if (!Arrays.equals(Rcheck, Rbyte))
+            return null;
+        digest.reset();
+        digest.update(Rbyte);
+        digest.update(key.getAbyte());
+        digest.update(data);
+        byte[] h = key.getParams().getScalarOps().reduce(digest.digest());
+        byte[] S = Arrays.copyOfRange(sig, b/8, b/4);
+        return new Item(index, key.getNegativeA(), R.negate(), h, S);
+    }
+
+    /**
+     * @return true if the batch equation holds
+     */
+    private static boolean check(List<Item> items, EdDSAParameterSpec params) {
+        int sz = items.size();
+        ScalarOps ops = params.getScalarOps();
+        GroupElement[] points = new GroupElement[2 * sz];
+        byte[][] scalars = new byte[2 * sz][];
+        byte[] sumS = new byte[32];
+        byte[] zero = new byte[32];
+        for (int i = 0; i < sz; i++) {
+            Item item = items.get(i);
+            byte[] z = new byte[32];
+            byte[] rand = new byte[16];
+            _rand.nextBytes(rand);
+            System.arraycopy(rand, 0, z, 0, 16);
+            sumS = ops.multiplyAndAdd(z, item.S, sumS);
+            points[2*i] = item.negA;
+            scalars[2*i] = ops.multiplyAndAdd(z, item.h, zero);
+            points[2*i + 1] = item.negR;
+            scalars[2*i + 1] = z;
+        }
+        GroupElement r = params.getB().multiScalarMultiplyVariableTime(points, scalars, sumS);
+        // clear the cofactor
+        r = r.dbl().toP2().dbl().toP2().dbl().toP2();
+        return r.isNeutral();
+    }
+
+    /**
+     * Same as EdDSAEngine.verifyOneShot().
+     */
+    private static boolean verifyOne(EdDSAPublicKey key, byte[] data, byte[] sig) {
+        if (data == null || sig == null)
+            return false;
+        try {
+            EdDSAEngine engine = new EdDSAEngine();
+            engine.initVerify(key);
+            return engine.verifyOneShot(data, sig);
+        } catch (InvalidKeyException ike) {
+            return false;
+        } catch (SignatureException se) {
+            return false;
+        }
+    }
+}
@@ -870,23 +870,20 @@ public class GroupElement implements Serializable {
 
         final byte[] e = toRadix16(a);
 
+        // No lock is needed here, the table is only read.
+        // It must have been precomputed before this point was shared;
+        // the only point that this should get called on is EdDSA's B.
         GroupElement h = this.curve.getZero(Representation.P3);
-        synchronized(this) {
-            // TODO: Get opinion from a crypto professional.
-            // This should in practice never be necessary, the only point that
-            // this should get called on is EdDSA's B.
-            //precompute();
-            for (i = 1; i < 64; i += 2) {
-                t = select(i/2, e[i]);
-                h = h.madd(t).toP3();
-            }
+        for (i = 1; i < 64; i += 2) {
+            t = select(i/2, e[i]);
+            h = h.madd(t).toP3();
+        }
 
-            h = h.dbl().toP2().dbl().toP2().dbl().toP2().dbl().toP3();
+        h = h.dbl().toP2().dbl().toP2().dbl().toP2().dbl().toP3();
 
-            for (i = 0; i < 64; i += 2) {
-                t = select(i/2, e[i]);
-                h = h.madd(t).toP3();
-            }
+        for (i = 0; i < 64; i += 2) {
+            t = select(i/2, e[i]);
+            h = h.madd(t).toP3();
         }
 
         return h;
@@ -963,34 +960,146 @@ public class GroupElement implements Serializable {
             if (aslide[i] != 0 || bslide[i] != 0) break;
         }
 
-        synchronized(this) {
-            // TODO-CR BR strange comment below.
-            // TODO: Get opinion from a crypto professional.
-            // This should in practice never be necessary, the only point that
-            // this should get called on is EdDSA's B.
-            //precompute();
-            for (; i >= 0; --i) {
-                GroupElement t = r.dbl();
-
-                if (aslide[i] > 0) {
-                    t = t.toP3().madd(A.dblPrecmp[aslide[i]/2]);
-                } else if(aslide[i] < 0) {
-                    t = t.toP3().msub(A.dblPrecmp[(-aslide[i])/2]);
+        // No lock is needed here, the tables are only read.
+        // They must have been precomputed before the points were shared,
+        // as is done for EdDSA's B and for -A in EdDSAPublicKeySpec.
+        final GroupElement[] Atbl = A.dblPrecmp;
+        final GroupElement[] Btbl = this.dblPrecmp;
+        for (; i >= 0; --i) {
+            GroupElement t = r.dbl();
+
+            if (aslide[i] > 0) {
+                t = t.toP3().madd(Atbl[aslide[i]/2]);
+            } else if(aslide[i] < 0) {
+                t = t.toP3().msub(Atbl[(-aslide[i])/2]);
+            }
+
+            if (bslide[i] > 0) {
+                t = t.toP3().madd(Btbl[bslide[i]/2]);
+            } else if(bslide[i] < 0) {
+                t = t.toP3().msub(Btbl[(-bslide[i])/2]);
+            }
+
+            r = t.toP2();
+        }
+
+        return r;
+    }
+
+    /**
+     * r = b * B + a[0] * A[0] + ... + a[n-1] * A[n-1] where B is this point,
+     * with the scalars in the same form as for
+     * {@link #doubleScalarMultiplyVariableTime(GroupElement, byte[], byte[])}.
+     * <p>
+     * The doublings are shared by all terms (Straus' method), so this is much
+     * faster than n separate double scalar multiplications. Used for batch verification.
+     * <p>
+     * This point must have been previously precomputed.
+     * Points in A that have been precomputed use their table,
+     * for the others a table of odd multiples is built in the CACHED representation,
+     * which needs no inversions.
+     * <p>
+     * Variable time. Do not use with secret scalars.
+     *
+     * @param A in P3 representation.
+     * @param a the scalars for A, same length as A.
+     * @param b the scalar for this point.
+     * @return the GroupElement in P2 representation
+     * @since 0.9.27
+     */
+    public GroupElement multiScalarMultiplyVariableTime(final GroupElement[] A, final byte[][] a, final byte[] b) {
+        if (A.length != a.length)
+            throw new IllegalArgumentException();
+        final int n = A.length;
+        final byte[][] aslide = new byte[n][];
+        final GroupElement[][] tbl = new GroupElement[n][];
+        final boolean[] isPrecomp = new boolean[n];
+        final byte[] bslide = slide(b);
+        int i;
+        for (int j = 0; j < n; j++) {
+            aslide[j] = slide(a[j]);
+            final GroupElement[] pre = A[j].dblPrecmp;
+            if (pre != null) {
+                tbl[j] = pre;
+                isPrecomp[j] = true;
+            } else {
+                tbl[j] = cachedMultiples(A[j]);
+            }
+        }
+
+        for (i = 255; i >= 0; --i) {
+            if (bslide[i] != 0)
+                break;
+            boolean found = false;
+            for (int j = 0; j < n; j++) {
+                if (aslide[j][i] != 0) {
+                    found = true;
+                    break;
                 }
+            }
+            if (found)
+                break;
+        }
 
-                if (bslide[i] > 0) {
-                    t = t.toP3().madd(this.dblPrecmp[bslide[i]/2]);
-                } else if(bslide[i] < 0) {
-                    t = t.toP3().msub(this.dblPrecmp[(-bslide[i])/2]);
+        final GroupElement[] Btbl = this.dblPrecmp;
+        GroupElement r = this.curve.getZero(Representation.P2);
+        for (; i >= 0; --i) {
+            GroupElement t = r.dbl();
+
+            for (int j = 0; j < n; j++) {
+                final int s = aslide[j][i];
+                if (s > 0) {
+                    t = isPrecomp[j] ? t.toP3().madd(tbl[j][s/2]) : t.toP3().add(tbl[j][s/2]);
+                } else if (s < 0) {
+                    t = isPrecomp[j] ? t.toP3().msub(tbl[j][(-s)/2]) : t.toP3().sub(tbl[j][(-s)/2]);
                 }
+            }
 
-                r = t.toP2();
+            if (bslide[i] > 0) {
+                t = t.toP3().madd(Btbl[bslide[i]/2]);
+            } else if (bslide[i] < 0) {
+                t = t.toP3().msub(Btbl[(-bslide[i])/2]);
             }
+
+            r = t.toP2();
         }
 
         return r;
     }
 
+    /**
+     * P,3P,5P,...,15P in CACHED representation, for use with add() and sub().
+     *
+     * @param P in P3 representation.
+     * @since 0.9.27
+     */
+    private static GroupElement[] cachedMultiples(final GroupElement P) {
+        final GroupElement[] rv = new GroupElement[8];
+        final GroupElement twoP = P.dbl().toP3().toCached();
+        GroupElement Pi = P;
+        rv[0] = P.toCached();
+        for (int i = 1; i < 8; i++) {
+            Pi = Pi.add(twoP).toP3();
+            rv[i] = Pi.toCached();
+        }
+        return rv;
+    }
+
+    /**
+     * Is this the neutral element?
+     * <p>
+     * Variable time.
+     *
+     * @return true if this is the neutral element, i.e. X = 0 and Y = Z.
+     * @throws UnsupportedOperationException unless P2 or P3 representation
+     * @since 0.9.27
+     */
+    public boolean isNeutral() {
+        if (this.repr != Representation.P2 && this.repr != Representation.P3)
+            throw new UnsupportedOperationException();
+        return !this.X.isNonZero() && !this.Y.subtract(this.Z).isNonZero();
+    }
+
     /**
      * Verify that a point is on its curve.
      * @return true if the point lies on its curve.
@@ -392,6 +392,34 @@ public class Ed25519FieldElement extends FieldElement {
      * @return The (reasonably reduced) square of this field element.
      */
     public FieldElement square() {
+        return new Ed25519FieldElement(f, squareLimbs(t, new int[10]));
+    }
+
+    /**
+     * h = f^(2^n), for n &gt;= 1.
+     * <p>
+     * The repeated squarings in {@link #invert()} and {@link #pow22523()}
+     * are done in place on a single limb array, rather than allocating
+     * a new field element for each one.
+     *
+     * @since 0.9.27
+     */
+    private Ed25519FieldElement squareN(final int n) {
+        final int[] h = squareLimbs(t, new int[10]);
+        for (int i = 1; i < n; i++) {
+            squareLimbs(h, h);
+        }
+        return new Ed25519FieldElement(f, h);
+    }
+
+    /**
+     * h = t * t, see {@link #square()}.
+     * h may be the same array as t.
+     *
+     * @return h
+     * @since 0.9.27
+     */
+    private static int[] squareLimbs(final int[] t, final int[] h) {
         int f0 = t[0];
         int f1 = t[1];
         int f2 = t[2];
@@ -515,7 +543,6 @@ public class Ed25519FieldElement extends FieldElement {
 
         carry0 = (h0 + (long) (1<<25)) >> 26; h1 += carry0; h0 -= carry0 << 26;
 
-        int[] h = new int[10];
         h[0] = (int) h0;
         h[1] = (int) h1;
         h[2] = (int) h2;
@@ -526,7 +553,7 @@ public class Ed25519FieldElement extends FieldElement {
         h[7] = (int) h7;
         h[8] = (int) h8;
         h[9] = (int) h9;
-        return new Ed25519FieldElement(f, h);
+        return h;
     }
 
     /**
@@ -723,90 +750,50 @@ public class Ed25519FieldElement extends FieldElement {
         // 31 == 22 + 9
         t1 = t1.multiply(t2);
 
-        // 2^6 - 2^1
-        t2 = t1.square();
-
         // 2^10 - 2^5
-        for (int i = 1; i < 5; ++i) {
-            t2 = t2.square();
-        }
+        t2 = ((Ed25519FieldElement) t1).squareN(5);
 
         // 2^10 - 2^0
         t1 = t2.multiply(t1);
 
-        // 2^11 - 2^1
-        t2 = t1.square();
-
         // 2^20 - 2^10
-        for (int i = 1; i < 10; ++i) {
-            t2 = t2.square();
-        }
+        t2 = ((Ed25519FieldElement) t1).squareN(10);
 
         // 2^20 - 2^0
         t2 = t2.multiply(t1);
 
-        // 2^21 - 2^1
-        t3 = t2.square();
-
         // 2^40 - 2^20
-        for (int i = 1; i < 20; ++i) {
-            t3 = t3.square();
-        }
+        t3 = ((Ed25519FieldElement) t2).squareN(20);
 
         // 2^40 - 2^0
         t2 = t3.multiply(t2);
 
-        // 2^41 - 2^1
-        t2 = t2.square();
-
         // 2^50 - 2^10
-        for (int i = 1; i < 10; ++i) {
-            t2 = t2.square();
-        }
+        t2 = ((Ed25519FieldElement) t2).squareN(10);
 
         // 2^50 - 2^0
         t1 = t2.multiply(t1);
 
-        // 2^51 - 2^1
-        t2 = t1.square();
-
         // 2^100 - 2^50
-        for (int i = 1; i < 50; ++i) {
-            t2 = t2.square();
-        }
+        t2 = ((Ed25519FieldElement) t1).squareN(50);
 
         // 2^100 - 2^0
         t2 = t2.multiply(t1);
 
-        // 2^101 - 2^1
-        t3 = t2.square();
-
         // 2^200 - 2^100
-        for (int i = 1; i < 100; ++i) {
-            t3 = t3.square();
-        }
+        t3 = ((Ed25519FieldElement) t2).squareN(100);
 
         // 2^200 - 2^0
         t2 = t3.multiply(t2);
 
-        // 2^201 - 2^1
-        t2 = t2.square();
-
         // 2^250 - 2^50
-        for (int i = 1; i < 50; ++i) {
-            t2 = t2.square();
-        }
+        t2 = ((Ed25519FieldElement) t2).squareN(50);
 
         // 2^250 - 2^0
         t1 = t2.multiply(t1);
 
-        // 2^251 - 2^1
-        t1 = t1.square();
-
         // 2^255 - 2^5
-        for (int i = 1; i < 5; ++i) {
-            t1 = t1.square();
-        }
+        t1 = ((Ed25519FieldElement) t1).squareN(5);
 
         // 2^255 - 21
         return t1.multiply(t0);
@@ -844,79 +831,44 @@ public class Ed25519FieldElement extends FieldElement {
         // 31 == 22 + 9
         t0 = t1.multiply(t0);
 
-        // 2^6 - 2^1
-        t1 = t0.square();
-
         // 2^10 - 2^5
-        for (int i = 1; i < 5; ++i) {
-            t1 = t1.square();
-        }
+        t1 = ((Ed25519FieldElement) t0).squareN(5);
 
         // 2^10 - 2^0
         t0 = t1.multiply(t0);
 
-        // 2^11 - 2^1
-        t1 = t0.square();
-
         // 2^20 - 2^10
-        for (int i = 1; i < 10; ++i) {
-            t1 = t1.square();
-        }
+        t1 = ((Ed25519FieldElement) t0).squareN(10);
 
         // 2^20 - 2^0
         t1 = t1.multiply(t0);
 
-        // 2^21 - 2^1
-        t2 = t1.square();
-
         // 2^40 - 2^20
-        for (int i = 1; i < 20; ++i) {
-            t2 = t2.square();
-        }
+        t2 = ((Ed25519FieldElement) t1).squareN(20);
 
         // 2^40 - 2^0
         t1 = t2.multiply(t1);
 
-        // 2^41 - 2^1
-        t1 = t1.square();
-
         // 2^50 - 2^10
-        for (int i = 1; i < 10; ++i) {
-            t1 = t1.square();
-        }
+        t1 = ((Ed25519FieldElement) t1).squareN(10);
 
         // 2^50 - 2^0
         t0 = t1.multiply(t0);
 
-        // 2^51 - 2^1
-        t1 = t0.square();
-
         // 2^100 - 2^50
-        for (int i = 1; i < 50; ++i) {
-            t1 = t1.square();
-        }
+        t1 = ((Ed25519FieldElement) t0).squareN(50);
 
         // 2^100 - 2^0
         t1 = t1.multiply(t0);
 
-        // 2^101 - 2^1
-        t2 = t1.square();
-
         // 2^200 - 2^100
-        for (int i = 1; i < 100; ++i) {
-            t2 = t2.square();
-        }
+        t2 = ((Ed25519FieldElement) t1).squareN(100);
 
         // 2^200 - 2^0
         t1 = t2.multiply(t1);
 
-        // 2^201 - 2^1
-        t1 = t1.square();
-
         // 2^250 - 2^50
-        for (int i = 1; i < 50; ++i) {
-            t1 = t1.square();
-        }
+        t1 = ((Ed25519FieldElement) t1).squareN(50);
 
         // 2^250 - 2^0
         t0 = t1.multiply(t0);
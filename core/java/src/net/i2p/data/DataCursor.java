@@ -0,0 +1,530 @@
+package net.i2p.data;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+
+import net.i2p.util.OrderedProperties;
+
+/**
+ *  A read/write position in a byte array, for decoding and encoding
+ *  the I2P data structures (integers, strings, and mappings) in place.
+ *
+ *  Unlike DataHelper's InputStream and OutputStream methods,
+ *  fixed-width integers are read and written without any allocation,
+ *  strings are decoded directly from the array without a temporary copy,
+ *  and mappings are written without an intermediate ByteArrayOutputStream.
+ *  A mapping may also be read as a MappingView, which checks the format
+ *  but does not decode any keys or values until asked.
+ *
+ *  This is also an InputStream, so the existing readBytes(InputStream)
+ *  parsers may be run directly on a cursor. DataHelper.readLong(),
+ *  readString(), and readProperties() recognize a cursor and decode
+ *  from the array, avoiding the per-byte read() calls of a
+ *  ByteArrayInputStream or BufferedInputStream, which are synchronized.
+ *
+ *  All reads and writes are bounds-checked against the limit and throw a
+ *  DataFormatException (or, via the InputStream methods, return -1) on overrun.
+ *
+ *  Not thread-safe. The array is not copied; don't change it
+ *  while a cursor or a MappingView on it is in use.
+ *  A cursor may be reused for another array with wrap().
+ *
+ *  @since 0.9.27
+ */
+public class DataCursor extends InputStream {
+    private byte[] _data;
+    private int _pos;
+    private int _limit;
+    private int _mark;
+
+    /**
+     *  Empty, call wrap() before using.
+     */
+    public DataCursor() {
+        this(new byte[0], 0, 0);
+    }
+
+    /**
+     *  @param data not copied
+     */
+    public DataCursor(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    /**
+     *  @param data not copied
+     *  @param offset the initial position
+     *  @param length the limit is offset + length
+     */
+    public DataCursor(byte[] data, int offset, int length) {
+        wrap(data, offset, length);
+    }
+
+    /**
+     *  Reuse this cursor for another array.
+     *
+     *  @param data not copied
+     *  @param offset the initial position
+     *  @param length the limit is offset + length
+     *  @return this
+     *  @throws IllegalArgumentException if out of bounds
+     */
+    public DataCursor wrap(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length)
+            throw new IllegalArgumentException("offset " + offset + " length " + length + " array " + data.length);
+        _data = data;
+        _pos = offset;
+        _limit = offset + length;
+        _mark = offset;
+        return this;
+    }
+
+    /** @return the underlying array, not a copy */
+    public byte[] getData() { return _data; }
+
+    /** @return the offset in the array of the next read or write */
+    public int position() { return _pos; }
+
+    /**
+     *  @param pos the offset in the array of the next read or write
+     *  @throws IllegalArgumentException if negative or past the limit
+     */
+    public void position(int pos) {
+        if (pos < 0 || pos > _limit)
+            throw new IllegalArgumentException("position " + pos + " limit " + _limit);
+        _pos = pos;
+    }
+
+    /** @return the offset in the array past the last readable or writable byte */
+    public int limit() { return _limit; }
+
+    /** @return limit() - position() */
+    public int remaining() { return _limit - _pos; }
+
+    private void check(int len) throws DataFormatException {
+        if (len > _limit - _pos)
+            throw new DataFormatException("Need " + len + " bytes at " + _pos + " but limit is " + _limit);
+    }
+
+    ////// InputStream
+
+    @Override
+    public int read() {
+        if (_pos >= _limit)
+            return -1;
+        return _data[_pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] target, int offset, int length) {
+        if (length == 0)
+            return 0;
+        int len = Math.min(length, _limit - _pos);
+        if (len <= 0)
+            return -1;
+        System.arraycopy(_data, _pos, target, offset, len);
+        _pos += len;
+        return len;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0)
+            return 0;
+        int len = (int) Math.min(n, _limit - _pos);
+        _pos += len;
+        return len;
+    }
+
+    @Override
+    public int available() { return _limit - _pos; }
+
+    @Override
+    public boolean markSupported() { return true; }
+
+    @Override
+    public void mark(int readlimit) { _mark = _pos; }
+
+    /**
+     *  InputStream reset() to the mark, or to the initial position
+     *  if mark() was not called. Not to be confused with wrap().
+     */
+    @Override
+    public void reset() { _pos = _mark; }
+
+    ////// read
+
+    /**
+     *  Unsigned, big endian, as in DataHelper.readLong().
+     *
+     *  @param numBytes 1-8
+     *  @throws DataFormatException if not enough data, or negative (only possible if numBytes = 8)
+     */
+    public long readLong(int numBytes) throws DataFormatException {
+        if (numBytes <= 0 || numBytes > 8)
+            throw new DataFormatException("Bad byte count " + numBytes);
+        check(numBytes);
+        long rv = 0;
+        for (int i = 0; i < numBytes; i++) {
+            rv <<= 8;
+            rv |= _data[_pos++] & 0xff;
+        }
+        if (rv < 0)
+            throw new DataFormatException("negative: " + rv);
+        return rv;
+    }
+
+    /**
+     *  @return 0-255
+     *  @throws DataFormatException if no data
+     */
+    public int readUnsignedByte() throws DataFormatException {
+        check(1);
+        return _data[_pos++] & 0xff;
+    }
+
+    /**
+     *  Read exactly length bytes.
+     *
+     *  @throws DataFormatException if not enough data
+     */
+    public void readBytes(byte[] target, int offset, int length) throws DataFormatException {
+        check(length);
+        System.arraycopy(_data, _pos, target, offset, length);
+        _pos += length;
+    }
+
+    /**
+     *  @throws DataFormatException if not enough data
+     */
+    public void skipBytes(int length) throws DataFormatException {
+        check(length);
+        _pos += length;
+    }
+
+    /**
+     *  A 1-byte length followed by up to 255 bytes of UTF-8,
+     *  as in DataHelper.readString().
+     *
+     *  @return non-null
+     *  @throws DataFormatException if not enough data
+     */
+    public String readString() throws DataFormatException {
+        int size = readUnsignedByte();
+        if (size == 0)
+            return "";
+        check(size);
+        String rv = DataHelper.getUTF8(_data, _pos, size);
+        _pos += size;
+        return rv;
+    }
+
+    /**
+     *  A mapping as in DataHelper.readProperties(), into a new OrderedProperties.
+     *
+     *  @throws DataFormatException if not enough data, bad format, or duplicate key
+     */
+    public Properties readProperties() throws DataFormatException {
+        return readProperties(new OrderedProperties());
+    }
+
+    /**
+     *  A mapping as in DataHelper.readProperties(), into an existing Properties.
+     *  Common keys are deduplicated as in DataHelper.
+     *
+     *  @return target
+     *  @throws DataFormatException if not enough data, bad format, or duplicate key
+     */
+    public Properties readProperties(Properties target) throws DataFormatException {
+        int size = (int) readLong(2);
+        return readMapping(size, target);
+    }
+
+    /**
+     *  The mapping contents, after the 2-byte length.
+     *
+     *  @return target
+     *  @throws DataFormatException if not enough data, bad format, or duplicate key
+     */
+    Properties readMapping(int size, Properties target) throws DataFormatException {
+        check(size);
+        int end = _pos + size;
+        int oldLimit = _limit;
+        _limit = end;
+        try {
+            while (_pos < end) {
+                String key = DataHelper.getCachedKey(readString());
+                if (readUnsignedByte() != '=')
+                    throw new DataFormatException("Bad key");
+                String val = readString();
+                if (readUnsignedByte() != ';')
+                    throw new DataFormatException("Bad value");
+                Object old = target.put(key, val);
+                if (old != null)
+                    throw new DataFormatException("Duplicate key " + key);
+            }
+        } finally {
+            _limit = oldLimit;
+        }
+        return target;
+    }
+
+    /**
+     *  A mapping as in DataHelper.readProperties(), checked for format
+     *  but not decoded. The view refers to the array, which must not
+     *  be changed while the view is in use.
+     *
+     *  @throws DataFormatException if not enough data or bad format
+     */
+    public MappingView readMappingView() throws DataFormatException {
+        int size = (int) readLong(2);
+        check(size);
+        MappingView rv = new MappingView(_data, _pos, size);
+        _pos += size;
+        return rv;
+    }
+
+    ////// write
+
+    /**
+     *  Unsigned, big endian, as in DataHelper.writeLong().
+     *
+     *  @param numBytes 1-8
+     *  @param value non-negative
+     *  @throws DataFormatException if no room, bad byte count, or negative value
+     */
+    public void writeLong(int numBytes, long value) throws DataFormatException {
+        if (numBytes <= 0 || numBytes > 8)
+            throw new DataFormatException("Bad byte count " + numBytes);
+        if (value < 0)
+            throw new DataFormatException("Value is negative (" + value + ")");
+        check(numBytes);
+        for (int i = _pos + numBytes - 1; i >= _pos; i--) {
+            _data[i] = (byte) value;
+            value >>= 8;
+        }
+        _pos += numBytes;
+    }
+
+    /**
+     *  @throws DataFormatException if no room
+     */
+    public void writeByte(int b) throws DataFormatException {
+        check(1);
+        _data[_pos++] = (byte) b;
+    }
+
+    /**
+     *  @throws DataFormatException if no room
+     */
+    public void writeBytes(byte[] src, int offset, int length) throws DataFormatException {
+        check(length);
+        System.arraycopy(src, offset, _data, _pos, length);
+        _pos += length;
+    }
+
+    /**
+     *  UTF-8, as in DataHelper.writeStringUTF8().
+     *  Strings that are all 7-bit ASCII are written without allocation.
+     *
+     *  @param string null is written as an empty string
+     *  @throws DataFormatException if no room or more than 255 bytes
+     */
+    public void writeString(String string) throws DataFormatException {
+        if (string == null) {
+            writeByte(0);
+            return;
+        }
+        int len = string.length();
+        boolean ascii = len <= 255;
+        for (int i = 0; i < len && ascii; i++) {
+            if (string.charAt(i) >= 0x80)
+                ascii = false;
+        }
+        if (ascii) {
+            check(1 + len);
+            _data[_pos++] = (byte) len;
+            for (int i = 0; i < len; i++) {
+                _data[_pos++] = (byte) string.charAt(i);
+            }
+        } else {
+            byte[] raw = DataHelper.getUTF8(string);
+            if (raw.length > 255)
+                throw new DataFormatException("The I2P data spec limits strings to 255 bytes or less, but this is "
+                                              + raw.length + " [" + string + "]");
+            check(1 + raw.length);
+            _data[_pos++] = (byte) raw.length;
+            System.arraycopy(raw, 0, _data, _pos, raw.length);
+            _pos += raw.length;
+        }
+    }
+
+    /**
+     *  A mapping as in DataHelper.writeProperties(out, props, true, sort),
+     *  written in place, with the length filled in afterwards.
+     *  Properties from the defaults table of props (if any) are not written out.
+     *
+     *  @param props may be null
+     *  @param sort should we sort the properties? (set to false if already sorted, e.g. OrderedProperties)
+     *  @throws DataFormatException if no room, or a length limit is exceeded
+     */
+    public void writeProperties(Properties props, boolean sort) throws DataFormatException {
+        int start = _pos;
+        writeLong(2, 0);
+        if (props == null || props.isEmpty())
+            return;
+        Properties p;
+        if (sort && !(props instanceof OrderedProperties)) {
+            p = new OrderedProperties();
+            p.putAll(props);
+        } else {
+            p = props;
+        }
+        for (Map.Entry<Object, Object> entry : p.entrySet()) {
+            writeString((String) entry.getKey());
+            writeByte('=');
+            writeString((String) entry.getValue());
+            writeByte(';');
+        }
+        int size = _pos - (start + 2);
+        if (size > 65535)
+            throw new DataFormatException("Properties too big (65535 max): " + size);
+        _data[start] = (byte) (size >> 8);
+        _data[start + 1] = (byte) size;
+    }
+
+    /**
+     *  A mapping that has been checked for format but not decoded.
+     *  Lookups by key scan the encoded bytes.
+     *  Good for mappings that are only consulted for one or two keys.
+     *  Duplicate keys are not detected until toProperties().
+     */
+    public static final class MappingView {
+        private final byte[] _data;
+        private final int _offset;
+        private final int _length;
+        private final int _size;
+
+        /**
+         *  @param data not copied
+         *  @param offset the start of the mapping contents, after the 2-byte length
+         *  @param length the mapping length, not including the 2-byte length
+         *  @throws DataFormatException on bad format
+         */
+        public MappingView(byte[] data, int offset, int length) throws DataFormatException {
+            if (offset < 0 || length < 0 || offset + length > data.length)
+                throw new DataFormatException("Bad mapping bounds");
+            _data = data;
+            _offset = offset;
+            _length = length;
+            int end = offset + length;
+            int count = 0;
+            int p = offset;
+            while (p < end) {
+                p += 1 + (data[p] & 0xff);
+                if (p >= end || data[p] != '=')
+                    throw new DataFormatException("Bad key");
+                p++;
+                if (p >= end)
+                    throw new DataFormatException("Bad value");
+                p += 1 + (data[p] & 0xff);
+                if (p >= end || data[p] != ';')
+                    throw new DataFormatException("Bad value");
+                p++;
+                count++;
+            }
+            _size = count;
+        }
+
+        /** @return number of entries */
+        public int size() { return _size; }
+
+        public boolean isEmpty() { return _size == 0; }
+
+        /** @return the encoded length, not including the 2-byte length */
+        public int getLength() { return _length; }
+
+        /**
+         *  @return the first value for key, or null if not found
+         */
+        public String get(String key) {
+            int end = _offset + _length;
+            int p = _offset;
+            while (p < end) {
+                int klen = _data[p] & 0xff;
+                boolean match = keyEquals(key, p + 1, klen);
+                p += 2 + klen;
+                int vlen = _data[p] & 0xff;
+                if (match)
+                    return vlen == 0 ? "" : DataHelper.getUTF8(_data, p + 1, vlen);
+                p += 2 + vlen;
+            }
+            return null;
+        }
+
+        /**
+         *  @return the value for key, or def if not found
+         */
+        public String get(String key, String def) {
+            String rv = get(key);
+            return rv != null ? rv : def;
+        }
+
+        /**
+         *  Compare without decoding if the key is ASCII.
+         */
+        private boolean keyEquals(String key, int off, int len) {
+            int klen = key.length();
+            if (klen > len)
+                return false;
+            for (int i = 0; i < klen; i++) {
+                char c = key.charAt(i);
+                if (c >= 0x80)
+                    return key.equals(DataHelper.getUTF8(_data, off, len));
+                if (i >= len || _data[off + i] != (byte) c)
+                    return false;
+            }
+            return klen == len;
+        }
+
+        /**
+         *  Decode all entries into a new OrderedProperties.
+         *
+         *  @throws DataFormatException on duplicate key
+         */
+        public Properties toProperties() throws DataFormatException {
+            return toProperties(new OrderedProperties());
+        }
+
+        /**
+         *  Decode all entries into an existing Properties.
+         *
+         *  @return target
+         *  @throws DataFormatException on duplicate key
+         */
+        public Properties toProperties(Properties target) throws DataFormatException {
+            DataCursor c = new DataCursor(_data, _offset, _length);
+            int end = _offset + _length;
+            while (c.position() < end) {
+                String key = DataHelper.getCachedKey(c.readString());
+                c.skipBytes(1);
+                String val = c.readString();
+                c.skipBytes(1);
+                Object old = target.put(key, val);
+                if (old != null)
+                    throw new DataFormatException("Duplicate key " + key);
+            }
+            return target;
+        }
+
+        @Override
+        public String toString() {
+            try {
+                return toProperties().toString();
+            } catch (DataFormatException dfe) {
+                return "[bad mapping]";
+            }
+        }
+    }
+}
@@ -97,6 +97,15 @@ public class DataHelper {
         }
     }
 
+    /**
+     *  @return the cached instance of key if it is a common one, else key
+     *  @since 0.9.27
+     */
+    static String getCachedKey(String key) {
+        String cached = _propertiesKeyCache.get(key);
+        return cached != null ? cached : key;
+    }
+
     private static final Pattern ILLEGAL_KEY =  Pattern.compile("[#=\r\n;]");
     private static final Pattern ILLEGAL_VALUE =  Pattern.compile("[#\r\n]");
 
@@ -141,28 +150,13 @@ public class DataHelper {
      */
     public static Properties readProperties(InputStream rawStream, Properties props) 
         throws DataFormatException, IOException {
+        if (rawStream instanceof DataCursor)
+            return ((DataCursor) rawStream).readProperties(props);
         long size = readLong(rawStream, 2);
         byte data[] = new byte[(int) size];
         int read = read(rawStream, data);
         if (read != size) throw new DataFormatException("Not enough data to read the properties, expected " + size + " but got " + read);
-        ByteArrayInputStream in = new ByteArrayInputStream(data);
-        while (in.available() > 0) {
-            String key = readString(in);
-            String cached = _propertiesKeyCache.get(key);
-            if (cached != null)
-                key = cached;
-            int b = in.read();
-            if (b != '=')
-                throw new DataFormatException("Bad key");
-            String val = readString(in);
-            b = in.read();
-            if (b != ';')
-                throw new DataFormatException("Bad value");
-            Object old = props.put(key, val);
-            if (old != null)
-                throw new DataFormatException("Duplicate key " + key);
-        }
-        return props;
+        return new DataCursor(data).readMapping(data.length, props);
     }
 
     /**
@@ -326,36 +320,9 @@ public class DataHelper {
      * @return new offset
      */
     public static int fromProperties(byte source[], int offset, Properties target) throws DataFormatException {
-        int size = (int)fromLong(source, offset, 2);
-        offset += 2;
-        ByteArrayInputStream in = new ByteArrayInputStream(source, offset, size);
-        while (in.available() > 0) {
-            String key;
-            try {
-                key = readString(in);
-                String cached = _propertiesKeyCache.get(key);
-                if (cached != null)
-                    key = cached;
-                int b = in.read();
-                if (b != '=')
-                    throw new DataFormatException("Bad key");
-            } catch (IOException ioe) {
-                throw new DataFormatException("Bad key", ioe);
-            }
-            String val;
-            try {
-                val = readString(in);
-                int b = in.read();
-                if (b != ';')
-                    throw new DataFormatException("Bad value");
-            } catch (IOException ioe) {
-                throw new DataFormatException("Bad value", ioe);
-            }
-            Object old= target.put(key, val);
-            if (old != null)
-                throw new DataFormatException("Duplicate key " + key);
-        }
-        return offset + size;
+        DataCursor in = new DataCursor(source, offset, source.length - offset);
+        in.readProperties(target);
+        return in.position();
     }
 
     /**
@@ -639,6 +606,13 @@ public class DataHelper {
         if (numBytes > 8)
             throw new DataFormatException("readLong doesn't currently support reading numbers > 8 bytes [as thats bigger than java's long]");
 
+        if (rawStream instanceof DataCursor && numBytes > 0) {
+            DataCursor c = (DataCursor) rawStream;
+            if (c.remaining() < numBytes)
+                throw new EOFException("EOF reading " + numBytes + " byte value");
+            return c.readLong(numBytes);
+        }
+
         long rv = 0;
         for (int i = 0; i < numBytes; i++) {
             int cur = rawStream.read();
@@ -848,6 +822,12 @@ public class DataHelper {
      * @return UTF-8 string
      */
     public static String readString(InputStream in) throws DataFormatException, IOException {
+        if (in instanceof DataCursor) {
+            DataCursor c = (DataCursor) in;
+            if (c.remaining() < 1 || c.remaining() < 1 + (c.getData()[c.position()] & 0xff))
+                throw new EOFException("EOF reading string");
+            return c.readString();
+        }
         int size = in.read();
         if (size == -1)
             throw new EOFException("EOF reading string");
@@ -9,10 +9,18 @@ package net.i2p.data;
  *
  */
 
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import net.i2p.I2PAppContext;
 import net.i2p.crypto.DSAEngine;
+import net.i2p.crypto.SHA256Generator;
+import net.i2p.crypto.SigType;
+import net.i2p.crypto.SigUtil;
+import net.i2p.crypto.eddsa.EdDSABatchVerifier;
+import net.i2p.crypto.eddsa.EdDSAPublicKey;
 
 /**
  *<p>
@@ -49,6 +57,8 @@ public abstract class DatabaseEntry extends DataStructureImpl {
     protected volatile Signature _signature;
     protected volatile Hash _currentRoutingKey;
     protected volatile long _routingKeyGenMod;
+    /** cache of getSignedHash(), the entry can't change once signed */
+    private volatile Hash _signedHash;
 
     /**
      * A common interface to the timestamp of the two subclasses.
@@ -155,6 +165,7 @@ public abstract class DatabaseEntry extends DataStructureImpl {
         if (_signature != null)
             throw new IllegalStateException();
         _signature = signature;
+        _signedHash = null;
     }
 
     /**
@@ -171,6 +182,7 @@ public abstract class DatabaseEntry extends DataStructureImpl {
             throw new DataFormatException("No signing key");
         // now sign with the key 
         _signature = DSAEngine.getInstance().sign(bytes, key);
+        _signedHash = null;
         if (_signature == null)
             throw new DataFormatException("Signature failed with " + key.getType() + " key");
     }
@@ -208,4 +220,118 @@ public abstract class DatabaseEntry extends DataStructureImpl {
         // if the data is non-null the SPK will be non-null
         return DSAEngine.getInstance().verifySignature(_signature, data, getSigningPublicKey());
     }
+
+    /**
+     * The SHA-256 of the signed data followed by the signature.
+     * The signed data includes the signing public key, so two entries
+     * with the same signed hash have the same signature verification result.
+     * Used to cache verification results across instances, for example
+     * when the same entry is stored to us again by another peer.
+     *
+     * Calculated once, as the entry may not be changed after it is signed.
+     *
+     * @return null if not signed or the data is incomplete
+     * @since 0.9.27
+     */
+    public Hash getSignedHash() {
+        Hash rv = _signedHash;
+        if (rv != null)
+            return rv;
+        Signature sig = _signature;
+        if (sig == null || sig.getData() == null)
+            return null;
+        byte data[];
+        try {
+            data = getBytes();
+        } catch (DataFormatException dfe) {
+            return null;
+        }
+        if (data == null)
+            return null;
+        byte[] sigData = sig.getData();
+        byte[] buf = new byte[data.length + sigData.length];
+        System.arraycopy(data, 0, buf, 0, data.length);
+        System.arraycopy(sigData, 0, buf, data.length, sigData.length);
+        rv = SHA256Generator.getInstance().calculateHash(buf);
+        _signedHash = rv;
+        return rv;
+    }
+
+    /**
+     * Called by verifySignatures() when this entry's signature
+     * passed batch verification, so that a subclass caching the
+     * result of verifySignature() may record it.
+     * This implementation does nothing.
+     *
+     * @since 0.9.27
+     */
+    protected void signatureVerified() {}
+
+    /**
+     * Verify the signatures of several entries.
+     * Ed25519 signatures are checked together with EdDSABatchVerifier,
+     * all others one at a time.
+     * Any entry failing the batch is checked again with verifySignature().
+     *
+     * The results are the same as calling verifySignature()
+     * (or isValid() for a RouterInfo) on each, with one exception:
+     * the batch equation includes the cofactor, so a signature whose R or
+     * signing key has a small-order component may pass here and fail singly.
+     * Only the holder of the private key can make such a signature,
+     * and that holder could equally publish a different, valid entry,
+     * so accepting it gives them nothing. Re-checking each batch pass
+     * singly would cost as much as not batching at all.
+     *
+     * Entries that pass the batch have signatureVerified() called.
+     *
+     * @return results in the same order as entries
+     * @since 0.9.27
+     */
+    public static boolean[] verifySignatures(List<? extends DatabaseEntry> entries) {
+        int sz = entries.size();
+        boolean[] rv = new boolean[sz];
+        List<Integer> batch = new ArrayList<Integer>(sz);
+        List<EdDSAPublicKey> keys = new ArrayList<EdDSAPublicKey>(sz);
+        List<byte[]> data = new ArrayList<byte[]>(sz);
+        List<byte[]> sigs = new ArrayList<byte[]>(sz);
+        for (int i = 0; i < sz; i++) {
+            DatabaseEntry entry = entries.get(i);
+            Signature sig = entry._signature;
+            SigningPublicKey spk = entry.getSigningPublicKey();
+            if (sig == null || sig.getData() == null || spk == null ||
+                spk.getType() != SigType.EdDSA_SHA512_Ed25519 ||
+                sig.getType() != SigType.EdDSA_SHA512_Ed25519)
+                continue;
+            try {
+                byte[] b = entry.getBytes();
+                if (b == null)
+                    continue;
+                keys.add(SigUtil.toJavaEdDSAKey(spk));
+                data.add(b);
+                sigs.add(sig.getData());
+                batch.add(Integer.valueOf(i));
+            } catch (DataFormatException dfe) {
+            } catch (GeneralSecurityException gse) {}
+        }
+        boolean[] done = new boolean[sz];
+        if (batch.size() > 1) {
+            int bsz = batch.size();
+            boolean[] ok = EdDSABatchVerifier.verify(keys.toArray(new EdDSAPublicKey[bsz]),
+                                                     data.toArray(new byte[bsz][]),
+                                                     sigs.toArray(new byte[bsz][]));
+            for (int j = 0; j < bsz; j++) {
+                if (ok[j]) {
+                    int i = batch.get(j).intValue();
+                    rv[i] = true;
+                    done[i] = true;
+                    entries.get(i).signatureVerified();
+                }
+            }
+        }
+        for (int i = 0; i < sz; i++) {
+            if (!done[i])
+                rv[i] = entries.get(i).verifySignature();
+        }
+        return rv;
+    }
 }
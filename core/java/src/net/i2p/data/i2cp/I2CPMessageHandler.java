@@ -9,9 +9,11 @@ package net.i2p.data.i2cp;
  *
  */
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 
+import net.i2p.data.DataCursor;
 import net.i2p.data.DataFormatException;
 import net.i2p.data.DataHelper;
 
@@ -59,6 +61,52 @@ public class I2CPMessageHandler {
         }
     }
 
+    /**
+     * Read an I2CPMessage from the stream and return the fully populated object.
+     * The whole message is read into the buffer first, with bulk reads,
+     * and then parsed in place from there, so that the per-field reads
+     * don't go to the underlying (typically buffered and synchronized) stream.
+     * Any data past what the message parser reads, up to the message length,
+     * is skipped, and the parser cannot read past the message length.
+     * <p>
+     * The parsed message does not reference the buffer,
+     * so it may be reused for the next message.
+     *
+     * @param in I2CP input stream
+     * @param buf reusable, will be rewrapped around a larger array if necessary.
+     *            On return, wraps the message payload.
+     * @return Fully populated I2CPMessage
+     * @throws IOException if there is an IO problem reading from the stream
+     * @throws I2CPMessageException if there is a problem handling the particular
+     *          message - if it is an unknown type or has improper formatting, etc.
+     * @since 0.9.27
+     */
+    public static I2CPMessage readMessage(InputStream in, DataCursor buf) throws IOException, I2CPMessageException {
+        byte[] data = buf.getData();
+        if (data.length < 5)
+            data = new byte[1024];
+        int read = DataHelper.read(in, data, 0, 5);
+        if (read != 5)
+            throw new EOFException("Connection closed");
+        int length = (int) DataHelper.fromLong(data, 0, 4);
+        if (length > MAX_LENGTH)
+            throw new I2CPMessageException("Invalid message length specified");
+        int type = data[4] & 0xff;
+        I2CPMessage msg = createMessage(type);
+        if (data.length < length)
+            data = new byte[length];
+        read = DataHelper.read(in, data, 0, length);
+        if (read != length)
+            throw new EOFException("Connection closed");
+        buf.wrap(data, 0, length);
+        try {
+            msg.readMessage(buf, length, type);
+        } catch (EOFException eofe) {
+            throw new I2CPMessageException("Truncated message type " + type + " length " + length, eofe);
+        }
+        return msg;
+    }
+
     /**
      * Yes, this is fairly ugly, but its the only place it ever happens.  
      *
@@ -14,6 +14,7 @@ import java.io.InputStream;
 import java.util.concurrent.atomic.AtomicLong;
 
 import net.i2p.I2PAppContext;
+import net.i2p.data.DataCursor;
 import net.i2p.util.I2PThread;
 import net.i2p.util.Log;
 
@@ -129,6 +130,8 @@ public class I2CPMessageReader {
         protected volatile boolean _doRun;
         protected volatile boolean _stayAlive;
         private final Log _log = I2PAppContext.getGlobalContext().logManager().getLog(I2CPMessageReader.class);
+        /** reused for each message, grows as necessary */
+        private final DataCursor _buf = new DataCursor(new byte[1024]);
 
         public I2CPMessageReaderRunner() {
             _doRun = true;
@@ -178,7 +181,7 @@ public class I2CPMessageReader {
                 while (_doRun) {
                     // do read
                     try {
-                        I2CPMessage msg = I2CPMessageHandler.readMessage(_stream);
+                        I2CPMessage msg = I2CPMessageHandler.readMessage(_stream, _buf);
                         if (msg != null) {
                             //_log.debug("Before handling the newly received message");
                             _listener.messageReceived(I2CPMessageReader.this, msg);
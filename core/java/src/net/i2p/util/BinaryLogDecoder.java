@@ -0,0 +1,184 @@
+package net.i2p.util;
+
+/*
+ * public domain
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.i2p.data.DataHelper;
+
+/**
+ *  Converts a binary log written with logger.binary=true back to text,
+ *  one line per record:
+ *<pre>
+ *  yyyy/MM/dd HH:mm:ss.SSS PRIORITY [thread] class: message
+ *</pre>
+ *  followed by the stack trace, if any.
+ *
+ *  Usage: BinaryLogDecoder logfile.bin [outfile.txt]
+ *
+ *  @since 0.9.27
+ */
+public class BinaryLogDecoder {
+    private final InputStream _in;
+    private final Map<Integer, String> _strings;
+    private final SimpleDateFormat _fmt;
+    private long _lastDate;
+
+    /**
+     *  Reads and checks the header.
+     *  @param in should be buffered
+     *  @throws IOException if not a binary log or unknown version
+     */
+    public BinaryLogDecoder(InputStream in) throws IOException {
+        _in = in;
+        _strings = new HashMap<Integer, String>(64);
+        _fmt = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.SSS");
+        byte[] magic = new byte[BinaryLogEncoder.MAGIC.length];
+        DataHelper.read(_in, magic);
+        if (!DataHelper.eq(magic, BinaryLogEncoder.MAGIC))
+            throw new IOException("Not a binary log");
+        int version = _in.read();
+        if (version != BinaryLogEncoder.VERSION)
+            throw new IOException("Unsupported binary log version " + version);
+    }
+
+    /**
+     *  Decode everything to out. A record truncated at the end of the file,
+     *  for example by a crash, is silently ignored.
+     */
+    public void decode(Writer out) throws IOException {
+        StringBuilder buf = new StringBuilder(256);
+        while (true) {
+            int type = _in.read();
+            if (type < 0)
+                break;
+            buf.setLength(0);
+            try {
+                if (!decodeEntry(type, buf))
+                    continue;
+            } catch (EOFException eofe) {
+                break;
+            }
+            out.write(buf.toString());
+        }
+        out.flush();
+    }
+
+    /**
+     *  @return true if buf has a line to output
+     */
+    private boolean decodeEntry(int type, StringBuilder buf) throws IOException {
+        switch (type) {
+          case BinaryLogEncoder.STRING_DEF:
+            int id = (int) readVarint();
+            _strings.put(Integer.valueOf(id), readString());
+            return false;
+
+          case BinaryLogEncoder.RECORD:
+            long date = readDate();
+            int priority = readByte();
+            String src = lookup(readVarint());
+            String thread = lookup(readVarint());
+            String msg = readString();
+            String trace = readString();
+            buf.append(_fmt.format(new Date(date))).append(' ')
+               .append(Log.toLevelString(priority)).append(" [")
+               .append(thread != null ? thread : "").append("] ")
+               .append(src != null ? src : "<none>").append(": ")
+               .append(msg).append(LogRecordFormatter.NL);
+            if (trace.length() > 0)
+                buf.append(trace);
+            return true;
+
+          case BinaryLogEncoder.LINE:
+            readDate();
+            readByte();
+            buf.append(readString());
+            return true;
+
+          default:
+            throw new IOException("Bad entry type " + type);
+        }
+    }
+
+    private String lookup(long id) {
+        if (id == 0)
+            return null;
+        return _strings.get(Integer.valueOf((int) id));
+    }
+
+    private long readDate() throws IOException {
+        long v = readVarint();
+        long delta = (v >>> 1) ^ -(v & 1);
+        _lastDate += delta;
+        return _lastDate;
+    }
+
+    private String readString() throws IOException {
+        long len = readVarint();
+        if (len > 16*1024*1024)
+            throw new IOException("Bad string length " + len);
+        byte[] b = new byte[(int) len];
+        int read = DataHelper.read(_in, b);
+        if (read != b.length)
+            throw new EOFException();
+        return DataHelper.getUTF8(b);
+    }
+
+    private int readByte() throws IOException {
+        int rv = _in.read();
+        if (rv < 0)
+            throw new EOFException();
+        return rv;
+    }
+
+    private long readVarint() throws IOException {
+        long rv = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            rv |= ((long) (b & 0x7f)) << shift;
+            if ((b & 0x80) == 0)
+                return rv;
+        }
+        throw new IOException("Bad varint");
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: BinaryLogDecoder logfile.bin [outfile.txt]");
+            System.exit(1);
+        }
+        InputStream in = null;
+        Writer out = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(new File(args[0])));
+            BinaryLogDecoder dec = new BinaryLogDecoder(in);
+            if (args.length > 1)
+                out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[1]), "UTF-8"));
+            else
+                out = new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8"));
+            dec.decode(out);
+        } catch (IOException ioe) {
+            System.err.println("Failed to decode " + args[0] + ": " + ioe);
+            System.exit(1);
+        } finally {
+            if (in != null) try { in.close(); } catch (IOException ioe) {}
+            if (out != null) try { out.close(); } catch (IOException ioe) {}
+        }
+    }
+}
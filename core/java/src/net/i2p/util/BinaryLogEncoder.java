@@ -0,0 +1,170 @@
+package net.i2p.util;
+
+/*
+ * public domain
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.i2p.data.DataHelper;
+
+/**
+ *  Writes log records in a compact binary form, for logger.binary=true.
+ *  Read it back with BinaryLogDecoder.
+ *
+ *  The file starts with the magic "I2PLOG" and a version byte,
+ *  followed by entries, each starting with a type byte:
+ *<pre>
+ *  STRING_DEF: id (varint), length (varint), UTF-8 string
+ *  RECORD:     date delta ms (zigzag varint), priority (1 byte),
+ *              source id (varint), thread id (varint),
+ *              message length (varint), UTF-8 message,
+ *              throwable length (varint, 0 if none), UTF-8 stack trace
+ *  LINE:       date delta ms (zigzag varint), priority (1 byte),
+ *              length (varint), UTF-8 preformatted text
+ *</pre>
+ *  Class and thread names are written once per file as a STRING_DEF
+ *  and referenced by id after that. The first date delta is from 0.
+ *
+ *  Not thread safe, caller must synch.
+ *
+ *  @since 0.9.27
+ */
+class BinaryLogEncoder {
+    static final byte[] MAGIC = DataHelper.getASCII("I2PLOG");
+    static final int VERSION = 1;
+    static final int STRING_DEF = 0x01;
+    static final int RECORD = 0x02;
+    static final int LINE = 0x03;
+    /** don't let a busy router with many thread names grow this forever */
+    private static final int MAX_STRINGS = 4096;
+
+    private final OutputStream _out;
+    private final Map<String, Integer> _strings;
+    private int _nextID;
+    private long _lastDate;
+    private long _written;
+
+    /**
+     *  Writes the header.
+     *  @param out should be buffered
+     */
+    public BinaryLogEncoder(OutputStream out) throws IOException {
+        _out = out;
+        _strings = new HashMap<String, Integer>(64);
+        _out.write(MAGIC);
+        _out.write(VERSION);
+        _written = MAGIC.length + 1;
+    }
+
+    /**
+     *  The message is formatted here if it was logged with Log.logf(),
+     *  everything else is written as-is.
+     */
+    public void write(LogRecord rec) throws IOException {
+        // any STRING_DEFs go before the record
+        String src = rec.getSource() != null ? rec.getSource().getName() : rec.getSourceName();
+        int srcID = stringID(src);
+        int threadID = stringID(rec.getThreadName());
+        _out.write(RECORD);
+        _written++;
+        writeDate(rec.getDate());
+        _out.write(rec.getPriority());
+        _written++;
+        writeVarint(srcID);
+        writeVarint(threadID);
+        String msg = rec.getMessage();
+        writeString(msg != null ? msg : "");
+        Throwable t = rec.getThrowable();
+        if (t != null) {
+            StringWriter sw = new StringWriter(512);
+            PrintWriter pw = new PrintWriter(sw);
+            t.printStackTrace(pw);
+            pw.flush();
+            writeString(sw.toString());
+        } else {
+            writeVarint(0);
+        }
+    }
+
+    /**
+     *  A preformatted line, e.g. the duplicate message notice
+     */
+    public void write(long date, int priority, String line) throws IOException {
+        _out.write(LINE);
+        _written++;
+        writeDate(date);
+        _out.write(priority);
+        _written++;
+        writeString(line);
+    }
+
+    /**
+     *  @return bytes written so far, including the header
+     */
+    public long getBytesWritten() {
+        return _written;
+    }
+
+    public void flush() throws IOException {
+        _out.flush();
+    }
+
+    public void close() throws IOException {
+        _out.close();
+    }
+
+    /**
+     *  Writes a STRING_DEF first if we haven't seen it.
+     *  @param s may be null
+     *  @return 0 for null
+     */
+    private int stringID(String s) throws IOException {
+        if (s == null)
+            return 0;
+        Integer id = _strings.get(s);
+        if (id != null)
+            return id.intValue();
+        if (_strings.size() >= MAX_STRINGS)
+            _strings.clear();
+        // ids are never reused within a file, the decoder keeps them all
+        int rv = ++_nextID;
+        _strings.put(s, Integer.valueOf(rv));
+        _out.write(STRING_DEF);
+        _written++;
+        writeVarint(rv);
+        writeString(s);
+        return rv;
+    }
+
+    private void writeDate(long date) throws IOException {
+        long delta = date - _lastDate;
+        _lastDate = date;
+        // zigzag, the clock may go backwards
+        writeVarint((delta << 1) ^ (delta >> 63));
+    }
+
+    /** @param s non-null */
+    private void writeString(String s) throws IOException {
+        byte[] b = DataHelper.getUTF8(s);
+        writeVarint(b.length);
+        _out.write(b);
+        _written += b.length;
+    }
+
+    /** unsigned LEB128 */
+    private void writeVarint(long v) throws IOException {
+        while ((v & ~0x7fL) != 0) {
+            _out.write((int) ((v & 0x7f) | 0x80));
+            _written++;
+            v >>>= 7;
+        }
+        _out.write((int) v);
+        _written++;
+    }
+}
@@ -9,6 +9,7 @@ package net.i2p.util;
  *
  */
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
@@ -24,6 +25,8 @@ import java.io.Writer;
 class FileLogWriter extends LogWriter {
     // volatile as it changes on log file rotation
     private volatile Writer _currentOut;
+    /** instead of _currentOut when logger.binary=true, @since 0.9.27 */
+    private volatile BinaryLogEncoder _binaryOut;
     private int _rotationNum = -1;
     private File _currentFile;
     private long _numBytesInCurrentFile;
@@ -47,34 +50,63 @@ class FileLogWriter extends LogWriter {
         return rv;
     }
 
-    protected void writeRecord(LogRecord rec, String formatted) {
-    	writeRecord(rec.getPriority(), formatted);
+    protected synchronized void writeRecord(LogRecord rec, String formatted) {
+        if (_currentOut == null && _binaryOut == null) {
+            rotateFile();
+        }
+        BinaryLogEncoder bout = _binaryOut;
+        if (bout == null) {
+            writeRecord(rec.getPriority(), formatted);
+            return;
+        }
+        try {
+            bout.write(rec);
+            _numBytesInCurrentFile = bout.getBytesWritten();
+        } catch (Throwable t) {
+            writeError(t);
+        }
+        if (_numBytesInCurrentFile >= _manager.getFileSize()) {
+            rotateFile();
+        }
     }
 
     protected synchronized void writeRecord(int priority, String val) {
         if (val == null) return;
-        if (_currentOut == null) {
+        if (_currentOut == null && _binaryOut == null) {
             rotateFile();
-            if (_currentOut == null)
+            if (_currentOut == null && _binaryOut == null)
                 return; // hosed
         }
 
         try {
-            _currentOut.write(val);
-            // may be a little off if a lot of multi-byte chars, but unlikely
-            _numBytesInCurrentFile += val.length();
+            BinaryLogEncoder bout = _binaryOut;
+            if (bout != null) {
+                bout.write(System.currentTimeMillis(), priority, val);
+                _numBytesInCurrentFile = bout.getBytesWritten();
+            } else {
+                _currentOut.write(val);
+                // may be a little off if a lot of multi-byte chars, but unlikely
+                _numBytesInCurrentFile += val.length();
+            }
         } catch (Throwable t) {
-            if (!_write)
-                return;
-            if (++_diskFullMessageCount < MAX_DISKFULL_MESSAGES)
-                System.err.println("Error writing log, disk full? " + t);
-            //t.printStackTrace();
+            writeError(t);
         }
         if (_numBytesInCurrentFile >= _manager.getFileSize()) {
             rotateFile();
         }
     }
 
+    /**
+     *  @since 0.9.27 split out of writeRecord()
+     */
+    private void writeError(Throwable t) {
+        if (!_write)
+            return;
+        if (++_diskFullMessageCount < MAX_DISKFULL_MESSAGES)
+            System.err.println("Error writing log, disk full? " + t);
+        //t.printStackTrace();
+    }
+
     /**
      *  @since 0.9.19
      */
@@ -82,6 +114,9 @@ class FileLogWriter extends LogWriter {
         try {
             if (_currentOut != null)
                 _currentOut.flush();
+            BinaryLogEncoder bout = _binaryOut;
+            if (bout != null)
+                bout.flush();
         } catch (IOException ioe) {
             if (_write && ++_diskFullMessageCount < MAX_DISKFULL_MESSAGES)
                 System.err.println("Error writing the router log - disk full? " + ioe);
@@ -98,6 +133,12 @@ class FileLogWriter extends LogWriter {
                 out.close();
             } catch (IOException ioe) {}
         }
+        BinaryLogEncoder bout = _binaryOut;
+        if (bout != null) {
+            try {
+                bout.close();
+            } catch (IOException ioe) {}
+        }
     }
 
     /**
@@ -125,8 +166,13 @@ class FileLogWriter extends LogWriter {
             }
         }
         closeWriter();
+        _currentOut = null;
+        _binaryOut = null;
         try {
-            _currentOut = new BufferedWriter(new OutputStreamWriter(new SecureFileOutputStream(f), "UTF-8"));
+            if (_manager.isBinary())
+                _binaryOut = new BinaryLogEncoder(new BufferedOutputStream(new SecureFileOutputStream(f)));
+            else
+                _currentOut = new BufferedWriter(new OutputStreamWriter(new SecureFileOutputStream(f), "UTF-8"));
         } catch (IOException ioe) {
             if (++_diskFullMessageCount < MAX_DISKFULL_MESSAGES)
                 System.err.println("Error creating log file [" + f.getAbsolutePath() + "]" + ioe);
@@ -140,6 +186,8 @@ class FileLogWriter extends LogWriter {
      */
     private File getNextFile() {
         String pattern = _manager.getBaseLogfilename();
+        if (_manager.isBinary())
+            pattern = binaryName(pattern);
         File f = new File(pattern);
         File base = null;
         if (!f.isAbsolute())
@@ -205,6 +253,16 @@ class FileLogWriter extends LogWriter {
         return oldest;
     }
 
+    /**
+     *  log-@.txt becomes log-@.bin, anything else gets .bin appended
+     *  @since 0.9.27
+     */
+    private static String binaryName(String pattern) {
+        if (pattern.endsWith(".txt"))
+            return pattern.substring(0, pattern.length() - 4) + ".bin";
+        return pattern + ".bin";
+    }
+
     private static final String replace(String pattern, int num) {
         char c[] = pattern.toCharArray();
         StringBuilder buf = new StringBuilder();
@@ -10,6 +10,7 @@ package net.i2p.util;
  */
 
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.i2p.I2PAppContext;
 
@@ -31,6 +32,8 @@ public class Log {
     private int _minPriority;
     private final LogScope _scope;
     private final LogManager _manager;
+    /** records dropped because the LogManager's buffer was full */
+    private final AtomicLong _dropped = new AtomicLong();
 
     public final static int DEBUG = 10;
     public final static int INFO = 20;
@@ -110,7 +113,7 @@ public class Log {
 
     public void log(int priority, String msg) {
         if (priority >= _minPriority) {
-            _manager.addRecord(new LogRecord(_class, _name, 
+            _manager.addRecord(this, new LogRecord(_class, _name, 
                                              Thread.currentThread().getName(), priority,
                                              msg, null));
         }
@@ -121,7 +124,7 @@ public class Log {
         //if (t != null && t instanceof RuntimeException && !(t instanceof IllegalArgumentException))
         //    priority = CRIT;
         if (priority >= _minPriority) {
-            _manager.addRecord(new LogRecord(_class, _name, 
+            _manager.addRecord(this, new LogRecord(_class, _name, 
                                              Thread.currentThread().getName(), priority,
                                              msg, t));
         }
@@ -133,11 +136,34 @@ public class Log {
      *  @since 0.8.2
      */
     public void logAlways(int priority, String msg) {
-            _manager.addRecord(new LogRecord(_class, _name, 
+            _manager.addRecord(this, new LogRecord(_class, _name, 
                                              Thread.currentThread().getName(), priority,
                                              msg, null));
     }
 
+    /**
+     *  Log with deferred formatting.
+     *  The message is formatted with String.format() by the LogWriter thread,
+     *  and only if the priority is enabled, so the caller does not need to
+     *  check shouldLog() first to avoid building the string.
+     *
+     *  As the arguments are formatted later, they should not be modified after this call.
+     *  If the last argument is a Throwable, its stack trace is logged also.
+     *
+     *  @param format a java.util.Formatter format string, e.g. "Got %d bytes from %s"
+     *  @since 0.9.27
+     */
+    public void logf(int priority, String format, Object... args) {
+        if (priority >= _minPriority) {
+            Throwable t = null;
+            if (args != null && args.length > 0 && args[args.length - 1] instanceof Throwable)
+                t = (Throwable) args[args.length - 1];
+            _manager.addRecord(this, new LogRecord(_class, _name,
+                                                   Thread.currentThread().getName(), priority,
+                                                   format, args, t));
+        }
+    }
+
     public void debug(String msg) {
         log(DEBUG, msg);
     }
@@ -170,6 +196,20 @@ public class Log {
         log(ERROR, msg, t);
     }
 
+    /**
+     *  @return the number of records from this log dropped because
+     *          the LogManager's buffer was full
+     *  @since 0.9.27
+     */
+    public long getDroppedCount() {
+        return _dropped.get();
+    }
+
+    /** @since 0.9.27 */
+    void dropped() {
+        _dropped.incrementAndGet();
+    }
+
     public int getMinimumPriority() {
         return _minPriority;
     }
@@ -25,7 +25,6 @@ import java.util.Properties;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -65,6 +64,12 @@ public class LogManager implements Flushable {
     private static final String PROP_DUP = "logger.dropDuplicates";
     /** @since 0.9.18 */
     private static final String PROP_FLUSH = "logger.flushInterval";
+    /**
+     *  Write the log file in a compact binary format,
+     *  to be read with BinaryLogDecoder. Takes effect at the next log file.
+     *  @since 0.9.27
+     */
+    public static final String PROP_BINARY = "logger.binary";
     public final static String PROP_RECORD_PREFIX = "logger.record.";
 
     public final static String DEFAULT_FORMAT = DATE + " " + PRIORITY + " [" + THREAD + "] " + CLASS + ": " + MESSAGE;
@@ -91,13 +96,13 @@ public class LogManager implements Flushable {
     /** max to LogRecords to buffer in memory before we start blocking */
     private static final int MAX_BUFFER = 1024;
     /** Ordered list of LogRecord elements that have not been written out yet */
-    private final LinkedBlockingQueue<LogRecord> _records;
+    private final LogRingBuffer<LogRecord> _records;
     /** List of explicit overrides of log levels (LogLimit objects) */
     private final Set<LogLimit> _limits;
     /** String (scope) or Log.LogScope to Log object */
     private final ConcurrentHashMap<Object, Log> _logs;
     /** who clears and writes our records */
-    private LogWriter _writer;
+    private volatile LogWriter _writer;
 
     /** 
      * default log level for logs that aren't explicitly controlled 
@@ -128,7 +133,13 @@ public class LogManager implements Flushable {
     private int _logBufferSize = MAX_BUFFER;
     private boolean _dropOnOverflow;
     private boolean _dropDuplicates;
+    private volatile boolean _binary;
     private final AtomicLong _droppedRecords = new AtomicLong();
+    /** loggers waiting in addRecord() for room in the queue */
+    private final AtomicInteger _fullWaiters = new AtomicInteger();
+    private final Object _fullLock = new Object();
+    /** ms, in case a notFull() is missed, e.g. the writer stopped */
+    private static final long FULL_WAIT = 1000;
     // in seconds
     private int _flushInterval = (int) (LogWriter.FLUSH_INTERVAL / 1000);
     
@@ -144,7 +155,7 @@ public class LogManager implements Flushable {
         _log = getLog(LogManager.class);
         String location = context.getProperty(CONFIG_LOCATION_PROP, CONFIG_LOCATION_DEFAULT);
         setConfig(location);
-        _records = new LinkedBlockingQueue<LogRecord>(_logBufferSize);
+        _records = new LogRingBuffer<LogRecord>(_logBufferSize);
         _consoleBuffer = new LogConsoleBuffer(_consoleBufferSize);
         // If we aren't in the router context, delay creating the LogWriter until required,
         // so it doesn't create a log directory and log files unless there is output.
@@ -162,7 +173,6 @@ public class LogManager implements Flushable {
 
     /** @since 0.8.2 */
     private synchronized void startLogWriter() {
-        // yeah, this doesn't always work, _writer should be volatile
         if (_writer != null)
             return;
         if (SystemVersion.isAndroid()) {
@@ -272,35 +282,79 @@ public class LogManager implements Flushable {
 
     /**
      * Used by Log to add records to the queue.
-     * This is generally nonblocking and unsyncrhonized but may block when under
-     * massive logging load as a way of throttling logging threads.
+     * This is generally nonblocking and unsynchronized but may block when under
+     * massive logging load as a way of throttling logging threads,
+     * unless logger.dropOnOverflow is set.
+     *
+     * @param log for its dropped record counter
+     * @since 0.9.27 added log parameter
      */
-    void addRecord(LogRecord record) {
-        if ((!_context.isRouterContext()) && _writer == null)
+    void addRecord(Log log, LogRecord record) {
+        LogWriter writer = _writer;
+        if (writer == null && !_context.isRouterContext()) {
             startLogWriter();
+            writer = _writer;
+        }
 
-        boolean success = _records.offer(record);
-        if (!success) {
-            if (_dropOnOverflow) {
-                // TODO use the counter in a periodic drop msg
-                _droppedRecords.incrementAndGet();
-                return;
-            }
-            // the writer waits 10 seconds *or* until we tell them to wake up
-            // before rereading the config and writing out any log messages
-            synchronized (_writer) {
-                _writer.notifyAll();
+        if (_records.offer(record)) {
+            if (_flushInterval <= 0 && writer != null)
+                writer.wakeup();
+            return;
+        }
+        if (_dropOnOverflow || writer == null) {
+            dropped(log);
+            return;
+        }
+        // block as a way of slowing down out-of-control loggers (a little)
+        // until the writer has made room and calls notFull()
+        _fullWaiters.incrementAndGet();
+        try {
+            synchronized (_fullLock) {
+                while (!_records.offer(record)) {
+                    // the writer waits for the flush interval *or* until we tell them to wake up
+                    writer.wakeup();
+                    _fullLock.wait(FULL_WAIT);
+                }
             }
-            // block as a way of slowing down out-of-control loggers (a little)
-            try {
-                _records.put(record);
-            } catch (InterruptedException ie) {}
-        } else if (_flushInterval <= 0) {
-            synchronized (_writer) {
-                _writer.notifyAll();
+        } catch (InterruptedException ie) {
+            dropped(log);
+            Thread.currentThread().interrupt();
+        } finally {
+            _fullWaiters.decrementAndGet();
+        }
+    }
+
+    /**
+     *  Called by the LogWriter after taking records from the queue,
+     *  to wake up any loggers waiting in addRecord() for room.
+     *  Cheap if there aren't any.
+     *
+     *  @since 0.9.27
+     */
+    void notFull() {
+        if (_fullWaiters.get() > 0) {
+            synchronized (_fullLock) {
+                _fullLock.notifyAll();
             }
         }
     }
+
+    /** @since 0.9.27 */
+    private void dropped(Log log) {
+        _droppedRecords.incrementAndGet();
+        log.dropped();
+    }
+
+    /**
+     *  Total for all logs. See Log.getDroppedCount() for each log.
+     *  The LogWriter logs a warning when this increases.
+     *
+     *  @return the number of records dropped because the buffer was full
+     *  @since 0.9.27
+     */
+    public long getDroppedRecords() {
+        return _droppedRecords.get();
+    }
     
     /**
      * Called periodically by the log writer's thread
@@ -320,6 +374,22 @@ public class LogManager implements Flushable {
         return _dropDuplicates;
     }
 
+    /**
+     *  @return true if new log files should be in the binary format
+     *  @since 0.9.27
+     */
+    public boolean isBinary() {
+        return _binary;
+    }
+
+    /**
+     *  Takes effect at the next log file.
+     *  @since 0.9.27
+     */
+    public void setBinary(boolean yes) {
+        _binary = yes;
+    }
+
     /**
      * Do not log here, deadlock of LogWriter via rereadConfig().
      */
@@ -426,6 +496,7 @@ public class LogManager implements Flushable {
         } catch (NumberFormatException nfe) {}
 
         _dropOnOverflow = Boolean.parseBoolean(config.getProperty(PROP_DROP));
+        _binary = Boolean.parseBoolean(config.getProperty(PROP_BINARY));
         String str = config.getProperty(PROP_DUP);
         _dropDuplicates = str == null || Boolean.parseBoolean(str);
 
@@ -668,6 +739,8 @@ public class LogManager implements Flushable {
         rv.setProperty(PROP_DROP, Boolean.toString(_dropOnOverflow));
         rv.setProperty(PROP_DUP, Boolean.toString(_dropDuplicates));
         rv.setProperty(PROP_LOG_BUFFER_SIZE, Integer.toString(_logBufferSize));
+        if (_binary)
+            rv.setProperty(PROP_BINARY, "true");
 
         // prior to 0.9.5, override prop trumped config file
         // as of 0.9.5, override prop trumps config file only if config file is set to default,
@@ -748,17 +821,9 @@ public class LogManager implements Flushable {
      *  @since 0.9.3
      */
     public void flush() {
-        if (_writer != null) {
-            int i = 50;
-            while ((!_records.isEmpty()) && i-- > 0) {
-                synchronized (_writer) {
-                    _writer.notifyAll();
-                }
-                try {
-                    Thread.sleep(5);
-                } catch (InterruptedException ie) {}
-            }
-        }
+        LogWriter writer = _writer;
+        if (writer != null)
+            writer.waitForFlush(250);
     }
 
     public void shutdown() {
@@ -769,9 +834,7 @@ public class LogManager implements Flushable {
             // this could generate out-of-order messages
             _writer.flushRecords(false);
             _writer.stopWriting();
-            synchronized (_writer) {
-                _writer.notifyAll();
-            }
+            _writer.wakeup();
         }
         _records.clear();
         _limits.clear();
@@ -9,6 +9,10 @@ package net.i2p.util;
  *
  */
 
+import java.util.Arrays;
+import java.util.IllegalFormatException;
+import java.util.Locale;
+
 /**
  * Keep track of a log entry, unformatted.
  *
@@ -21,14 +25,29 @@ class LogRecord {
     private final int _priority;
     private final String _message;
     private final Throwable _throwable;
+    /** for deferred formatting of _message, null if none */
+    private final Object[] _args;
+    /** _message formatted with _args, set by the LogWriter thread */
+    private String _formatted;
 
     public LogRecord(Class<?> src, String name, String threadName, int priority, String msg, Throwable t) {
+        this(src, name, threadName, priority, msg, null, t);
+    }
+
+    /**
+     *  @param format a java.util.Formatter format string, formatted only when written
+     *  @param args may be null
+     *  @since 0.9.27
+     */
+    public LogRecord(Class<?> src, String name, String threadName, int priority,
+                     String format, Object[] args, Throwable t) {
         _date = Clock.getInstance().now();
         _source = src;
         _name = name;
         _threadName = threadName;
         _priority = priority;
-        _message = msg;
+        _message = format;
+        _args = args;
         _throwable = t;
     }
 
@@ -52,8 +71,24 @@ class LogRecord {
         return _priority;
     }
 
+    /**
+     *  As of 0.9.27, this formats any arguments, so call it
+     *  only from the LogWriter thread.
+     */
     public String getMessage() {
-        return _message;
+        if (_args == null)
+            return _message;
+        if (_formatted == null) {
+            try {
+                _formatted = String.format(Locale.US, _message, _args);
+            } catch (IllegalFormatException ife) {
+                _formatted = _message + ' ' + Arrays.toString(_args);
+            } catch (RuntimeException re) {
+                // an argument's toString() threw
+                _formatted = _message + " [" + re + ']';
+            }
+        }
+        return _formatted;
     }
 
     public Throwable getThrowable() {
@@ -64,6 +99,8 @@ class LogRecord {
 
     /**
      *  Matches source class, first part of message string, and throwable class only.
+     *  For deferred formatting, matches the formatted message, so this
+     *  must only be called from the LogWriter thread.
      *  Used only by LogWriter to eliminate dups.
      *  @since 0.9.3
      */
@@ -72,17 +109,26 @@ class LogRecord {
         if (!(o instanceof LogRecord))
             return false;
         LogRecord r = (LogRecord) o;
-        return _source == r._source &&
-               ((_message == null && r._message == null) ||
-                (_message != null && r._message != null &&
-                 ((_message.length() <= MATCH_LEN) ? _message.equals(r._message)
-                                                   : _message.regionMatches(0, r._message, 0, MATCH_LEN)))) &&
+        if (_source != r._source)
+            return false;
+        String msg = getMessage();
+        String rmsg = r.getMessage();
+        return ((msg == null && rmsg == null) ||
+                (msg != null && rmsg != null &&
+                 ((msg.length() <= MATCH_LEN) ? msg.equals(rmsg)
+                                              : msg.regionMatches(0, rmsg, 0, MATCH_LEN)))) &&
                ((_throwable == null && r._throwable == null) ||
                 (_throwable != null && r._throwable != null && _throwable.getClass() == r._throwable.getClass()));
     }
 
+    /**
+     *  Consistent with equals(), so also only from the LogWriter thread.
+     */
     @Override
     public int hashCode() {
-        return _message != null ? _message.hashCode() : 0;
+        String msg = getMessage();
+        if (msg == null)
+            return 0;
+        return msg.length() <= MATCH_LEN ? msg.hashCode() : msg.substring(0, MATCH_LEN).hashCode();
     }
 }
@@ -0,0 +1,149 @@
+package net.i2p.util;
+
+/*
+ * public domain
+ */
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ *  Bounded, lock-free, multi-producer queue for the LogManager's records.
+ *  Loggers never block each other on a lock, as they did on the put lock
+ *  of the LinkedBlockingQueue this replaces.
+ *
+ *  Each slot has a sequence number telling whether it is ready
+ *  for the producer or the consumer of a given position;
+ *  positions are claimed with a CAS on the head or tail counter.
+ *
+ *  offer() returns false when full; it does not block.
+ *  size() and isEmpty() are approximate while others are adding.
+ *  Iteration is not supported.
+ *
+ *  @since 0.9.27
+ */
+class LogRingBuffer<E> extends AbstractQueue<E> {
+    private final int _mask;
+    private final AtomicReferenceArray<E> _items;
+    private final AtomicLongArray _seqs;
+    /** next position to poll */
+    private final AtomicLong _head = new AtomicLong();
+    /** next position to offer */
+    private final AtomicLong _tail = new AtomicLong();
+
+    /**
+     *  @param capacity rounded up to a power of 2, minimum 2
+     */
+    public LogRingBuffer(int capacity) {
+        int sz = 2;
+        while (sz < capacity && sz < (1 << 30)) {
+            sz <<= 1;
+        }
+        _mask = sz - 1;
+        _items = new AtomicReferenceArray<E>(sz);
+        _seqs = new AtomicLongArray(sz);
+        for (int i = 0; i < sz; i++) {
+            _seqs.set(i, i);
+        }
+    }
+
+    /**
+     *  @return false if full
+     */
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        long pos = _tail.get();
+        while (true) {
+            int idx = (int) pos & _mask;
+            long dif = _seqs.get(idx) - pos;
+            if (dif == 0) {
+                if (_tail.compareAndSet(pos, pos + 1)) {
+                    _items.lazySet(idx, e);
+                    // publish
+                    _seqs.set(idx, pos + 1);
+                    return true;
+                }
+            } else if (dif < 0) {
+                // the consumer hasn't freed this slot yet
+                return false;
+            }
+            pos = _tail.get();
+        }
+    }
+
+    /**
+     *  @return null if empty
+     */
+    public E poll() {
+        long pos = _head.get();
+        while (true) {
+            int idx = (int) pos & _mask;
+            long dif = _seqs.get(idx) - (pos + 1);
+            if (dif == 0) {
+                if (_head.compareAndSet(pos, pos + 1)) {
+                    E rv = _items.get(idx);
+                    _items.lazySet(idx, null);
+                    // free for the producer one lap ahead
+                    _seqs.set(idx, pos + _mask + 1);
+                    return rv;
+                }
+            } else if (dif < 0) {
+                // not yet published
+                return null;
+            }
+            pos = _head.get();
+        }
+    }
+
+    /**
+     *  @return null if empty
+     */
+    public E peek() {
+        long pos = _head.get();
+        int idx = (int) pos & _mask;
+        if (_seqs.get(idx) != pos + 1)
+            return null;
+        return _items.get(idx);
+    }
+
+    /**
+     *  Approximate
+     */
+    public int size() {
+        long rv = _tail.get() - _head.get();
+        if (rv <= 0)
+            return 0;
+        return (int) Math.min(rv, _mask + 1);
+    }
+
+    /**
+     *  Approximate
+     */
+    @Override
+    public boolean isEmpty() {
+        return _tail.get() <= _head.get();
+    }
+
+    public int capacity() {
+        return _mask + 1;
+    }
+
+    /**
+     *  Overridden as iteration is not supported
+     */
+    @Override
+    public String toString() {
+        return "LogRingBuffer " + size() + '/' + capacity();
+    }
+
+    /**
+     *  @throws UnsupportedOperationException always
+     */
+    public Iterator<E> iterator() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -10,6 +10,7 @@ package net.i2p.util;
  */
 
 import java.util.Queue;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Log writer thread that pulls log records from the LogManager and writes them to
@@ -31,6 +32,15 @@ abstract class LogWriter implements Runnable {
     private LogRecord _last;
     // ms
     private volatile long _flushInterval = FLUSH_INTERVAL;
+    /** the writer thread, for wakeup() */
+    private volatile Thread _thread;
+    /** true while parked waiting for records */
+    private volatile boolean _waiting;
+    /** count of completed flushRecords() passes, locking: _flushLock */
+    private long _flushCount;
+    private final Object _flushLock = new Object();
+    /** LogManager.getDroppedRecords() when last reported */
+    private long _lastDropped;
 
     public LogWriter(LogManager manager) {
         _manager = manager;
@@ -57,6 +67,52 @@ abstract class LogWriter implements Runnable {
         _write = false;
     }
 
+    /**
+     *  Wake up the writer thread if it is waiting for the flush interval.
+     *  Cheap if it isn't waiting. Does not lock.
+     *
+     *  @since 0.9.27 replaces synchronizing on the writer and calling notifyAll()
+     */
+    public void wakeup() {
+        if (_waiting) {
+            Thread t = _thread;
+            if (t != null)
+                LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     *  Wake up the writer and wait until it has written all the records
+     *  queued before this call, or the timeout expires.
+     *
+     *  @param timeout ms
+     *  @since 0.9.27
+     */
+    public void waitForFlush(long timeout) {
+        long end = System.currentTimeMillis() + timeout;
+        Queue<LogRecord> records = _manager.getQueue();
+        synchronized (_flushLock) {
+            // a pass in progress may have started before this call, so wait for the one after
+            long target = _flushCount + 2;
+            while (_flushCount < target) {
+                // idle with nothing queued, everything is written
+                if (_waiting && records.isEmpty())
+                    break;
+                Thread t = _thread;
+                if (t != null)
+                    LockSupport.unpark(t);
+                long remaining = end - System.currentTimeMillis();
+                if (remaining <= 0)
+                    break;
+                try {
+                    _flushLock.wait(Math.min(remaining, 10));
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+    }
+
     /**
      *  @param interval ms
      *  @since 0.9.18
@@ -66,6 +122,7 @@ abstract class LogWriter implements Runnable {
     }
 
     public void run() {
+        _thread = Thread.currentThread();
         _write = true;
         // don't bother on Android
         final boolean shouldReadConfig = !SystemVersion.isAndroid();
@@ -94,7 +151,11 @@ abstract class LogWriter implements Runnable {
                     _last = null;
                 LogRecord rec;
                 int dupCount = 0;
+                int count = 0;
                 while ((rec = records.poll()) != null) {
+                    // let any blocked loggers continue
+                    if ((++count & 63) == 0)
+                        _manager.notFull();
                     if (_manager.shouldDropDuplicates() && rec.equals(_last)) {
                         dupCount++;
                     } else {
@@ -109,22 +170,42 @@ abstract class LogWriter implements Runnable {
                 if (dupCount > 0) {
                     writeDupMessage(dupCount, _last);
                 }
+                _manager.notFull();
+                writeDropMessage();
                 flushWriter();
             }
         } catch (Throwable t) {
             t.printStackTrace();
         } finally {
+            synchronized (_flushLock) {
+                _flushCount++;
+                _flushLock.notifyAll();
+            }
             if (shouldWait) {
-                try { 
-                    synchronized (this) {
-                        this.wait(_flushInterval); 
-                    }
-                } catch (InterruptedException ie) { // nop
-                }
+                _waiting = true;
+                // check again after setting _waiting, so we don't miss a wakeup()
+                Queue<LogRecord> records = _manager.getQueue();
+                if (_write && (records == null || records.isEmpty()))
+                    LockSupport.parkNanos(this, _flushInterval * 1000 * 1000);
+                _waiting = false;
             }
         }
     }
 
+    /**
+     *  Log a warning if records were dropped since the last call
+     *  @since 0.9.27
+     */
+    private void writeDropMessage() {
+        long dropped = _manager.getDroppedRecords();
+        if (dropped > _lastDropped) {
+            LogRecord rec = new LogRecord(LogManager.class, null, Thread.currentThread().getName(), Log.WARN,
+                                          (dropped - _lastDropped) + " log messages dropped, buffer full", null);
+            _lastDropped = dropped;
+            writeRecord(rec);
+        }
+    }
+
     /**
      *  Write a msg with the date stamp of the last duplicate
      *  @since 0.9.21
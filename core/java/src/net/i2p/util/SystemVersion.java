@@ -216,6 +216,16 @@ public abstract class SystemVersion {
         return maxMemory;
     }
 
+    /**
+     *  Runtime.getRuntime().availableProcessors() but check for
+     *  bogus values
+     *  @return at least 1
+     *  @since 0.9.27
+     */
+    public static int getCores() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
     /**
      *  The system's time zone, which is probably different from the
      *  JVM time zone, because Router changes the JVM default to GMT.
@@ -0,0 +1,132 @@
+package net.i2p.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ *  A ServerSocket over a Unix domain ServerSocketChannel.
+ *  Accepted sockets are UnixSockets.
+ *
+ *  The socket file is created on construction, replacing any stale one,
+ *  is readable and writable by the owner only, and is deleted on close.
+ *  Java can't set the umask, so the socket is bound inside a new
+ *  private (700) directory, its permissions are set, and only then is it
+ *  moved into place; nobody else can connect in between.
+ *
+ *  Requires Java 16 or higher, check UnixSocket.isSupported() before use.
+ *
+ *  @since 0.9.27
+ */
+public class UnixServerSocket extends ServerSocket {
+    private final ServerSocketChannel _chan;
+    private final File _file;
+
+    /**
+     *  @param path the socket file, must be absolute
+     *  @throws IOException if the path is relative, or on bind failure
+     */
+    public UnixServerSocket(String path) throws IOException {
+        _file = new File(path);
+        if (!_file.isAbsolute())
+            throw new IOException("Unix socket path must be absolute: " + path);
+        File dir = new SecureDirectory(_file.getParentFile(), '.' + _file.getName() + ".tmp");
+        File tmp = new File(dir, _file.getName());
+        // stale from a previous run
+        tmp.delete();
+        dir.delete();
+        if (!dir.mkdir())
+            throw new IOException("Cannot create private directory " + dir);
+        ServerSocketChannel chan = null;
+        try {
+            chan = UnixSocket.bind(tmp.getPath());
+            SecureFileOutputStream.setPerms(tmp);
+            tmp.setExecutable(false, false);
+            _file.delete();
+            if (!tmp.renameTo(_file))
+                throw new IOException("Cannot move " + tmp + " to " + _file);
+        } catch (IOException ioe) {
+            if (chan != null)
+                try { chan.close(); } catch (IOException e) {}
+            throw ioe;
+        } finally {
+            tmp.delete();
+            dir.delete();
+        }
+        _chan = chan;
+    }
+
+    @Override
+    public Socket accept() throws IOException {
+        SocketChannel chan = _chan.accept();
+        return new UnixSocket(chan);
+    }
+
+    @Override
+    public ServerSocketChannel getChannel() {
+        return _chan;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _chan.close();
+        _file.delete();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return !_chan.isOpen();
+    }
+
+    @Override
+    public boolean isBound() {
+        return true;
+    }
+
+    /** @return null */
+    @Override
+    public InetAddress getInetAddress() {
+        return null;
+    }
+
+    /** @return -1 */
+    @Override
+    public int getLocalPort() {
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return "Unix server socket on " + _file;
+    }
+
+    // ignored stuff
+
+    /** warning - unsupported */
+    @Override
+    public void setSoTimeout(int timeout) {}
+
+    @Override
+    public int getSoTimeout () {
+        return 0;
+    }
+
+    // everything below here unsupported
+    /** @deprecated unsupported */
+    @Deprecated
+    @Override
+    public void bind(SocketAddress endpoint) {
+        throw new IllegalArgumentException("unsupported");
+    }
+    /** @deprecated unsupported */
+    @Deprecated
+    @Override
+    public void bind(SocketAddress endpoint, int backlog) {
+        throw new IllegalArgumentException("unsupported");
+    }
+}
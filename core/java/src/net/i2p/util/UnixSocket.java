@@ -0,0 +1,267 @@
+package net.i2p.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ *  A Socket over a Unix domain SocketChannel, for local connections
+ *  that avoid the TCP loopback stack.
+ *  Can connect to a UnixServerSocket or any other listener on the same path.
+ *
+ *  Requires Java 16 or higher, accessed via reflection,
+ *  so this class may be loaded on any version.
+ *  Check isSupported() before use.
+ *
+ *  Only the streams, close(), and the status methods are supported.
+ *  Options such as keepalive and timeouts are ignored.
+ *
+ *  @since 0.9.27
+ */
+public class UnixSocket extends Socket {
+    private final SocketChannel _chan;
+    private final InputStream _is;
+    private final OutputStream _os;
+
+    /** StandardProtocolFamily.UNIX, Object so we can load on Java 6 */
+    private static final Object UNIX;
+    private static final Method OPEN_SOCKET;
+    private static final Method OPEN_SERVER;
+    private static final Method ADDRESS_OF;
+
+    static {
+        Object unix = null;
+        Method os = null;
+        Method oss = null;
+        Method of = null;
+        try {
+            Class<?> pf = Class.forName("java.net.ProtocolFamily");
+            unix = Class.forName("java.net.StandardProtocolFamily").getField("UNIX").get(null);
+            os = SocketChannel.class.getMethod("open", pf);
+            oss = ServerSocketChannel.class.getMethod("open", pf);
+            of = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+        } catch (IllegalAccessException iae) {
+            unix = null;
+        } catch (ClassNotFoundException cnfe) {
+            unix = null;
+        } catch (NoSuchFieldException nsfe) {
+            unix = null;
+        } catch (NoSuchMethodException nsme) {
+            unix = null;
+        }
+        UNIX = unix;
+        OPEN_SOCKET = os;
+        OPEN_SERVER = oss;
+        ADDRESS_OF = of;
+    }
+
+    /**
+     *  client side
+     *  @param path the socket file, must be absolute
+     *  @throws IOException if the path is relative
+     */
+    public UnixSocket(String path) throws IOException {
+        this(connect(path));
+    }
+
+    /** server side */
+    UnixSocket(SocketChannel chan) {
+        _chan = chan;
+        _is = new ChannelInputStream();
+        _os = new ChannelOutputStream();
+    }
+
+    /**
+     *  @return true if this JVM supports Unix domain sockets
+     */
+    public static boolean isSupported() {
+        return UNIX != null && !SystemVersion.isWindows();
+    }
+
+    private static SocketChannel connect(String path) throws IOException {
+        SocketChannel rv = (SocketChannel) invoke(OPEN_SOCKET, null, UNIX);
+        try {
+            rv.connect(getAddress(path));
+        } catch (IOException ioe) {
+            try { rv.close(); } catch (IOException e) {}
+            throw ioe;
+        }
+        return rv;
+    }
+
+    /**
+     *  Server side, bound to path
+     *  @param path must be absolute
+     */
+    static ServerSocketChannel bind(String path) throws IOException {
+        ServerSocketChannel rv = (ServerSocketChannel) invoke(OPEN_SERVER, null, UNIX);
+        try {
+            rv.bind(getAddress(path));
+        } catch (IOException ioe) {
+            try { rv.close(); } catch (IOException e) {}
+            throw ioe;
+        }
+        return rv;
+    }
+
+    /**
+     *  A relative path would be resolved against a different
+     *  working directory by the router and by each client, so it is not allowed.
+     */
+    private static SocketAddress getAddress(String path) throws IOException {
+        File f = new File(path);
+        if (!f.isAbsolute())
+            throw new IOException("Unix socket path must be absolute: " + path);
+        return (SocketAddress) invoke(ADDRESS_OF, null, f.getPath());
+    }
+
+    private static Object invoke(Method m, Object o, Object arg) throws IOException {
+        if (m == null)
+            throw new IOException("Unix domain sockets unsupported");
+        try {
+            return m.invoke(o, arg);
+        } catch (InvocationTargetException ite) {
+            Throwable t = ite.getCause();
+            if (t instanceof IOException)
+                throw (IOException) t;
+            IOException ioe = new IOException("Unix domain socket failure");
+            ioe.initCause(t);
+            throw ioe;
+        } catch (IllegalAccessException iae) {
+            IOException ioe = new IOException("Unix domain socket failure");
+            ioe.initCause(iae);
+            throw ioe;
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return _is;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return _os;
+    }
+
+    @Override
+    public SocketChannel getChannel() {
+        return _chan;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _chan.close();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return !_chan.isOpen();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return _chan.isConnected();
+    }
+
+    @Override
+    public boolean isBound() {
+        return true;
+    }
+
+    @Override
+    public void shutdownInput() throws IOException {
+        _chan.shutdownInput();
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        _chan.shutdownOutput();
+    }
+
+    /** @return null */
+    @Override
+    public InetAddress getInetAddress() {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "Unix socket";
+    }
+
+    // ignored stuff
+
+    /** warning - unsupported */
+    @Override
+    public void setSoTimeout(int timeout) {}
+
+    @Override
+    public int getSoTimeout () {
+        return 0;
+    }
+
+    /** warning - unsupported */
+    @Override
+    public void setKeepAlive(boolean on) {}
+
+    /** warning - unsupported */
+    @Override
+    public void setTcpNoDelay(boolean on) {}
+
+    /**
+     *  Channels.newInputStream() and newOutputStream() lock the blocking channel
+     *  for the duration of a read, so a pending read would block all writes.
+     *  Use the channel directly instead.
+     */
+    private class ChannelInputStream extends InputStream {
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int rv;
+            do {
+                rv = read(b, 0, 1);
+            } while (rv == 0);
+            return rv < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            return _chan.read(ByteBuffer.wrap(b, off, len));
+        }
+
+        @Override
+        public void close() throws IOException {
+            _chan.close();
+        }
+    }
+
+    private class ChannelOutputStream extends OutputStream {
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+            while (buf.hasRemaining()) {
+                _chan.write(buf);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            _chan.close();
+        }
+    }
+}
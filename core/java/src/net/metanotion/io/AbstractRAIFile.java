@@ -0,0 +1,228 @@
+/*
+Copyright (c) 2006, Matthew Estes
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+	* Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+	* Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+	* Neither the name of Metanotion Software nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package net.metanotion.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * I2P
+ * The DataInput and DataOutput methods, implemented with
+ * read(byte[], int, int) and write(byte[], int, int) only,
+ * for RandomAccessInterface implementations that are not
+ * backed directly by a RandomAccessFile.
+ *
+ * Encodings are the same as RAIFile.
+ * Not thread-safe.
+ *
+ * @since 0.9.27
+ */
+public abstract class AbstractRAIFile implements RandomAccessInterface, DataInput, DataOutput {
+	private final byte[] scratch = new byte[8];
+
+	public abstract int read(byte[] b, int off, int len) throws IOException;
+	public abstract void write(byte[] b, int off, int len) throws IOException;
+
+	public int read() throws IOException {
+		int rv = read(scratch, 0, 1);
+		return rv < 0 ? -1 : scratch[0] & 0xff;
+	}
+
+	public int read(byte[] b) throws IOException { return read(b, 0, b.length); }
+
+	// DataInput Methods
+	public void readFully(byte[] b) throws IOException { readFully(b, 0, b.length); }
+
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int rv = read(b, off, len);
+			if (rv < 0)
+				throw new EOFException();
+			off += rv;
+			len -= rv;
+		}
+	}
+
+	public boolean readBoolean() throws IOException { return readUnsignedByte() != 0; }
+	public byte readByte() throws IOException { return (byte) readUnsignedByte(); }
+	public char readChar() throws IOException { return (char) readUnsignedShort(); }
+	public double readDouble() throws IOException { return Double.longBitsToDouble(readLong()); }
+	public float readFloat() throws IOException { return Float.intBitsToFloat(readInt()); }
+	public short readShort() throws IOException { return (short) readUnsignedShort(); }
+
+	public int readUnsignedByte() throws IOException {
+		int rv = read();
+		if (rv < 0)
+			throw new EOFException();
+		return rv;
+	}
+
+	public int readUnsignedShort() throws IOException {
+		readFully(scratch, 0, 2);
+		return ((scratch[0] & 0xff) << 8) | (scratch[1] & 0xff);
+	}
+
+	public int readInt() throws IOException {
+		readFully(scratch, 0, 4);
+		return ((scratch[0] & 0xff) << 24) | ((scratch[1] & 0xff) << 16) |
+		       ((scratch[2] & 0xff) << 8) | (scratch[3] & 0xff);
+	}
+
+	public long readLong() throws IOException {
+		readFully(scratch, 0, 8);
+		long rv = 0;
+		for (int i = 0; i < 8; i++) {
+			rv = (rv << 8) | (scratch[i] & 0xff);
+		}
+		return rv;
+	}
+
+	/**
+	 *  @throws IOException if the read value is negative
+	 */
+	public int readUnsignedInt() throws IOException {
+		int rv = readInt();
+		if (rv < 0)
+			throw new IOException("Negative value for unsigned int: " + rv);
+		return rv;
+	}
+
+	/**
+	 *  As in RandomAccessFile, bytes are converted to chars without a charset.
+	 */
+	public String readLine() throws IOException {
+		StringBuilder buf = new StringBuilder();
+		int c = -1;
+		boolean eol = false;
+		while (!eol) {
+			switch (c = read()) {
+			  case -1:
+			  case '\n':
+				eol = true;
+				break;
+			  case '\r':
+				eol = true;
+				long cur = getFilePointer();
+				if (read() != '\n')
+					seek(cur);
+				break;
+			  default:
+				buf.append((char) c);
+				break;
+			}
+		}
+		if (c == -1 && buf.length() == 0)
+			return null;
+		return buf.toString();
+	}
+
+	/**
+	 *  4 byte length, as in RAIFile
+	 */
+	public String readUTF() throws IOException {
+		int len = readInt();
+		if((len < 0) || (len >= 16777216)) { throw new IOException("Bad Length Encoding"); }
+		byte[] bytes = new byte[len];
+		readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	public int skipBytes(int n) throws IOException {
+		if (n <= 0)
+			return 0;
+		long pos = getFilePointer();
+		long len = length();
+		long newpos = Math.min(pos + n, len);
+		seek(newpos);
+		return (int) (newpos - pos);
+	}
+
+	// DataOutput Methods
+	public void write(int b) throws IOException {
+		scratch[0] = (byte) b;
+		write(scratch, 0, 1);
+	}
+
+	public void write(byte[] b) throws IOException { write(b, 0, b.length); }
+	public void writeBoolean(boolean v) throws IOException { write(v ? 1 : 0); }
+	public void writeByte(int v) throws IOException { write(v); }
+	public void writeChar(int v) throws IOException { writeShort(v); }
+	public void writeFloat(float v) throws IOException { writeInt(Float.floatToIntBits(v)); }
+	public void writeDouble(double v) throws IOException { writeLong(Double.doubleToLongBits(v)); }
+
+	public void writeShort(int v) throws IOException {
+		scratch[0] = (byte) (v >>> 8);
+		scratch[1] = (byte) v;
+		write(scratch, 0, 2);
+	}
+
+	public void writeInt(int v) throws IOException {
+		scratch[0] = (byte) (v >>> 24);
+		scratch[1] = (byte) (v >>> 16);
+		scratch[2] = (byte) (v >>> 8);
+		scratch[3] = (byte) v;
+		write(scratch, 0, 4);
+	}
+
+	public void writeLong(long v) throws IOException {
+		for (int i = 7; i >= 0; i--) {
+			scratch[i] = (byte) v;
+			v >>>= 8;
+		}
+		write(scratch, 0, 8);
+	}
+
+	public void writeBytes(String s) throws IOException {
+		int len = s.length();
+		byte[] b = new byte[len];
+		for (int i = 0; i < len; i++) {
+			b[i] = (byte) s.charAt(i);
+		}
+		write(b, 0, len);
+	}
+
+	public void writeChars(String s) throws IOException {
+		int len = s.length();
+		for (int i = 0; i < len; i++) {
+			writeChar(s.charAt(i));
+		}
+	}
+
+	/**
+	 *  4 byte length, as in RAIFile
+	 */
+	public void writeUTF(String str) throws IOException {
+		byte[] string = str.getBytes("UTF-8");
+		if(string.length >= 16777216) { throw new IOException("String to long for encoding type"); }
+		writeInt(string.length);
+		write(string);
+	}
+}
@@ -0,0 +1,334 @@
+/*
+Copyright (c) 2006, Matthew Estes
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+	* Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+	* Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+	* Neither the name of Metanotion Software nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package net.metanotion.io;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * I2P
+ * A RandomAccessInterface with an LRU cache of fixed-size pages
+ * in front of a RandomAccessFile.
+ *
+ * The many small field reads and writes done by BlockFile and the skiplists
+ * are served from memory; the file is only read a page at a time on a miss.
+ * Writes are cached (write-back) and written to the file on eviction,
+ * flush(), or close(). Callers must flush() after each complete update
+ * to keep the file consistent on disk.
+ *
+ * For a large update spanning many flush() intervals, setDeferWrites(true)
+ * keeps evicted dirty pages in memory instead of writing them early,
+ * so nothing reaches the file until the next flush().
+ *
+ * Not thread-safe, same as RAIFile.
+ *
+ * @since 0.9.27
+ */
+public class CachedRAIFile extends AbstractRAIFile {
+	private final File f;
+	private final RandomAccessFile delegate;
+	private final boolean w;
+	private final int pageSize;
+	private final int maxPages;
+	private final Map<Long, Page> cache;
+	/** dirty pages evicted while deferring writes, not in cache */
+	private final Map<Long, Page> held;
+	private boolean defer;
+	private long pos;
+	private long len;
+	private long hits, misses;
+
+	/** 4 MB */
+	public static final int DEFAULT_PAGES = 4096;
+
+	/**
+	 *  @param read must be true
+	 *  @param pageSize generally BlockFile.PAGESIZE
+	 *  @param maxPages cache size in pages
+	 */
+	public CachedRAIFile(File file, boolean read, boolean write, int pageSize, int maxPages) throws FileNotFoundException {
+		this.f = file;
+		this.w = write;
+		this.delegate = new RandomAccessFile(file, write ? "rw" : "r");
+		this.pageSize = pageSize;
+		this.maxPages = Math.max(maxPages, 4);
+		this.cache = new LinkedHashMap<Long, Page>(this.maxPages, 0.75f, true);
+		this.held = new HashMap<Long, Page>();
+		try {
+			this.len = delegate.length();
+		} catch (IOException ioe) {
+			try { delegate.close(); } catch (IOException e) {}
+			throw new FileNotFoundException(ioe.toString());
+		}
+	}
+
+	private static class Page {
+		public final byte[] data;
+		public boolean dirty;
+
+		public Page(int size) { data = new byte[size]; }
+	}
+
+	/**
+	 *  @param pg page number, starting at 0
+	 */
+	private Page getPage(long pg) throws IOException {
+		Long key = Long.valueOf(pg);
+		Page p = cache.get(key);
+		if (p != null) {
+			hits++;
+			return p;
+		}
+		if (!held.isEmpty()) {
+			p = held.get(key);
+			if (p != null) {
+				hits++;
+				return p;
+			}
+		}
+		misses++;
+		if (cache.size() >= maxPages) {
+			// evict the eldest and reuse its buffer
+			Iterator<Map.Entry<Long, Page>> iter = cache.entrySet().iterator();
+			Map.Entry<Long, Page> eldest = iter.next();
+			p = eldest.getValue();
+			iter.remove();
+			if (p.dirty) {
+				if (defer) {
+					// keep it until flush()
+					held.put(eldest.getKey(), p);
+					p = new Page(pageSize);
+				} else {
+					writePage(eldest.getKey().longValue(), p);
+				}
+			}
+		} else {
+			p = new Page(pageSize);
+		}
+		long start = pg * pageSize;
+		int toRead = (int) Math.min(pageSize, Math.max(0, len - start));
+		if (toRead > 0) {
+			delegate.seek(start);
+			delegate.readFully(p.data, 0, toRead);
+		}
+		if (toRead < pageSize)
+			Arrays.fill(p.data, toRead, pageSize, (byte) 0);
+		cache.put(key, p);
+		return p;
+	}
+
+	private void writePage(long pg, Page p) throws IOException {
+		long start = pg * pageSize;
+		int toWrite = (int) Math.min(pageSize, len - start);
+		if (toWrite > 0) {
+			delegate.seek(start);
+			delegate.write(p.data, 0, toWrite);
+		}
+		p.dirty = false;
+	}
+
+	public int read(byte[] b, int off, int length) throws IOException {
+		if (length == 0)
+			return 0;
+		if (pos >= len)
+			return -1;
+		int rv = (int) Math.min(length, len - pos);
+		int done = 0;
+		while (done < rv) {
+			long pg = pos / pageSize;
+			int poff = (int) (pos % pageSize);
+			int n = Math.min(rv - done, pageSize - poff);
+			System.arraycopy(getPage(pg).data, poff, b, off + done, n);
+			done += n;
+			pos += n;
+		}
+		return rv;
+	}
+
+	/**
+	 *  Extends the file if necessary, as in RandomAccessFile.
+	 */
+	public void write(byte[] b, int off, int length) throws IOException {
+		if (!w)
+			throw new IOException("Read only");
+		long end = pos + length;
+		if (end > len)
+			len = end;
+		int done = 0;
+		while (done < length) {
+			long pg = pos / pageSize;
+			int poff = (int) (pos % pageSize);
+			int n = Math.min(length - done, pageSize - poff);
+			Page p = getPage(pg);
+			System.arraycopy(b, off + done, p.data, poff, n);
+			p.dirty = true;
+			done += n;
+			pos += n;
+		}
+	}
+
+	public long getFilePointer() { return pos; }
+	public long length() { return len; }
+
+	/**
+	 *  While true, dirty pages are never written to the file before the next
+	 *  flush(), sync(), setLength() shrink, or close(); the cache grows
+	 *  past its maximum size to hold them instead.
+	 *  Setting false does not flush.
+	 *
+	 *  @since 0.9.27
+	 */
+	public void setDeferWrites(boolean yes) {
+		defer = yes;
+	}
+
+	/**
+	 *  @return number of dirty pages held beyond the cache size
+	 *  @since 0.9.27
+	 */
+	public int getHeldPages() {
+		return held.size();
+	}
+
+	public void seek(long pos) throws IOException {
+		if (pos < 0)
+			throw new IOException("Negative seek " + pos);
+		this.pos = pos;
+	}
+
+	/**
+	 *  Writes back dirty pages before shrinking the file.
+	 *  Cached pages past the end are always zero-filled,
+	 *  so growing does not require a flush.
+	 */
+	public void setLength(long newLength) throws IOException {
+		if (newLength >= len) {
+			delegate.setLength(newLength);
+			len = newLength;
+			return;
+		}
+		flush();
+		delegate.setLength(newLength);
+		// flush() emptied held
+		for (Iterator<Map.Entry<Long, Page>> iter = cache.entrySet().iterator(); iter.hasNext(); ) {
+			Map.Entry<Long, Page> e = iter.next();
+			long start = e.getKey().longValue() * pageSize;
+			if (start >= newLength) {
+				iter.remove();
+			} else if (start + pageSize > newLength) {
+				Arrays.fill(e.getValue().data, (int) (newLength - start), pageSize, (byte) 0);
+			}
+		}
+		len = newLength;
+		if (pos > len)
+			pos = len;
+	}
+
+	/**
+	 *  Write all dirty pages to the file, in file order,
+	 *  including those held by setDeferWrites().
+	 *  Does not sync to disk.
+	 */
+	public void flush() throws IOException {
+		long[] dirty = null;
+		int count = 0;
+		for (Map.Entry<Long, Page> e : cache.entrySet()) {
+			if (e.getValue().dirty) {
+				if (dirty == null)
+					dirty = new long[cache.size() + held.size()];
+				dirty[count++] = e.getKey().longValue();
+			}
+		}
+		for (Long pg : held.keySet()) {
+			if (dirty == null)
+				dirty = new long[held.size()];
+			dirty[count++] = pg.longValue();
+		}
+		if (count == 0)
+			return;
+		Arrays.sort(dirty, 0, count);
+		for (int i = 0; i < count; i++) {
+			Long key = Long.valueOf(dirty[i]);
+			Page p = held.get(key);
+			if (p == null) {
+				// get() reorders the access-ordered map, that's fine
+				p = cache.get(key);
+			}
+			writePage(dirty[i], p);
+		}
+		// now clean, let them go
+		held.clear();
+	}
+
+	/**
+	 *  Flush, then force all changes to disk.
+	 */
+	public void sync() throws IOException {
+		flush();
+		delegate.getFD().sync();
+	}
+
+	public boolean canWrite() {
+		return this.w;
+	}
+
+	/**
+	 *  Flushes and closes the file.
+	 */
+	public void close() throws IOException {
+		try {
+			if (w)
+				flush();
+		} finally {
+			cache.clear();
+			held.clear();
+			delegate.close();
+		}
+	}
+
+	/**
+	 *  @return hit ratio since opened, 0-1
+	 */
+	public float getHitRatio() {
+		long total = hits + misses;
+		return total > 0 ? hits / (float) total : 0;
+	}
+
+	@Override
+	public String toString() {
+		return f.getAbsolutePath();
+	}
+}
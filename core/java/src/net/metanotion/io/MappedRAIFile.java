@@ -0,0 +1,185 @@
+/*
+Copyright (c) 2006, Matthew Estes
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+	* Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+	* Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+	* Neither the name of Metanotion Software nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package net.metanotion.io;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * I2P
+ * A RandomAccessInterface that reads through memory-mapped regions of the file.
+ *
+ * Reads are served from read-only mappings of up to REGION_SIZE bytes each,
+ * mapped on first use, so lookups are memory copies with no system calls.
+ * Writes go through the FileChannel at an absolute position, which the
+ * OS page cache makes visible through the mappings.
+ * A region that was mapped while the file was shorter is remapped
+ * when a read goes past its end.
+ *
+ * The file may only grow; BlockFile never shrinks it.
+ * Mappings are released by the garbage collector after close().
+ *
+ * Not thread-safe, same as RAIFile.
+ *
+ * @since 0.9.27
+ */
+public class MappedRAIFile extends AbstractRAIFile {
+	private final File f;
+	private final RandomAccessFile raf;
+	private final FileChannel chan;
+	private final boolean w;
+	private MappedByteBuffer[] regions;
+	private long pos;
+	private long len;
+
+	private static final int REGION_SHIFT = 20;
+	/** 1 MB */
+	private static final int REGION_SIZE = 1 << REGION_SHIFT;
+
+	/**
+	 *  @param read must be true
+	 */
+	public MappedRAIFile(File file, boolean read, boolean write) throws FileNotFoundException {
+		this.f = file;
+		this.w = write;
+		this.raf = new RandomAccessFile(file, write ? "rw" : "r");
+		this.chan = raf.getChannel();
+		try {
+			this.len = chan.size();
+		} catch (IOException ioe) {
+			try { raf.close(); } catch (IOException e) {}
+			throw new FileNotFoundException(ioe.toString());
+		}
+		this.regions = new MappedByteBuffer[regionCount(len)];
+	}
+
+	private static int regionCount(long length) {
+		return (int) ((length + REGION_SIZE - 1) >> REGION_SHIFT);
+	}
+
+	/**
+	 *  @param r region number
+	 *  @param need minimum offset into the region that must be mapped, exclusive
+	 */
+	private ByteBuffer getRegion(int r, int need) throws IOException {
+		if (r >= regions.length) {
+			MappedByteBuffer[] nr = new MappedByteBuffer[regionCount(len)];
+			System.arraycopy(regions, 0, nr, 0, regions.length);
+			regions = nr;
+		}
+		MappedByteBuffer rv = regions[r];
+		if (rv == null || rv.capacity() < need) {
+			long start = ((long) r) << REGION_SHIFT;
+			int size = (int) Math.min(REGION_SIZE, len - start);
+			rv = chan.map(FileChannel.MapMode.READ_ONLY, start, size);
+			regions[r] = rv;
+		}
+		return rv;
+	}
+
+	public int read(byte[] b, int off, int length) throws IOException {
+		if (length == 0)
+			return 0;
+		if (pos >= len)
+			return -1;
+		int rv = (int) Math.min(length, len - pos);
+		int done = 0;
+		while (done < rv) {
+			int r = (int) (pos >> REGION_SHIFT);
+			int roff = (int) (pos & (REGION_SIZE - 1));
+			int n = Math.min(rv - done, REGION_SIZE - roff);
+			ByteBuffer buf = getRegion(r, roff + n).duplicate();
+			buf.position(roff);
+			buf.get(b, off + done, n);
+			done += n;
+			pos += n;
+		}
+		return rv;
+	}
+
+	/**
+	 *  Extends the file if necessary, as in RandomAccessFile.
+	 */
+	public void write(byte[] b, int off, int length) throws IOException {
+		if (!w)
+			throw new IOException("Read only");
+		ByteBuffer buf = ByteBuffer.wrap(b, off, length);
+		while (buf.hasRemaining()) {
+			pos += chan.write(buf, pos);
+		}
+		if (pos > len)
+			len = pos;
+	}
+
+	public long getFilePointer() { return pos; }
+	public long length() { return len; }
+
+	public void seek(long pos) throws IOException {
+		if (pos < 0)
+			throw new IOException("Negative seek " + pos);
+		this.pos = pos;
+	}
+
+	/**
+	 *  Growth only.
+	 *  @throws IOException if newLength is less than the current length
+	 */
+	public void setLength(long newLength) throws IOException {
+		if (newLength < len)
+			throw new IOException("Cannot shrink a mapped file");
+		raf.setLength(newLength);
+		len = newLength;
+	}
+
+	/**
+	 *  Force all changes to disk.
+	 */
+	public void sync() throws IOException {
+		chan.force(false);
+	}
+
+	public boolean canWrite() {
+		return this.w;
+	}
+
+	public void close() throws IOException {
+		regions = new MappedByteBuffer[0];
+		raf.close();
+	}
+
+	@Override
+	public String toString() {
+		return f.getAbsolutePath();
+	}
+}
@@ -10,6 +10,8 @@ package net.i2p.client.datagram;
  
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import junit.framework.TestCase;
 import net.i2p.client.I2PClient;
@@ -97,4 +99,45 @@ public class DatagramTest extends TestCase {
         }
         assertTrue(error);
     }
+
+    public void testBatch() throws Exception{
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        I2PClient client = I2PClientFactory.createClient();
+        Destination d = client.createDestination(out);
+        I2PSession session = client.createSession(new ByteArrayInputStream(out.toByteArray()), null);
+
+        List<byte[]> payloads = new ArrayList<byte[]>();
+        for (int i = 0; i < 50; i++) {
+            payloads.add(DataHelper.getASCII("What's the deal with " + i + "?"));
+        }
+        // too big
+        payloads.add(new byte[40*1024]);
+        I2PDatagramMaker dm = new I2PDatagramMaker(session);
+        List<byte[]> dgs = dm.makeI2PDatagrams(payloads);
+        assertEquals(payloads.size(), dgs.size());
+        assertNull(dgs.get(50));
+
+        dgs = new ArrayList<byte[]>(dgs.subList(0, 50));
+        // same as the single version
+        I2PDatagramDissector dd = new I2PDatagramDissector();
+        dd.loadI2PDatagram(dgs.get(7));
+        assertTrue(DataHelper.eq(payloads.get(7), dd.getPayload()));
+        // corrupt one
+        byte[] bad = dgs.get(9).clone();
+        bad[bad.length - 1] ^= 0x55;
+        dgs.set(9, bad);
+
+        Destination[] senders = new Destination[dgs.size()];
+        byte[][] rcvd = new byte[dgs.size()][];
+        assertEquals(49, I2PDatagramDissector.verifyI2PDatagrams(dgs, senders, rcvd));
+        for (int i = 0; i < dgs.size(); i++) {
+            if (i == 9) {
+                assertNull(senders[i]);
+                assertNull(rcvd[i]);
+            } else {
+                assertEquals(d, senders[i]);
+                assertTrue(DataHelper.eq(payloads.get(i), rcvd[i]));
+            }
+        }
+    }
 }
@@ -0,0 +1,101 @@
+package net.i2p.client.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+
+import net.i2p.data.Payload;
+import net.i2p.data.i2cp.I2CPMessage;
+import net.i2p.data.i2cp.I2CPMessageReader;
+import net.i2p.data.i2cp.MessagePayloadMessage;
+import net.i2p.util.UnixServerSocket;
+import net.i2p.util.UnixSocket;
+
+/**
+ *  I2CP message throughput over TCP loopback and a Unix domain socket,
+ *  flushing after every message (as the router does) and in batches.
+ *
+ *  Usage: I2CPTransportBench [messages [payload size]]
+ *
+ *  @since 0.9.27
+ */
+public class I2CPTransportBench {
+
+    public static void main(String args[]) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        // warm up
+        runTCP(count / 10, size, 1);
+        for (int batch = 1; batch <= 16; batch *= 4) {
+            runTCP(count, size, batch);
+            if (UnixSocket.isSupported())
+                runUnix(count, size, batch);
+        }
+        if (!UnixSocket.isSupported())
+            System.out.println("Unix domain sockets not supported");
+    }
+
+    private static void runTCP(int count, int size, int batch) throws Exception {
+        ServerSocket ss = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+        Socket c = new Socket("127.0.0.1", ss.getLocalPort());
+        c.setTcpNoDelay(true);
+        run("TCP ", ss, c, count, size, batch);
+    }
+
+    private static void runUnix(int count, int size, int batch) throws Exception {
+        File f = File.createTempFile("i2cp", ".sock");
+        ServerSocket ss = new UnixServerSocket(f.getPath());
+        Socket c = new UnixSocket(f.getPath());
+        run("Unix", ss, c, count, size, batch);
+    }
+
+    private static void run(String name, ServerSocket ss, Socket c,
+                            final int count, int size, int batch) throws Exception {
+        Socket s = ss.accept();
+        final CountDownLatch done = new CountDownLatch(1);
+        I2CPMessageReader reader = new I2CPMessageReader(new BufferedInputStream(s.getInputStream(), 32*1024),
+                                                         new I2CPMessageReader.I2CPMessageEventListener() {
+            private int rcvd;
+            public void messageReceived(I2CPMessageReader r, I2CPMessage message) {
+                if (++rcvd >= count)
+                    done.countDown();
+            }
+            public void readError(I2CPMessageReader r, Exception error) {
+                error.printStackTrace();
+                done.countDown();
+            }
+            public void disconnected(I2CPMessageReader r) {
+                done.countDown();
+            }
+        });
+        reader.startReading();
+
+        MessagePayloadMessage msg = new MessagePayloadMessage();
+        msg.setSessionId(1);
+        msg.setMessageId(1);
+        Payload p = new Payload();
+        p.setEncryptedData(new byte[size]);
+        msg.setPayload(p);
+        OutputStream out = new BufferedOutputStream(c.getOutputStream());
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            msg.writeMessage(out);
+            if ((i % batch) == batch - 1)
+                out.flush();
+        }
+        out.flush();
+        done.await();
+        long time = System.currentTimeMillis() - start;
+        reader.stopReading();
+        c.close();
+        s.close();
+        ss.close();
+        System.out.println(name + " batch " + batch + ": " + count + " msgs of " + size + " bytes in " + time + " ms, " +
+                           (time == 0 ? "NaN" : "" + (count * 1000L / time)) + " msgs/sec");
+    }
+}
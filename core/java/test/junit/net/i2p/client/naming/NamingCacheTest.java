@@ -0,0 +1,66 @@
+package net.i2p.client.naming;
+
+import junit.framework.TestCase;
+
+import net.i2p.data.Destination;
+
+
+public class NamingCacheTest extends TestCase {
+
+    public void testPositive() {
+        NamingCache cache = new NamingCache(64, 0, 0);
+        Destination d = new Destination();
+        assertNull(cache.get("foo.i2p"));
+        cache.put("foo.i2p", d);
+        assertSame(d, cache.get("foo.i2p"));
+        assertFalse(cache.isNegative("foo.i2p"));
+        assertNull(cache.get("FOO.i2p"));
+        cache.remove("foo.i2p");
+        assertNull(cache.get("foo.i2p"));
+        assertEquals(1, cache.getHits());
+    }
+
+    public void testNegative() {
+        NamingCache cache = new NamingCache(64, 0, 0);
+        assertFalse(cache.isNegative("foo.i2p"));
+        cache.putNegative("foo.i2p");
+        assertTrue(cache.isNegative("foo.i2p"));
+        assertNull(cache.get("foo.i2p"));
+        cache.put("foo.i2p", new Destination());
+        assertFalse(cache.isNegative("foo.i2p"));
+    }
+
+    public void testExpiration() throws Exception {
+        NamingCache cache = new NamingCache(64, 50, 50);
+        cache.put("foo.i2p", new Destination());
+        cache.putNegative("bar.i2p");
+        assertNotNull(cache.get("foo.i2p"));
+        assertTrue(cache.isNegative("bar.i2p"));
+        Thread.sleep(100);
+        assertNull(cache.get("foo.i2p"));
+        assertFalse(cache.isNegative("bar.i2p"));
+        assertEquals(0, cache.size());
+    }
+
+    public void testMaxSize() {
+        NamingCache cache = new NamingCache(64, 0, 0);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("host" + i + ".i2p", new Destination());
+        }
+        assertTrue(cache.size() <= 64);
+        assertNotNull(cache.get("host999.i2p"));
+    }
+
+    public void testListener() {
+        NamingCache cache = new NamingCache(64, 0, 0);
+        cache.put("foo.i2p", new Destination());
+        cache.putNegative("bar.i2p");
+        cache.entryChanged(null, "FOO.i2p", null, null);
+        assertNull(cache.get("foo.i2p"));
+        cache.entryAdded(null, "bar.i2p", new Destination(), null);
+        assertFalse(cache.isNegative("bar.i2p"));
+        cache.put("baz.i2p", new Destination());
+        cache.configurationChanged(null);
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,100 @@
+package net.i2p.crypto;
+
+import java.security.GeneralSecurityException;
+
+import net.i2p.crypto.eddsa.EdDSABatchVerifier;
+import net.i2p.crypto.eddsa.EdDSAEngine;
+import net.i2p.crypto.eddsa.EdDSAPrivateKey;
+import net.i2p.crypto.eddsa.EdDSAPublicKey;
+import net.i2p.data.SigningPrivateKey;
+import net.i2p.data.SigningPublicKey;
+import net.i2p.data.SimpleDataStructure;
+
+/**
+ *  Ed25519 sign, verify, and batch verify,
+ *  single and multithreaded, with a new key each time
+ *  or with the same few keys, as for repeated netDb stores and streaming SYNs.
+ *
+ *  @since 0.9.27
+ */
+public class EdDSABench {
+	public static void main(String args[]) throws Exception {
+		int keys = 64;
+		EdDSAPublicKey[] pubs = new EdDSAPublicKey[keys];
+		EdDSAPrivateKey[] privs = new EdDSAPrivateKey[keys];
+		for (int i = 0; i < keys; i++) {
+			SimpleDataStructure[] kp = KeyGenerator.getInstance().generateSigningKeys(SigType.EdDSA_SHA512_Ed25519);
+			pubs[i] = SigUtil.toJavaEdDSAKey((SigningPublicKey) kp[0]);
+			privs[i] = SigUtil.toJavaEdDSAKey((SigningPrivateKey) kp[1]);
+		}
+		byte[][] data = new byte[keys][];
+		byte[][] sigs = new byte[keys][];
+		EdDSAEngine engine = new EdDSAEngine();
+		int times = 2000;
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < times; i++) {
+			int k = i % keys;
+			data[k] = new byte[1024];
+			engine.initSign(privs[k]);
+			sigs[k] = engine.signOneShot(data[k]);
+		}
+		long time = System.currentTimeMillis() - start;
+		System.out.println("Sign: " + times + " in " + time + " ms, " + (time == 0 ? "NaN" : "" + (times * 1000L / time)) + " sigs/sec");
+
+		// warm up
+		runThreaded(1, pubs, data, sigs, 2000, false);
+		runThreaded(1, pubs, data, sigs, 2000, true);
+		int cpus = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; threads <= 2 * cpus; threads *= 2) {
+			runThreaded(threads, pubs, data, sigs, 10000, false);
+			runThreaded(threads, pubs, data, sigs, 10000, true);
+		}
+	}
+
+	/**
+	 *  @param batch use EdDSABatchVerifier, all keys at a time
+	 */
+	private static void runThreaded(int threads, final EdDSAPublicKey[] pubs, final byte[][] data, final byte[][] sigs,
+	                                final int times, final boolean batch) {
+		Thread[] t = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			t[i] = new Thread(new Runnable() {
+				public void run() {
+					if (batch) {
+						for (int j = 0; j < times; j += pubs.length) {
+							boolean[] ok = EdDSABatchVerifier.verify(pubs, data, sigs);
+							for (int k = 0; k < ok.length; k++) {
+								if (!ok[k])
+									throw new RuntimeException("batch did not verify");
+							}
+						}
+					} else {
+						EdDSAEngine engine = new EdDSAEngine();
+						try {
+							for (int j = 0; j < times; j++) {
+								int k = j % pubs.length;
+								engine.initVerify(pubs[k]);
+								if (!engine.verifyOneShot(data[k], sigs[k]))
+									throw new RuntimeException("did not verify");
+							}
+						} catch (GeneralSecurityException gse) {
+							throw new RuntimeException(gse);
+						}
+					}
+				}
+			});
+		}
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < threads; i++) {
+			t[i].start();
+		}
+		for (int i = 0; i < threads; i++) {
+			try { t[i].join(); } catch (InterruptedException ie) {}
+		}
+		long time = System.currentTimeMillis() - start;
+		long total = ((long) threads) * times;
+		System.out.println(threads + " threads" + (batch ? ", batched" : "") +
+		                   ": " + total + " verifies in " + time + " ms, " +
+		                   (time == 0 ? "NaN" : "" + (total * 1000 / time)) + " verifies/sec");
+	}
+}
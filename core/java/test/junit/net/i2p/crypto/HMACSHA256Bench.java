@@ -107,7 +107,40 @@ public class HMACSHA256Bench {
         after = System.currentTimeMillis();
 
         display(times, before, after, lmess.length, "10KB");
+
+        // multithreaded load, as seen by SSU packet handler threads
+        int cpus = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= 2 * cpus; threads *= 2) {
+            runThreaded(ctx, key, threads, mmess, times);
+        }
 	}
+
+    /**
+     *  @since 0.9.27
+     */
+    private static void runThreaded(final I2PAppContext ctx, final SessionKey key, int threads,
+                                    final byte[] mess, final int times) {
+        Thread[] t = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            t[i] = new Thread(new Runnable() {
+                public void run() {
+                    byte[] out = new byte[Hash.HASH_LENGTH];
+                    for (int j = 0; j < times; j++) {
+                        ctx.hmac().calculate(key, mess, 0, mess.length, out, 0);
+                    }
+                }
+            });
+        }
+        long before = System.currentTimeMillis();
+        for (int i = 0; i < threads; i++) {
+            t[i].start();
+        }
+        for (int i = 0; i < threads; i++) {
+            try { t[i].join(); } catch (InterruptedException ie) {}
+        }
+        long after = System.currentTimeMillis();
+        display(threads * times, before, after, mess.length, threads + " threads 2KB");
+    }
     
     private static void display(int times, long before, long after, int len, String name) {
         double rate = times/(((double)after-(double)before)/1000.0d);
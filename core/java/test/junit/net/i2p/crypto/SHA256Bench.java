@@ -109,6 +109,57 @@ public class SHA256Bench {
 		System.out.println("Short Message Time Average  : " + (shorttime/times) + "\ttotal: " + shorttime + "\tmin: " + minShort + "\tmax: " + maxShort + "\tBps: " + (shorttime == 0 ? "NaN" : ""+(times*smess.length)/shorttime));
 		System.out.println("Medium Message Time Average : " + (medtime/times) + "\ttotal: " + medtime + "\tmin: " + minMed + "\tmax: " + maxMed + "\tBps: " + (medtime == 0 ? "NaN" : ""+(times*mmess.length*1000)/medtime));
 		System.out.println("Long Message Time Average   : " + (longtime/times) + "\ttotal: " + longtime + "\tmin: " + minLong + "\tmax: " + maxLong + "\tBps: " + (longtime == 0 ? "NaN" : "" + (times*lmess.length*1000)/longtime));
+
+		// multithreaded load, as seen by I2NP, tunnel, and SSU threads
+		int cpus = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; threads <= 2 * cpus; threads *= 2) {
+			runThreaded(threads, 1024, 200000, false);
+			runThreaded(threads, 1024, 200000, true);
+		}
+	}
+
+	/**
+	 *  Hash a 1KB message many times on each of several threads
+	 *  @param batch use calculateHashes() 16 at a time
+	 *  @since 0.9.27
+	 */
+	private static void runThreaded(int threads, int size, final int times, final boolean batch) {
+		final byte[] mess = new byte[size];
+		Thread[] t = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			t[i] = new Thread(new Runnable() {
+				public void run() {
+					SHA256Generator sha = SHA256Generator.getInstance();
+					if (batch) {
+						byte[][] sources = new byte[16][];
+						for (int j = 0; j < sources.length; j++) {
+							sources[j] = mess;
+						}
+						byte[] out = new byte[16 * Hash.HASH_LENGTH];
+						for (int j = 0; j < times; j += sources.length) {
+							sha.calculateHashes(sources, out, 0);
+						}
+					} else {
+						byte[] out = new byte[Hash.HASH_LENGTH];
+						for (int j = 0; j < times; j++) {
+							sha.calculateHash(mess, 0, mess.length, out, 0);
+						}
+					}
+				}
+			});
+		}
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < threads; i++) {
+			t[i].start();
+		}
+		for (int i = 0; i < threads; i++) {
+			try { t[i].join(); } catch (InterruptedException ie) {}
+		}
+		long time = System.currentTimeMillis() - start;
+		long total = ((long) threads) * times;
+		System.out.println(threads + " threads, " + size + " byte messages" + (batch ? ", batched" : "") +
+		                   ": " + total + " hashes in " + time + " ms, " +
+		                   (time == 0 ? "NaN" : "" + (total * 1000 / time)) + " hashes/sec");
 	}
 }
 	
@@ -46,5 +46,33 @@ public class SHA256Test extends TestCase{
             assertEquals(firstHash, h);
         }
     }
+
+    /**
+     * Batch results must match individual hashes.
+     */
+    public void testBatch(){
+        byte[][] sources = new byte[5][];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = new byte[i * 100];
+            _context.random().nextBytes(sources[i]);
+        }
+        byte[] out = new byte[1 + (sources.length * Hash.HASH_LENGTH)];
+        SHA256Generator.getInstance().calculateHashes(sources, out, 1);
+        for (int i = 0; i < sources.length; i++) {
+            Hash h = SHA256Generator.getInstance().calculateHash(sources[i]);
+            assertTrue(DataHelper.eq(h.getData(), 0, out, 1 + (i * Hash.HASH_LENGTH), Hash.HASH_LENGTH));
+        }
+
+        byte[] source = new byte[1000];
+        _context.random().nextBytes(source);
+        int[] starts = new int[] { 0, 10, 500 };
+        int[] lens = new int[] { 1000, 20, 0 };
+        out = new byte[starts.length * Hash.HASH_LENGTH];
+        SHA256Generator.getInstance().calculateHashes(source, starts, lens, out, 0);
+        for (int i = 0; i < starts.length; i++) {
+            Hash h = SHA256Generator.getInstance().calculateHash(source, starts[i], lens[i]);
+            assertTrue(DataHelper.eq(h.getData(), 0, out, i * Hash.HASH_LENGTH, Hash.HASH_LENGTH));
+        }
+    }
         
 }
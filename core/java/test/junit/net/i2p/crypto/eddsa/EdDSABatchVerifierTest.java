@@ -0,0 +1,107 @@
+package net.i2p.crypto.eddsa;
+
+import static org.junit.Assert.*;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.i2p.crypto.eddsa.spec.EdDSANamedCurveTable;
+import net.i2p.crypto.eddsa.spec.EdDSAParameterSpec;
+import net.i2p.crypto.eddsa.spec.EdDSAPrivateKeySpec;
+import net.i2p.crypto.eddsa.spec.EdDSAPublicKeySpec;
+
+import org.junit.Test;
+
+public class EdDSABatchVerifierTest {
+
+    private static final EdDSAParameterSpec spec = EdDSANamedCurveTable.getByName("ed25519-sha-512");
+    private static final List<Ed25519TestVectors.TestTuple> cases =
+        new ArrayList<Ed25519TestVectors.TestTuple>(Ed25519TestVectors.testCases);
+
+    private static EdDSAPublicKey[] keys(int n) {
+        EdDSAPublicKey[] rv = new EdDSAPublicKey[n];
+        for (int i = 0; i < n; i++) {
+            Ed25519TestVectors.TestTuple t = cases.get(i);
+            rv[i] = new EdDSAPublicKey(new EdDSAPublicKeySpec(t.pk, spec));
+        }
+        return rv;
+    }
+
+    private static byte[][] data(int n) {
+        byte[][] rv = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            rv[i] = cases.get(i).message;
+        }
+        return rv;
+    }
+
+    private static byte[][] sigs(int n) {
+        byte[][] rv = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            rv[i] = cases.get(i).sig.clone();
+        }
+        return rv;
+    }
+
+    @Test
+    public void testAllGood() {
+        int n = 64;
+        boolean[] rv = EdDSABatchVerifier.verify(keys(n), data(n), sigs(n));
+        for (int i = 0; i < n; i++) {
+            assertTrue("Test case " + i, rv[i]);
+        }
+    }
+
+    @Test
+    public void testSomeBad() {
+        int n = 64;
+        byte[][] sigs = sigs(n);
+        byte[][] data = data(n);
+        // bad S
+        sigs[3][40] ^= 0x01;
+        // bad R
+        sigs[17][0] ^= 0x01;
+        // S too big
+        sigs[30][63] |= (byte) 0x80;
+        // wrong data
+        data[50] = new byte[] { 1, 2, 3 };
+        boolean[] rv = EdDSABatchVerifier.verify(keys(n), data, sigs);
+        for (int i = 0; i < n; i++) {
+            boolean bad = i == 3 || i == 17 || i == 30 || i == 50;
+            assertEquals("Test case " + i, !bad, rv[i]);
+        }
+    }
+
+    @Test
+    public void testSameKey() throws Exception {
+        int n = 20;
+        EdDSAPrivateKey priv = new EdDSAPrivateKey(new EdDSAPrivateKeySpec(cases.get(0).seed, spec));
+        EdDSAPublicKey pub = new EdDSAPublicKey(new EdDSAPublicKeySpec(priv.getA(), spec));
+        EdDSAEngine engine = new EdDSAEngine(MessageDigest.getInstance("SHA-512"));
+        EdDSAPublicKey[] keys = new EdDSAPublicKey[n];
+        byte[][] data = new byte[n][];
+        byte[][] sigs = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            keys[i] = pub;
+            data[i] = new byte[i];
+            engine.initSign(priv);
+            sigs[i] = engine.signOneShot(data[i]);
+        }
+        boolean[] rv = EdDSABatchVerifier.verify(keys, data, sigs);
+        for (int i = 0; i < n; i++) {
+            assertTrue("Message " + i, rv[i]);
+        }
+    }
+
+    @Test
+    public void testSmall() {
+        int n = 2;
+        byte[][] sigs = sigs(n);
+        sigs[1][40] ^= 0x01;
+        boolean[] rv = EdDSABatchVerifier.verify(keys(n), data(n), sigs);
+        assertTrue(rv[0]);
+        assertFalse(rv[1]);
+        assertEquals(0, EdDSABatchVerifier.verify(new EdDSAPublicKey[0], new byte[0][], new byte[0][]).length);
+    }
+}
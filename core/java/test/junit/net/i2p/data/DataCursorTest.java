@@ -0,0 +1,117 @@
+package net.i2p.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import net.i2p.util.OrderedProperties;
+
+/**
+ * basic unit tests for the DataCursor
+ *
+ */
+public class DataCursorTest extends TestCase {
+
+    public void testLong() throws Exception {
+        byte[] buf = new byte[8 + 4 + 2 + 1];
+        DataCursor c = new DataCursor(buf);
+        c.writeLong(8, Long.MAX_VALUE);
+        c.writeLong(4, 0xfedcba98L);
+        c.writeLong(2, 0x1234);
+        c.writeByte(0xab);
+        assertEquals(0, c.remaining());
+        try {
+            c.writeByte(0);
+            fail();
+        } catch (DataFormatException expected) {}
+        assertEquals(Long.MAX_VALUE, DataHelper.fromLong(buf, 0, 8));
+        assertEquals(0xfedcba98L, DataHelper.fromLong(buf, 8, 4));
+
+        c.wrap(buf, 0, buf.length);
+        assertEquals(Long.MAX_VALUE, c.readLong(8));
+        assertEquals(0xfedcba98L, c.readLong(4));
+        assertEquals(0x1234, c.readLong(2));
+        assertEquals(0xab, c.readUnsignedByte());
+        try {
+            c.readLong(1);
+            fail();
+        } catch (DataFormatException expected) {}
+        assertEquals(-1, c.read());
+    }
+
+    public void testString() throws Exception {
+        String[] strs = { "", "a", "hello world", "été 日本" };
+        for (int i = 0; i < strs.length; i++) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataHelper.writeStringUTF8(baos, strs[i]);
+            byte[] expected = baos.toByteArray();
+            byte[] buf = new byte[expected.length];
+            DataCursor c = new DataCursor(buf);
+            c.writeString(strs[i]);
+            assertTrue(DataHelper.eq(expected, buf));
+            c.wrap(buf, 0, buf.length);
+            assertEquals(strs[i], c.readString());
+            c.wrap(buf, 0, buf.length);
+            assertEquals(strs[i], DataHelper.readString(c));
+        }
+        // truncated
+        DataCursor c = new DataCursor(new byte[] { 5, 'a', 'b' });
+        try {
+            DataHelper.readString(c);
+            fail();
+        } catch (EOFException expected) {}
+    }
+
+    public void testProperties() throws Exception {
+        Properties p = new OrderedProperties();
+        p.setProperty("caps", "OfR");
+        p.setProperty("host", "127.0.0.1");
+        p.setProperty("name", "été");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataHelper.writeProperties(baos, p, true, false);
+        byte[] expected = baos.toByteArray();
+
+        byte[] buf = new byte[expected.length + 3];
+        DataCursor c = new DataCursor(buf);
+        c.writeProperties(p, true);
+        assertEquals(expected.length, c.position());
+        assertTrue(DataHelper.eq(expected, 0, buf, 0, expected.length));
+
+        c.wrap(buf, 0, buf.length);
+        Properties q = c.readProperties();
+        assertEquals(p, q);
+        assertEquals(expected.length, c.position());
+        c.wrap(buf, 0, buf.length);
+        assertEquals(p, DataHelper.readProperties(c));
+
+        c.wrap(buf, 0, buf.length);
+        DataCursor.MappingView v = c.readMappingView();
+        assertEquals(3, v.size());
+        assertEquals("OfR", v.get("caps"));
+        assertEquals("127.0.0.1", v.get("host"));
+        assertEquals("été", v.get("name"));
+        assertNull(v.get("cap"));
+        assertNull(v.get("capss"));
+        assertEquals("x", v.get("port", "x"));
+        assertEquals(p, v.toProperties());
+
+        // empty
+        c.wrap(buf, 0, buf.length);
+        c.writeProperties(null, true);
+        c.wrap(buf, 0, 2);
+        assertTrue(c.readProperties().isEmpty());
+
+        // bad
+        byte[] bad = new byte[] { 0, 4, 1, 'a', '=', 0 };
+        try {
+            new DataCursor(bad).readProperties();
+            fail();
+        } catch (DataFormatException expected2) {}
+        try {
+            new DataCursor(bad).readMappingView();
+            fail();
+        } catch (DataFormatException expected2) {}
+    }
+}
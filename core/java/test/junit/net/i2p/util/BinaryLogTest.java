@@ -0,0 +1,98 @@
+package net.i2p.util;
+
+/*
+ * public domain
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+/**
+ *  LogRingBuffer, deferred formatting, and the binary log round trip
+ *
+ *  @since 0.9.27
+ */
+public class BinaryLogTest extends TestCase {
+
+    public void testRingBuffer() {
+        LogRingBuffer<Integer> q = new LogRingBuffer<Integer>(5);
+        assertEquals(8, q.capacity());
+        assertTrue(q.isEmpty());
+        assertNull(q.poll());
+        for (int i = 0; i < 8; i++) {
+            assertTrue(q.offer(Integer.valueOf(i)));
+        }
+        assertFalse(q.offer(Integer.valueOf(8)));
+        assertEquals(8, q.size());
+        assertEquals(Integer.valueOf(0), q.peek());
+        for (int i = 0; i < 8; i++) {
+            assertEquals(Integer.valueOf(i), q.poll());
+            // wrap around
+            assertTrue(q.offer(Integer.valueOf(i + 8)));
+        }
+        for (int i = 8; i < 16; i++) {
+            assertEquals(Integer.valueOf(i), q.poll());
+        }
+        assertTrue(q.isEmpty());
+    }
+
+    public void testDeferredFormat() {
+        LogRecord rec = new LogRecord(BinaryLogTest.class, null, "t", Log.INFO,
+                                      "%d of %s", new Object[] { Integer.valueOf(3), "x" }, null);
+        assertEquals("3 of x", rec.getMessage());
+        rec = new LogRecord(BinaryLogTest.class, null, "t", Log.INFO,
+                            "%d", new Object[] { "notanumber" }, null);
+        assertEquals("%d [notanumber]", rec.getMessage());
+    }
+
+    /**
+     *  Dup elimination compares the formatted message, not the format string
+     */
+    public void testDeferredEquals() {
+        LogRecord r1 = new LogRecord(BinaryLogTest.class, null, "t", Log.DEBUG,
+                                     "Got %d bytes from %s", new Object[] { Integer.valueOf(5), "peerA" }, null);
+        LogRecord r2 = new LogRecord(BinaryLogTest.class, null, "t", Log.DEBUG,
+                                     "Got %d bytes from %s", new Object[] { Integer.valueOf(999), "peerB" }, null);
+        LogRecord r3 = new LogRecord(BinaryLogTest.class, null, "t", Log.DEBUG,
+                                     "Got %d bytes from %s", new Object[] { Integer.valueOf(5), "peerA" }, null);
+        LogRecord r4 = new LogRecord(BinaryLogTest.class, null, "t", Log.DEBUG,
+                                     "Got 5 bytes from peerA", null);
+        assertFalse(r1.equals(r2));
+        assertTrue(r1.equals(r3));
+        assertTrue(r1.equals(r4));
+        assertTrue(r4.equals(r1));
+        assertEquals(r1.hashCode(), r4.hashCode());
+    }
+
+    public void testRoundTrip() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        BinaryLogEncoder enc = new BinaryLogEncoder(baos);
+        enc.write(new LogRecord(BinaryLogTest.class, null, "thread1", Log.WARN,
+                                "hello %s", new Object[] { "world" }, null));
+        enc.write(new LogRecord(null, "somelog", "thread2", Log.ERROR,
+                                "failed", new IOException("boom")));
+        enc.write(System.currentTimeMillis(), Log.INFO, "preformatted line\n");
+        enc.flush();
+        assertEquals(baos.size(), enc.getBytesWritten());
+
+        BinaryLogDecoder dec = new BinaryLogDecoder(new ByteArrayInputStream(baos.toByteArray()));
+        StringWriter out = new StringWriter();
+        dec.decode(out);
+        String s = out.toString();
+        assertTrue(s, s.contains(" WARN [thread1] net.i2p.util.BinaryLogTest: hello world"));
+        assertTrue(s, s.contains(" ERROR [thread2] somelog: failed"));
+        assertTrue(s, s.contains("java.io.IOException: boom"));
+        assertTrue(s, s.endsWith("preformatted line\n"));
+    }
+
+    public void testBadHeader() {
+        try {
+            new BinaryLogDecoder(new ByteArrayInputStream(new byte[16]));
+            fail();
+        } catch (IOException expected) {}
+    }
+}
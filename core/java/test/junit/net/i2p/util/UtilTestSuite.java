@@ -13,6 +13,7 @@ public class UtilTestSuite {
     public static Test suite() {
         TestSuite suite = new TestSuite("net.i2p.util.UtilTestSuite");
         
+        suite.addTestSuite(BinaryLogTest.class);
         suite.addTestSuite(LogSettingsTest.class);
         suite.addTestSuite(LookAheadInputStreamTest.class);
         suite.addTestSuite(ResettableGZIPInputStreamTest.class);
@@ -0,0 +1,77 @@
+package net.metanotion.io.block;
+
+import java.io.File;
+import java.util.Random;
+
+import net.metanotion.io.CachedRAIFile;
+import net.metanotion.io.MappedRAIFile;
+import net.metanotion.io.RAIFile;
+import net.metanotion.io.RandomAccessInterface;
+import net.metanotion.io.data.StringBytes;
+import net.metanotion.util.skiplist.SkipList;
+
+/**
+ *  Insert and random lookup times for a BlockFile skiplist
+ *  over RAIFile, CachedRAIFile, and MappedRAIFile.
+ *
+ *  Usage: BlockFileBench [entries [lookups]]
+ *
+ *  @since 0.9.27
+ */
+public class BlockFileBench {
+
+    public static void main(String args[]) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        for (int i = 0; i < 2; i++) {
+            run("RAIFile   ", 0, count, lookups);
+            run("Cached    ", 1, count, lookups);
+            run("Mapped    ", 2, count, lookups);
+        }
+    }
+
+    private static RandomAccessInterface open(File f, int type) throws Exception {
+        switch (type) {
+            case 1:
+                return new CachedRAIFile(f, true, true, BlockFile.PAGESIZE, CachedRAIFile.DEFAULT_PAGES);
+            case 2:
+                return new MappedRAIFile(f, true, true);
+            default:
+                return new RAIFile(f, true, true);
+        }
+    }
+
+    private static void run(String name, int type, int count, int lookups) throws Exception {
+        File f = File.createTempFile("blockfile", ".bench");
+        f.delete();
+        StringBytes ser = new StringBytes();
+        RandomAccessInterface raf = open(f, type);
+        BlockFile bf = new BlockFile(raf, true);
+        SkipList<String, String> sl = bf.makeIndex("bench", ser, ser);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            sl.put("host" + i + ".i2p", "value" + i);
+        }
+        long put = System.currentTimeMillis() - start;
+        bf.close();
+        raf.close();
+
+        raf = open(f, type);
+        bf = new BlockFile(raf, false);
+        sl = bf.getIndex("bench", ser, ser);
+        Random rand = new Random(42);
+        start = System.currentTimeMillis();
+        for (int i = 0; i < lookups; i++) {
+            int k = rand.nextInt(count);
+            String v = sl.get("host" + k + ".i2p");
+            if (!("value" + k).equals(v))
+                throw new IllegalStateException("Bad lookup " + k + ": " + v);
+        }
+        long get = System.currentTimeMillis() - start;
+        bf.close();
+        raf.close();
+        System.out.println(name + count + " puts: " + put + " ms; " +
+                           lookups + " lookups: " + get + " ms; file " + (f.length() / 1024) + " KB");
+        f.delete();
+    }
+}
@@ -8,12 +8,12 @@ package net.i2p.data.i2np;
  *
  */
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.Date;
 
 import net.i2p.I2PAppContext;
 import net.i2p.data.DatabaseEntry;
+import net.i2p.data.DataCursor;
 import net.i2p.data.DataFormatException;
 import net.i2p.data.DataHelper;
 import net.i2p.data.Hash;
@@ -100,42 +100,49 @@ public class DatabaseStoreMessage extends FastI2NPMessageImpl {
     
     public void readMessage(byte data[], int offset, int dataSize, int type) throws I2NPMessageException {
         if (type != MESSAGE_TYPE) throw new I2NPMessageException("Message type is incorrect for this message");
-        int curIndex = offset;
-        
-        _key = Hash.create(data, curIndex);
-        // i2pd bug? Generally followed by corrupt gzipped content.
-        // Fast-fail here to save resources.
-        if (_key.equals(Hash.FAKE_HASH)) {
-            // createRateStat in KNDF
-            _context.statManager().addRateData("netDb.DSMAllZeros", 1);
-            throw new I2NPMessageException("DSM all zeros");
-        }
-        curIndex += Hash.HASH_LENGTH;
-        
-        // as of 0.9.18, ignore other 7 bits of the type byte, in preparation for future options
-        int dbType = data[curIndex] & 0x01;
-        curIndex++;
-        
-        _replyToken = DataHelper.fromLong(data, curIndex, 4);
-        curIndex += 4;
-        
-        if (_replyToken > 0) {
-            long tunnel = DataHelper.fromLong(data, curIndex, 4);
-            if (tunnel > 0)
-                _replyTunnel = new TunnelId(tunnel);
-            curIndex += 4;
-            
-            _replyGateway = Hash.create(data, curIndex);
-            curIndex += Hash.HASH_LENGTH;
-        } else {
-            _replyTunnel = null;
-            _replyGateway = null;
+        if (offset < 0 || dataSize < 0 || offset + dataSize > data.length)
+            throw new I2NPMessageException("Bad DSM bounds: offset " + offset + " size " + dataSize + " length " + data.length);
+        // Everything is read in place from data, bounded by dataSize,
+        // including the LeaseSet or decompressed RouterInfo.
+        DataCursor in = new DataCursor(data, offset, dataSize);
+        int dbType;
+        try {
+            int curIndex = in.position();
+            in.skipBytes(Hash.HASH_LENGTH);
+            _key = Hash.create(data, curIndex);
+            // i2pd bug? Generally followed by corrupt gzipped content.
+            // Fast-fail here to save resources.
+            if (_key.equals(Hash.FAKE_HASH)) {
+                // createRateStat in KNDF
+                _context.statManager().addRateData("netDb.DSMAllZeros", 1);
+                throw new I2NPMessageException("DSM all zeros");
+            }
+
+            // as of 0.9.18, ignore other 7 bits of the type byte, in preparation for future options
+            dbType = in.readUnsignedByte() & 0x01;
+
+            _replyToken = in.readLong(4);
+
+            if (_replyToken > 0) {
+                long tunnel = in.readLong(4);
+                if (tunnel > 0)
+                    _replyTunnel = new TunnelId(tunnel);
+
+                curIndex = in.position();
+                in.skipBytes(Hash.HASH_LENGTH);
+                _replyGateway = Hash.create(data, curIndex);
+            } else {
+                _replyTunnel = null;
+                _replyGateway = null;
+            }
+        } catch (DataFormatException dfe) {
+            throw new I2NPMessageException("Truncated DSM", dfe);
         }
-        
+
         if (dbType == DatabaseEntry.KEY_TYPE_LEASESET) {
             _dbEntry = new LeaseSet();
             try {
-                _dbEntry.readBytes(new ByteArrayInputStream(data, curIndex, data.length-curIndex));
+                _dbEntry.readBytes(in);
             } catch (DataFormatException dfe) {
                 throw new I2NPMessageException("Error reading the leaseSet", dfe);
             } catch (IOException ioe) {
@@ -143,11 +150,16 @@ public class DatabaseStoreMessage extends FastI2NPMessageImpl {
             }
         } else {   // dbType == DatabaseEntry.KEY_TYPE_ROUTERINFO
             _dbEntry = new RouterInfo();
-            int compressedSize = (int)DataHelper.fromLong(data, curIndex, 2);
-            curIndex += 2;
-            if (compressedSize <= 0 || curIndex + compressedSize > data.length || curIndex + compressedSize > dataSize + offset)
+            int compressedSize;
+            try {
+                compressedSize = (int) in.readLong(2);
+            } catch (DataFormatException dfe) {
+                throw new I2NPMessageException("Truncated DSM", dfe);
+            }
+            if (compressedSize <= 0 || compressedSize > in.remaining())
                 throw new I2NPMessageException("Compressed RI length: " + compressedSize +
-                                               " but remaining bytes: " + Math.min(data.length - curIndex, dataSize + offset -curIndex));
+                                               " but remaining bytes: " + in.remaining());
+            int curIndex = in.position();
             
             try {
                 // TODO we could delay decompression, just copy to a new byte array and store in _byteCache
@@ -156,7 +168,7 @@ public class DatabaseStoreMessage extends FastI2NPMessageImpl {
                 // If we do delay it, getEntry() will have to check if _dbEntry is null and _byteCache
                 // is non-null, and then decompress.
                 byte decompressed[] = DataHelper.decompress(data, curIndex, compressedSize);
-                _dbEntry.readBytes(new ByteArrayInputStream(decompressed));
+                _dbEntry.readBytes(new DataCursor(decompressed));
             } catch (DataFormatException dfe) {
                 throw new I2NPMessageException("Error reading the routerInfo", dfe);
             } catch (IOException ioe) {
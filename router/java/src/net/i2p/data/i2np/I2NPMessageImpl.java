@@ -15,6 +15,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import net.i2p.I2PAppContext;
+import net.i2p.data.DataCursor;
 import net.i2p.data.DataFormatException;
 import net.i2p.data.DataHelper;
 import net.i2p.data.DataStructureImpl;
@@ -96,6 +97,8 @@ public abstract class I2NPMessageImpl extends DataStructureImpl implements I2NPM
      *
      *  This does a copy from the stream to the buffer, so if you already
      *  have a byte array, use the other readBytes() instead.
+     *  As of 0.9.27, if the stream is a DataCursor, there is no copy,
+     *  the message is read in place and the cursor is advanced past it.
      *
      *<pre>
      *  Specifically:
@@ -116,6 +119,12 @@ public abstract class I2NPMessageImpl extends DataStructureImpl implements I2NPM
      */
     @Deprecated
     public int readBytes(InputStream in, int type, byte buffer[]) throws I2NPMessageException, IOException {
+        if (in instanceof DataCursor) {
+            DataCursor c = (DataCursor) in;
+            int len = readBytes(c.getData(), type, c.position(), c.remaining());
+            c.skip(len);
+            return len;
+        }
         try {
             if (type < 0)
                 type = (int)DataHelper.readLong(in, 1);
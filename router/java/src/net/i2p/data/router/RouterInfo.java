@@ -390,6 +390,16 @@ public class RouterInfo extends DatabaseEntry {
         return isValid();
     }
 
+    /**
+     * Passed batch verification, don't verify again in isValid()
+     * @since 0.9.27
+     */
+    @Override
+    protected void signatureVerified() {
+        _isValid = true;
+        _validated = true;
+    }
+
     /**
      * which network is this routerInfo a part of.  configured through the property
      * PROP_NETWORK_ID
@@ -20,7 +20,8 @@ import java.util.Set;
 
 import net.i2p.data.router.RouterInfo;
 import net.i2p.data.i2np.I2NPMessage;
-import net.i2p.router.util.CDPQEntry;
+import net.i2p.router.util.DRRQEntry;
+import net.i2p.router.util.DRRQueue;
 import net.i2p.util.Log;
 
 /**
@@ -28,7 +29,7 @@ import net.i2p.util.Log;
  * delivery and jobs to be fired off if particular events occur.
  *
  */
-public class OutNetMessage implements CDPQEntry {
+public class OutNetMessage implements DRRQEntry {
     private final Log _log;
     private final RouterContext _context;
     private final RouterInfo _target;
@@ -69,6 +70,11 @@ public class OutNetMessage implements CDPQEntry {
     public static final int PRIORITY_EXPLORATORY = 455;
     /** may be adjusted +/- 25 for outbound traffic */
     public static final int PRIORITY_MY_DATA = 425;
+    /**
+     *  PRIORITY_MY_DATA after the maximum downward adjustment
+     *  @since 0.9.27
+     */
+    public static final int PRIORITY_MY_DATA_MIN = PRIORITY_MY_DATA - 25;
     public static final int PRIORITY_HIS_BUILD_REQUEST = 300;
     public static final int PRIORITY_BUILD_REPLY = 300;
     public static final int PRIORITY_NETDB_REPLY = 300;
@@ -353,6 +359,23 @@ public class OutNetMessage implements CDPQEntry {
         return _seqNum;
     }
 
+    /**
+     *  For DRRQ
+     *  @since 0.9.27
+     */
+    public int getQueueCost() {
+        return (int) _messageSize;
+    }
+
+    /**
+     *  For DRRQ
+     *  @return the tunnel ID, or 0 if not a tunnel message
+     *  @since 0.9.27
+     */
+    public long getFlowId() {
+        return DRRQueue.getFlowId(_message);
+    }
+
     /** 
      * We've done what we need to do with the data from this message, though
      * we may keep the object around for a while to use its ID, jobs, etc.
@@ -98,6 +98,8 @@ class ClientConnectionRunner {
     /** For inbound traffic. true if i2cp.fastReceive = "true"; @since 0.9.4 */
     private boolean _dontSendMSMOnReceive;
     private final AtomicInteger _messageId; // messageId counter
+    /** writer thread only, for messages per flush */
+    private volatile long _messagesWritten, _flushes;
     
     // Was 32767 since the beginning (04-2004).
     // But it's 4 bytes in the I2CP spec and stored as a long in MessageID....
@@ -167,7 +169,7 @@ class ClientConnectionRunner {
             t.setName("I2CP Writer " + __id.incrementAndGet());
             t.setDaemon(true);
             t.start();
-            _out = new BufferedOutputStream(_socket.getOutputStream());
+            _out = new BufferedOutputStream(_socket.getOutputStream(), BUF_SIZE);
             _reader.startReading();
             // TODO need a cleaner for unclaimed items in _messages, but we have no timestamps...
     }
@@ -190,6 +192,9 @@ class ClientConnectionRunner {
             _log.shouldWarn()) 
             _log.warn("Stop the I2CP connection!", new Exception("Stop client connection"));
         _dead = true;
+        if (_flushes > 0 && _log.shouldInfo())
+            _log.info("Wrote " + _messagesWritten + " messages in " + _flushes + " flushes (" +
+                      getMessagesPerFlush() + " per flush) for " + getDestHash());
         // we need these keys to unpublish the leaseSet
         if (_reader != null) _reader.stopReading();
         if (_writer != null) _writer.stopWriting();
@@ -922,18 +927,23 @@ class ClientConnectionRunner {
      *  Not thread-safe. Blocking. Only used for external sockets.
      *  ClientWriterRunner thread is the only caller.
      *  Others must use doSend().
+     *
+     *  Writes all the messages, then flushes once,
+     *  so a batch goes out in as few socket writes as possible.
+     *
+     *  @param msgs non-empty
+     *  @since 0.9.27 was writeMessage(msg)
      */
-    void writeMessage(I2CPMessage msg) {
-        //long before = _context.clock().now();
+    void writeMessages(List<I2CPMessage> msgs) {
         try {
             // We don't need synchronization here, ClientWriterRunner is the only writer.
-            //synchronized (_out) {
-                msg.writeMessage(_out);
-                _out.flush();
-            //}
-            //if (_log.shouldLog(Log.DEBUG))
-            //    _log.debug("after writeMessage("+ msg.getClass().getName() + "): " 
-            //               + (_context.clock().now()-before) + "ms");
+            for (int i = 0; i < msgs.size(); i++) {
+                msgs.get(i).writeMessage(_out);
+            }
+            _out.flush();
+            _messagesWritten += msgs.size();
+            _flushes++;
+            _context.statManager().addRateData("client.writeBatchSize", msgs.size());
         } catch (I2CPMessageException ime) {
             _log.error("Error sending I2CP message to client", ime);
             stopRunning();
@@ -949,16 +959,20 @@ class ClientConnectionRunner {
         } catch (Throwable t) {
             _log.log(Log.CRIT, "Unhandled exception sending I2CP message to client", t);
             stopRunning();
-        //} finally {
-        //    long after = _context.clock().now();
-        //    long lag = after - before;
-        //    if (lag > 300) {
-        //        if (_log.shouldLog(Log.WARN))
-        //            _log.warn("synchronization on the i2cp message send took too long (" + lag 
-        //                      + "ms): " + msg);
-        //    }
         }
     }
+
+    /**
+     *  Messages per flush for this connection, averaged over its lifetime.
+     *  Only for external sockets.
+     *
+     *  @return 0 if nothing written yet
+     *  @since 0.9.27
+     */
+    public float getMessagesPerFlush() {
+        long flushes = _flushes;
+        return flushes > 0 ? _messagesWritten / (float) flushes : 0;
+    }
     
     /**
      * Actually send the I2CPMessage to the peer through the socket
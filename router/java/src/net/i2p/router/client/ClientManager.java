@@ -8,6 +8,7 @@ package net.i2p.router.client;
  *
  */
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
 import java.lang.reflect.Constructor;
@@ -47,6 +48,7 @@ import net.i2p.util.I2PThread;
 import net.i2p.util.Log;
 import net.i2p.util.SimpleTimer2;
 import net.i2p.util.SystemVersion;
+import net.i2p.util.UnixSocket;
 
 /**
  * Coordinate connections and various tasks
@@ -76,6 +78,14 @@ class ClientManager {
     private static final String PROP_DISABLE_EXTERNAL = "i2cp.disableInterface";
     /** SSL interface (only) @since 0.8.3 */
     private static final String PROP_ENABLE_SSL = "i2cp.SSL";
+    /**
+     *  Unix domain socket path, must be absolute.
+     *  In addition to the TCP interface. Java 16+ only.
+     *  Ignored on Android, where the router always runs DomainClientListenerRunner
+     *  and i2cp.domainSocket is a boolean client option to connect to it.
+     *  @since 0.9.27
+     */
+    private static final String PROP_DOMAIN_SOCKET = "i2cp.domainSocket";
 
     private static final int INTERNAL_QUEUE_SIZE = 256;
 
@@ -111,6 +121,7 @@ class ClientManager {
         _ctx.statManager().createRateStat("client.requestLeaseSetSuccess", "How frequently the router requests successfully a new leaseSet?", "ClientMessages", new long[] { 60*60*1000 });
         _ctx.statManager().createRateStat("client.requestLeaseSetTimeout", "How frequently the router requests a new leaseSet but gets no reply?", "ClientMessages", new long[] { 60*60*1000 });
         _ctx.statManager().createRateStat("client.requestLeaseSetDropped", "How frequently the router requests a new leaseSet but the client drops?", "ClientMessages", new long[] { 60*60*1000 });
+        _ctx.statManager().createRateStat("client.writeBatchSize", "How many I2CP messages are written per flush to external clients?", "ClientMessages", new long[] { 60*1000, 60*60*1000 });
     }
 
     /** @since 0.9.8 */
@@ -150,6 +161,19 @@ class ClientManager {
                 _log.error("Error creating DomainClientListenerRunner", e);
             }
         }
+        String path = _ctx.getProperty(PROP_DOMAIN_SOCKET);
+        if (path != null && path.length() > 0 && !SystemVersion.isAndroid()) {
+            if (!(new File(path)).isAbsolute()) {
+                _log.logAlways(Log.WARN, "The i2cp.domainSocket path must be absolute, not listening on " + path);
+            } else if (UnixSocket.isSupported()) {
+                listener = new UnixClientListenerRunner(_ctx, this, path);
+                Thread t = new I2PThread(listener, "UnixClientListener", true);
+                t.start();
+                _listeners.add(listener);
+            } else {
+                _log.logAlways(Log.WARN, "Unix domain sockets require Java 16 or higher, not listening on " + path);
+            }
+        }
         if (!_ctx.getBooleanProperty(PROP_DISABLE_EXTERNAL)) {
             // there's no option to start both an SSL and non-SSL listener
             if (_ctx.getBooleanProperty(PROP_ENABLE_SSL))
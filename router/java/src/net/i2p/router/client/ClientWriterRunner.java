@@ -1,5 +1,7 @@
 package net.i2p.router.client;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -16,6 +18,8 @@ import net.i2p.util.Log;
  * happen)
  *
  * For external I2CP connections only.
+ *
+ * As of 0.9.27, drains the queue in batches and writes each batch with a single flush.
  */
 class ClientWriterRunner implements Runnable {
     private final BlockingQueue<I2CPMessage> _messagesToWrite;
@@ -25,6 +29,8 @@ class ClientWriterRunner implements Runnable {
     //private static long __id = 0;
 
     private static final int QUEUE_SIZE = 256;
+    /** max messages per flush */
+    private static final int MAX_BATCH = 32;
     
     public ClientWriterRunner(RouterContext context, ClientConnectionRunner runner) {
         //_log = context.logManager().getLog(ClientWriterRunner.class);
@@ -58,16 +64,28 @@ class ClientWriterRunner implements Runnable {
     }
 
     public void run() {
-        I2CPMessage msg;
+        List<I2CPMessage> batch = new ArrayList<I2CPMessage>(MAX_BATCH);
         while (!_runner.getIsDead()) {
             try {
-                msg = _messagesToWrite.take();
+                batch.add(_messagesToWrite.take());
             } catch (InterruptedException ie) {
                 continue;
             }
-            if (msg.getType() == PoisonI2CPMessage.MESSAGE_TYPE)
+            _messagesToWrite.drainTo(batch, MAX_BATCH - 1);
+            boolean poisoned = false;
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.get(i).getType() == PoisonI2CPMessage.MESSAGE_TYPE) {
+                    // nothing after the poison is sent
+                    batch.subList(i, batch.size()).clear();
+                    poisoned = true;
+                    break;
+                }
+            }
+            if (!batch.isEmpty())
+                _runner.writeMessages(batch);
+            batch.clear();
+            if (poisoned)
                 break;
-            _runner.writeMessage(msg);
         }
     }
 }
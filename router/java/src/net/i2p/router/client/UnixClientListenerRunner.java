@@ -0,0 +1,65 @@
+package net.i2p.router.client;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import net.i2p.client.I2PClient;
+import net.i2p.router.RouterContext;
+import net.i2p.util.Log;
+import net.i2p.util.SimpleTimer2;
+import net.i2p.util.UnixServerSocket;
+
+/**
+ * Unix domain socket version of ClientListenerRunner,
+ * for clients on the same host, without the TCP loopback overhead.
+ * Clients connect by setting the i2cp.domainSocket option to the same path.
+ *
+ * Requires Java 16 or higher.
+ *
+ * @since 0.9.27
+ */
+class UnixClientListenerRunner extends ClientListenerRunner {
+
+    private final String _path;
+
+    /**
+     *  @param path must be absolute, as the clients' working directories may differ
+     */
+    public UnixClientListenerRunner(RouterContext context, ClientManager manager, String path) {
+        super(context, manager, 0);
+        _path = path;
+    }
+
+    @Override
+    protected ServerSocket getServerSocket() throws IOException {
+        if (_log.shouldLog(Log.INFO))
+            _log.info("Listening on " + _path);
+        return new UnixServerSocket(_path);
+    }
+
+    /**
+     *  Verify the first byte.
+     *  The UnixSocket doesn't support available() or SoTimeout,
+     *  so close it if nothing arrives in time.
+     */
+    @Override
+    protected boolean validate(final Socket socket) {
+        SimpleTimer2.TimedEvent closer = new SimpleTimer2.TimedEvent(_context.simpleTimer2()) {
+            public void timeReached() {
+                try { socket.close(); } catch (IOException ioe) {}
+            }
+        };
+        closer.schedule(CONNECT_TIMEOUT);
+        try {
+            int b = socket.getInputStream().read();
+            closer.cancel();
+            return b == I2PClient.PROTOCOL_BYTE;
+        } catch (IOException ioe) {
+            closer.cancel();
+        }
+        if (_log.shouldLog(Log.WARN))
+             _log.warn("Peer did not authenticate themselves as I2CP quickly enough, dropping");
+        return false;
+    }
+}
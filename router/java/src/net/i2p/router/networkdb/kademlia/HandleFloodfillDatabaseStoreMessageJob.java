@@ -39,6 +39,8 @@ public class HandleFloodfillDatabaseStoreMessageJob extends JobImpl {
     private final RouterIdentity _from;
     private Hash _fromHash;
     private final FloodfillNetworkDatabaseFacade _facade;
+    /** set after the first run, when the signature was handed off for verification */
+    private boolean _verifyQueued;
     private final static int REPLY_TIMEOUT = 60*1000;
     private final static int MESSAGE_PRIORITY = OutNetMessage.PRIORITY_NETDB_REPLY;
 
@@ -60,6 +62,15 @@ public class HandleFloodfillDatabaseStoreMessageJob extends JobImpl {
         //if (_log.shouldLog(Log.DEBUG))
         //    _log.debug("Handling database store message");
 
+        DatabaseEntry entry = _message.getEntry();
+        // Verify the signature on a verifier thread, not this job runner,
+        // and run again when done. The store below then finds the result in the cache.
+        if (!_verifyQueued) {
+            _verifyQueued = true;
+            if (_facade.getSignatureVerifier().verifyAsync(entry, this))
+                return;
+        }
+
         long recvBegin = System.currentTimeMillis();
         
         String invalidMessage = null;
@@ -68,7 +79,6 @@ public class HandleFloodfillDatabaseStoreMessageJob extends JobImpl {
         boolean wasNew = false;
         RouterInfo prevNetDb = null;
         Hash key = _message.getKey();
-        DatabaseEntry entry = _message.getEntry();
         if (entry.getType() == DatabaseEntry.KEY_TYPE_LEASESET) {
             getContext().statManager().addRateData("netDb.storeLeaseSetHandled", 1);
             if (_log.shouldLog(Log.INFO))
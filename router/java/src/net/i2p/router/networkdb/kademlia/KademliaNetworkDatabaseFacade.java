@@ -71,6 +71,7 @@ public class KademliaNetworkDatabaseFacade extends NetworkDatabaseFacade {
     private volatile long _lastRIPublishTime;
     private NegativeLookupCache _negativeCache;
     protected final int _networkID;
+    private final SignatureVerifier _sigVerifier;
 
     /** 
      * Map of Hash to RepublishLeaseSetJob for leases we'realready managing.
@@ -163,6 +164,7 @@ public class KademliaNetworkDatabaseFacade extends NetworkDatabaseFacade {
         _publishingLeaseSets = new HashMap<Hash, RepublishLeaseSetJob>(8);
         _activeRequests = new HashMap<Hash, SearchJob>(8);
         _reseedChecker = new ReseedChecker(context);
+        _sigVerifier = new SignatureVerifier(context);
         context.statManager().createRateStat("netDb.lookupDeferred", "how many lookups are deferred?", "NetworkDatabase", new long[] { 60*60*1000 });
         context.statManager().createRateStat("netDb.exploreKeySet", "how many keys are queued for exploration?", "NetworkDatabase", new long[] { 60*60*1000 });
         context.statManager().createRateStat("netDb.negativeCache", "Aborted lookup, already cached", "NetworkDatabase", new long[] { 60*60*1000l });
@@ -197,6 +199,9 @@ public class KademliaNetworkDatabaseFacade extends NetworkDatabaseFacade {
 
     KBucketSet<Hash> getKBuckets() { return _kb; }
     DataStore getDataStore() { return _ds; }
+
+    /** @since 0.9.27 */
+    SignatureVerifier getSignatureVerifier() { return _sigVerifier; }
     
     long getLastExploreNewDate() { return _lastExploreNew; }
     void setLastExploreNewDate(long when) { 
@@ -239,6 +244,7 @@ public class KademliaNetworkDatabaseFacade extends NetworkDatabaseFacade {
         _exploreKeys.clear(); // hope this doesn't cause an explosion, it shouldn't.
         // _exploreKeys = null;
         _negativeCache.clear();
+        _sigVerifier.shutdown();
     }
     
     public synchronized void restart() {
@@ -279,6 +285,7 @@ public class KademliaNetworkDatabaseFacade extends NetworkDatabaseFacade {
 //        _exploreKeys = new HashSet(64);
         _dbDir = dbDir;
         _negativeCache = new NegativeLookupCache(_context);
+        _sigVerifier.startup();
         
         createHandlers();
         
@@ -791,7 +798,7 @@ public class KademliaNetworkDatabaseFacade extends NetworkDatabaseFacade {
                           + key + ", leaseSet = " + leaseSet);
             return "Key does not match leaseSet.destination - " + key.toBase64();
         }
-        if (!leaseSet.verifySignature()) {
+        if (!_sigVerifier.verify(leaseSet)) {
             // throws UnsupportedCryptoException
             processStoreFailure(key, leaseSet);
             if (_log.shouldLog(Log.WARN))
@@ -904,7 +911,7 @@ public class KademliaNetworkDatabaseFacade extends NetworkDatabaseFacade {
                 _log.warn("Invalid store attempt! key does not match routerInfo.identity!  key = " + key + ", router = " + routerInfo);
             return "Key does not match routerInfo.identity";
         }
-        if (!routerInfo.isValid()) {
+        if (!_sigVerifier.verify(routerInfo)) {
             // throws UnsupportedCryptoException
             processStoreFailure(key, routerInfo);
             if (_log.shouldLog(Log.WARN))
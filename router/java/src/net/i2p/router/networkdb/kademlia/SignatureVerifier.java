@@ -0,0 +1,263 @@
+package net.i2p.router.networkdb.kademlia;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.i2p.data.DatabaseEntry;
+import net.i2p.data.Hash;
+import net.i2p.data.LeaseSet;
+import net.i2p.data.router.RouterInfo;
+import net.i2p.router.Job;
+import net.i2p.router.RouterContext;
+import net.i2p.util.I2PThread;
+import net.i2p.util.LHMCache;
+import net.i2p.util.Log;
+import net.i2p.util.SystemVersion;
+
+/**
+ *  Verifies RouterInfo and LeaseSet signatures for netDb stores.
+ *
+ *  Verification may be handed off to a small number of worker threads
+ *  with a bounded queue, so that the job runners handling a flood of stores
+ *  are not blocked on EdDSA/ECDSA/DSA verification.
+ *  Each worker takes everything waiting in the queue (up to MAX_BATCH)
+ *  and verifies it together, so that Ed25519 signatures
+ *  are checked with EdDSABatchVerifier.
+ *
+ *  The last good result for each key is cached by signed hash
+ *  (see DatabaseEntry.getSignedHash()), so an unchanged entry
+ *  stored to us again by other peers is not verified again.
+ *  Only successes are cached.
+ *
+ *  @since 0.9.27
+ */
+class SignatureVerifier {
+    private final RouterContext _context;
+    private final Log _log;
+    /** key to signed hash of the last entry verified good, synch on itself */
+    private final Map<Hash, Hash> _verified;
+    private final BlockingQueue<Pending> _queue;
+    private final List<Thread> _threads;
+    private volatile boolean _isRunning;
+    private static final AtomicInteger _count = new AtomicInteger();
+
+    private static final int MIN_THREADS = 1;
+    private static final int MAX_THREADS = 4;
+    private static final int THREADS;
+    static {
+        int cores = SystemVersion.getCores();
+        THREADS = Math.max(MIN_THREADS, Math.min(MAX_THREADS, cores - 1));
+    }
+    /** beyond this, the caller verifies inline */
+    private static final int MAX_QUEUE = 256;
+    /** max entries verified together by one worker */
+    private static final int MAX_BATCH = 64;
+    private static final int CACHE_SIZE = SystemVersion.isAndroid() ? 1024 : 8192;
+
+    public SignatureVerifier(RouterContext context) {
+        _context = context;
+        _log = context.logManager().getLog(SignatureVerifier.class);
+        _verified = new LHMCache<Hash, Hash>(CACHE_SIZE);
+        _queue = new LinkedBlockingQueue<Pending>(MAX_QUEUE);
+        _threads = new ArrayList<Thread>(THREADS);
+        context.statManager().createRateStat("netDb.sigVerifyTime", "Time to verify a netDb entry signature (ms)", "NetworkDatabase", new long[] { 60*1000, 60*60*1000l });
+        context.statManager().createRateStat("netDb.sigVerifyCached", "Store of an entry already verified", "NetworkDatabase", new long[] { 60*60*1000l });
+        context.statManager().createRateStat("netDb.sigVerifyQueued", "Verification queue depth when handed off", "NetworkDatabase", new long[] { 60*1000, 60*60*1000l });
+        context.statManager().createRateStat("netDb.sigVerifyBatch", "Number of entries verified together", "NetworkDatabase", new long[] { 60*1000, 60*60*1000l });
+    }
+
+    public synchronized void startup() {
+        if (_isRunning)
+            return;
+        _isRunning = true;
+        for (int i = 0; i < THREADS; i++) {
+            Thread t = new I2PThread(new Runner(), "NetDb Verifier " + _count.incrementAndGet() + '/' + THREADS, true);
+            _threads.add(t);
+            t.start();
+        }
+    }
+
+    /**
+     *  Anything still queued is not verified here,
+     *  but its job is still queued, and it will verify inline.
+     */
+    public synchronized void shutdown() {
+        _isRunning = false;
+        for (Thread t : _threads) {
+            t.interrupt();
+        }
+        _threads.clear();
+        List<Pending> pending = new ArrayList<Pending>(_queue.size());
+        _queue.drainTo(pending);
+        for (Pending p : pending) {
+            _context.jobQueue().addJob(p.onComplete);
+        }
+        synchronized (_verified) {
+            _verified.clear();
+        }
+    }
+
+    /**
+     *  Synchronous verification, using and updating the cache.
+     *  Same result as RouterInfo.isValid() or LeaseSet.verifySignature().
+     *
+     *  @return true if the signature is good
+     */
+    public boolean verify(DatabaseEntry entry) {
+        Hash key = entry.getHash();
+        Hash signed = entry.getSignedHash();
+        if (key == null || signed == null)
+            return false;
+        if (isCached(key, signed)) {
+            _context.statManager().addRateData("netDb.sigVerifyCached", 1);
+            return true;
+        }
+        long start = _context.clock().now();
+        boolean rv;
+        if (entry.getType() == DatabaseEntry.KEY_TYPE_ROUTERINFO)
+            rv = ((RouterInfo) entry).isValid();
+        else
+            rv = ((LeaseSet) entry).verifySignature();
+        _context.statManager().addRateData("netDb.sigVerifyTime", _context.clock().now() - start);
+        if (rv)
+            cache(key, signed);
+        return rv;
+    }
+
+    private boolean isCached(Hash key, Hash signed) {
+        Hash prev;
+        synchronized (_verified) {
+            prev = _verified.get(key);
+        }
+        return signed.equals(prev);
+    }
+
+    private void cache(Hash key, Hash signed) {
+        synchronized (_verified) {
+            _verified.put(key, signed);
+        }
+    }
+
+    /**
+     *  Verify on a worker thread, then add onComplete to the job queue.
+     *  The result is available to onComplete via verify(), which will
+     *  then hit the cache.
+     *
+     *  @return true if handed off and onComplete will be queued;
+     *          false if the caller should simply continue inline,
+     *          because the entry is already cached, or the
+     *          verifier is stopped or too busy.
+     */
+    public boolean verifyAsync(DatabaseEntry entry, Job onComplete) {
+        Hash key = entry.getHash();
+        // calculated once and cached in the entry, for the worker and validate()
+        Hash signed = entry.getSignedHash();
+        if (key == null || signed == null || isCached(key, signed))
+            return false;
+        if (!_isRunning)
+            return false;
+        Pending p = new Pending(entry, onComplete);
+        if (!_queue.offer(p)) {
+            if (_log.shouldInfo())
+                _log.info("Verifier busy, verifying inline " + key);
+            return false;
+        }
+        if (!_isRunning && _queue.remove(p)) {
+            // race with shutdown(), if it got there first it queued the job
+            return false;
+        }
+        _context.statManager().addRateData("netDb.sigVerifyQueued", _queue.size());
+        return true;
+    }
+
+    /**
+     *  Verify several entries together, using and updating the cache.
+     *  Ed25519 signatures not in the cache are batch verified.
+     *
+     *  @return results in the same order as entries
+     */
+    public boolean[] verify(List<? extends DatabaseEntry> entries) {
+        int sz = entries.size();
+        boolean[] rv = new boolean[sz];
+        List<DatabaseEntry> toVerify = new ArrayList<DatabaseEntry>(sz);
+        List<Integer> indexes = new ArrayList<Integer>(sz);
+        for (int i = 0; i < sz; i++) {
+            DatabaseEntry entry = entries.get(i);
+            Hash key = entry.getHash();
+            Hash signed = entry.getSignedHash();
+            if (key == null || signed == null)
+                continue;
+            if (isCached(key, signed)) {
+                _context.statManager().addRateData("netDb.sigVerifyCached", 1);
+                rv[i] = true;
+            } else {
+                toVerify.add(entry);
+                indexes.add(Integer.valueOf(i));
+            }
+        }
+        if (toVerify.isEmpty())
+            return rv;
+        long start = _context.clock().now();
+        boolean[] ok = DatabaseEntry.verifySignatures(toVerify);
+        int vsz = toVerify.size();
+        _context.statManager().addRateData("netDb.sigVerifyTime", (_context.clock().now() - start) / vsz);
+        _context.statManager().addRateData("netDb.sigVerifyBatch", vsz);
+        for (int j = 0; j < vsz; j++) {
+            if (ok[j]) {
+                DatabaseEntry entry = toVerify.get(j);
+                cache(entry.getHash(), entry.getSignedHash());
+                rv[indexes.get(j).intValue()] = true;
+            }
+        }
+        return rv;
+    }
+
+    private static class Pending {
+        public final DatabaseEntry entry;
+        public final Job onComplete;
+
+        public Pending(DatabaseEntry entry, Job onComplete) {
+            this.entry = entry;
+            this.onComplete = onComplete;
+        }
+    }
+
+    /**
+     *  Take whatever is queued, verify it together, queue the jobs.
+     */
+    private class Runner implements Runnable {
+        public void run() {
+            List<Pending> batch = new ArrayList<Pending>(MAX_BATCH);
+            List<DatabaseEntry> entries = new ArrayList<DatabaseEntry>(MAX_BATCH);
+            while (_isRunning) {
+                try {
+                    Pending p = _queue.poll(60, TimeUnit.SECONDS);
+                    if (p == null)
+                        continue;
+                    batch.add(p);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                _queue.drainTo(batch, MAX_BATCH - 1);
+                for (Pending p : batch) {
+                    entries.add(p.entry);
+                }
+                try {
+                    verify(entries);
+                } catch (RuntimeException re) {
+                    _log.error("Verify error", re);
+                }
+                for (Pending p : batch) {
+                    _context.jobQueue().addJob(p.onComplete);
+                }
+                batch.clear();
+                entries.clear();
+            }
+        }
+    }
+}
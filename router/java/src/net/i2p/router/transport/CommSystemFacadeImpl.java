@@ -334,9 +334,28 @@ public class CommSystemFacadeImpl extends CommSystemFacade {
     private static final int LOOKUP_TIME = 30*60*1000;
 
     private void startGeoIP() {
+        (new TableLoader()).start();
         _context.simpleTimer2().addEvent(new QueueAll(), START_DELAY);
     }
 
+    /**
+     *  Map the precompiled table right away, so lookups are answered
+     *  synchronously from the start and QueueAll has nothing to queue.
+     *  This may have to compile the table first, so not on the SimpleTimer2 queue.
+     *  @since 0.9.27
+     */
+    private class TableLoader extends I2PThread {
+
+        public TableLoader() {
+            super("GeoIP Table");
+            setDaemon(true);
+        }
+
+        public void run() {
+            _geoIP.loadTable();
+        }
+    }
+
     /**
      * Collect the IPs for all routers in the DB, and queue them for lookup,
      * then fire off the periodic lookup task for the first time.
@@ -1,13 +1,19 @@
 package net.i2p.router.transport;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import net.i2p.I2PAppContext;
+import net.i2p.router.OutNetMessage;
 import net.i2p.router.util.PQEntry;
 import net.i2p.util.I2PThread;
 import net.i2p.util.Log;
@@ -15,27 +21,33 @@ import net.i2p.util.Log;
 /**
  *  Concurrent plan:
  *
- *  It's difficult to get rid of the locks on _pendingInboundRequests
- *  since locked_satisyInboundAvailable() leaves Requests on the head
- *  of the queue.
+ *  As of 0.9.27, this is a token bucket with no locks.
  *
- *  When we go to Java 6, we can convert from a locked ArrayList to
- *  a LinkedBlockingDeque, where locked_sIA will poll() from the
- *  head of the queue, and if the request is not fully satisfied,
- *  offerFirst() (i.e. push) it back on the head.
+ *  The available counters are the buckets. Requests take tokens
+ *  with compare-and-set, so a request is granted immediately,
+ *  without queueing, whenever there are enough tokens and nobody is waiting.
  *
- *  Ditto outbound of course.
+ *  Otherwise the request is queued. The pending queues are
+ *  ordered by request priority (the OutNetMessage priority for outbound),
+ *  then FIFO, so that under load, local traffic is served before
+ *  participating traffic. Only one thread at a time satisfies a queue;
+ *  it polls from the head, and if the request is not fully satisfied,
+ *  puts it back, where it stays at the head.
  *
- *  In the meantime, for Java 5, we have lockless 'shortcut'
- *  methods for the common case where we are under the bandwidth limits.
- *  And the volatile counters are now AtomicIntegers / AtomicLongs.
+ *  Queued requests are satisfied when the refiller adds tokens.
+ *  The refiller is woken when a request is queued, and refills
+ *  as soon as the head request can be satisfied, rather than on a fixed tick.
  *
  */
 public class FIFOBandwidthLimiter {
     private final Log _log;
     private final I2PAppContext _context;
-    private final List<SimpleRequest> _pendingInboundRequests;
-    private final List<SimpleRequest> _pendingOutboundRequests;
+    private final BlockingQueue<SimpleRequest> _pendingInboundRequests;
+    private final BlockingQueue<SimpleRequest> _pendingOutboundRequests;
+    /** only one thread satisfies the inbound queue at a time */
+    private final AtomicBoolean _satisfyingInbound = new AtomicBoolean();
+    /** only one thread satisfies the outbound queue at a time */
+    private final AtomicBoolean _satisfyingOutbound = new AtomicBoolean();
     /** how many bytes we can consume for inbound transmission immediately */
     private final AtomicInteger _availableInbound = new AtomicInteger();
     /** how many bytes we can consume for outbound transmission immediately */
@@ -60,7 +72,7 @@ public class FIFOBandwidthLimiter {
     private final AtomicLong _totalAllocatedInboundBytes = new AtomicLong();
     /** lifetime counter of bytes sent */
     private final AtomicLong _totalAllocatedOutboundBytes = new AtomicLong();
-    // following is temp until switch to PBQ
+    /** also the sequence number for FIFO order within a priority */
     private static final AtomicLong __requestId = new AtomicLong();
 
     /** lifetime counter of tokens available for use but exceeded our maxInboundBurst size */
@@ -71,13 +83,14 @@ public class FIFOBandwidthLimiter {
     private final FIFOBandwidthRefiller _refiller;
     private final Thread _refillerThread;
     
+    /** these are only updated by updateStats(), under the refiller's lock */
     private long _lastTotalSent;
     private long _lastTotalReceived;
     private long _lastStatsUpdated;
-    private float _sendBps;
-    private float _recvBps;
-    private float _sendBps15s;
-    private float _recvBps15s;
+    private volatile float _sendBps;
+    private volatile float _recvBps;
+    private volatile float _sendBps15s;
+    private volatile float _recvBps15s;
     
     public /* static */ long now() {
         // dont use the clock().now(), since that may jump
@@ -91,8 +104,10 @@ public class FIFOBandwidthLimiter {
         _context.statManager().createRateStat("bwLimiter.pendingInboundRequests", "How many inbound requests are ahead of the current one (ignoring ones with 0)?", "BandwidthLimiter", new long[] { 5*60*1000l, 60*60*1000l });
         _context.statManager().createRateStat("bwLimiter.outboundDelayedTime", "How long it takes to honor an outbound request (ignoring ones with that go instantly)?", "BandwidthLimiter", new long[] { 5*60*1000l, 60*60*1000l });
         _context.statManager().createRateStat("bwLimiter.inboundDelayedTime", "How long it takes to honor an inbound request (ignoring ones with that go instantly)?", "BandwidthLimiter", new long[] { 5*60*1000l, 60*60*1000l });
-        _pendingInboundRequests = new ArrayList<SimpleRequest>(16);
-        _pendingOutboundRequests = new ArrayList<SimpleRequest>(16);
+        _context.statManager().createRateStat("bwLimiter.outboundDelayedTime.local", "How long it takes to honor an outbound request for local traffic (ignoring ones with that go instantly)?", "BandwidthLimiter", new long[] { 60*1000l, 5*60*1000l, 60*60*1000l });
+        _context.statManager().createRateStat("bwLimiter.outboundDelayedTime.transit", "How long it takes to honor an outbound request for participating and netDb traffic (ignoring ones with that go instantly)?", "BandwidthLimiter", new long[] { 60*1000l, 5*60*1000l, 60*60*1000l });
+        _pendingInboundRequests = new PriorityBlockingQueue<SimpleRequest>(16, new RequestComparator());
+        _pendingOutboundRequests = new PriorityBlockingQueue<SimpleRequest>(16, new RequestComparator());
         _lastTotalSent = _totalAllocatedOutboundBytes.get();
         _lastTotalReceived = _totalAllocatedInboundBytes.get();
         _lastStatsUpdated = now();
@@ -214,19 +229,23 @@ public class FIFOBandwidthLimiter {
     private void requestInbound(SimpleRequest req, int bytesIn, String purpose) {
         // don't init twice - uncomment if we make public again?
         //req.init(bytesIn, 0, purpose);
-        int pending;
-        synchronized (_pendingInboundRequests) {
-            pending = _pendingInboundRequests.size();
-            _pendingInboundRequests.add(req);
-        }
+        int pending = _pendingInboundRequests.size();
+        _pendingInboundRequests.offer(req);
+        // get whatever has accumulated since the last refill
+        _refiller.refillNow();
         satisfyInboundRequests(req.satisfiedBuffer);
         req.satisfiedBuffer.clear();
+        if (req.getPendingRequested() > 0)
+            _refiller.wakeup();
         if (pending > 0)
             _context.statManager().addRateData("bwLimiter.pendingInboundRequests", pending);
     }
 
     /**
      * Request some bytes. Does not block.
+     *
+     * @param priority the OutNetMessage priority, higher is served first when
+     *                 requests must wait. As of 0.9.27.
      */
     public Request requestOutbound(int bytesOut, int priority, String purpose) {
         // try to satisfy without grabbing the global lock
@@ -240,13 +259,14 @@ public class FIFOBandwidthLimiter {
     private void requestOutbound(SimpleRequest req, int bytesOut, String purpose) {
         // don't init twice - uncomment if we make public again?
         //req.init(0, bytesOut, purpose);
-        int pending;
-        synchronized (_pendingOutboundRequests) {
-            pending = _pendingOutboundRequests.size();
-            _pendingOutboundRequests.add(req);
-        }
+        int pending = _pendingOutboundRequests.size();
+        _pendingOutboundRequests.offer(req);
+        // get whatever has accumulated since the last refill
+        _refiller.refillNow();
         satisfyOutboundRequests(req.satisfiedBuffer);
         req.satisfiedBuffer.clear();
+        if (req.getPendingRequested() > 0)
+            _refiller.wakeup();
         if (pending > 0)
             _context.statManager().addRateData("bwLimiter.pendingOutboundRequests", pending);
     }
@@ -275,85 +295,65 @@ public class FIFOBandwidthLimiter {
      * More bytes are available - add them to the queue and satisfy any requests
      * we can
      *
-     * @param buf contains satisfied outbound requests, really just to avoid object thrash, not really used
+     * @param buf contains satisfied outbound requests, really just to avoid object thrash, not really used;
+     *            if null, only add the bytes, the caller will satisfy the requests
      * @param maxBurstIn allow up to this many bytes in from the burst section for this time period (may be negative)
      * @param maxBurstOut allow up to this many bytes in from the burst section for this time period (may be negative)
+     *
+     * Caller must hold the refiller's lock. This may be called from a request thread
+     * via FIFOBandwidthRefiller.refillNow(), not only from the refiller thread.
      */
     final void refillBandwidthQueues(List<Request> buf, long bytesInbound, long bytesOutbound, long maxBurstIn, long maxBurstOut) {
         //if (_log.shouldLog(Log.DEBUG))
         //    _log.debug("Refilling the queues with " + bytesInbound + "/" + bytesOutbound + ": " + getStatus().toString());
 
-        // Take some care throughout to minimize accesses to the atomics,
-        // both for efficiency and to not let strange things happen if
-        // it changes out from under us
-        // This never had locks before concurrent, anyway
-
-        // FIXME wrap - change to AtomicLong or detect
-        int avi = _availableInbound.addAndGet((int) bytesInbound);
-        if (avi > _maxInbound) {
-            //if (_log.shouldLog(Log.DEBUG))
-            //    _log.debug("available inbound (" + avi + ") exceeds our inbound burst (" + _maxInbound + "), so no supplement");
-            int uib = _unavailableInboundBurst.addAndGet(avi - _maxInbound);
-            _availableInbound.set(_maxInbound);
-            if (uib > _maxInboundBurst) {
-                //_totalWastedInboundBytes.addAndGet(uib - _maxInboundBurst);
-                _unavailableInboundBurst.set(_maxInboundBurst);
-            }
-        } else {
-            // try to pull in up to 1/10th of the burst rate, since we refill every 100ms
-            int want = (int)maxBurstIn;
-            if (want > (_maxInbound - avi))
-                want = _maxInbound - avi;
-            //if (_log.shouldLog(Log.DEBUG))
-            //    _log.debug("want to pull " + want + " from the inbound burst (" + _unavailableInboundBurst + ") to supplement " + avi + " (max: " + _maxInbound + ")");
-            
-            if (want > 0) {
-                int uib = _unavailableInboundBurst.get();
-                if (want <= uib) {
-                    _availableInbound.addAndGet(want);
-                    _unavailableInboundBurst.addAndGet(0 - want);
-                } else {
-                    _availableInbound.addAndGet(uib);
-                    _unavailableInboundBurst.set(0);
-                }
-            }
-        }
+        // The available counters are decremented concurrently by requests,
+        // so only ever add to or subtract from them here, never set them.
+        // The burst counters are only touched by the refiller, under its lock.
+        refill(_availableInbound, _unavailableInboundBurst, (int) bytesInbound, _maxInbound, _maxInboundBurst, (int) maxBurstIn);
+        refill(_availableOutbound, _unavailableOutboundBurst, (int) bytesOutbound, _maxOutbound, _maxOutboundBurst, (int) maxBurstOut);
         
-        int avo = _availableOutbound.addAndGet((int) bytesOutbound);
-        if (avo > _maxOutbound) {
-            //if (_log.shouldLog(Log.DEBUG))
-            //    _log.debug("available outbound (" + avo + ") exceeds our outbound burst (" + _maxOutbound + "), so no supplement");
-            int uob = _unavailableOutboundBurst.getAndAdd(avo - _maxOutbound);
-            _availableOutbound.set(_maxOutbound);
-
-            if (uob > _maxOutboundBurst) {
-                //_totalWastedOutboundBytes.getAndAdd(uob - _maxOutboundBurst);
-                _unavailableOutboundBurst.set(_maxOutboundBurst);
+        if (buf != null)
+            satisfyRequests(buf);
+        updateStats();
+    }
+
+    /**
+     *  Add to one bucket, moving any excess into the burst bucket,
+     *  or topping up from the burst bucket.
+     *
+     *  @param maxBurst allow up to this many bytes in from the burst section for this time period (may be negative)
+     *  @since 0.9.27 split out from refillBandwidthQueues()
+     */
+    private static void refill(AtomicInteger available, AtomicInteger burst, int bytes,
+                               int max, int maxBurstBytes, int maxBurst) {
+        int av = available.addAndGet(bytes);
+        if (av > max) {
+            int excess = av - max;
+            available.addAndGet(0 - excess);
+            int ub = burst.addAndGet(excess);
+            if (ub > maxBurstBytes) {
+                //_totalWastedBytes.addAndGet(ub - maxBurstBytes);
+                burst.set(maxBurstBytes);
             }
         } else {
             // try to pull in up to the burst rate, since we refill periodically
-            int want = (int)maxBurstOut;
-            if (want > (_maxOutbound - avo))
-                want = _maxOutbound - avo;
-            //if (_log.shouldLog(Log.DEBUG))
-            //    _log.debug("want to pull " + want + " from the outbound burst (" + _unavailableOutboundBurst + ") to supplement " + avo + " (max: " + _maxOutbound + ")");
-            
+            int want = maxBurst;
+            if (want > (max - av))
+                want = max - av;
             if (want > 0) {
-                int uob = _unavailableOutboundBurst.get();
-                if (want <= uob) {
-                    _availableOutbound.addAndGet(want);
-                    _unavailableOutboundBurst.addAndGet(0 - want);
-                } else {
-                    _availableOutbound.addAndGet(uob);
-                    _unavailableOutboundBurst.set(0);
-                }
+                int ub = burst.get();
+                if (want > ub)
+                    want = ub;
+                available.addAndGet(want);
+                burst.addAndGet(0 - want);
             }
         }
-        
-        satisfyRequests(buf);
-        updateStats();
     }
     
+    /**
+     *  Caller must hold the refiller's lock
+     */
     private void updateStats() {
         long now = now();
         long time = now - _lastStatsUpdated;
@@ -424,77 +424,42 @@ public class FIFOBandwidthLimiter {
      * @param satisfied Out parameter, returned with the satisfied requests added
      */
     private final void satisfyInboundRequests(List<Request> satisfied) {
-        synchronized (_pendingInboundRequests) {
-            if (_inboundUnlimited) {
-                locked_satisfyInboundUnlimited(satisfied);
-            } else {
-                if (_availableInbound.get() > 0) {
-                    locked_satisfyInboundAvailable(satisfied);
-                } else {
-                    // no bandwidth available
-                    if (_log.shouldLog(Log.DEBUG))
-                        _log.debug("Still denying the " + _pendingInboundRequests.size() 
-                                  + " pending inbound requests (status: " + getStatus().toString()
-                                  + ", longest waited " + locked_getLongestInboundWait() + ')');
-                }
-            }
-        }
-        
-        if (satisfied != null) {
-            for (int i = 0; i < satisfied.size(); i++) {
-                SimpleRequest creq = (SimpleRequest)satisfied.get(i);
-                creq.notifyAllocation();
-            }
-        }
+        satisfy(_pendingInboundRequests, _satisfyingInbound, _availableInbound,
+                _totalAllocatedInboundBytes, _inboundUnlimited, satisfied, true);
     }
     
-    /** called from debug logging only */
-    private long locked_getLongestInboundWait() {
-        long start = -1;
-        for (int i = 0; i < _pendingInboundRequests.size(); i++) {
-            Request req = _pendingInboundRequests.get(i);
-            if ( (start < 0) || (start > req.getRequestTime()) )
-                start = req.getRequestTime();
-        }
-        if (start == -1) 
-            return 0;
-        else
-            return now() - start;
-    }
-
-    /** called from debug logging only */
-    private long locked_getLongestOutboundWait() {
-        long start = -1;
-        for (int i = 0; i < _pendingOutboundRequests.size(); i++) {
-            Request req = _pendingOutboundRequests.get(i);
-            if (req == null) continue;
-            if ( (start < 0) || (start > req.getRequestTime()) )
-                start = req.getRequestTime();
-        }
-        if (start == -1)
-            return 0;
-        else
-            return now() - start;
+    /**
+     * @param satisfied Out parameter, returned with the satisfied requests added
+     */
+    private final void satisfyOutboundRequests(List<Request> satisfied) {
+        satisfy(_pendingOutboundRequests, _satisfyingOutbound, _availableOutbound,
+                _totalAllocatedOutboundBytes, _outboundUnlimited, satisfied, false);
     }
-    
+
     /**
-     * There are no limits, so just give every inbound request whatever they want
+     * Allocate as much bandwidth as we can to the requests at the head of the queue,
+     * in priority and then FIFO order, and notify those we allocated to.
+     *
+     * If another thread is already doing this for the queue, return at once;
+     * it will check the queue again before it finishes.
      *
+     * @param satisfied Out parameter, returned with the satisfied requests added
+     * @since 0.9.27 combined from the inbound and outbound methods
      */
-    private final void locked_satisfyInboundUnlimited(List<Request> satisfied) {
-        while (!_pendingInboundRequests.isEmpty()) {
-            SimpleRequest req = _pendingInboundRequests.remove(0);
-            int allocated = req.getPendingRequested();
-            _totalAllocatedInboundBytes.addAndGet(allocated);
-            req.allocateBytes(allocated);
-            satisfied.add(req);
-            long waited = now() - req.getRequestTime();
-            if (_log.shouldLog(Log.DEBUG))
-                 _log.debug("Granting inbound request " + req + " fully (waited " 
-                            + waited
-                            + "ms) pending " + _pendingInboundRequests.size());
-            if (waited > 10)
-                _context.statManager().addRateData("bwLimiter.inboundDelayedTime", waited);
+    private void satisfy(BlockingQueue<SimpleRequest> queue, AtomicBoolean busy, AtomicInteger available,
+                         AtomicLong totalAllocated, boolean unlimited, List<Request> satisfied,
+                         boolean isInbound) {
+        while (!queue.isEmpty() && (unlimited || available.get() > 0) &&
+               busy.compareAndSet(false, true)) {
+            try {
+                locked_satisfy(queue, available, totalAllocated, unlimited, satisfied, isInbound);
+            } finally {
+                busy.set(false);
+            }
+        }
+        for (int i = 0; i < satisfied.size(); i++) {
+            SimpleRequest creq = (SimpleRequest)satisfied.get(i);
+            creq.notifyAllocation();
         }
     }
     
@@ -503,199 +468,130 @@ public class FIFOBandwidthLimiter {
      * bandwidth as we can to those who have used what we have given them and are waiting
      * for more (giving priority to the first ones who requested it)
      * 
-     * @return list of requests that were completely satisfied
+     * NO, don't stop after a partial allocation, since SSU requires a full allocation to proceed.
+     * A partially satisfied request goes back on the queue, where it is still first,
+     * and we stop until the next refill.
+     *
+     * Caller must hold the busy flag for the queue.
      */
-    private final void locked_satisfyInboundAvailable(List<Request> satisfied) {
-        for (int i = 0; i < _pendingInboundRequests.size(); i++) {
-            SimpleRequest req = _pendingInboundRequests.get(i);
+    private void locked_satisfy(BlockingQueue<SimpleRequest> queue, AtomicInteger available,
+                                AtomicLong totalAllocated, boolean unlimited, List<Request> satisfied,
+                                boolean isInbound) {
+        SimpleRequest req;
+        while ((unlimited || available.get() > 0) && (req = queue.poll()) != null) {
             long waited = now() - req.getRequestTime();
             if (req.getAborted()) {
                 // connection decided they dont want the data anymore
                 if (_log.shouldLog(Log.DEBUG))
-                     _log.debug("Aborting inbound request to " 
+                     _log.debug("Aborting " + (isInbound ? "inbound" : "outbound") + " request to " 
                                 + req
                                 + " waited " 
                                 + waited
-                                + "ms) pending " + _pendingInboundRequests.size());
-                _pendingInboundRequests.remove(i);
-                i--;
+                                + "ms) pending " + queue.size());
                 continue;
             }
-            int avi = _availableInbound.get();
-            if (avi <= 0) break;
-            // NO, don't do this, since SSU requires a full allocation to proceed.
-            // By stopping after a partial allocation, we stall SSU.
-            // This never affected NTCP (which also requires a full allocation)
-            // since it registers a CompleteListener, so getAllocationsSinceWait() was always zero.
-            //if (req.getAllocationsSinceWait() > 0) {
-                // we have already allocated some values to this request, but
-                // they haven't taken advantage of it yet (most likely they're
-                // IO bound)
-                // (also, the complete listener is only set for situations where 
-                // waitForNextAllocation() is never called)
-            //    continue;
-            //}
-            // ok, they are really waiting for us to give them stuff
             int requested = req.getPendingRequested();
-            int allocated;
-            if (avi >= requested) 
-                allocated = requested;
-            else
-                allocated = avi;
-            _availableInbound.addAndGet(0 - allocated);
-            _totalAllocatedInboundBytes.addAndGet(allocated);
-            req.allocateBytes(allocated);
-            satisfied.add(req);
+            int allocated = unlimited ? requested : take(available, requested);
+            if (allocated > 0) {
+                totalAllocated.addAndGet(allocated);
+                req.allocateBytes(allocated);
+                satisfied.add(req);
+            }
             if (req.getPendingRequested() > 0) {
                 if (_log.shouldLog(Log.DEBUG))
-                     _log.debug("Allocating " + allocated + " bytes inbound as a partial grant to " 
-                                + req
-                                + " waited " 
-                                + waited
-                                + "ms) pending " + _pendingInboundRequests.size()
-                                + ", longest waited " + locked_getLongestInboundWait() + " in");
-            } else {
-                if (_log.shouldLog(Log.DEBUG))
-                     _log.debug("Allocating " + allocated + " bytes inbound to finish the partial grant to " 
+                     _log.debug("Allocating " + allocated + " bytes " + (isInbound ? "inbound" : "outbound")
+                                + " as a partial grant to " 
                                 + req
                                 + " waited " 
                                 + waited
-                                + "ms) pending " + _pendingInboundRequests.size()
-                                + ", longest waited " + locked_getLongestInboundWait() + " out");
-                _pendingInboundRequests.remove(i);
-                i--;
-                if (waited > 10)
+                                + "ms) pending " + queue.size());
+                // it keeps its sequence number, so it's still first in line
+                queue.offer(req);
+                break;
+            }
+            if (_log.shouldLog(Log.DEBUG))
+                 _log.debug("Allocating " + allocated + " bytes " + (isInbound ? "inbound" : "outbound")
+                            + " to finish the partial grant to " 
+                            + req
+                            + " waited " 
+                            + waited
+                            + "ms) pending " + queue.size());
+            if (waited > 10) {
+                if (isInbound) {
                     _context.statManager().addRateData("bwLimiter.inboundDelayedTime", waited);
+                } else {
+                    _context.statManager().addRateData("bwLimiter.outboundDelayedTime", waited);
+                    if (req.getPriority() >= OutNetMessage.PRIORITY_MY_DATA)
+                        _context.statManager().addRateData("bwLimiter.outboundDelayedTime.local", waited);
+                    else
+                        _context.statManager().addRateData("bwLimiter.outboundDelayedTime.transit", waited);
+                }
             }
         }
     }
-    
+
     /**
-     * @param satisfied Out parameter, returned with the satisfied requests added
+     *  Take up to the requested number of tokens.
+     *
+     *  @return number taken, 0 if none available
+     *  @since 0.9.27
      */
-    private final void satisfyOutboundRequests(List<Request> satisfied) {
-        synchronized (_pendingOutboundRequests) {
-            if (_outboundUnlimited) {
-                locked_satisfyOutboundUnlimited(satisfied);
-            } else {
-                if (_availableOutbound.get() > 0) {
-                    locked_satisfyOutboundAvailable(satisfied);
-                } else {
-                    // no bandwidth available
-                    if (_log.shouldLog(Log.INFO))
-                        _log.info("Still denying the " + _pendingOutboundRequests.size() 
-                                  + " pending outbound requests (status: " + getStatus().toString()
-                                  + ", longest waited " + locked_getLongestOutboundWait() + ')');
-                }
-            }
-        }
-        
-        if (satisfied != null) {
-            for (int i = 0; i < satisfied.size(); i++) {
-                SimpleRequest creq = (SimpleRequest)satisfied.get(i);
-                creq.notifyAllocation();
-            }
+    private static int take(AtomicInteger available, int requested) {
+        while (true) {
+            int avail = available.get();
+            if (avail <= 0)
+                return 0;
+            int taken = Math.min(avail, requested);
+            if (available.compareAndSet(avail, avail - taken))
+                return taken;
         }
     }
-    
+
     /**
-     * There are no limits, so just give every outbound request whatever they want
+     *  Take all the requested tokens or none.
      *
+     *  @return success
+     *  @since 0.9.27
      */
-    private final void locked_satisfyOutboundUnlimited(List<Request> satisfied) {
-        while (!_pendingOutboundRequests.isEmpty()) {
-            SimpleRequest req = _pendingOutboundRequests.remove(0);
-            int allocated = req.getPendingRequested();
-            _totalAllocatedOutboundBytes.addAndGet(allocated);
-            req.allocateBytes(allocated);
-            satisfied.add(req);
-            long waited = now() - req.getRequestTime();
-            if (_log.shouldLog(Log.DEBUG))
-                 _log.debug("Granting outbound request " + req + " fully (waited " 
-                            + waited
-                            + "ms) pending " + _pendingOutboundRequests.size()
-                            + ", longest waited " + locked_getLongestOutboundWait() + " out");
-            if (waited > 10)
-                _context.statManager().addRateData("bwLimiter.outboundDelayedTime", waited);
+    private static boolean takeAll(AtomicInteger available, int requested) {
+        while (true) {
+            int avail = available.get();
+            if (avail < requested)
+                return false;
+            if (available.compareAndSet(avail, avail - requested))
+                return true;
         }
     }
-    
+
     /**
-     * ok, we have limits, so lets iterate through the requests, allocating as much
-     * bandwidth as we can to those who have used what we have given them and are waiting
-     * for more (giving priority to the first ones who requested it)
-     * 
-     * @return list of requests that were completely satisfied
+     *  How many bytes must be added before the request at the head of the queue
+     *  can be fully satisfied?
+     *
+     *  @return 0 if nothing is waiting or it can be satisfied now
+     *  @since 0.9.27
      */
-    private final void locked_satisfyOutboundAvailable(List<Request> satisfied) {
-        for (int i = 0; i < _pendingOutboundRequests.size(); i++) {
-            SimpleRequest req = _pendingOutboundRequests.get(i);
-            long waited = now() - req.getRequestTime();
-            if (req.getAborted()) {
-                // connection decided they dont want the data anymore
-                if (_log.shouldLog(Log.DEBUG))
-                     _log.debug("Aborting outbound request to " 
-                                + req
-                                + " waited " 
-                                + waited
-                                + "ms) pending " + _pendingOutboundRequests.size());
-                _pendingOutboundRequests.remove(i);
-                i--;
-                continue;
-            }
-            int avo = _availableOutbound.get();
-            if (avo <= 0) break;
-            // NO, don't do this, since SSU requires a full allocation to proceed.
-            // By stopping after a partial allocation, we stall SSU.
-            // This never affected NTCP (which also requires a full allocation)
-            // since it registers a CompleteListener, so getAllocationsSinceWait() was always zero.
-            //if (req.getAllocationsSinceWait() > 0) {
-                // we have already allocated some values to this request, but
-                // they haven't taken advantage of it yet (most likely they're
-                // IO bound)
-            //    if (_log.shouldLog(Log.WARN))
-            //        _log.warn("multiple allocations since wait... ntcp shouldn't do this: " + req);
-            //    continue;
-            //}
-            // ok, they are really waiting for us to give them stuff
-            int requested = req.getPendingRequested();
-            int allocated;
-            if (avo >= requested) 
-                allocated = requested;
-            else
-                allocated = avo;
-            _availableOutbound.addAndGet(0 - allocated);
-            _totalAllocatedOutboundBytes.addAndGet(allocated);
-            req.allocateBytes(allocated);
-            satisfied.add(req);
-            if (req.getPendingRequested() > 0) {
-                if (_log.shouldLog(Log.DEBUG))
-                     _log.debug("Allocating " + allocated + " bytes outbound as a partial grant to " 
-                                + req
-                                + " waited " 
-                                + waited
-                                + "ms) pending " + _pendingOutboundRequests.size()
-                                + ", longest waited " + locked_getLongestOutboundWait() + " out");
-            } else {
-                if (_log.shouldLog(Log.DEBUG))
-                     _log.debug("Allocating " + allocated + " bytes outbound to finish the partial grant to " 
-                                + req
-                                + " waited " 
-                                + waited
-                                + "ms) pending " + _pendingOutboundRequests.size()
-                                + ", longest waited " + locked_getLongestOutboundWait() + " out)");
-                _pendingOutboundRequests.remove(i);
-                i--;
-                if (waited > 10)
-                    _context.statManager().addRateData("bwLimiter.outboundDelayedTime", waited);
-            }
-        }
+    int getInboundDeficit() {
+        return getDeficit(_pendingInboundRequests, _availableInbound);
     }
-    
+
+    /**
+     *  @return 0 if nothing is waiting or it can be satisfied now
+     *  @since 0.9.27
+     */
+    int getOutboundDeficit() {
+        return getDeficit(_pendingOutboundRequests, _availableOutbound);
+    }
+
+    private static int getDeficit(BlockingQueue<SimpleRequest> queue, AtomicInteger available) {
+        SimpleRequest req = queue.peek();
+        if (req == null)
+            return 0;
+        return Math.max(0, req.getPendingRequested() - available.get());
+    }
+
     /**
-     *  Lockless total satisfaction,
-     *  at some minor risk of exceeding the limits
-     *  and driving the available counter below zero
+     *  Lockless total satisfaction.
+     *  Does not drive the available counter below zero.
      *
      *  @param requested number of bytes
      *  @return satisfaction
@@ -704,20 +600,17 @@ public class FIFOBandwidthLimiter {
     private boolean shortcutSatisfyInboundRequest(int requested) {
         boolean rv = _inboundUnlimited ||
                      (_pendingInboundRequests.isEmpty() &&
-                      _availableInbound.get() >= requested);
-        if (rv) {
-            _availableInbound.addAndGet(0 - requested);
+                      takeAll(_availableInbound, requested));
+        if (rv)
             _totalAllocatedInboundBytes.addAndGet(requested);
-        }
         //if (_log.shouldLog(Log.INFO))
         //    _log.info("IB shortcut for " + requested + "B? " + rv);
         return rv;
     }
     
     /**
-     *  Lockless total satisfaction,
-     *  at some minor risk of exceeding the limits
-     *  and driving the available counter below zero
+     *  Lockless total satisfaction.
+     *  Does not drive the available counter below zero.
      *
      *  @param requested number of bytes
      *  @return satisfaction
@@ -726,11 +619,9 @@ public class FIFOBandwidthLimiter {
     private boolean shortcutSatisfyOutboundRequest(int requested) {
         boolean rv = _outboundUnlimited ||
                      (_pendingOutboundRequests.isEmpty() &&
-                      _availableOutbound.get() >= requested);
-        if (rv) {
-            _availableOutbound.addAndGet(0 - requested);
+                      takeAll(_availableOutbound, requested));
+        if (rv)
             _totalAllocatedOutboundBytes.addAndGet(requested);
-        }
         //if (_log.shouldLog(Log.INFO))
         //    _log.info("OB shortcut for " + requested + "B? " + rv);
         return rv;
@@ -772,6 +663,20 @@ public class FIFOBandwidthLimiter {
 ******/
     }
     
+    /**
+     *  Highest priority first, then oldest first.
+     *  @since 0.9.27
+     */
+    private static class RequestComparator implements Comparator<SimpleRequest>, Serializable {
+        public int compare(SimpleRequest l, SimpleRequest r) {
+            int d = r.getPriority() - l.getPriority();
+            if (d != 0)
+                return d;
+            long ld = l.getSeqNum() - r.getSeqNum();
+            return ld > 0 ? 1 : (ld < 0 ? -1 : 0);
+        }
+    }
+
     private static class SimpleRequest implements Request {
         private int _allocated;
         private final int _total;
@@ -786,13 +691,12 @@ public class FIFOBandwidthLimiter {
         private final int _priority;
         
         /**
-         *  @param priority 0 for now
+         *  @param priority higher is served first, 0 for inbound
          */
         public SimpleRequest(int bytes, int priority) {
             satisfiedBuffer = new ArrayList<Request>(1);
             _total = bytes;
             _priority = priority;
-            // following two are temp until switch to PBQ
             _requestTime = System.currentTimeMillis();
             _requestId = __requestId.incrementAndGet();
         }
@@ -888,8 +792,8 @@ public class FIFOBandwidthLimiter {
 
         // PQEntry methods
         public int getPriority() { return _priority; };
-        // uncomment for switch to PBQ
-        public void setSeqNum(long num) { /** _requestId = num; */ };
+        /** unused, the request ID is the sequence number */
+        public void setSeqNum(long num) {};
         public long getSeqNum() { return _requestId; };
 
         @Override
@@ -3,6 +3,7 @@ package net.i2p.router.transport;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import net.i2p.I2PAppContext;
@@ -18,6 +19,10 @@ import net.i2p.util.Log;
  *  As of 0.8.12, this also contains a counter for outbound participating bandwidth.
  *  This was a good place for it since we needed a thread for it.
  *
+ *  As of 0.9.27, the limiter may also refill on demand when a request
+ *  can't be satisfied, and the thread sleeps only until the first waiting
+ *  request can be satisfied, and is woken when a request starts waiting.
+ *
  *  Public only for the properties and defaults.
  */
 public class FIFOBandwidthRefiller implements Runnable {
@@ -34,11 +39,19 @@ public class FIFOBandwidthRefiller implements Runnable {
     private int _outboundBurstKBytesPerSecond;
     /** when did we last replenish the queue? */
     private long _lastRefillTime;
+    /** thousandths of a byte left over from the last refill */
+    private long _inboundRemainder, _outboundRemainder;
     /** when did we last check the config for updates? */
     private long _lastCheckConfigTime;
     /** how frequently do we check the config for updates? */
     private long _configCheckPeriodMs = 60*1000;
     private volatile boolean _isRunning;
+    /** for updateQueues(), checkConfig(), _lastRefillTime, and the limiter's stats */
+    private final ReentrantLock _refillLock = new ReentrantLock();
+    /** to wake up the thread */
+    private final Object _waitLock = new Object();
+    /** when did we last update the participating counter? */
+    private long _lastPartTick;
  
     public static final String PROP_INBOUND_BANDWIDTH = "i2np.bandwidth.inboundKBytesPerSecond";
     public static final String PROP_OUTBOUND_BANDWIDTH = "i2np.bandwidth.outboundKBytesPerSecond";
@@ -82,6 +95,13 @@ public class FIFOBandwidthRefiller implements Runnable {
      * the bandwidth limiter will get an update this often (ms)
      */
     private static final long REPLENISH_FREQUENCY = 40;
+
+    /**
+     *  Don't refill more often than this (ms).
+     *  Requests waiting for less than this many ms worth of bandwidth wait this long.
+     *  @since 0.9.27
+     */
+    private static final long MIN_REPLENISH_FREQUENCY = 5;
     
     FIFOBandwidthRefiller(I2PAppContext context, FIFOBandwidthLimiter limiter) {
         _limiter = limiter;
@@ -94,36 +114,121 @@ public class FIFOBandwidthRefiller implements Runnable {
     /** @since 0.8.8 */
     synchronized void shutdown() {
         _isRunning = false;
+        wakeup();
     }
 
     public void run() {
         // bootstrap 'em with nothing
-        _lastRefillTime = _limiter.now();
+        _refillLock.lock();
+        try {
+            _lastRefillTime = _limiter.now();
+        } finally {
+            _refillLock.unlock();
+        }
+        _lastPartTick = _limiter.now();
         List<FIFOBandwidthLimiter.Request> buffer = new ArrayList<Request>(2);
         while (_isRunning) {
             long now = _limiter.now();
             if (now >= _lastCheckConfigTime + _configCheckPeriodMs) {
-                checkConfig();
+                _refillLock.lock();
+                try {
+                    checkConfig();
+                } finally {
+                    _refillLock.unlock();
+                }
                 now = _limiter.now();
                 _lastCheckConfigTime = now;
             }
             
-            updateParticipating(now);
-            boolean updated = updateQueues(buffer, now);
-            if (updated) {
-                _lastRefillTime = now;
+            // the participating counter works in REPLENISH_FREQUENCY periods
+            if (now >= _lastPartTick + REPLENISH_FREQUENCY || now < _lastPartTick) {
+                updateParticipating(now);
+                _lastPartTick = now;
+            }
+            _refillLock.lock();
+            try {
+                boolean updated = updateQueues(buffer, now);
+                if (updated) {
+                    _lastRefillTime = now;
+                }
+            } finally {
+                _refillLock.unlock();
             }
             
-            try { Thread.sleep(REPLENISH_FREQUENCY); } catch (InterruptedException ie) {}
+            long toWait = getWaitTime();
+            synchronized (_waitLock) {
+                try { _waitLock.wait(toWait); } catch (InterruptedException ie) {}
+            }
+        }
+    }
+
+    /**
+     *  Add the bandwidth accumulated since the last refill, if it has been long enough.
+     *  Does not satisfy any requests, caller must do that.
+     *  Called by the limiter when a request can't be satisfied immediately.
+     *  Does not block.
+     *
+     *  @since 0.9.27
+     */
+    void refillNow() {
+        if (!_refillLock.tryLock())
+            return;
+        try {
+            long now = _limiter.now();
+            if (updateQueues(null, now))
+                _lastRefillTime = now;
+        } finally {
+            _refillLock.unlock();
         }
     }
+
+    /**
+     *  A request is waiting; recalculate how long to sleep.
+     *
+     *  @since 0.9.27
+     */
+    void wakeup() {
+        synchronized (_waitLock) {
+            _waitLock.notifyAll();
+        }
+    }
+
+    /**
+     *  How long until the first waiting request in either direction can be satisfied,
+     *  between MIN_REPLENISH_FREQUENCY and REPLENISH_FREQUENCY.
+     *
+     *  @since 0.9.27
+     */
+    private long getWaitTime() {
+        long rv = REPLENISH_FREQUENCY;
+        int deficit = _limiter.getInboundDeficit();
+        if (deficit > 0 && _inboundKBytesPerSecond > 0)
+            rv = Math.min(rv, 1 + ((deficit * 1000L) / (1024L * _inboundKBytesPerSecond)));
+        deficit = _limiter.getOutboundDeficit();
+        if (deficit > 0 && _outboundKBytesPerSecond > 0)
+            rv = Math.min(rv, 1 + ((deficit * 1000L) / (1024L * _outboundKBytesPerSecond)));
+        return Math.max(rv, MIN_REPLENISH_FREQUENCY);
+    }
     
+    /**
+     *  Takes the refill lock, as a request thread may be in refillNow()
+     */
     synchronized void reinitialize() {
-        _lastRefillTime = _limiter.now();
-        checkConfig();
-        _lastCheckConfigTime = _lastRefillTime;
+        _refillLock.lock();
+        try {
+            _lastRefillTime = _limiter.now();
+            checkConfig();
+        } finally {
+            _refillLock.unlock();
+        }
+        _lastCheckConfigTime = _limiter.now();
     }
     
+    /**
+     *  Caller must hold _refillLock
+     *
+     *  @param buffer if null, don't satisfy requests
+     */
     private boolean updateQueues(List<FIFOBandwidthLimiter.Request> buffer, long now) {
         long numMs = (now - _lastRefillTime);
         if (_log.shouldLog(Log.DEBUG))
@@ -132,11 +237,16 @@ public class FIFOBandwidthRefiller implements Runnable {
                        + _inboundKBytesPerSecond + ", out=" 
                        + _outboundKBytesPerSecond  +")");
         // clock skew
-        if (numMs >= REPLENISH_FREQUENCY * 50 || numMs <= 0)
+        if (numMs >= REPLENISH_FREQUENCY * 50 || numMs < 0)
             numMs = REPLENISH_FREQUENCY;
-        if (numMs >= REPLENISH_FREQUENCY) {
-            long inboundToAdd = (1024*_inboundKBytesPerSecond * numMs)/1000;
-            long outboundToAdd = (1024*_outboundKBytesPerSecond * numMs)/1000;
+        if (numMs >= MIN_REPLENISH_FREQUENCY) {
+            // carry the fractional bytes over, as we may refill every few ms
+            long in = (1024L * _inboundKBytesPerSecond * numMs) + _inboundRemainder;
+            long out = (1024L * _outboundKBytesPerSecond * numMs) + _outboundRemainder;
+            long inboundToAdd = in / 1000;
+            long outboundToAdd = out / 1000;
+            _inboundRemainder = in % 1000;
+            _outboundRemainder = out % 1000;
 
             if (inboundToAdd < 0) inboundToAdd = 0;
             if (outboundToAdd < 0) outboundToAdd = 0;
@@ -172,6 +282,9 @@ public class FIFOBandwidthRefiller implements Runnable {
         }
     }
     
+    /**
+     *  Caller must hold _refillLock
+     */
     private void checkConfig() {
         updateInboundRate();
         updateOutboundRate();
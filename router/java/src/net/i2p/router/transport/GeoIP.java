@@ -32,8 +32,12 @@ import net.i2p.util.SystemVersion;
 /**
  * Manage geoip lookup in a file with the Tor geoip format.
  *
- * The lookup is expensive, so a lookup is queued with add().
- * The actual lookup of multiple IPs is fired with lookup().
+ * When the precompiled range table (see GeoIPTable) is loaded with
+ * loadTable(), get() answers synchronously from the memory-mapped table
+ * and add() does nothing.
+ *
+ * Otherwise, the lookup is expensive, so a lookup is queued with add().
+ * The actual lookup of multiple IPs is fired with blockingLookup().
  * To get a country for an IP, use get() which returns a lower-case,
  * generally two-letter country code or null.
  *
@@ -59,6 +63,9 @@ public class GeoIP {
     private final Set<Long> _notFound;
     private final AtomicBoolean _lock;
     private int _lookupRunCount;
+    private final AtomicBoolean _tableAttempted;
+    /** if non-null, used instead of all the above */
+    private volatile GeoIPTable _table;
     
     static final String PROP_GEOIP_ENABLED = "routerconsole.geoip.enable";
     public static final String PROP_GEOIP_DIR = "geoip.dir";
@@ -87,6 +94,7 @@ public class GeoIP {
         _pendingIPv6Search = new ConcurrentHashSet<Long>();
         _notFound = new ConcurrentHashSet<Long>();
         _lock = new AtomicBoolean();
+        _tableAttempted = new AtomicBoolean();
         readCountryFile();
     }
 
@@ -94,6 +102,7 @@ public class GeoIP {
      *  @since 0.9.3
      */
     public void shutdown() {
+        _table = null;
         _codeToName.clear();
         _codeCache.clear();
         _IPToCountry.clear();
@@ -118,6 +127,82 @@ public class GeoIP {
     }
 ******/
 
+    /**
+     * Map the precompiled range table, compiling it first into the
+     * config dir if it is missing or was built from different source files.
+     * After success, get() answers synchronously from the table.
+     *
+     * Only attempted once. Does nothing if geoip is disabled or
+     * the Debian/Maxmind databases are in use.
+     *
+     * @return success
+     * @since 0.9.27
+     */
+    public boolean loadTable() {
+        if (_tableAttempted.getAndSet(true))
+            return _table != null;
+        if (! _context.getBooleanPropertyDefaultTrue(PROP_GEOIP_ENABLED))
+            return false;
+        if (ENABLE_DEBIAN &&
+            (new File(_context.getProperty(PROP_DEBIAN_GEOIP, DEBIAN_GEOIP_FILE)).exists() ||
+             new File(_context.getProperty(PROP_DEBIAN_GEOIPV6, DEBIAN_GEOIPV6_FILE)).exists()))
+            return false;
+        File geoDir = getGeoDir();
+        File v4Source = new File(geoDir, GEOIP_FILE_DEFAULT);
+        File v6Source = GeoIPv6.getGeoIPFile(_context);
+        File configTable = new File(new File(_context.getConfigDir(), GEOIP_DIR_DEFAULT),
+                                    GeoIPTable.TABLE_FILE_DEFAULT);
+        File[] candidates = new File[] { configTable, new File(geoDir, GeoIPTable.TABLE_FILE_DEFAULT) };
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < candidates.length; i++) {
+            File f = candidates[i];
+            if (!f.exists())
+                continue;
+            try {
+                GeoIPTable table = GeoIPTable.open(f, _codeCache);
+                if (table.isCurrent(v4Source, v6Source)) {
+                    useTable(table, start);
+                    return true;
+                }
+                if (_log.shouldLog(Log.INFO))
+                    _log.info("GeoIP table " + f + " does not match the source files");
+            } catch (IOException ioe) {
+                _log.error("GeoIP table failure", ioe);
+            }
+        }
+        if (!v4Source.exists() && !v6Source.exists())
+            return false;
+        try {
+            GeoIPTable.Builder b = new GeoIPTable.Builder();
+            if (v4Source.exists())
+                b.readV4File(v4Source);
+            if (v6Source.exists())
+                b.readV6File(v6Source);
+            File dir = configTable.getParentFile();
+            if (!dir.exists())
+                dir.mkdirs();
+            b.write(configTable);
+            useTable(GeoIPTable.open(configTable, _codeCache), start);
+            return true;
+        } catch (IOException ioe) {
+            _log.error("GeoIP table failure", ioe);
+        } catch (IllegalArgumentException iae) {
+            _log.error("GeoIP table failure", iae);
+        }
+        return false;
+    }
+
+    private void useTable(GeoIPTable table, long start) {
+        _table = table;
+        _IPToCountry.clear();
+        _pendingSearch.clear();
+        _pendingIPv6Search.clear();
+        _notFound.clear();
+        if (_log.shouldLog(Log.INFO))
+            _log.info("Loaded GeoIP table " + table.getFile() + " with " + table.size() +
+                      " ranges in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
     /**
      * Blocking lookup of all pending IPs.
      * Results will be added to the table and available via get() after completion.
@@ -128,6 +213,11 @@ public class GeoIP {
             _pendingIPv6Search.clear();
             return;
         }
+        if (loadTable()) {
+            // nothing to look up
+            updateOurCountry();
+            return;
+        }
         int pri = Thread.currentThread().getPriority();
         if (pri > Thread.MIN_PRIORITY)
             Thread.currentThread().setPriority(pri - 1);
@@ -256,11 +346,7 @@ public class GeoIP {
     *
     */
     private void readCountryFile() {
-        String geoDir = _context.getProperty(PROP_GEOIP_DIR, GEOIP_DIR_DEFAULT);
-        File geoFile = new File(geoDir);
-        if (!geoFile.isAbsolute())
-            geoFile = new File(_context.getBaseDir(), geoDir);
-        geoFile = new File(geoFile, COUNTRY_FILE_DEFAULT);
+        File geoFile = new File(getGeoDir(), COUNTRY_FILE_DEFAULT);
         if (!geoFile.exists()) {
             if (_log.shouldLog(Log.WARN))
                 _log.warn("Country file not found: " + geoFile.getAbsolutePath());
@@ -318,11 +404,18 @@ public class GeoIP {
     *
     */
     private String[] readGeoIPFile(Long[] search) {
-        String geoDir = _context.getProperty(PROP_GEOIP_DIR, GEOIP_DIR_DEFAULT);
-        File geoFile = new File(geoDir);
-        if (!geoFile.isAbsolute())
-            geoFile = new File(_context.getBaseDir(), geoDir);
-        geoFile = new File(geoFile, GEOIP_FILE_DEFAULT);
+        return readGeoIPFile(new File(getGeoDir(), GEOIP_FILE_DEFAULT), search);
+    }
+
+   /**
+    * Package private for GeoIPTable comparison
+    *
+    * @param search a sorted array of IPs to search
+    * @return an array of country codes, same order as the search param,
+    *         or a zero-length array on failure
+    * @since 0.9.27 split out from above
+    */
+    String[] readGeoIPFile(File geoFile, Long[] search) {
         if (!geoFile.exists()) {
             if (_log.shouldLog(Log.WARN))
                 _log.warn("GeoIP file not found: " + geoFile.getAbsolutePath());
@@ -372,6 +465,18 @@ public class GeoIP {
         return rv;
     }
 
+    /**
+     *  @return the directory containing geoip.txt and countries.txt
+     *  @since 0.9.27
+     */
+    private File getGeoDir() {
+        String geoDir = _context.getProperty(PROP_GEOIP_DIR, GEOIP_DIR_DEFAULT);
+        File geoFile = new File(geoDir);
+        if (!geoFile.isAbsolute())
+            geoFile = new File(_context.getBaseDir(), geoDir);
+        return geoFile;
+    }
+
     /**
      *  Put our country code in the config, where others (such as Timestamper) can get it,
      *  and it will be there next time at startup.
@@ -422,6 +527,8 @@ public class GeoIP {
 
     /** see above for ip-to-long mapping */
     private void add(long ip) {
+        if (_table != null)
+            return;
         Long li = Long.valueOf(ip);
         if (!(_IPToCountry.containsKey(li) || _notFound.contains(li))) {
             if (ip >= 0 && ip < (1L << 32))
@@ -448,6 +555,12 @@ public class GeoIP {
      * @return lower-case code, generally two letters, or null.
      */
     public String get(byte ip[]) {
+        GeoIPTable table = _table;
+        if (table != null) {
+            if (ip.length == 16)
+                return table.getV6(toLong(ip));
+            return table.getV4(toLong(ip));
+        }
         return get(toLong(ip));
     }
 
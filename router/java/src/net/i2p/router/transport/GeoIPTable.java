@@ -0,0 +1,530 @@
+package net.i2p.router.transport;
+/*
+ * free (adj.): unencumbered; not under the control of others
+ * Use at your own risk.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import net.i2p.I2PAppContext;
+import net.i2p.crypto.SHA256Generator;
+import net.i2p.data.DataHelper;
+import net.i2p.util.FileUtil;
+import net.i2p.util.SecureFileOutputStream;
+
+/**
+ *  A precompiled, memory-mapped range table of IPv4 and IPv6 networks
+ *  to country codes, generated from geoip.txt and geoipv6.dat.gz.
+ *
+ *  Lookups are a binary search directly in the mapped file, so they
+ *  are synchronous, O(log n), lock-free, and require no per-IP cache.
+ *  Instances are immutable after open() and may be shared by all threads.
+ *
+ *  The table records the sizes and SHA-256 hashes of the source files
+ *  it was built from. At startup, GeoIP compares them to the current
+ *  source files and rebuilds the table in the config dir if they differ.
+ *  Modification times are not used, as installers and packagers change them.
+ *
+ *<pre>
+ * File format:
+ *   Bytes 0-9: Magic number "I2PGeoIPTb"
+ *   Bytes 10-11: version (0x0002)
+ *   Bytes 12-15 flags (0)
+ *   Bytes 16-23: Date (long)
+ *   Bytes 24-31: Size of the IPv4 source file (long)
+ *   Bytes 32-39: Size of the IPv6 source file (long)
+ *   Bytes 40-41: Number of country codes (C)
+ *   Bytes 42-45: Number of IPv4 records (N4)
+ *   Bytes 46-49: Number of IPv6 records (N6)
+ *   Bytes 50-81: SHA-256 of the IPv4 source file (zeros if none)
+ *   Bytes 82-113: SHA-256 of the IPv6 source file (zeros if none)
+ *   Bytes 114-xx: Comment (UTF-8)
+ *   Bytes xx-255: null padding
+ *   Bytes 256-: C 2 byte country codes, LOWER case (ASCII)
+ *   Then N4 10 byte records:
+ *       4 byte from (unsigned)
+ *       4 byte to (unsigned)
+ *       2 byte country index
+ *   Then N6 18 byte records:
+ *       8 byte from (/64, SIGNED twos complement)
+ *       8 byte to (/64, SIGNED twos complement)
+ *       2 byte country index
+ *   Data must be sorted, no overlap
+ *</pre>
+ *
+ *  @since 0.9.27
+ */
+class GeoIPTable {
+
+    static final String TABLE_FILE_DEFAULT = "geoip-table.dat";
+    private static final String MAGIC = "I2PGeoIPTb\0\002\0\0\0\0";
+    private static final String COMMENT = "I2P precompiled geoip range table. See GeoIPTable.java for format.";
+    /** includes magic */
+    private static final int HEADER_LEN = 256;
+    private static final int V4_RECORD_LEN = 10;
+    private static final int V6_RECORD_LEN = 18;
+    private static final int HASH_LEN = 32;
+
+    private final File _file;
+    private final ByteBuffer _buf;
+    private final long _v4SourceSize;
+    private final long _v6SourceSize;
+    private final byte[] _v4SourceHash;
+    private final byte[] _v6SourceHash;
+    private final String[] _codes;
+    private final int _v4Start;
+    private final int _v4Count;
+    private final int _v6Start;
+    private final int _v6Count;
+
+    private GeoIPTable(File file, ByteBuffer buf, Map<String, String> codeCache) throws IOException {
+        _file = file;
+        _buf = buf;
+        if (buf.capacity() < HEADER_LEN)
+            throw new IOException("Truncated geoip table " + file);
+        byte[] magic = new byte[MAGIC.length()];
+        for (int i = 0; i < magic.length; i++) {
+            magic[i] = buf.get(i);
+        }
+        if (!DataHelper.eq(magic, DataHelper.getASCII(MAGIC)))
+            throw new IOException("Not a geoip table file " + file);
+        _v4SourceSize = buf.getLong(24);
+        _v6SourceSize = buf.getLong(32);
+        int ncc = buf.getShort(40) & 0xffff;
+        _v4Count = buf.getInt(42);
+        _v6Count = buf.getInt(46);
+        _v4SourceHash = new byte[HASH_LEN];
+        _v6SourceHash = new byte[HASH_LEN];
+        for (int i = 0; i < HASH_LEN; i++) {
+            _v4SourceHash[i] = buf.get(50 + i);
+            _v6SourceHash[i] = buf.get(50 + HASH_LEN + i);
+        }
+        if (_v4Count < 0 || _v6Count < 0)
+            throw new IOException("Corrupt geoip table " + file);
+        _v4Start = HEADER_LEN + (2 * ncc);
+        _v6Start = _v4Start + (V4_RECORD_LEN * _v4Count);
+        long len = _v6Start + (((long) V6_RECORD_LEN) * _v6Count);
+        if (len != buf.capacity())
+            throw new IOException("Bad geoip table length " + buf.capacity() + " expected " + len + ": " + file);
+        _codes = new String[ncc];
+        for (int i = 0; i < ncc; i++) {
+            char[] c = new char[2];
+            c[0] = (char) (buf.get(HEADER_LEN + (2 * i)) & 0xff);
+            c[1] = (char) (buf.get(HEADER_LEN + (2 * i) + 1) & 0xff);
+            String lc = new String(c);
+            // replace the new string with the identical one from the cache
+            String cached = codeCache.get(lc);
+            _codes[i] = cached != null ? cached : lc;
+        }
+    }
+
+    /**
+     *  Map the table file read-only.
+     *
+     *  @param codeCache code to itself, to prevent String proliferation
+     *  @throws IOException if not found or not a valid table
+     */
+    public static GeoIPTable open(File file, Map<String, String> codeCache) throws IOException {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel fc = raf.getChannel();
+            // the mapping remains valid after the channel is closed
+            MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            return new GeoIPTable(file, buf, codeCache);
+        } finally {
+            if (raf != null) try { raf.close(); } catch (IOException ioe) {}
+        }
+    }
+
+    /**
+     *  Are the sources this table was built from the same as these?
+     *  The sizes are compared first, and the files are hashed only if they match.
+     *
+     *  @param v4Source may be null or nonexistent
+     *  @param v6Source may be null or nonexistent
+     */
+    public boolean isCurrent(File v4Source, File v6Source) {
+        if (_v4SourceSize != sourceSize(v4Source) ||
+            _v6SourceSize != sourceSize(v6Source))
+            return false;
+        try {
+            return DataHelper.eq(_v4SourceHash, sourceHash(v4Source)) &&
+                   DataHelper.eq(_v6SourceHash, sourceHash(v6Source));
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    private static long sourceSize(File f) {
+        if (f == null || !f.exists())
+            return -1;
+        return f.length();
+    }
+
+    /**
+     *  @return SHA-256 of the file, or all zeros if null or nonexistent
+     */
+    private static byte[] sourceHash(File f) throws IOException {
+        if (f == null || !f.exists())
+            return new byte[HASH_LEN];
+        MessageDigest md = SHA256Generator.getDigestInstance();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(f);
+            byte[] buf = new byte[16*1024];
+            int read;
+            while ((read = in.read(buf)) > 0) {
+                md.update(buf, 0, read);
+            }
+        } finally {
+            if (in != null) try { in.close(); } catch (IOException ioe) {}
+        }
+        return md.digest();
+    }
+
+    /** @return the mapped file */
+    public File getFile() {
+        return _file;
+    }
+
+    /** @return the number of IPv4 plus IPv6 ranges */
+    public int size() {
+        return _v4Count + _v6Count;
+    }
+
+    /**
+     *  @param ip IPv4 as a non-negative long, 0 to 2**32 - 1
+     *  @return lower-case code, generally two letters, or null.
+     */
+    public String getV4(long ip) {
+        int lo = 0;
+        int hi = _v4Count - 1;
+        // find the last record with from <= ip
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long from = _buf.getInt(_v4Start + (mid * V4_RECORD_LEN)) & 0xffffffffL;
+            if (from <= ip)
+                lo = mid + 1;
+            else
+                hi = mid - 1;
+        }
+        if (hi < 0)
+            return null;
+        int off = _v4Start + (hi * V4_RECORD_LEN);
+        long to = _buf.getInt(off + 4) & 0xffffffffL;
+        if (ip > to)
+            return null;
+        return getCode(_buf.getShort(off + 8));
+    }
+
+    /**
+     *  @param ip the first 8 bytes of an IPv6 address, as a signed long
+     *  @return lower-case code, generally two letters, or null.
+     */
+    public String getV6(long ip) {
+        int lo = 0;
+        int hi = _v6Count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long from = _buf.getLong(_v6Start + (mid * V6_RECORD_LEN));
+            if (from <= ip)
+                lo = mid + 1;
+            else
+                hi = mid - 1;
+        }
+        if (hi < 0)
+            return null;
+        int off = _v6Start + (hi * V6_RECORD_LEN);
+        long to = _buf.getLong(off + 8);
+        if (ip > to)
+            return null;
+        return getCode(_buf.getShort(off + 16));
+    }
+
+    private String getCode(short idx) {
+        int i = idx & 0xffff;
+        if (i >= _codes.length)
+            return null;
+        return _codes[i];
+    }
+
+    /**
+     *  Accumulates ranges for a new table.
+     *  Entries need not be added in order; they are sorted on write().
+     */
+    static class Builder {
+        private final List<Entry> _v4 = new ArrayList<Entry>(128*1024);
+        private final List<Entry> _v6 = new ArrayList<Entry>(16*1024);
+        private final Map<String, Integer> _codeIndex = new HashMap<String, Integer>(256);
+        private final List<String> _codeList = new ArrayList<String>(256);
+        private long _v4SourceSize = -1;
+        private long _v6SourceSize = -1;
+        private byte[] _v4SourceHash = new byte[HASH_LEN];
+        private byte[] _v6SourceHash = new byte[HASH_LEN];
+
+        /**
+         *  @param from IPv4 as a non-negative long
+         *  @param to IPv4 as a non-negative long
+         *  @param cc two-letter country code, any case
+         */
+        public void addV4(long from, long to, String cc) {
+            if (from < 0 || to > 0xffffffffL || to < from)
+                throw new IllegalArgumentException("bad range " + from + '-' + to);
+            _v4.add(new Entry(from, to, index(cc)));
+        }
+
+        /**
+         *  @param from first 8 bytes of IPv6 as a signed long
+         *  @param to first 8 bytes of IPv6 as a signed long
+         *  @param cc two-letter country code, any case
+         */
+        public void addV6(long from, long to, String cc) {
+            if (to < from)
+                throw new IllegalArgumentException("bad range " + from + '-' + to);
+            _v6.add(new Entry(from, to, index(cc)));
+        }
+
+        private int index(String cc) {
+            String lc = cc.toLowerCase(Locale.US);
+            if (lc.length() != 2)
+                throw new IllegalArgumentException("bad country code " + cc);
+            Integer idx = _codeIndex.get(lc);
+            if (idx == null) {
+                idx = Integer.valueOf(_codeList.size());
+                _codeIndex.put(lc, idx);
+                _codeList.add(lc);
+            }
+            return idx.intValue();
+        }
+
+        /**
+         *  Read a Tor-style geoip.txt file.
+         *  See GeoIP.readGeoIPFile() for format.
+         */
+        public void readV4File(File geoFile) throws IOException {
+            BufferedReader br = null;
+            try {
+                br = new BufferedReader(new InputStreamReader(
+                        new FileInputStream(geoFile), "ISO-8859-1"));
+                String buf;
+                while ((buf = br.readLine()) != null) {
+                    try {
+                        if (buf.charAt(0) == '#') {
+                            continue;
+                        }
+                        String[] s = DataHelper.split(buf, ",");
+                        addV4(Long.parseLong(s[0]), Long.parseLong(s[1]), s[2]);
+                    } catch (IndexOutOfBoundsException ioobe) {
+                    } catch (IllegalArgumentException iae) {
+                        // includes NumberFormatException
+                    }
+                }
+            } finally {
+                if (br != null) try { br.close(); } catch (IOException ioe) {}
+            }
+            _v4SourceSize = geoFile.length();
+            _v4SourceHash = sourceHash(geoFile);
+        }
+
+        /**
+         *  Read a compressed geoipv6.dat.gz file.
+         *  See GeoIPv6 for format.
+         */
+        public void readV6File(File geoFile) throws IOException {
+            GeoIPv6.readAll(geoFile, this);
+            _v6SourceSize = geoFile.length();
+            _v6SourceHash = sourceHash(geoFile);
+        }
+
+        /**
+         *  Write the table. Writes to a temp file first and then renames,
+         *  so a table already mapped by another instance is not truncated.
+         */
+        public void write(File outFile) throws IOException {
+            Collections.sort(_v4);
+            Collections.sort(_v6);
+            removeOverlaps(_v4);
+            removeOverlaps(_v6);
+            File tmp = new File(outFile.getPath() + ".tmp");
+            OutputStream out = null;
+            try {
+                out = new BufferedOutputStream(new SecureFileOutputStream(tmp));
+                out.write(DataHelper.getASCII(MAGIC));
+                writeLong(out, 8, System.currentTimeMillis());
+                writeLong(out, 8, _v4SourceSize);
+                writeLong(out, 8, _v6SourceSize);
+                writeLong(out, 2, _codeList.size());
+                writeLong(out, 4, _v4.size());
+                writeLong(out, 4, _v6.size());
+                out.write(_v4SourceHash);
+                out.write(_v6SourceHash);
+                byte[] comment = DataHelper.getUTF8(COMMENT);
+                out.write(comment);
+                out.write(new byte[HEADER_LEN - (50 + (2 * HASH_LEN) + comment.length)]);
+                for (String cc : _codeList) {
+                    out.write(DataHelper.getASCII(cc));
+                }
+                for (Entry e : _v4) {
+                    writeLong(out, 4, e.from);
+                    writeLong(out, 4, e.to);
+                    writeLong(out, 2, e.cc);
+                }
+                for (Entry e : _v6) {
+                    writeLong(out, 8, e.from);
+                    writeLong(out, 8, e.to);
+                    writeLong(out, 2, e.cc);
+                }
+                out.close();
+                out = null;
+                if (!FileUtil.rename(tmp, outFile))
+                    throw new IOException("Unable to rename " + tmp + " to " + outFile);
+            } finally {
+                if (out != null) try { out.close(); } catch (IOException ioe) {}
+                tmp.delete();
+            }
+        }
+
+        /**
+         *  The source files should not overlap, but if they do,
+         *  the earlier entry wins, as it would with a linear search.
+         */
+        private static void removeOverlaps(List<Entry> entries) {
+            Entry prev = null;
+            for (int i = 0; i < entries.size(); i++) {
+                Entry e = entries.get(i);
+                if (prev != null && e.from <= prev.to) {
+                    if (e.to <= prev.to) {
+                        entries.remove(i--);
+                        continue;
+                    }
+                    e = new Entry(prev.to + 1, e.to, e.cc);
+                    entries.set(i, e);
+                }
+                prev = e;
+            }
+        }
+    }
+
+    /**
+     *  Used to temporarily hold and sort entries before writing
+     */
+    private static class Entry implements Comparable<Entry> {
+        public final long from, to;
+        public final int cc;
+
+        public Entry(long f, long t, int c) {
+            from = f;
+            to = t;
+            cc = c;
+        }
+
+        /** twos complement */
+        public int compareTo(Entry r) {
+            if (from < r.from) return -1;
+            if (r.from < from) return 1;
+            if (to < r.to) return -1;
+            if (r.to < to) return 1;
+            return 0;
+        }
+
+        @Override
+        public int hashCode() { return (((int) from) ^ ((int) to)); }
+
+        @Override
+        public boolean equals(Object o) { return (o instanceof Entry) && compareTo((Entry)o) == 0; }
+    }
+
+    /** like DataHelper.writeLong(rawStream, numBytes, value) but allows negative values */
+    private static void writeLong(OutputStream rawStream, int numBytes, long value) throws IOException {
+        for (int i = (numBytes - 1) * 8; i >= 0; i -= 8) {
+            byte cur = (byte) (value >> i);
+            rawStream.write(cur);
+        }
+    }
+
+    /**
+     *  Compile geoip.txt and geoipv6.dat.gz into a table file,
+     *  then compare the time to open the table and look up random IPs
+     *  against the time to do the same lookups by streaming the source files.
+     *
+     *  GeoIPTable geoip.txt geoipv6.dat.gz geoip-table.dat
+     *
+     *  Used to create the file for distribution, do not comment out
+     */
+    public static void main(String args[]) {
+        if (args.length != 3) {
+            System.err.println("Usage: GeoIPTable geoip.txt geoipv6.dat.gz geoip-table.dat");
+            System.exit(1);
+        }
+        File v4 = new File(args[0]);
+        File v6 = new File(args[1]);
+        File out = new File(args[2]);
+        try {
+            long start = System.currentTimeMillis();
+            Builder b = new Builder();
+            b.readV4File(v4);
+            b.readV6File(v6);
+            b.write(out);
+            System.err.println("Compiled " + out + " in " + (System.currentTimeMillis() - start) + " ms");
+
+            Map<String, String> codeCache = Collections.emptyMap();
+            start = System.currentTimeMillis();
+            GeoIPTable table = open(out, codeCache);
+            long open = System.currentTimeMillis() - start;
+            System.err.println("Opened " + table.size() + " ranges in " + open + " ms");
+
+            // lookup comparison
+            Random rand = new Random();
+            Long[] search = new Long[1000];
+            for (int i = 0; i < search.length; i++) {
+                search[i] = Long.valueOf(rand.nextLong() & 0xffffffffL);
+            }
+            java.util.Arrays.sort(search);
+            start = System.nanoTime();
+            String[] tableResults = new String[search.length];
+            for (int i = 0; i < search.length; i++) {
+                tableResults[i] = table.getV4(search[i].longValue());
+            }
+            long tableTime = System.nanoTime() - start;
+            I2PAppContext ctx = I2PAppContext.getGlobalContext();
+            GeoIP geo = new GeoIP(ctx);
+            start = System.nanoTime();
+            String[] streamResults = geo.readGeoIPFile(v4, search);
+            long streamTime = System.nanoTime() - start;
+            int mismatch = 0;
+            for (int i = 0; i < search.length && i < streamResults.length; i++) {
+                String a = tableResults[i];
+                String s = streamResults[i];
+                if (a == null ? s != null : !a.equals(s))
+                    mismatch++;
+            }
+            System.err.println(search.length + " IPv4 lookups: table " + (tableTime / 1000) +
+                               " us, streaming " + (streamTime / 1000) + " us, " + mismatch + " mismatches");
+            if (mismatch > 0)
+                System.exit(1);
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -53,8 +53,7 @@ class GeoIPv6 {
      */
     public static String[] readGeoIPFile(I2PAppContext context, Long[] search, Map<String, String> codeCache) {
         Log log = context.logManager().getLog(GeoIPv6.class);
-        File geoFile = new File(context.getBaseDir(), GEOIP_DIR_DEFAULT);
-        geoFile = new File(geoFile, GEOIP_FILE_DEFAULT);
+        File geoFile = getGeoIPFile(context);
         if (!geoFile.exists()) {
             if (log.shouldLog(Log.WARN))
                 log.warn("GeoIP file not found: " + geoFile.getAbsolutePath());
@@ -63,6 +62,42 @@ class GeoIPv6 {
         return readGeoIPFile(geoFile, search, codeCache, log);
     }
 
+    /**
+     * @return the geoipv6.dat.gz file, may not exist
+     * @since 0.9.27
+     */
+    static File getGeoIPFile(I2PAppContext context) {
+        File geoFile = new File(context.getBaseDir(), GEOIP_DIR_DEFAULT);
+        return new File(geoFile, GEOIP_FILE_DEFAULT);
+    }
+
+    /**
+     * Read all entries in the geoip file into a table builder.
+     * See below for format.
+     *
+     * @since 0.9.27
+     */
+    static void readAll(File geoFile, GeoIPTable.Builder builder) throws IOException {
+        InputStream in = null;
+        try {
+            in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(geoFile)));
+            byte[] magic = new byte[MAGIC.length()];
+            DataHelper.read(in, magic);
+            if (!DataHelper.eq(magic, DataHelper.getASCII(MAGIC)))
+                throw new IOException("Not a IPv6 geoip data file");
+            // skip timestamp and comments
+            DataHelper.skip(in, HEADER_LEN - MAGIC.length());
+            byte[] buf = new byte[18];
+            while (DataHelper.read(in, buf) == 18) {
+                long ip1 = readLong(buf, 0);
+                long ip2 = readLong(buf, 8);
+                builder.addV6(ip1, ip2, new String(buf, 16, 2, "ISO-8859-1"));
+            }
+        } finally {
+            if (in != null) try { in.close(); } catch (IOException ioe) {}
+        }
+    }
+
     /**
      * Lookup search items in the geoip file.
      * See below for format.
@@ -26,6 +26,7 @@ import net.i2p.data.ByteArray;
 import net.i2p.data.router.RouterAddress;
 import net.i2p.data.router.RouterIdentity;
 import net.i2p.router.CommSystemFacade.Status;
+import net.i2p.router.OutNetMessage;
 import net.i2p.router.RouterContext;
 import net.i2p.router.transport.FIFOBandwidthLimiter;
 import net.i2p.util.Addresses;
@@ -421,8 +422,20 @@ class EventPumper implements Runnable {
      *  If no bandwidth, calls con.queuedWrite().
      */
     public void wantsWrite(NTCPConnection con, byte data[]) {
+        wantsWrite(con, data, OutNetMessage.PRIORITY_HIGHEST);
+    }
+
+    /**
+     *  Called by the connection when it has data ready to write.
+     *  If we have bandwidth, calls con.Write() which calls wantsWrite(con).
+     *  If no bandwidth, calls con.queuedWrite().
+     *
+     *  @param priority the OutNetMessage priority, for the bandwidth limiter
+     *  @since 0.9.27
+     */
+    public void wantsWrite(NTCPConnection con, byte data[], int priority) {
         ByteBuffer buf = ByteBuffer.wrap(data);
-        FIFOBandwidthLimiter.Request req = _context.bandwidthLimiter().requestOutbound(data.length, 0, "NTCP write");//con, buf);
+        FIFOBandwidthLimiter.Request req = _context.bandwidthLimiter().requestOutbound(data.length, priority, "NTCP write");//con, buf);
         if (req.getPendingRequested() > 0) {
             if (_log.shouldLog(Log.INFO))
                 _log.info("queued write on " + con + " for " + data.length);
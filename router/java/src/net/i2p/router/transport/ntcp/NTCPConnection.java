@@ -33,7 +33,7 @@ import net.i2p.router.Router;
 import net.i2p.router.RouterContext;
 import net.i2p.router.transport.FIFOBandwidthLimiter;
 import net.i2p.router.transport.FIFOBandwidthLimiter.Request;
-import net.i2p.router.util.PriBlockingQueue;
+import net.i2p.router.util.DRRQueue;
 import net.i2p.util.ByteCache;
 import net.i2p.util.ConcurrentHashSet;
 import net.i2p.util.HexDump;
@@ -99,7 +99,7 @@ class NTCPConnection implements Closeable {
      * pending unprepared OutNetMessage instances
      */
     //private final CoDelPriorityBlockingQueue<OutNetMessage> _outbound;
-    private final PriBlockingQueue<OutNetMessage> _outbound;
+    private final DRRQueue<OutNetMessage> _outbound;
     /**
      *  current prepared OutNetMessage, or null - synchronize on _outbound to modify or read
      *  FIXME why do we need this???
@@ -184,7 +184,7 @@ class NTCPConnection implements Closeable {
         _bwInRequests = new ConcurrentHashSet<Request>(2);
         _bwOutRequests = new ConcurrentHashSet<Request>(8);
         //_outbound = new CoDelPriorityBlockingQueue(ctx, "NTCP-Connection", 32);
-        _outbound = new PriBlockingQueue<OutNetMessage>(ctx, "NTCP-Connection", 32);
+        _outbound = new DRRQueue<OutNetMessage>(ctx, "NTCP-Connection");
         _isInbound = true;
         _decryptBlockBuf = new byte[BLOCK_SIZE];
         _curReadState = new ReadState();
@@ -212,7 +212,7 @@ class NTCPConnection implements Closeable {
         _bwInRequests = new ConcurrentHashSet<Request>(2);
         _bwOutRequests = new ConcurrentHashSet<Request>(8);
         //_outbound = new CoDelPriorityBlockingQueue(ctx, "NTCP-Connection", 32);
-        _outbound = new PriBlockingQueue<OutNetMessage>(ctx, "NTCP-Connection", 32);
+        _outbound = new DRRQueue<OutNetMessage>(ctx, "NTCP-Connection");
         _isInbound = false;
         _establishState = new EstablishState(ctx, transport, this);
         _decryptBlockBuf = new byte[BLOCK_SIZE];
@@ -490,7 +490,11 @@ class NTCPConnection implements Closeable {
         _consecutiveBacklog = 0;
      ****/
         //if (FAST_LARGE)
-        _outbound.offer(msg);
+        if (!_outbound.offer(msg)) {
+            // full, and msg's class is the one over its share
+            _transport.afterSend(msg, false, false, msg.getLifetime());
+            return;
+        }
         //int enqueued = _outbound.size();
         // although stat description says ahead of this one, not including this one...
         //_context.statManager().addRateData("ntcp.sendQueueSize", enqueued);
@@ -768,7 +772,7 @@ class NTCPConnection implements Closeable {
         //    _log.debug("Encrypting " + msg + " [" + System.identityHashCode(msg) + "] crc=" + crc.getValue() + "\nas: " 
         //               + Base64.encode(encrypted, 0, 16) + "...\ndecrypted: " 
         //               + Base64.encode(unencrypted, 0, 16) + "..." + "\nIV=" + Base64.encode(_prevWriteEnd, 0, 16));
-        _transport.getPumper().wantsWrite(this, encrypted);
+        _transport.getPumper().wantsWrite(this, encrypted, msg.getPriority());
 
         // for every 6-12 hours that we are connected to a peer, send them
 	// our updated netDb info (they may not accept it and instead query
@@ -858,7 +862,7 @@ class NTCPConnection implements Closeable {
         //    _log.debug("Encrypting " + msg + " [" + System.identityHashCode(msg) + "] crc=" + crc.getValue() + "\nas: " 
         //               + Base64.encode(encrypted, 0, 16) + "...\ndecrypted: " 
         //               + Base64.encode(unencrypted, 0, 16) + "..." + "\nIV=" + Base64.encode(_prevWriteEnd, 0, 16));
-        _transport.getPumper().wantsWrite(this, buf.encrypted);
+        _transport.getPumper().wantsWrite(this, buf.encrypted, msg.getPriority());
         //long wantsTime = System.currentTimeMillis();
         //long releaseTime = System.currentTimeMillis();
         //if (_log.shouldLog(Log.DEBUG))
@@ -1,11 +1,12 @@
 package net.i2p.router.transport.udp;
 
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.Set;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import net.i2p.router.RouterContext;
 import net.i2p.util.I2PThread;
@@ -16,6 +17,12 @@ import net.i2p.util.Log;
  * any outstanding ACKs.  
  * The ACKs are sent directly to UDPSender,
  * bypassing OutboundMessageFragments and PacketPusher.
+ *
+ * As of 0.9.27, this is a delayed-ACK scheduler. Each peer with pending acks
+ * gets a deadline, and an ack-only packet is sent only if the acks
+ * have not been piggybacked on a data packet by OutboundMessageFragments
+ * before then. The deadline is longer when we have data queued for the peer,
+ * as it will most likely carry the acks.
  */
 class ACKSender implements Runnable {
     private final RouterContext _context;
@@ -29,6 +36,8 @@ class ACKSender implements Runnable {
     
     /** how frequently do we want to send ACKs to a peer? */
     static final int ACK_FREQUENCY = 250;
+    /** max delay when waiting for a data packet to piggyback on */
+    private static final int MAX_ACK_DELAY = 2 * ACK_FREQUENCY;
     
     public ACKSender(RouterContext ctx, UDPTransport transport) {
         _context = ctx;
@@ -41,6 +50,37 @@ class ACKSender implements Runnable {
         _context.statManager().createRateStat("udp.ackFrequency", "how long ago did we send an ACK to this peer?", "udp", UDPTransport.RATES);
         _context.statManager().createRateStat("udp.sendACKRemaining", "when we ack a peer, how many peers are left waiting to ack?", "udp", UDPTransport.RATES);
         _context.statManager().createRateStat("udp.abortACK", "How often do we schedule up an ACK send only to find it had already been sent (through piggyback)?", "udp", UDPTransport.RATES);
+        _context.statManager().createRateStat("udp.ackSaved", "Ack-only packets not sent because the acks were piggybacked", "udp", UDPTransport.RATES);
+    }
+
+    /**
+     *  A peer's ack deadline.
+     *  Ordered by deadline, then by the order they were scheduled.
+     *
+     *  @since 0.9.27
+     */
+    private static final class Deadline implements Comparable<Deadline> {
+        public final PeerState peer;
+        public final long time;
+        private final long seq;
+
+        public Deadline(PeerState peer, long time, long seq) {
+            this.peer = peer;
+            this.time = time;
+            this.seq = seq;
+        }
+
+        public int compareTo(Deadline d) {
+            if (time < d.time)
+                return -1;
+            if (time > d.time)
+                return 1;
+            if (seq < d.seq)
+                return -1;
+            if (seq > d.seq)
+                return 1;
+            return 0;
+        }
     }
     
     /**
@@ -82,7 +122,24 @@ class ACKSender implements Runnable {
         else
             return ACK_FREQUENCY;
     }
-    
+
+    /**
+     *  When must we send an ack-only packet to this peer?
+     *
+     *  @param wanted from getWantedACKSendSince(), greater than zero
+     *  @since 0.9.27
+     */
+    private long getDeadline(PeerState peer, long wanted, long now) {
+        if (peer.unsentACKThresholdReached())
+            return now;
+        long delay = ackFrequency(now - peer.getLastACKSend(), peer.getRTT());
+        // we have data for them, it will probably carry the acks,
+        // but don't wait so long that they retransmit
+        if (delay < MAX_ACK_DELAY && peer.getOutboundMessageCount() > 0)
+            delay = Math.min(Math.max(delay, peer.getRTT() / 2), MAX_ACK_DELAY);
+        return wanted + delay;
+    }
+
     public void run() {
         try {
             run2();
@@ -96,8 +153,11 @@ class ACKSender implements Runnable {
     }
 
     private void run2() {
-        // we use a Set to strip out dups that come in on the Queue
-        Set<PeerState> notYet = new HashSet<PeerState>();
+        // peers in the order their acks are due
+        PriorityQueue<Deadline> deadlines = new PriorityQueue<Deadline>(64);
+        // the current entry for each peer, others in deadlines are stale
+        Map<PeerState, Deadline> scheduled = new HashMap<PeerState, Deadline>(64);
+        long seq = 0;
         while (_alive) {
             PeerState peer = null;
             long now = 0;
@@ -105,59 +165,70 @@ class ACKSender implements Runnable {
             long wanted = 0;
 
                 while (_alive) {
-                    // Pull from the queue until we find one ready to ack
-                    // Any that are not ready we will put back on the queue
-                    PeerState cur = null;
-                    try {
-                        if (notYet.isEmpty())
-                            // wait forever
-                            cur = _peersToACK.take();
-                        else
-                            // Don't wait if nothing there, just put everybody back and sleep below
-                            cur = _peersToACK.poll();
-                    } catch (InterruptedException ie) {}
-
-                    if (cur != null) {
+                    // Schedule everybody on the queue that isn't already,
+                    // then take the first one that's due, or wait until it is.
+                    PeerState cur;
+                    while ((cur = _peersToACK.poll()) != null) {
                         if (cur.getTheyRelayToUsAs() == POISON_PS)
                             return;
                         wanted = cur.getWantedACKSendSince();
+                        if (wanted <= 0)
+                            continue;
                         now = _context.clock().now();
-                        long delta = wanted + ackFrequency(now-cur.getLastACKSend(), cur.getRTT()) - now;
-                        if (wanted <= 0) {
-                            // it got acked by somebody - discard, remove any dups, and go around again
-                            notYet.remove(cur);
-                        } else if ( (delta <= 0) || (cur.unsentACKThresholdReached()) ) {
-                            // found one to ack
-                            peer = cur;
-                            notYet.remove(cur); // in case a dup
-                            try {
-                                // bulk operations may throw an exception
-                                _peersToACK.addAll(notYet);
-                            } catch (NoSuchElementException nsee) {}
-                            notYet.clear();
-                            break;
-                        } else { 
-                            // not yet, go around again
-                            // moving from the Queue to the Set and then back removes duplicates
-                            boolean added = notYet.add(cur);
-                            if (added && _log.shouldLog(Log.DEBUG))
-                                _log.debug("Pending ACK (delta = " + delta + ") for " + cur);
-                        } 
-                    } else if (!notYet.isEmpty()) {
-                        // put them all back and wait a while
-                        try {
-                            // bulk operations may throw an exception
-                            _peersToACK.addAll(notYet);
-                        } catch (RuntimeException e) {}
+                        long when = getDeadline(cur, wanted, now);
+                        Deadline d = scheduled.get(cur);
+                        if (d != null && d.time <= when)
+                            continue;
+                        d = new Deadline(cur, when, seq++);
+                        scheduled.put(cur, d);
+                        deadlines.offer(d);
                         if (_log.shouldLog(Log.DEBUG))
-                            _log.debug("sleeping, pending size = " + notYet.size());
-                        notYet.clear();
-                        try {
-                            // sleep a little longer than the divided frequency,
-                            // so it will be ready after we circle around a few times
-                            Thread.sleep(5 + (ACK_FREQUENCY / 3));
-                        } catch (InterruptedException ie) {}
-                    } // else go around again where we will wait at take()
+                            _log.debug("Pending ACK (delta = " + (when - now) + ") for " + cur);
+                    }
+
+                    Deadline next = deadlines.peek();
+                    if (next != null && scheduled.get(next.peer) != next) {
+                        // stale
+                        deadlines.poll();
+                        continue;
+                    }
+                    now = _context.clock().now();
+                    if (next != null && next.time <= now) {
+                        deadlines.poll();
+                        scheduled.remove(next.peer);
+                        cur = next.peer;
+                        wanted = cur.getWantedACKSendSince();
+                        if (wanted <= 0) {
+                            // it got acked by piggybacking on data
+                            _context.statManager().addRateData("udp.ackSaved", 1);
+                            continue;
+                        }
+                        long when = getDeadline(cur, wanted, now);
+                        if (when > now) {
+                            // piggybacked and then more arrived, start over
+                            Deadline d = new Deadline(cur, when, seq++);
+                            scheduled.put(cur, d);
+                            deadlines.offer(d);
+                            continue;
+                        }
+                        // found one to ack
+                        peer = cur;
+                        remaining = deadlines.size();
+                        break;
+                    }
+
+                    try {
+                        if (next == null)
+                            // wait forever
+                            cur = _peersToACK.take();
+                        else
+                            cur = _peersToACK.poll(next.time - now, TimeUnit.MILLISECONDS);
+                        if (cur != null) {
+                            // put it back so it gets scheduled at the top of the loop
+                            // this may reorder the queue, which doesn't matter
+                            _peersToACK.offer(cur);
+                        }
+                    } catch (InterruptedException ie) {}
                 } // inner while()
                     
             if (peer != null) {
@@ -205,6 +276,7 @@ class ACKSender implements Runnable {
                     }
                 } else {
                     _context.statManager().addRateData("udp.abortACK", 1);
+                    _context.statManager().addRateData("udp.ackSaved", 1);
                 }
             }
         }
@@ -21,13 +21,17 @@ import net.i2p.util.SystemVersion;
  * Pull fully completed fragments off the {@link InboundMessageFragments} queue,
  * parse 'em into I2NPMessages, and stick them on the 
  * {@link net.i2p.router.InNetMessagePool} by way of the {@link UDPTransport}.
+ *
+ * As of 0.9.27, each runner has its own queue, and messages are sharded
+ * across them by the peer they came from, so all messages from a given peer
+ * are parsed and delivered in order by the same thread.
  */
 class MessageReceiver {
     private final RouterContext _context;
     private final Log _log;
     private final UDPTransport _transport;
-    /** list of messages (InboundMessageState) fully received but not interpreted yet */
-    private final BlockingQueue<InboundMessageState> _completeMessages;
+    /** lists of messages (InboundMessageState) fully received but not interpreted yet, one per runner */
+    private final BlockingQueue<InboundMessageState>[] _completeMessages;
     private volatile boolean _alive;
     //private ByteCache _cache;
 
@@ -38,6 +42,7 @@ class MessageReceiver {
     private final int _threadCount;
     private static final long POISON_IMS = -99999999999l;
     
+    @SuppressWarnings("unchecked")
     public MessageReceiver(RouterContext ctx, UDPTransport transport) {
         _context = ctx;
         _log = ctx.logManager().getLog(MessageReceiver.class);
@@ -55,7 +60,13 @@ class MessageReceiver {
             _threadCount = Math.max(MIN_THREADS, Math.min(MAX_THREADS, ctx.bandwidthLimiter().getInboundKBytesPerSecond() / 20));
             qsize = (int) Math.max(MIN_QUEUE_SIZE, Math.min(MAX_QUEUE_SIZE, maxMemory / (2*1024*1024)));
         }
-        _completeMessages = new CoDelBlockingQueue<InboundMessageState>(ctx, "UDP-MessageReceiver", qsize);
+        // split the total between the runners, but a single busy peer
+        // still needs some room
+        qsize = Math.max(Math.min(qsize, MIN_QUEUE_SIZE / 2), qsize / _threadCount);
+        _completeMessages = new BlockingQueue[_threadCount];
+        for (int i = 0; i < _threadCount; i++) {
+            _completeMessages[i] = new CoDelBlockingQueue<InboundMessageState>(ctx, "UDP-MessageReceiver", qsize);
+        }
 
         // the runners run forever, no need to have a cache
         //_cache = ByteCache.getInstance(64, I2NPMessage.MAX_SIZE);
@@ -72,34 +83,41 @@ class MessageReceiver {
     public synchronized void startup() {
         _alive = true;
         for (int i = 0; i < _threadCount; i++) {
-            I2PThread t = new I2PThread(new Runner(), "UDP message receiver " + (i+1) + '/' + _threadCount, true);
+            I2PThread t = new I2PThread(new Runner(_completeMessages[i]), "UDP message receiver " + (i+1) + '/' + _threadCount, true);
             t.start();
         }
     }
     
     private class Runner implements Runnable {
         private final I2NPMessageHandler _handler;
-        public Runner() { _handler = new I2NPMessageHandler(_context); }
-        public void run() { loop(_handler); }
+        private final BlockingQueue<InboundMessageState> _queue;
+        public Runner(BlockingQueue<InboundMessageState> queue) {
+            _handler = new I2NPMessageHandler(_context);
+            _queue = queue;
+        }
+        public void run() { loop(_queue, _handler); }
     }
     
     public synchronized void shutdown() {
         _alive = false;
-        _completeMessages.clear();
         for (int i = 0; i < _threadCount; i++) {
+            _completeMessages[i].clear();
             InboundMessageState ims = new InboundMessageState(_context, POISON_IMS, null);
-            _completeMessages.offer(ims);
+            _completeMessages[i].offer(ims);
         }
-        for (int i = 1; i <= 5 && !_completeMessages.isEmpty(); i++) {
-            try {
-                Thread.sleep(i * 50);
-            } catch (InterruptedException ie) {}
+        for (int i = 0; i < _threadCount; i++) {
+            BlockingQueue<InboundMessageState> queue = _completeMessages[i];
+            for (int j = 1; j <= 5 && !queue.isEmpty(); j++) {
+                try {
+                    Thread.sleep(j * 50);
+                } catch (InterruptedException ie) {}
+            }
+            queue.clear();
         }
-        _completeMessages.clear();
     }
     
     /**
-     *  This queues the message for processing.
+     *  This queues the message for processing by the runner that owns the peer it came from.
      *  Processing will call state.releaseResources(), do not access state after calling this.
      *  BLOCKING if queue is full.
      */
@@ -107,8 +125,13 @@ class MessageReceiver {
         //int total = 0;
         //long lag = -1;
         if (_alive) {
+            BlockingQueue<InboundMessageState> queue;
+            if (_threadCount == 1)
+                queue = _completeMessages[0];
+            else
+                queue = _completeMessages[(state.getFrom().hashCode() & 0x7fffffff) % _threadCount];
             try {
-                _completeMessages.put(state);
+                queue.put(state);
             } catch (InterruptedException ie) {
                 _alive = false;
             }
@@ -122,7 +145,11 @@ class MessageReceiver {
         //    _context.statManager().addRateData("udp.inboundLag", lag, total);
     }
     
-    public void loop(I2NPMessageHandler handler) {
+    /**
+     *  @param queue our shard of the complete messages
+     *  @since 0.9.27 added queue param
+     */
+    private void loop(BlockingQueue<InboundMessageState> queue, I2NPMessageHandler handler) {
         InboundMessageState message = null;
         //ByteArray buf = _cache.acquire();
         ByteArray buf = new ByteArray(new byte[I2NPMessage.MAX_SIZE]);
@@ -131,7 +158,7 @@ class MessageReceiver {
             long expiredLifetime = 0;
             try {
                     while (message == null) {
-                        message = _completeMessages.take();
+                        message = queue.take();
                         if ( (message != null) && (message.getMessageId() == POISON_IMS) ) {
                             message = null;
                             break;
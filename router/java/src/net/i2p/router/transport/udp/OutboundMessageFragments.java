@@ -4,9 +4,10 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.PriorityQueue;
 
 import net.i2p.data.DataHelper;
 import net.i2p.data.Hash;
@@ -14,7 +15,6 @@ import net.i2p.data.router.RouterInfo;
 import net.i2p.router.OutNetMessage;
 import net.i2p.router.RouterContext;
 import net.i2p.router.transport.udp.PacketBuilder.Fragment;
-import net.i2p.util.ConcurrentHashSet;
 import net.i2p.util.Log;
 
 /**
@@ -28,6 +28,12 @@ import net.i2p.util.Log;
  * {@link InboundMessageFragments}, signaling that we can stop sending a
  * message.
  *
+ * As of 0.9.27, peers are kept in a queue ordered by the time they
+ * next need attention, so {@link #getNextVolley()} only visits peers
+ * that are due, instead of polling every active peer on every pass.
+ * A peer is due immediately when a message is added or an ACK arrives,
+ * and otherwise when its next retransmission is scheduled.
+ *
  */
 class OutboundMessageFragments {
     private final RouterContext _context;
@@ -36,28 +42,45 @@ class OutboundMessageFragments {
     // private ActiveThrottle _throttle; // LINT not used ??
 
     /**
-     *  Peers we are actively sending messages to.
-     *  We use the iterator so we treat it like a list,
-     *  but we use a HashSet so remove() is fast and
-     *  we don't need to do contains().
-     *  Even though most (but NOT all) accesses are synchronized,
-     *  we use a ConcurrentHashSet as the iterator is long-lived.
+     *  Peers we are actively sending messages to, ordered by when they are next due.
+     *  A peer may have stale entries in here after it was rescheduled;
+     *  only the entry in _scheduled is current.
+     *  Synchronize on _activePeers for this and everything below it.
+     */
+    private final PriorityQueue<Scheduled> _activePeers;
+
+    /**
+     *  The current entry in _activePeers for each peer.
+     */
+    private final Map<PeerState, Scheduled> _scheduled;
+
+    /**
+     *  The peer the PacketPusher is working on, not in _scheduled
      */
-    private final Set<PeerState> _activePeers;
+    private PeerState _current;
 
     /**
-     *  The long-lived iterator over _activePeers.
+     *  add() was called for _current while it was being worked on
      */
-    private Iterator<PeerState> _iterator;
+    private boolean _currentWoken;
 
     /**
-     *  Avoid sync in add() if possible (not 100% reliable)
+     *  To keep FIFO order among peers due at the same time
      */
+    private long _sequence;
+
     private boolean _isWaiting;
 
     private volatile boolean _alive;
     private final PacketBuilder _builder;
 
+    // Reused for every volley, only touched by the PacketPusher thread
+    private final List<ACKBitfield> _partialACKBitfields = new ArrayList<ACKBitfield>(8);
+    private final List<Long> _remaining = new ArrayList<Long>(16);
+    private final List<Fragment> _toSend = new ArrayList<Fragment>(16);
+    private final List<Fragment> _sendNext = new ArrayList<Fragment>(4);
+    private final List<UDPPacket> _volley = new ArrayList<UDPPacket>(16);
+
     /** if we can handle more messages explicitly, set this to true */
     // private boolean _allowExcess; // LINT not used??
     // private volatile long _packetsRetransmitted; // LINT not used??
@@ -66,13 +89,19 @@ class OutboundMessageFragments {
     // don't send a packet more than 10 times
     static final int MAX_VOLLEYS = 10;
     private static final int MAX_WAIT = 1000;
+    /**
+     *  Min time before looking again at a peer that has something to send
+     *  but no window or bandwidth for it. An ACK will wake it up sooner.
+     */
+    private static final int MIN_WAIT = 10;
 
     public OutboundMessageFragments(RouterContext ctx, UDPTransport transport, ActiveThrottle throttle) {
         _context = ctx;
         _log = ctx.logManager().getLog(OutboundMessageFragments.class);
         _transport = transport;
         // _throttle = throttle;
-        _activePeers = new ConcurrentHashSet<PeerState>(256);
+        _activePeers = new PriorityQueue<Scheduled>(256);
+        _scheduled = new HashMap<PeerState, Scheduled>(256);
         _builder = new PacketBuilder(ctx, transport);
         _alive = true;
         // _allowExcess = false;
@@ -95,14 +124,48 @@ class OutboundMessageFragments {
         _context.statManager().createRateStat("udp.blockedRetransmissions", "How packets have been transmitted to the peer when we blocked a retransmission to them?", "udp", UDPTransport.RATES);
         _context.statManager().createRateStat("udp.sendCycleTime", "How long it takes to cycle through all of the active messages?", "udp", UDPTransport.RATES);
         _context.statManager().createRateStat("udp.sendCycleTimeSlow", "How long it takes to cycle through all of the active messages, when its going slowly?", "udp", UDPTransport.RATES);
+        _context.statManager().createRateStat("udp.sendScheduleLag", "How late a peer was serviced after it was due (ms)", "udp", UDPTransport.RATES);
+        _context.statManager().createRateStat("udp.ackPiggybacked", "All pending acks to a peer were sent in data packets", "udp", UDPTransport.RATES);
+        _context.statManager().createRateStat("udp.sendLatency", "How long a message waited before its first send (ms)", "udp", UDPTransport.RATES);
+    }
+
+    /**
+     *  An entry in the schedule.
+     *  Ordered by due time, then by the order they were scheduled.
+     *
+     *  @since 0.9.27
+     */
+    private static final class Scheduled implements Comparable<Scheduled> {
+        public final PeerState peer;
+        public final long time;
+        private final long seq;
+
+        public Scheduled(PeerState peer, long time, long seq) {
+            this.peer = peer;
+            this.time = time;
+            this.seq = seq;
+        }
+
+        public int compareTo(Scheduled s) {
+            if (time < s.time)
+                return -1;
+            if (time > s.time)
+                return 1;
+            if (seq < s.seq)
+                return -1;
+            if (seq > s.seq)
+                return 1;
+            return 0;
+        }
     }
 
     public synchronized void startup() { _alive = true; }
 
     public synchronized void shutdown() {
         _alive = false;
-        _activePeers.clear();
         synchronized (_activePeers) {
+            _activePeers.clear();
+            _scheduled.clear();
             _activePeers.notifyAll();
         }
     }
@@ -111,7 +174,10 @@ class OutboundMessageFragments {
         if (_log.shouldLog(Log.INFO))
             _log.info("Dropping peer " + peer.getRemotePeer());
         peer.dropOutbound();
-        _activePeers.remove(peer);
+        synchronized (_activePeers) {
+            // any entry left in _activePeers is now stale and will be skipped
+            _scheduled.remove(peer);
+        }
     }
 
     /**
@@ -202,37 +268,49 @@ class OutboundMessageFragments {
     }
 
     /**
-     * Add the peer to the list of peers wanting to transmit something.
+     * Add the peer to the list of peers wanting to transmit something,
+     * and make it due now.
      * This wakes up the packet pusher if it is sleeping.
      *
-     * Avoid synchronization where possible.
-     * There are small chances of races.
-     * There are larger chances of adding the PeerState "behind" where
-     * the iterator is now... but these issues are the same as before concurrentification.
+     * Called when a message is added, and when an ACK is received,
+     * as either may let us send more.
      *
      * @since 0.8.9
      */
     public void add(PeerState peer) {
-        boolean wasEmpty = _activePeers.isEmpty();
-        boolean added = _activePeers.add(peer);
-        if (added) {
-            if (_log.shouldLog(Log.DEBUG))
-                _log.debug("Add a new message to a new peer " + peer.getRemotePeer());
-        } else {
-            if (_log.shouldLog(Log.DEBUG))
-                _log.debug("Add a new message to an existing peer " + peer.getRemotePeer());
-        }
-        _context.statManager().addRateData("udp.outboundActivePeers", _activePeers.size(), 0);
-
-        // Avoid sync if possible
-        // no, this doesn't always work.
-        // Also note that the iterator in getNextVolley may have alreay passed us,
-        // or not reflect the addition.
-        if (_isWaiting || wasEmpty) {
-            synchronized (_activePeers) {
-                _activePeers.notifyAll();
+        long now = _context.clock().now();
+        int active;
+        synchronized (_activePeers) {
+            if (peer == _current) {
+                // the pusher will reschedule it for now when done
+                _currentWoken = true;
+                return;
+            }
+            Scheduled cur = _scheduled.get(peer);
+            if (cur != null && cur.time <= now) {
+                if (_log.shouldLog(Log.DEBUG))
+                    _log.debug("Add a new message to an existing peer " + peer.getRemotePeer());
+                return;
             }
+            schedule(peer, now);
+            if (_isWaiting)
+                _activePeers.notifyAll();
+            active = _scheduled.size();
         }
+        if (_log.shouldLog(Log.DEBUG))
+            _log.debug("Add a new message to a new peer " + peer.getRemotePeer());
+        _context.statManager().addRateData("udp.outboundActivePeers", active);
+    }
+
+    /**
+     * Caller must synch on _activePeers
+     *
+     * @since 0.9.27
+     */
+    private void schedule(PeerState peer, long time) {
+        Scheduled s = new Scheduled(peer, time, _sequence++);
+        _scheduled.put(peer, s);
+        _activePeers.offer(s);
     }
 
     /**
@@ -262,134 +340,108 @@ class OutboundMessageFragments {
      *
      * NOT thread-safe. Called by the PacketPusher thread only.
      *
-     * @return null only on shutdown
+     * @return null only on shutdown. The returned list is reused,
+     *         and is only valid until the next call.
      */
     public List<UDPPacket> getNextVolley() {
-        PeerState peer = null;
-        List<OutboundMessageState> states = null;
-        // Keep track of how many we've looked at, since we don't start the iterator at the beginning.
-        int peersProcessed = 0;
-        while (_alive && (states == null) ) {
-            int nextSendDelay = Integer.MAX_VALUE;
-            // no, not every time - O(n**2) - do just before waiting below
-            //finishMessages();
-
-                    // do we need a new long-lived iterator?
-                    if (_iterator == null ||
-                        ((!_activePeers.isEmpty()) && (!_iterator.hasNext()))) {
-                        _iterator = _activePeers.iterator();
+        while (_alive) {
+            PeerState peer = null;
+            long due = 0;
+            synchronized (_activePeers) {
+                while (_alive) {
+                    Scheduled next = _activePeers.peek();
+                    if (next != null && _scheduled.get(next.peer) != next) {
+                        // stale, rescheduled or dropped
+                        _activePeers.poll();
+                        continue;
                     }
-
-                    // Go through all the peers that we are actively sending messages to.
-                    // Call finishMessages() for each one, and remove them from the iterator
-                    // if there is nothing left to send.
-                    // Otherwise, return the volley to be sent.
-                    // Otherwise, wait()
-                    while (_iterator.hasNext()) {
-                        peer = _iterator.next();
-                        int remaining = peer.finishMessages();
-                        if (remaining <= 0) {
-                            // race with add()
-                            _iterator.remove();
-                            if (_log.shouldLog(Log.DEBUG))
-                                _log.debug("No more pending messages for " + peer.getRemotePeer());
-                            continue;
-                        }
-                        peersProcessed++;
-                        states = peer.allocateSend();
-                        if (states != null) {
-                            // we have something to send and we will be returning it
-                            break;
-                        } else if (peersProcessed >= _activePeers.size()) {
-                            // we've gone all the way around, time to sleep
-                            break;
-                        } else {
-                            // Update the minimum delay for all peers
-                            // which will be used if we found nothing to send across all peers
-                            int delay = peer.getNextDelay();
-                            if (delay < nextSendDelay)
-                                nextSendDelay = delay;
-                            peer = null;
-                        }
+                    long now = _context.clock().now();
+                    int toWait;
+                    if (next == null) {
+                        toWait = MAX_WAIT;
+                    } else if (next.time <= now) {
+                        _activePeers.poll();
+                        _scheduled.remove(next.peer);
+                        peer = next.peer;
+                        due = next.time;
+                        _current = peer;
+                        _currentWoken = false;
+                        break;
+                    } else {
+                        toWait = (int) Math.min(next.time - now, MAX_WAIT);
                     }
-
-                    //if (peer != null && _log.shouldLog(Log.DEBUG))
-                    //    _log.debug("Done looping, next peer we are sending for: " +
-                    //               peer.getRemotePeer());
-
-                    // if we've gone all the way through the loop, wait
-                    // ... unless nextSendDelay says we have more ready now
-                    if (states == null && peersProcessed >= _activePeers.size() && nextSendDelay > 0) {
-                        _isWaiting = true;
-                        peersProcessed = 0;
-                        // why? we do this in the loop one at a time
-                        //finishMessages();
-                        // wait a min of 10 and a max of MAX_WAIT ms no matter what peer.getNextDelay() says
-                        // use max of 1 second so finishMessages() and/or PeerState.finishMessages()
-                        // gets called regularly
-                        int toWait = Math.min(Math.max(nextSendDelay, 10), MAX_WAIT);
-                        //if (_log.shouldLog(Log.DEBUG))
-                        //    _log.debug("wait for " + toWait);
-                        // wait.. or somethin'
-                        synchronized (_activePeers) {
-                            try {
-                                _activePeers.wait(toWait);
-                            } catch (InterruptedException ie) {
-                                // noop
-                                if (_log.shouldLog(Log.DEBUG))
-                                     _log.debug("Woken up while waiting");
-                            }
-                        }
-                        _isWaiting = false;
-                    //} else {
-                    //    if (_log.shouldLog(Log.DEBUG))
-                    //        _log.debug("dont wait: alive=" + _alive + " state = " + state);
+                    _isWaiting = true;
+                    try {
+                        _activePeers.wait(toWait);
+                    } catch (InterruptedException ie) {}
+                    _isWaiting = false;
+                }
+            }
+            if (peer == null)
+                break;
+
+            long now = _context.clock().now();
+            _context.statManager().addRateData("udp.sendScheduleLag", now - due);
+            List<OutboundMessageState> states = null;
+            // -1 means nothing left, remove the peer
+            long nextTime = -1;
+            try {
+                int remaining = peer.finishMessages();
+                if (remaining > 0) {
+                    states = peer.allocateSend();
+                    if (states != null) {
+                        // back of the line for anybody else due now
+                        nextTime = now;
+                    } else {
+                        // finishMessages() must get called regularly even if nothing is ready
+                        int delay = peer.getNextDelay();
+                        nextTime = now + Math.min(Math.max(delay, MIN_WAIT), MAX_WAIT);
                     }
+                } else if (_log.shouldLog(Log.DEBUG)) {
+                    _log.debug("No more pending messages for " + peer.getRemotePeer());
+                }
+            } finally {
+                synchronized (_activePeers) {
+                    if (_currentWoken)
+                        nextTime = now;
+                    _current = null;
+                    if (nextTime >= 0 && _alive)
+                        schedule(peer, nextTime);
+                }
+            }
 
-        } // while alive && state == null
-
-        if (_log.shouldLog(Log.DEBUG))
-            _log.debug("Sending " + DataHelper.toString(states));
-
-        List<UDPPacket> packets = preparePackets(states, peer);
-
-      /****
-        if ( (state != null) && (state.getMessage() != null) ) {
-            int valid = 0;
-            for (int i = 0; packets != null && i < packets.length ; i++)
-                if (packets[i] != null)
-                    valid++;
-            state.getMessage().timestamp("sending a volley of " + valid
-                                         + " lastReceived: "
-                                         + (_context.clock().now() - peer.getLastReceiveTime())
-                                         + " lastSentFully: "
-                                         + (_context.clock().now() - peer.getLastSendFullyTime()));
+            if (states != null) {
+                if (_log.shouldLog(Log.DEBUG))
+                    _log.debug("Sending " + DataHelper.toString(states));
+                List<UDPPacket> packets = preparePackets(states, peer);
+                if (packets != null)
+                    return packets;
+            }
         }
-       ****/
-
-        return packets;
+        return null;
     }
 
     /**
-     *  @return null if state or peer is null
+     *  @return null if nothing was built, else _volley
      */
     private List<UDPPacket> preparePackets(List<OutboundMessageState> states, PeerState peer) {
-        if (states == null || peer == null)
-            return null;
-
         // ok, simplest possible thing is to always tack on the bitfields if
         List<Long> msgIds = peer.getCurrentFullACKs();
         int newFullAckCount = msgIds.size();
         msgIds.addAll(peer.getCurrentResendACKs());
-        List<ACKBitfield> partialACKBitfields = new ArrayList<ACKBitfield>();
+        List<ACKBitfield> partialACKBitfields = _partialACKBitfields;
+        partialACKBitfields.clear();
         peer.fetchPartialACKs(partialACKBitfields);
         int piggybackedPartialACK = partialACKBitfields.size();
         // getCurrentFullACKs() already makes a copy, do we need to copy again?
         // YES because buildPacket() now removes them (maybe)
-        List<Long> remaining = new ArrayList<Long>(msgIds);
+        List<Long> remaining = _remaining;
+        remaining.clear();
+        remaining.addAll(msgIds);
 
         // build the list of fragments to send
-        List<Fragment> toSend = new ArrayList<Fragment>(8);
+        List<Fragment> toSend = _toSend;
+        toSend.clear();
         for (OutboundMessageState state : states) {
             int fragments = state.getFragmentCount();
             int queued = 0;
@@ -400,7 +452,9 @@ class OutboundMessageFragments {
                 }
             }
             // per-state stats
-            if (queued > 0 && state.getPushCount() > 1) {
+            if (queued > 0 && state.getPushCount() == 1) {
+                _context.statManager().addRateData("udp.sendLatency", state.getLifetime());
+            } else if (queued > 0 && state.getPushCount() > 1) {
                 peer.messageRetransmitted(queued);
                 // _packetsRetransmitted += toSend; // lifetime for the transport
                 _context.statManager().addRateData("udp.peerPacketsRetransmitted", peer.getPacketsRetransmitted(), peer.getPacketsTransmitted());
@@ -422,8 +476,10 @@ class OutboundMessageFragments {
         //if (fragmentsToSend > 1 && states.size() > 1)
         //    Collections.sort(toSend, new FragmentComparator());
 
-        List<Fragment> sendNext = new ArrayList<Fragment>(Math.min(toSend.size(), 4));
-        List<UDPPacket> rv = new ArrayList<UDPPacket>(toSend.size());
+        List<Fragment> sendNext = _sendNext;
+        sendNext.clear();
+        List<UDPPacket> rv = _volley;
+        rv.clear();
         for (int i = 0; i < toSend.size(); i++) {
             Fragment next = toSend.get(i);
             sendNext.add(next);
@@ -492,17 +548,28 @@ class OutboundMessageFragments {
             // following for debugging and stats
             pkt.setFragmentCount(sendNext.size());
             pkt.setMessageType(msgType);  //type of first fragment
+            // for the bandwidth limiter
+            if (msg != null)
+                pkt.setPriority(msg.getPriority());
         }
 
 
 
         int sent = rv.size();
         peer.packetsTransmitted(sent);
+        // If all the new acks made it into data packets, don't wait for the ACKSender
+        // to find that out, so it won't send an ack-only packet
+        if (sent > 0 && newFullAckCount <= 0 && partialACKBitfields.isEmpty() &&
+            peer.getWantedACKSendSince() > 0 && peer.acksPiggybacked())
+            _context.statManager().addRateData("udp.ackPiggybacked", 1);
         if (_log.shouldLog(Log.INFO))
             _log.info("Sent " + fragmentsToSend + " fragments of " + states.size() +
                       " messages in " + sent + " packets to " + peer);
+        toSend.clear();
+        partialACKBitfields.clear();
+        remaining.clear();
 
-        return rv;
+        return sent > 0 ? rv : null;
     }
 
     /**
@@ -6,7 +6,8 @@ import net.i2p.I2PAppContext;
 import net.i2p.data.Base64;
 import net.i2p.data.i2np.I2NPMessage;
 import net.i2p.router.OutNetMessage;
-import net.i2p.router.util.CDPQEntry;
+import net.i2p.router.util.DRRQEntry;
+import net.i2p.router.util.DRRQueue;
 import net.i2p.util.Log;
 
 /**
@@ -15,7 +16,7 @@ import net.i2p.util.Log;
  * All methods are thread-safe.
  *
  */
-class OutboundMessageState implements CDPQEntry {
+class OutboundMessageState implements DRRQEntry {
     private final I2PAppContext _context;
     private final Log _log;
     /** may be null if we are part of the establishment */
@@ -289,6 +290,23 @@ class OutboundMessageState implements CDPQEntry {
         return _message != null ? _message.getPriority() : 1000;
     }
 
+    /**
+     *  For DRRQ
+     *  @since 0.9.27
+     */
+    public int getQueueCost() {
+        return _messageBuf.length;
+    }
+
+    /**
+     *  For DRRQ
+     *  @return the tunnel ID, or 0 if not a tunnel message
+     *  @since 0.9.27
+     */
+    public long getFlowId() {
+        return DRRQueue.getFlowId(_i2npMessage);
+    }
+
     @Override
     public String toString() {
         StringBuilder buf = new StringBuilder(256);
@@ -22,8 +22,13 @@ import net.i2p.util.SystemVersion;
  * Data and ACK packets go to the InboundMessageFragments, the various 
  * establishment packets go to the EstablishmentManager, and, once implemented,
  * relay packets will go to the relay manager.  At the moment, this is 
- * an actual pool of packet handler threads, each pulling off the inbound
- * receiver's queue and pushing them as necessary.
+ * an actual pool of packet handler threads, each pulling off its own
+ * queue and pushing them as necessary.
+ *
+ * As of 0.9.27, packets are sharded across the handlers by remote host,
+ * so all packets from a given peer are handled in order by the same thread,
+ * and handlers never contend with each other for the same PeerState
+ * or establishment state.
  *
  */
 class PacketHandler {
@@ -37,14 +42,13 @@ class PacketHandler {
     private volatile boolean _keepReading;
     private final Handler[] _handlers;
     private final Map<RemoteHostId, Object> _failCache;
-    private final BlockingQueue<UDPPacket> _inboundQueue;
     private static final Object DUMMY = new Object();
     
     private static final int TYPE_POISON = -99999;
     private static final int MIN_QUEUE_SIZE = 16;
     private static final int MAX_QUEUE_SIZE = 192;
     private static final int MIN_NUM_HANDLERS = 1;  // unless < 32MB
-    private static final int MAX_NUM_HANDLERS = 1;
+    private static final int MAX_NUM_HANDLERS = 4;
     /** let packets be up to 30s slow */
     private static final long GRACE_PERIOD = Router.CLOCK_FUDGE_FACTOR + 30*1000;
     private static final long MAX_SKEW = 90*24*60*60*1000L;
@@ -64,7 +68,6 @@ class PacketHandler {
 
         long maxMemory = SystemVersion.getMaxMemory();
         int qsize = (int) Math.max(MIN_QUEUE_SIZE, Math.min(MAX_QUEUE_SIZE, maxMemory / (2*1024*1024)));
-        _inboundQueue = new CoDelBlockingQueue<UDPPacket>(ctx, "UDP-Receiver", qsize);
         int num_handlers;
         if (maxMemory < 32*1024*1024)
             num_handlers = 1;
@@ -72,9 +75,13 @@ class PacketHandler {
             num_handlers = 2;
         else
             num_handlers = Math.max(MIN_NUM_HANDLERS, Math.min(MAX_NUM_HANDLERS, ctx.bandwidthLimiter().getInboundKBytesPerSecond() / 20));
+        // more threads than cores just adds context switches
+        num_handlers = Math.max(1, Math.min(num_handlers, SystemVersion.getCores()));
+        // each handler gets its own queue, split the total between them
+        qsize = Math.max(MIN_QUEUE_SIZE, qsize / num_handlers);
         _handlers = new Handler[num_handlers];
         for (int i = 0; i < num_handlers; i++) {
-            _handlers[i] = new Handler();
+            _handlers[i] = new Handler(new CoDelBlockingQueue<UDPPacket>(ctx, "UDP-Receiver", qsize));
         }
 
         _context.statManager().createRateStat("udp.handleTime", "How long it takes to handle a received packet after its been pulled off the queue", "udp", UDPTransport.RATES);
@@ -125,19 +132,31 @@ class PacketHandler {
         rv.append("Handlers: ").append(_handlers.length);
         for (int i = 0; i < _handlers.length; i++) {
             Handler handler = _handlers[i];
-            rv.append(" handler ").append(i).append(" state: ").append(handler._state);
+            rv.append(" handler ").append(i).append(" state: ").append(handler._state)
+              .append(" queued: ").append(handler._inboundQueue.size());
         }
         return rv.toString();
     }
 
     /**
-     * Blocking call to retrieve the next inbound packet, or null if we have
-     * shut down.
+     * Queue the packet for the handler that owns its remote host.
+     * BLOCKING if that handler's queue is full.
      *
      * @since IPv6 moved from UDPReceiver
      */
     public void queueReceived(UDPPacket packet) throws InterruptedException {
-        _inboundQueue.put(packet);
+        getHandler(packet.getRemoteHost())._inboundQueue.put(packet);
+    }
+
+    /**
+     * The handler for all packets from this remote host.
+     *
+     * @since 0.9.27
+     */
+    private Handler getHandler(RemoteHostId from) {
+        if (_handlers.length == 1)
+            return _handlers[0];
+        return _handlers[(from.hashCode() & 0x7fffffff) % _handlers.length];
     }
 
 
@@ -147,38 +166,22 @@ class PacketHandler {
      * @since IPv6 moved from UDPReceiver
      */
     private void stopQueue() {
-        _inboundQueue.clear();
         for (int i = 0; i < _handlers.length; i++) {
+            BlockingQueue<UDPPacket> queue = _handlers[i]._inboundQueue;
+            queue.clear();
             UDPPacket poison = UDPPacket.acquire(_context, false);
             poison.setMessageType(TYPE_POISON);
-            _inboundQueue.offer(poison);
+            queue.offer(poison);
         }
-        for (int i = 1; i <= 5 && !_inboundQueue.isEmpty(); i++) {
-            try {
-                Thread.sleep(i * 50);
-            } catch (InterruptedException ie) {}
-        }
-        _inboundQueue.clear();
-    }
-
-    /**
-     * Blocking call to retrieve the next inbound packet, or null if we have
-     * shut down.
-     *
-     * @since IPv6 moved from UDPReceiver
-     */
-    public UDPPacket receiveNext() {
-        UDPPacket rv = null;
-        //int remaining = 0;
-        while (_keepReading && rv == null) {
-            try {
-                rv = _inboundQueue.take();
-            } catch (InterruptedException ie) {}
-            if (rv != null && rv.getMessageType() == TYPE_POISON)
-                return null;
+        for (int i = 0; i < _handlers.length; i++) {
+            BlockingQueue<UDPPacket> queue = _handlers[i]._inboundQueue;
+            for (int j = 1; j <= 5 && !queue.isEmpty(); j++) {
+                try {
+                    Thread.sleep(j * 50);
+                } catch (InterruptedException ie) {}
+            }
+            queue.clear();
         }
-        //_context.statManager().addRateData("udp.receiveRemaining", remaining, 0);
-        return rv;
     }
 
     /** the packet is from a peer we are establishing an outbound con to, but failed validation, so fallback */
@@ -190,11 +193,32 @@ class PacketHandler {
     
     private class Handler implements Runnable { 
         private final UDPPacketReader _reader;
+        /** packets from the remote hosts this handler owns */
+        private final BlockingQueue<UDPPacket> _inboundQueue;
         // TODO comment out all uses of _state
         public /* volatile */ int _state;
 
-        public Handler() {
+        public Handler(BlockingQueue<UDPPacket> queue) {
             _reader = new UDPPacketReader(_context);
+            _inboundQueue = queue;
+        }
+
+        /**
+         * Blocking call to retrieve the next inbound packet, or null if we have
+         * shut down.
+         *
+         * @since IPv6 moved from UDPReceiver, moved to Handler in 0.9.27
+         */
+        private UDPPacket receiveNext() {
+            UDPPacket rv = null;
+            while (_keepReading && rv == null) {
+                try {
+                    rv = _inboundQueue.take();
+                } catch (InterruptedException ie) {}
+                if (rv != null && rv.getMessageType() == TYPE_POISON)
+                    return null;
+            }
+            return rv;
         }
         
         public void run() {
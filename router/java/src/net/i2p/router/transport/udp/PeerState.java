@@ -19,7 +19,7 @@ import net.i2p.router.OutNetMessage;
 import net.i2p.router.RouterContext;
 import net.i2p.router.util.CachedIteratorArrayList;
 import net.i2p.router.util.CoDelPriorityBlockingQueue;
-import net.i2p.router.util.PriBlockingQueue;
+import net.i2p.router.util.DRRQueue;
 import net.i2p.util.Log;
 import net.i2p.util.ConcurrentHashSet;
 
@@ -214,7 +214,7 @@ class PeerState {
      *  They are taken from here and put in _outboundMessages.
      */
     //private final CoDelPriorityBlockingQueue<OutboundMessageState> _outboundQueue;
-    private final PriBlockingQueue<OutboundMessageState> _outboundQueue;
+    private final DRRQueue<OutboundMessageState> _outboundQueue;
 
     /** which outbound message is currently being retransmitted */
     private OutboundMessageState _retransmitter;
@@ -359,7 +359,7 @@ class PeerState {
         _inboundMessages = new HashMap<Long, InboundMessageState>(8);
         _outboundMessages = new CachedIteratorArrayList<OutboundMessageState>(32);
         //_outboundQueue = new CoDelPriorityBlockingQueue(ctx, "UDP-PeerState", 32);
-        _outboundQueue = new PriBlockingQueue<OutboundMessageState>(ctx, "UDP-PeerState", 32);
+        _outboundQueue = new DRRQueue<OutboundMessageState>(ctx, "UDP-PeerState");
         // all createRateStat() moved to EstablishmentManager
         _remoteIP = remoteIP;
         _remotePeer = remotePeer;
@@ -817,9 +817,10 @@ class PeerState {
            _context.statManager().addRateData("udp.receiveBps", _receiveBps);
         }
         
+        // add before setting, see acksPiggybacked()
+        _currentACKs.add(messageId);
         if (_wantACKSendSince <= 0)
             _wantACKSendSince = now;
-        _currentACKs.add(messageId);
     }
     
     public void messagePartiallyReceived() {
@@ -963,6 +964,27 @@ class PeerState {
             _lastACKSend = _context.clock().now();
     }
     
+    /**
+     * All the new full and partial acks we had were included in data packets,
+     * so the ACKSender need not send an ack-only packet.
+     * Only called by OutboundMessageFragments.
+     *
+     * @return true if nothing is left to ack
+     * @since 0.9.27
+     */
+    boolean acksPiggybacked() {
+        if (!_currentACKs.isEmpty())
+            return false;
+        _wantACKSendSince = -1;
+        // messageFullyReceived() adds the ack before it checks _wantACKSendSince,
+        // so if we raced with it, one of us will set it again
+        if (!_currentACKs.isEmpty()) {
+            _wantACKSendSince = _context.clock().now();
+            return false;
+        }
+        return true;
+    }
+
     /** 
      * grab a list of ACKBitfield instances, some of which may fully 
      * ACK a message while others may only partially ACK a message.  
@@ -1436,7 +1458,9 @@ class PeerState {
         if (_log.shouldLog(Log.DEBUG))
             _log.debug("Adding to " + _remotePeer + ": " + state.getMessageId());
         int rv = 0;
-        // will never fail for CDPQ
+        // The DRRQueue is bounded. When full, it drops the oldest message of the
+        // class most over its share, and drop() fails that one via the transport.
+        // If that class is this message's own, this message is refused instead.
         boolean fail = !_outboundQueue.offer(state);
 /****
         synchronized (_outboundMessages) {
@@ -1668,16 +1692,16 @@ class PeerState {
             while ((state = _outboundQueue.peek()) != null &&
                    ShouldSend.YES == locked_shouldSend(state)) {
                 // we could get a different state, or null, when we poll,
-                // due to AQM drops, so we test again if necessary
+                // due to stale drops, so we test the one we got if necessary
                 OutboundMessageState dequeuedState = _outboundQueue.poll();
                 if (dequeuedState != null) {
                     _outboundMessages.add(dequeuedState);
-                    if (dequeuedState == state || ShouldSend.YES == locked_shouldSend(state)) {
+                    if (dequeuedState == state || ShouldSend.YES == locked_shouldSend(dequeuedState)) {
                         if (_log.shouldLog(Log.DEBUG))
                             _log.debug("Allocate sending (NEW) to " + _remotePeer + ": " + dequeuedState.getMessageId());
                         if (rv == null)
                             rv = new ArrayList<OutboundMessageState>(MAX_ALLOCATE_SEND);
-                        rv.add(state);
+                        rv.add(dequeuedState);
                         if (rv.size() >= MAX_ALLOCATE_SEND)
                             return rv;
                     }
@@ -9,6 +9,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 import net.i2p.data.Base64;
 import net.i2p.data.DataHelper;
 import net.i2p.data.SessionKey;
+import net.i2p.router.OutNetMessage;
 import net.i2p.router.RouterContext;
 import net.i2p.router.transport.FIFOBandwidthLimiter;
 import net.i2p.router.util.CDQEntry;
@@ -73,6 +74,8 @@ class UDPPacket implements CDQEntry {
      *  so make this 4 + a multiple of 16.
      */
     static final int MAX_PACKET_SIZE = 1572;
+    /** acks, establishment, and other packets not carrying an OutNetMessage */
+    private static final short DEFAULT_PRIORITY = OutNetMessage.PRIORITY_HIGHEST;
     public static final int IV_SIZE = 16;
     public static final int MAC_SIZE = 16;
     
@@ -155,6 +158,7 @@ class UDPPacket implements CDQEntry {
         _enqueueTime = 0;
         _receivedTime = 0;
         _fragmentCount = 0;
+        _priority = DEFAULT_PRIORITY;
     }
     
   /****
@@ -169,6 +173,15 @@ class UDPPacket implements CDQEntry {
     /** */
     public synchronized DatagramPacket getPacket() { verifyNotReleased(); return _packet; }
     public synchronized short getPriority() { verifyNotReleased(); return _priority; }
+
+    /**
+     *  For the bandwidth limiter only, the sender queue is FIFO.
+     *  Defaults to DEFAULT_PRIORITY for acks and other control packets.
+     *
+     *  @param priority the OutNetMessage priority
+     *  @since 0.9.27
+     */
+    public synchronized void setPriority(int priority) { verifyNotReleased(); _priority = (short) priority; }
     //public long getExpiration() { verifyNotReleased(); return _expiration; }
     public synchronized long getBegin() { verifyNotReleased(); return _initializeTime; }
     public long getLifetime() { /** verifyNotReleased(); */ return _context.clock().now() - _initializeTime; }
@@ -342,7 +355,7 @@ class UDPPacket implements CDQEntry {
      */
     public synchronized void requestOutboundBandwidth() {
         verifyNotReleased();
-        _bandwidthRequest = _context.bandwidthLimiter().requestOutbound(_packet.getLength(), 0, "UDP sender");
+        _bandwidthRequest = _context.bandwidthLimiter().requestOutbound(_packet.getLength(), _priority, "UDP sender");
     }
     
     /**
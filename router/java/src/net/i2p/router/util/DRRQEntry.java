@@ -0,0 +1,20 @@
+package net.i2p.router.util;
+
+/**
+ *  For DRRQueue
+ *  @since 0.9.27
+ */
+public interface DRRQEntry extends CDPQEntry {
+
+    /**
+     *  Size in bytes, charged against the class deficit when dequeued
+     */
+    public int getQueueCost();
+
+    /**
+     *  Messages with the same flow ID within a class are kept in order
+     *  and flows are served round-robin.
+     *  Generally the tunnel ID, or 0 if not a tunnel message.
+     */
+    public long getFlowId();
+}
@@ -0,0 +1,500 @@
+package net.i2p.router.util;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import net.i2p.data.i2np.I2NPMessage;
+import net.i2p.data.i2np.TunnelDataMessage;
+import net.i2p.data.i2np.TunnelGatewayMessage;
+import net.i2p.router.OutNetMessage;
+import net.i2p.router.RouterContext;
+import net.i2p.util.Log;
+
+/**
+ *  Deficit round robin queue over traffic classes, for a single connection.
+ *  Drop-in replacement for PriBlockingQueue in NTCP and SSU.
+ *
+ *  Entries are assigned to one of four classes by priority:
+ *  control (our builds and lookups, and transport-internal messages),
+ *  local (our client data and netdb stores), transit (participating traffic,
+ *  replies), and bulk (everything else). Each class gets a quantum of
+ *  bytes per round proportional to its weight, so no class can monopolize
+ *  the connection, but an idle class gives up its share.
+ *
+ *  Within a class, entries are grouped into flows by getFlowId() (the tunnel ID),
+ *  and flows are served round-robin, so one busy tunnel cannot starve others.
+ *  Within a flow, entries are in priority order, then FIFO.
+ *
+ *  Stale entries are dropped on dequeue, with a per-class maximum delay.
+ *  When full, the class using the most of its share is dropped from first,
+ *  rather than rejecting the new entry.
+ *
+ *  Input: add() and offer() stamp the sequence number and enqueue time.
+ *  Output: poll() and peek() select by DRR; poll() updates stats and may drop.
+ *  drainTo() and clear() do not drop or update stats.
+ *
+ *  Not a BlockingQueue. All methods are synchronized.
+ *
+ *  @since 0.9.27
+ */
+public class DRRQueue<E extends DRRQEntry> extends AbstractQueue<E> {
+
+    private final RouterContext _context;
+    private final Log _log;
+    private final String _name;
+    private final ClassQueue[] _classes;
+    /** classes with entries, front one is being served */
+    private final ArrayDeque<ClassQueue> _active;
+    private int _size;
+    private long _seqNum;
+
+    public static final String PROP_WEIGHTS = "i2np.queueWeights";
+    /** control, local, transit, bulk */
+    private static final String DEFAULT_WEIGHTS = "8,4,2,1";
+    private static final String[] CLASS_NAMES = { "control", "local", "transit", "bulk" };
+    /** lowest priority in each class */
+    private static final int[] CLASS_MIN_PRIORITY = { OutNetMessage.PRIORITY_MY_BUILD_REQUEST,
+                                                      OutNetMessage.PRIORITY_MY_DATA_MIN,
+                                                      OutNetMessage.PRIORITY_PARTICIPATING,
+                                                      Integer.MIN_VALUE };
+    /** max queue delay (ms) before dropping on dequeue, 0 for never */
+    private static final int[] CLASS_MAX_DELAY = { 0, 3000, 1500, 1000 };
+    /** bytes per round per unit of weight */
+    private static final int QUANTUM = 1024;
+    private static final long[] RATES = {5*60*1000, 60*60*1000};
+    private static final int BACKLOG_SIZE = 256;
+    private static final int MAX_SIZE = 512;
+
+    /**
+     *  Bounded queue with a hardcoded max size.
+     *  Weights are read from the router property i2np.queueWeights.
+     *
+     *  @param name for stats
+     */
+    @SuppressWarnings("unchecked")
+    public DRRQueue(RouterContext ctx, String name) {
+        _context = ctx;
+        _log = ctx.logManager().getLog(DRRQueue.class);
+        _name = name;
+        int[] weights = parseWeights(ctx.getProperty(PROP_WEIGHTS, DEFAULT_WEIGHTS));
+        _classes = (ClassQueue[]) new DRRQueue.ClassQueue[CLASS_NAMES.length];
+        for (int i = 0; i < _classes.length; i++) {
+            _classes[i] = new ClassQueue(i, weights[i]);
+        }
+        _active = new ArrayDeque<ClassQueue>(_classes.length);
+    }
+
+    /**
+     *  @return non-null, length 4, each at least 1
+     */
+    private static int[] parseWeights(String s) {
+        int[] rv = parseWeights2(s);
+        if (rv == null)
+            rv = parseWeights2(DEFAULT_WEIGHTS);
+        return rv;
+    }
+
+    /**
+     *  @return null on error
+     */
+    private static int[] parseWeights2(String s) {
+        String[] w = s.split(",");
+        if (w.length != CLASS_NAMES.length)
+            return null;
+        int[] rv = new int[w.length];
+        try {
+            for (int i = 0; i < w.length; i++) {
+                rv[i] = Math.max(1, Integer.parseInt(w[i].trim()));
+            }
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+        return rv;
+    }
+
+    /**
+     *  The flow ID for an I2NP message, for use by DRRQEntry implementations.
+     *
+     *  @param msg may be null
+     *  @return the tunnel ID, or 0 if not a tunnel message
+     */
+    public static long getFlowId(I2NPMessage msg) {
+        if (msg instanceof TunnelDataMessage)
+            return ((TunnelDataMessage) msg).getTunnelId();
+        if (msg instanceof TunnelGatewayMessage)
+            return ((TunnelGatewayMessage) msg).getTunnelId().getTunnelId();
+        return 0;
+    }
+
+    /**
+     *  @return 0-3
+     */
+    private static int getClass(int priority) {
+        for (int i = 0; i < CLASS_MIN_PRIORITY.length - 1; i++) {
+            if (priority >= CLASS_MIN_PRIORITY[i])
+                return i;
+        }
+        return CLASS_MIN_PRIORITY.length - 1;
+    }
+
+    /**
+     *  Returns false if full and the new entry's class
+     *  is the one using the most of its share.
+     *  Otherwise, may drop an entry from another class to make room.
+     */
+    @Override
+    public boolean offer(E o) {
+        ClassQueue cq = _classes[getClass(o.getPriority())];
+        E dropped = null;
+        long now = _context.clock().now();
+        synchronized(this) {
+            o.setSeqNum(++_seqNum);
+            o.setEnqueueTime(now);
+            if (_size >= MAX_SIZE) {
+                ClassQueue victim = locked_getVictim();
+                if (victim == null || victim == cq) {
+                    dropped = o;
+                } else {
+                    dropped = victim.poll();
+                    locked_removed(victim);
+                }
+            }
+            if (dropped != o) {
+                boolean wasEmpty = cq.isEmpty();
+                cq.offer(o);
+                _size++;
+                if (wasEmpty) {
+                    cq.deficit = 0;
+                    cq.inTurn = false;
+                    _active.addLast(cq);
+                }
+            }
+        }
+        if (dropped != null) {
+            _context.statManager().addRateData(_classes[getClass(dropped.getPriority())].statDrop,
+                                               now - dropped.getEnqueueTime());
+            if (_log.shouldLog(Log.INFO))
+                _log.info(_name + " full, dropping " + dropped);
+            if (dropped == o)
+                return false;
+            dropped.drop();
+        }
+        return true;
+    }
+
+    /**
+     *  The nonempty class with the most bytes queued relative to its weight.
+     *  Control is never a victim unless it is the only class.
+     */
+    private ClassQueue locked_getVictim() {
+        ClassQueue rv = null;
+        long max = -1;
+        for (int i = 1; i < _classes.length; i++) {
+            ClassQueue cq = _classes[i];
+            if (cq.isEmpty())
+                continue;
+            long norm = cq.bytes / cq.weight;
+            if (norm > max) {
+                max = norm;
+                rv = cq;
+            }
+        }
+        if (rv == null && !_classes[0].isEmpty())
+            rv = _classes[0];
+        return rv;
+    }
+
+    /**
+     *  Select the class to serve next.
+     *  Idempotent, so peek() and poll() agree.
+     *
+     *  @return null if empty
+     */
+    private ClassQueue locked_select() {
+        while (true) {
+            ClassQueue cq = _active.peekFirst();
+            if (cq == null)
+                return null;
+            if (!cq.inTurn) {
+                cq.deficit += cq.quantum;
+                cq.inTurn = true;
+            }
+            if (cq.deficit >= cq.peek().getQueueCost())
+                return cq;
+            // turn over, keep the remaining deficit
+            cq.inTurn = false;
+            _active.pollFirst();
+            _active.addLast(cq);
+        }
+    }
+
+    /**
+     *  Bookkeeping after an entry was removed from cq
+     */
+    private void locked_removed(ClassQueue cq) {
+        _size--;
+        if (cq.isEmpty()) {
+            cq.deficit = 0;
+            cq.inTurn = false;
+            _active.remove(cq);
+        }
+    }
+
+    /**
+     *  Drops entries over their class maximum delay.
+     */
+    @Override
+    public E poll() {
+        List<E> dropped = null;
+        E rv;
+        long now = _context.clock().now();
+        synchronized(this) {
+            while (true) {
+                ClassQueue cq = locked_select();
+                if (cq == null) {
+                    rv = null;
+                    break;
+                }
+                rv = cq.poll();
+                cq.deficit -= rv.getQueueCost();
+                locked_removed(cq);
+                long delay = now - rv.getEnqueueTime();
+                if (cq.maxDelay > 0 && delay > cq.maxDelay) {
+                    if (dropped == null)
+                        dropped = new ArrayList<E>(4);
+                    dropped.add(rv);
+                    _context.statManager().addRateData(cq.statDrop, delay);
+                    continue;
+                }
+                _context.statManager().addRateData(cq.statDelay, delay);
+                break;
+            }
+        }
+        if (dropped != null) {
+            if (_log.shouldLog(Log.INFO))
+                _log.info(_name + " dropping " + dropped.size() + " stale");
+            for (E e : dropped) {
+                e.drop();
+            }
+        }
+        return rv;
+    }
+
+    /**
+     *  The entry poll() would return, unless it is dropped.
+     */
+    public synchronized E peek() {
+        ClassQueue cq = locked_select();
+        return cq != null ? cq.peek() : null;
+    }
+
+    /**
+     *  Does not drop or update stats.
+     */
+    public synchronized int drainTo(Collection<? super E> c) {
+        int rv = _size;
+        for (int i = 0; i < _classes.length; i++) {
+            _classes[i].drainTo(c);
+        }
+        _active.clear();
+        _size = 0;
+        return rv;
+    }
+
+    /**
+     *  Does not drop or update stats.
+     */
+    @Override
+    public synchronized void clear() {
+        for (int i = 0; i < _classes.length; i++) {
+            _classes[i].drainTo(null);
+        }
+        _active.clear();
+        _size = 0;
+    }
+
+    @Override
+    public synchronized boolean remove(Object o) {
+        if (!(o instanceof DRRQEntry))
+            return false;
+        ClassQueue cq = _classes[getClass(((DRRQEntry) o).getPriority())];
+        if (!cq.remove((DRRQEntry) o))
+            return false;
+        locked_removed(cq);
+        return true;
+    }
+
+    @Override
+    public synchronized int size() {
+        return _size;
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return _size <= 0;
+    }
+
+    /**
+     *  Is the queue too big?
+     */
+    public boolean isBacklogged() {
+        return size() >= BACKLOG_SIZE;
+    }
+
+    /**
+     *  A snapshot, not in service order. Iterator.remove() is not supported.
+     */
+    @Override
+    public synchronized Iterator<E> iterator() {
+        List<E> rv = new ArrayList<E>(_size);
+        for (int i = 0; i < _classes.length; i++) {
+            _classes[i].drainTo(rv, false);
+        }
+        return Collections.unmodifiableList(rv).iterator();
+    }
+
+    /////// private below here
+
+    /**
+     *  One traffic class. Locked by the DRRQueue.
+     */
+    private class ClassQueue {
+        public final int weight;
+        public final int quantum;
+        public final int maxDelay;
+        public final String statDelay;
+        public final String statDrop;
+        public int deficit;
+        public boolean inTurn;
+        public long bytes;
+        private final Map<Long, Flow> _flows;
+        /** flows with entries, served round-robin */
+        private final ArrayDeque<Flow> _activeFlows;
+
+        public ClassQueue(int cls, int weight) {
+            this.weight = weight;
+            quantum = weight * QUANTUM;
+            maxDelay = CLASS_MAX_DELAY[cls];
+            String pfx = "drr." + _name + '.' + CLASS_NAMES[cls];
+            statDelay = (pfx + ".delay").intern();
+            statDrop = (pfx + ".drop").intern();
+            _context.statManager().createRateStat(statDelay, "queue delay of sent items", "Router", RATES);
+            _context.statManager().createRateStat(statDrop, "queue delay of dropped items", "Router", RATES);
+            _flows = new HashMap<Long, Flow>(4);
+            _activeFlows = new ArrayDeque<Flow>(4);
+        }
+
+        public boolean isEmpty() {
+            return _activeFlows.isEmpty();
+        }
+
+        public void offer(E o) {
+            Long id = Long.valueOf(o.getFlowId());
+            Flow f = _flows.get(id);
+            if (f == null) {
+                f = new Flow(id);
+                _flows.put(id, f);
+                _activeFlows.addLast(f);
+            }
+            f.queue.offer(o);
+            bytes += o.getQueueCost();
+        }
+
+        /** @return null if empty */
+        public E peek() {
+            Flow f = _activeFlows.peekFirst();
+            return f != null ? f.queue.peek() : null;
+        }
+
+        /**
+         *  Removes the head of the first flow, and moves that flow to the back.
+         *  @return null if empty
+         */
+        public E poll() {
+            Flow f = _activeFlows.pollFirst();
+            if (f == null)
+                return null;
+            E rv = f.queue.poll();
+            if (f.queue.isEmpty())
+                _flows.remove(f.id);
+            else
+                _activeFlows.addLast(f);
+            bytes -= rv.getQueueCost();
+            return rv;
+        }
+
+        public boolean remove(DRRQEntry o) {
+            Long id = Long.valueOf(o.getFlowId());
+            Flow f = _flows.get(id);
+            if (f == null || !f.queue.remove(o))
+                return false;
+            if (f.queue.isEmpty()) {
+                _flows.remove(id);
+                _activeFlows.remove(f);
+            }
+            bytes -= o.getQueueCost();
+            return true;
+        }
+
+        /**
+         *  Removes all
+         *  @param c may be null
+         */
+        public void drainTo(Collection<? super E> c) {
+            drainTo(c, true);
+        }
+
+        /**
+         *  @param c may be null
+         */
+        public void drainTo(Collection<? super E> c, boolean clear) {
+            if (c != null) {
+                for (Flow f : _activeFlows) {
+                    c.addAll(f.queue);
+                }
+            }
+            if (clear) {
+                _flows.clear();
+                _activeFlows.clear();
+                bytes = 0;
+                deficit = 0;
+                inTurn = false;
+            }
+        }
+    }
+
+    /**
+     *  Entries of one flow in a class, in priority order, then FIFO.
+     */
+    private class Flow {
+        public final Long id;
+        public final PriorityQueue<E> queue;
+
+        public Flow(Long id) {
+            this.id = id;
+            queue = new PriorityQueue<E>(8, new PriorityComparator<E>());
+        }
+    }
+
+    /**
+     *  highest priority first, then lowest sequence number first
+     */
+    private static class PriorityComparator<E extends PQEntry> implements Comparator<E> {
+        public int compare(E l, E r) {
+            int d = r.getPriority() - l.getPriority();
+            if (d != 0)
+                return d;
+            long ld = l.getSeqNum() - r.getSeqNum();
+            return ld > 0 ? 1 : -1;
+        }
+    }
+}
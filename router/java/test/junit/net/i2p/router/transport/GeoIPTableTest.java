@@ -0,0 +1,97 @@
+package net.i2p.router.transport;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GeoIPTableTest {
+
+    private File f;
+    private final Map<String, String> codeCache = Collections.emptyMap();
+
+    @Before
+    public void setUp() throws Exception {
+        f = File.createTempFile("geoip-table", ".dat");
+        GeoIPTable.Builder b = new GeoIPTable.Builder();
+        // out of order, to test sorting
+        b.addV4(200, 299, "DE");
+        b.addV4(100, 199, "us");
+        b.addV4(0xff000000L, 0xffffffffL, "jp");
+        b.addV6(0x2001020000000000L, 0x200102ffffffffffL, "JP");
+        b.addV6(-2, -1, "nl");
+        b.write(f);
+    }
+
+    @After
+    public void tearDown() {
+        f.delete();
+    }
+
+    @Test
+    public void testV4() throws Exception {
+        GeoIPTable t = GeoIPTable.open(f, codeCache);
+        assertEquals(5, t.size());
+        assertNull(t.getV4(0));
+        assertNull(t.getV4(99));
+        assertEquals("us", t.getV4(100));
+        assertEquals("us", t.getV4(199));
+        assertEquals("de", t.getV4(200));
+        assertEquals("de", t.getV4(299));
+        assertNull(t.getV4(300));
+        assertEquals("jp", t.getV4(0xffffffffL));
+    }
+
+    @Test
+    public void testV6() throws Exception {
+        GeoIPTable t = GeoIPTable.open(f, codeCache);
+        assertNull(t.getV6(0));
+        assertEquals("jp", t.getV6(0x2001020300000000L));
+        assertNull(t.getV6(0x2001030000000000L));
+        assertEquals("nl", t.getV6(-1));
+        assertNull(t.getV6(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void testCurrent() throws Exception {
+        GeoIPTable t = GeoIPTable.open(f, codeCache);
+        // built without source files
+        assertTrue(t.isCurrent(null, new File("/nonexistent")));
+        assertFalse(t.isCurrent(f, null));
+    }
+
+    @Test
+    public void testCurrentChanged() throws Exception {
+        File src = File.createTempFile("geoip", ".txt");
+        File tbl = File.createTempFile("geoip-table", ".dat");
+        try {
+            Writer w = new OutputStreamWriter(new FileOutputStream(src), "ISO-8859-1");
+            w.write("100,199,US\n");
+            w.close();
+            GeoIPTable.Builder b = new GeoIPTable.Builder();
+            b.readV4File(src);
+            b.write(tbl);
+            GeoIPTable t = GeoIPTable.open(tbl, codeCache);
+            assertTrue(t.isCurrent(src, null));
+            // copied by an installer
+            src.setLastModified(1000000000000L);
+            assertTrue(t.isCurrent(src, null));
+            // same size, new contents
+            w = new OutputStreamWriter(new FileOutputStream(src), "ISO-8859-1");
+            w.write("100,199,DE\n");
+            w.close();
+            assertFalse(t.isCurrent(src, null));
+        } finally {
+            src.delete();
+            tbl.delete();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package net.i2p.router.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.i2p.router.OutNetMessage;
+import net.i2p.router.RouterContext;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class DRRQueueTest {
+
+    private static RouterContext _context;
+
+    @BeforeClass
+    public static void setUp() {
+        _context = new RouterContext(null);
+    }
+
+    private static class Entry implements DRRQEntry {
+        final int pri, size;
+        final long flow;
+        long seq, time;
+        boolean dropped;
+
+        Entry(int pri, int size, long flow) {
+            this.pri = pri;
+            this.size = size;
+            this.flow = flow;
+        }
+
+        public int getPriority() { return pri; }
+        public void setSeqNum(long num) { seq = num; }
+        public long getSeqNum() { return seq; }
+        public void setEnqueueTime(long t) { time = t; }
+        public long getEnqueueTime() { return time; }
+        public void drop() { dropped = true; }
+        public int getQueueCost() { return size; }
+        public long getFlowId() { return flow; }
+    }
+
+    /** a transit flood does not starve local traffic, and vice versa */
+    @Test
+    public void testWeights() {
+        DRRQueue<Entry> q = new DRRQueue<Entry>(_context, "test");
+        for (int i = 0; i < 200; i++) {
+            assertTrue(q.offer(new Entry(OutNetMessage.PRIORITY_PARTICIPATING, 1024, 1)));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertTrue(q.offer(new Entry(OutNetMessage.PRIORITY_MY_DATA, 1024, 2)));
+        }
+        assertEquals(300, q.size());
+        int local = 0;
+        for (int i = 0; i < 60; i++) {
+            Entry e = q.peek();
+            assertSame(e, q.poll());
+            if (e.pri == OutNetMessage.PRIORITY_MY_DATA)
+                local++;
+        }
+        // 4:2 weights
+        assertEquals(40, local);
+        assertEquals(240, q.size());
+    }
+
+    /** flows within a class are served round-robin */
+    @Test
+    public void testFlows() {
+        DRRQueue<Entry> q = new DRRQueue<Entry>(_context, "test");
+        for (int i = 0; i < 10; i++) {
+            q.offer(new Entry(OutNetMessage.PRIORITY_PARTICIPATING, 1024, 1));
+        }
+        q.offer(new Entry(OutNetMessage.PRIORITY_PARTICIPATING, 1024, 2));
+        assertEquals(1, q.poll().flow);
+        assertEquals(2, q.poll().flow);
+        List<Entry> rest = new ArrayList<Entry>();
+        assertEquals(9, q.drainTo(rest));
+        assertEquals(9, rest.size());
+        assertTrue(q.isEmpty());
+        assertNull(q.peek());
+        assertNull(q.poll());
+    }
+
+    /** when full, the class over its share is dropped from */
+    @Test
+    public void testFull() {
+        DRRQueue<Entry> q = new DRRQueue<Entry>(_context, "test");
+        List<Entry> transit = new ArrayList<Entry>();
+        for (int i = 0; i < 512; i++) {
+            Entry e = new Entry(OutNetMessage.PRIORITY_PARTICIPATING, 1024, i);
+            transit.add(e);
+            assertTrue(q.offer(e));
+        }
+        assertTrue(q.isBacklogged());
+        assertFalse(q.offer(new Entry(OutNetMessage.PRIORITY_PARTICIPATING, 1024, 0)));
+        Entry local = new Entry(OutNetMessage.PRIORITY_MY_DATA, 1024, 0);
+        assertTrue(q.offer(local));
+        assertTrue(transit.get(0).dropped);
+        assertEquals(512, q.size());
+        assertTrue(q.remove(local));
+        assertFalse(q.remove(local));
+        assertEquals(511, q.size());
+    }
+}